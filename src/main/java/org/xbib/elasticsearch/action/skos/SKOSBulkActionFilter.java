@@ -0,0 +1,317 @@
+package org.xbib.elasticsearch.action.skos;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.ActionFilter;
+import org.elasticsearch.action.support.ActionFilterChain;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.analysis.CharFilterFactory;
+import org.elasticsearch.index.analysis.CustomAnalyzer;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.analysis.TokenFilterFactory;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTokenFilterFactory;
+import org.xbib.elasticsearch.index.analysis.skos.engine.BulkLabelCache;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+
+/**
+ * Resolves the label candidates of a bulk request before it is executed. The values of the
+ * fields analyzed with a SKOS label filter are run through the tokenizer and the filters in
+ * front of the SKOS filter, the candidates are joined from the tokens like the label filter
+ * does, and the distinct candidates of all documents are resolved in one engine call. The
+ * label filters then find them in the bulk label cache of their engine, until the request
+ * completes.
+ *
+ * Only index and create requests for indices with a shard on this node are scanned, since
+ * the other nodes do not know the mappings; update requests are analyzed as usual. A bulk
+ * request without a field analyzed with a label filter is passed on at once, the others are
+ * analyzed and resolved on the bulk thread pool instead of the thread receiving the request,
+ * and passed on unresolved if the pool rejects them.
+ *
+ * The values are parsed and analyzed twice, here and when the documents are indexed, so the
+ * resolution is off unless {@code skos.bulk_resolve.enabled} is set on the node; it only pays
+ * off when the same labels recur across the documents of a bulk request.
+ */
+public class SKOSBulkActionFilter extends AbstractComponent implements ActionFilter {
+
+    private final IndicesService indicesService;
+
+    private final ThreadPool threadPool;
+
+    private final boolean enabled;
+
+    @Inject
+    public SKOSBulkActionFilter(Settings settings, IndicesService indicesService, ThreadPool threadPool) {
+        super(settings);
+        this.indicesService = indicesService;
+        this.threadPool = threadPool;
+        this.enabled = settings.getAsBoolean("skos.bulk_resolve.enabled", false);
+    }
+
+    @Override
+    public int order() {
+        // after filters that may reject the request
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(final Task task, final String action, final ActionRequest request, final ActionListener listener,
+                      final ActionFilterChain chain) {
+        if (!enabled || !BulkAction.NAME.equals(action)) {
+            chain.proceed(task, action, request, listener);
+            return;
+        }
+        final BulkRequest bulkRequest = (BulkRequest) request;
+        final Map<String, List<LabelField>> fields;
+        try {
+            fields = labelFields(bulkRequest);
+        } catch (Exception e) {
+            // the filters resolve the candidates themselves
+            logger.warn("could not find the label fields of a bulk request", e);
+            chain.proceed(task, action, request, listener);
+            return;
+        }
+        if (fields.isEmpty()) {
+            chain.proceed(task, action, request, listener);
+            return;
+        }
+        // the values are analyzed off the thread receiving the request, which may be a network thread
+        threadPool.executor(ThreadPool.Names.BULK).execute(new AbstractRunnable() {
+            @Override
+            protected void doRun() {
+                final List<BulkLabelCache.Scope> scopes;
+                try {
+                    scopes = resolve(bulkRequest, fields);
+                } catch (Exception e) {
+                    logger.warn("could not resolve the label candidates of a bulk request", e);
+                    chain.proceed(task, action, request, listener);
+                    return;
+                }
+                if (scopes.isEmpty()) {
+                    chain.proceed(task, action, request, listener);
+                    return;
+                }
+                chain.proceed(task, action, request, new ActionListener<ActionResponse>() {
+                    @Override
+                    public void onResponse(ActionResponse response) {
+                        close(scopes);
+                        listener.onResponse(response);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        close(scopes);
+                        listener.onFailure(e);
+                    }
+                });
+            }
+
+            @Override
+            public void onRejection(Throwable t) {
+                chain.proceed(task, action, request, listener);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                listener.onFailure(t);
+            }
+        });
+    }
+
+    @Override
+    public void apply(String action, ActionResponse response, ActionListener listener, ActionFilterChain chain) {
+        chain.proceed(action, response, listener);
+    }
+
+    /**
+     * @return the fields with label filters of the index requests, by index and type, without
+     * the types having none
+     */
+    private Map<String, List<LabelField>> labelFields(BulkRequest request) {
+        Map<String, List<LabelField>> fields = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (ActionRequest<?> item : request.requests()) {
+            if (!(item instanceof IndexRequest)) {
+                continue;
+            }
+            IndexRequest indexRequest = (IndexRequest) item;
+            String key = indexRequest.index() + '/' + indexRequest.type();
+            if (seen.add(key)) {
+                List<LabelField> labelFields = labelFields(indexRequest.index(), indexRequest.type());
+                if (!labelFields.isEmpty()) {
+                    fields.put(key, labelFields);
+                }
+            }
+        }
+        return fields;
+    }
+
+    private List<BulkLabelCache.Scope> resolve(BulkRequest request, Map<String, List<LabelField>> fields) throws IOException {
+        Map<SKOSEngine, Set<String>> candidates = new IdentityHashMap<>();
+        for (ActionRequest<?> item : request.requests()) {
+            if (!(item instanceof IndexRequest)) {
+                continue;
+            }
+            IndexRequest indexRequest = (IndexRequest) item;
+            List<LabelField> labelFields = fields.get(indexRequest.index() + '/' + indexRequest.type());
+            if (labelFields == null) {
+                continue;
+            }
+            Map<String, Object> source = indexRequest.sourceAsMap();
+            for (LabelField field : labelFields) {
+                Object value = XContentMapValues.extractValue(field.path, source);
+                if (value == null) {
+                    continue;
+                }
+                Set<String> engineCandidates = candidates.get(field.engine);
+                if (engineCandidates == null) {
+                    engineCandidates = new LinkedHashSet<>();
+                    candidates.put(field.engine, engineCandidates);
+                }
+                if (value instanceof List) {
+                    for (Object o : (List<?>) value) {
+                        if (o != null && !(o instanceof Map)) {
+                            field.addCandidates(o.toString(), engineCandidates);
+                        }
+                    }
+                } else if (!(value instanceof Map)) {
+                    field.addCandidates(value.toString(), engineCandidates);
+                }
+            }
+        }
+        List<BulkLabelCache.Scope> scopes = new ArrayList<>(candidates.size());
+        try {
+            for (Map.Entry<SKOSEngine, Set<String>> entry : candidates.entrySet()) {
+                scopes.add(entry.getKey().getBulkLabelCache().open(entry.getValue()));
+            }
+        } catch (IOException e) {
+            close(scopes);
+            throw e;
+        }
+        return scopes;
+    }
+
+    private List<LabelField> labelFields(String index, String type) {
+        List<LabelField> labelFields = new ArrayList<>();
+        IndexService indexService = indicesService.indexService(index);
+        DocumentMapper documentMapper = indexService != null ? indexService.mapperService().documentMapper(type) : null;
+        if (documentMapper == null) {
+            return labelFields;
+        }
+        for (FieldMapper fieldMapper : documentMapper.mappers()) {
+            NamedAnalyzer namedAnalyzer = fieldMapper.fieldType().indexAnalyzer();
+            if (namedAnalyzer == null || !(namedAnalyzer.analyzer() instanceof CustomAnalyzer)) {
+                continue;
+            }
+            CustomAnalyzer analyzer = (CustomAnalyzer) namedAnalyzer.analyzer();
+            TokenFilterFactory[] filters = analyzer.tokenFilters();
+            for (int i = 0; i < filters.length; i++) {
+                if (filters[i] instanceof SKOSTokenFilterFactory) {
+                    SKOSTokenFilterFactory factory = (SKOSTokenFilterFactory) filters[i];
+                    if (factory.isExactLabelExpansion()) {
+                        labelFields.add(new LabelField(fieldMapper.fieldType().names().fullName(), analyzer, i,
+                                factory.getBufferSize(), factory.getEngine()));
+                    }
+                    break;
+                }
+            }
+        }
+        return labelFields;
+    }
+
+    private static void close(List<BulkLabelCache.Scope> scopes) {
+        for (BulkLabelCache.Scope scope : scopes) {
+            scope.close();
+        }
+    }
+
+    /**
+     * A field analyzed with a SKOS label filter, with the analysis chain in front of the filter
+     */
+    private static class LabelField {
+
+        private final String path;
+
+        private final CustomAnalyzer analyzer;
+
+        // the number of token filters in front of the SKOS filter
+        private final int filterCount;
+
+        private final int bufferSize;
+
+        private final SKOSEngine engine;
+
+        LabelField(String path, CustomAnalyzer analyzer, int filterCount, int bufferSize, SKOSEngine engine) {
+            this.path = path;
+            this.analyzer = analyzer;
+            this.filterCount = filterCount;
+            this.bufferSize = bufferSize;
+            this.engine = engine;
+        }
+
+        // the candidates of the label filter, each token joined with up to bufferSize - 1 following tokens
+        void addCandidates(String text, Set<String> candidates) throws IOException {
+            Reader reader = new StringReader(text);
+            for (CharFilterFactory charFilter : analyzer.charFilters()) {
+                reader = charFilter.create(reader);
+            }
+            Tokenizer tokenizer = analyzer.tokenizerFactory().create();
+            tokenizer.setReader(reader);
+            TokenStream stream = tokenizer;
+            for (int i = 0; i < filterCount; i++) {
+                stream = analyzer.tokenFilters()[i].create(stream);
+            }
+            List<String> tokens = new ArrayList<>();
+            try {
+                CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+                stream.reset();
+                while (stream.incrementToken()) {
+                    tokens.add(termAtt.toString());
+                }
+                stream.end();
+            } finally {
+                stream.close();
+            }
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < tokens.size(); i++) {
+                builder.setLength(0);
+                for (int j = i; j < tokens.size() && j < i + bufferSize; j++) {
+                    if (j > i) {
+                        builder.append(' ');
+                    }
+                    builder.append(tokens.get(j));
+                    candidates.add(builder.toString());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.xbib.elasticsearch.action.skos;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+/**
+ * The SKOS statistics of a node, rendered as JSON on the node, so nodes can add statistics
+ * without changing the wire format
+ */
+public class SKOSNodeStats extends BaseNodeResponse {
+
+    private BytesReference stats;
+
+    SKOSNodeStats() {
+    }
+
+    public SKOSNodeStats(DiscoveryNode node, BytesReference stats) {
+        super(node);
+        this.stats = stats;
+    }
+
+    /**
+     * @return the statistics of the engines and filters of the node
+     */
+    public Map<String, Object> getStats() {
+        return XContentHelper.convertToMap(stats, true).v2();
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        stats = in.readBytesReference();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeBytesReference(stats);
+    }
+}
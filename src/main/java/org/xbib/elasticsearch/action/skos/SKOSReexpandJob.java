@@ -0,0 +1,315 @@
+package org.xbib.elasticsearch.action.skos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.xbib.elasticsearch.index.mapper.skos.SKOSTextFieldMapper;
+
+/**
+ * Indexes the documents expanded differently by a new version of a vocabulary again, from their
+ * source. The documents are found by a term query on the old terms of the affected concepts, and
+ * by a phrase query on the added labels, which had no concept before. Since a label filter drops
+ * the words without concept, the phrases are looked up in other fields with the text, usually a
+ * multi-field of the expanded field analyzed without vocabulary. Documents already stamped
+ * with the new version in the "skos.version" sub-field of a skos_text field are skipped, so a job
+ * can be run again after a failure, and its work is proportional to the size of the change.
+ *
+ * The documents are indexed with the version they were read with, a document updated meanwhile
+ * is counted as conflict and left alone, since it was expanded by the new vocabulary anyway. The
+ * job sleeps between the batches to stay below the given number of documents per second.
+ *
+ * A query has one phrase clause per added label and label field, so the added labels are split
+ * into batches staying below the clause limit of a boolean query, and each batch is searched by a
+ * scroll of its own. The index is refreshed between the scrolls, so the documents indexed again by
+ * one scroll carry the new version when the next one searches.
+ */
+public class SKOSReexpandJob implements Runnable, ToXContent {
+
+    private static final ESLogger logger = ESLoggerFactory.getLogger(SKOSReexpandJob.class.getName());
+
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(5);
+
+    /**
+     * The maximum number of phrase clauses per query, below the default clause limit of 1024
+     */
+    public static final int MAX_LABEL_CLAUSES = 1000;
+
+    private final Client client;
+
+    private final String index;
+
+    private final List<String> fields;
+
+    private final List<String> labelFields;
+
+    private final Collection<String> terms;
+
+    private final Collection<String> labels;
+
+    private final String version;
+
+    private final String labelAnalyzer;
+
+    private final float requestsPerSecond;
+
+    private final int batchSize;
+
+    private final AtomicLong found = new AtomicLong();
+
+    private final AtomicLong reindexed = new AtomicLong();
+
+    private final AtomicLong conflicts = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    private volatile long startTime;
+
+    private volatile long endTime;
+
+    private volatile String error;
+
+    /**
+     * @param client the client
+     * @param index the index
+     * @param fields the fields expanded with the vocabulary
+     * @param labelFields the fields with the text of the expanded fields, searched for the added labels
+     * @param terms the old terms of the affected concepts, URIs, ids or labels
+     * @param labels the added labels
+     * @param version the version of the new vocabulary, or null to index all documents found
+     * @param labelAnalyzer the analyzer of the phrase queries on the added labels
+     * @param requestsPerSecond the maximum number of documents indexed per second, 0 for no limit
+     * @param batchSize the number of documents per scroll and bulk request
+     */
+    public SKOSReexpandJob(Client client, String index, List<String> fields, List<String> labelFields,
+                           Collection<String> terms,
+                           Collection<String> labels, String version, String labelAnalyzer,
+                           float requestsPerSecond, int batchSize) {
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("re-expansion requires fields");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.client = client;
+        this.index = index;
+        this.fields = fields;
+        this.labelFields = labelFields;
+        this.terms = terms;
+        this.labels = labels;
+        this.version = version;
+        this.labelAnalyzer = labelAnalyzer;
+        this.requestsPerSecond = requestsPerSecond;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the queries for the documents to index again, the first with the old terms, each
+     * with a batch of the added labels
+     */
+    public List<QueryBuilder> queries() {
+        List<QueryBuilder> queries = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        int labelsPerQuery = labelFields.isEmpty() ? 0 : Math.max(1, MAX_LABEL_CLAUSES / labelFields.size());
+        if (labelsPerQuery > 0) {
+            for (String label : labels) {
+                batch.add(label);
+                if (batch.size() == labelsPerQuery) {
+                    queries.add(query(queries.isEmpty(), batch));
+                    batch = new ArrayList<>();
+                }
+            }
+        }
+        if (!batch.isEmpty() || (queries.isEmpty() && !terms.isEmpty())) {
+            queries.add(query(queries.isEmpty(), batch));
+        }
+        return queries;
+    }
+
+    private QueryBuilder query(boolean withTerms, List<String> batch) {
+        BoolQueryBuilder query = QueryBuilders.boolQuery().minimumNumberShouldMatch(1);
+        for (String field : fields) {
+            if (withTerms && !terms.isEmpty()) {
+                query.should(QueryBuilders.termsQuery(field, terms));
+            }
+            if (version != null) {
+                query.mustNot(QueryBuilders.termQuery(field + '.' + SKOSTextFieldMapper.SKOS + '.'
+                        + SKOSTextFieldMapper.VERSION, version));
+            }
+        }
+        for (String field : labelFields) {
+            for (String label : batch) {
+                query.should(QueryBuilders.matchPhraseQuery(field, label).analyzer(labelAnalyzer));
+            }
+        }
+        return QueryBuilders.constantScoreQuery(query);
+    }
+
+    @Override
+    public void run() {
+        startTime = System.currentTimeMillis();
+        try {
+            List<QueryBuilder> queries = queries();
+            for (int i = 0; i < queries.size() && !cancelled.get(); i++) {
+                if (i > 0) {
+                    client.admin().indices().prepareRefresh(index).get();
+                }
+                scroll(queries.get(i));
+            }
+        } catch (Exception e) {
+            logger.error("re-expansion of index [{}] failed", e, index);
+            error = e.getMessage();
+        } finally {
+            endTime = System.currentTimeMillis();
+        }
+    }
+
+    private void scroll(QueryBuilder query) throws InterruptedException {
+        SearchResponse response = client.prepareSearch(index)
+                .setQuery(query)
+                .setScroll(SCROLL_KEEP_ALIVE)
+                .setSize(batchSize)
+                .setVersion(true)
+                .setFetchSource(true)
+                .addFields("_routing", "_parent")
+                .get();
+        String scrollId = response.getScrollId();
+        try {
+            while (response.getHits().getHits().length > 0 && !cancelled.get()) {
+                long batchStart = System.nanoTime();
+                reindex(response.getHits().getHits());
+                throttle(batchStart, response.getHits().getHits().length);
+                response = client.prepareSearchScroll(scrollId).setScroll(SCROLL_KEEP_ALIVE).get();
+                scrollId = response.getScrollId();
+            }
+        } finally {
+            client.prepareClearScroll().addScrollId(scrollId).get();
+        }
+    }
+
+    private void reindex(SearchHit[] hits) {
+        found.addAndGet(hits.length);
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (SearchHit hit : hits) {
+            IndexRequestBuilder request = client.prepareIndex(hit.getIndex(), hit.getType(), hit.getId())
+                    .setSource(hit.getSourceRef())
+                    .setVersion(hit.getVersion());
+            SearchHitField routing = hit.field("_routing");
+            if (routing != null) {
+                request.setRouting(routing.<String>getValue());
+            }
+            SearchHitField parent = hit.field("_parent");
+            if (parent != null) {
+                request.setParent(parent.<String>getValue());
+            }
+            bulk.add(request);
+        }
+        BulkResponse response = bulk.get();
+        for (BulkItemResponse item : response.getItems()) {
+            if (!item.isFailed()) {
+                reindexed.incrementAndGet();
+            } else if (item.getFailure().getStatus() == RestStatus.CONFLICT
+                    || item.getFailure().getCause() instanceof VersionConflictEngineException) {
+                conflicts.incrementAndGet();
+            } else {
+                failures.incrementAndGet();
+                logger.warn("re-expansion of [{}][{}][{}] failed: {}", item.getIndex(), item.getType(),
+                        item.getId(), item.getFailureMessage());
+            }
+        }
+    }
+
+    private void throttle(long batchStart, int count) throws InterruptedException {
+        if (requestsPerSecond <= 0) {
+            return;
+        }
+        long wait = (long) (count * 1000L / requestsPerSecond) - (System.nanoTime() - batchStart) / 1000000L;
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * Stops the job after the current batch
+     */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isDone() {
+        return endTime > 0;
+    }
+
+    /**
+     * @return the time the job ended in milliseconds since the epoch, 0 while it runs
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public long getFound() {
+        return found.get();
+    }
+
+    public long getReindexed() {
+        return reindexed.get();
+    }
+
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field("index", index);
+        builder.field("fields", fields);
+        builder.field("label_fields", labelFields);
+        builder.field("version", version);
+        builder.field("terms", terms.size());
+        builder.field("labels", labels.size());
+        builder.field("done", isDone());
+        builder.field("cancelled", cancelled.get());
+        builder.field("took", ((isDone() ? endTime : System.currentTimeMillis()) - startTime));
+        builder.field("found", getFound());
+        builder.field("reindexed", getReindexed());
+        builder.field("version_conflicts", getConflicts());
+        builder.field("failures", getFailures());
+        if (error != null) {
+            builder.field("error", error);
+        }
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,28 @@
+package org.xbib.elasticsearch.action.skos;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Collects the statistics of the SKOS engines and filters of the nodes
+ */
+public class SKOSStatsAction extends Action<SKOSStatsRequest, SKOSStatsResponse, SKOSStatsRequestBuilder> {
+
+    public static final SKOSStatsAction INSTANCE = new SKOSStatsAction();
+
+    public static final String NAME = "cluster:monitor/skos/stats";
+
+    private SKOSStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    public SKOSStatsResponse newResponse() {
+        return new SKOSStatsResponse();
+    }
+
+    @Override
+    public SKOSStatsRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new SKOSStatsRequestBuilder(client, this);
+    }
+}
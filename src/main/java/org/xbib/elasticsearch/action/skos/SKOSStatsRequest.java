@@ -0,0 +1,16 @@
+package org.xbib.elasticsearch.action.skos;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+
+/**
+ * A request for the SKOS statistics of the given nodes, all nodes by default
+ */
+public class SKOSStatsRequest extends BaseNodesRequest<SKOSStatsRequest> {
+
+    public SKOSStatsRequest() {
+    }
+
+    public SKOSStatsRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+}
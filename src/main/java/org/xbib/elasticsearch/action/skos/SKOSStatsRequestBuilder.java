@@ -0,0 +1,12 @@
+package org.xbib.elasticsearch.action.skos;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+public class SKOSStatsRequestBuilder
+        extends NodesOperationRequestBuilder<SKOSStatsRequest, SKOSStatsResponse, SKOSStatsRequestBuilder> {
+
+    public SKOSStatsRequestBuilder(ElasticsearchClient client, SKOSStatsAction action) {
+        super(client, action, new SKOSStatsRequest());
+    }
+}
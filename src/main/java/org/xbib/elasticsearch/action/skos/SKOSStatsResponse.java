@@ -0,0 +1,58 @@
+package org.xbib.elasticsearch.action.skos;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+public class SKOSStatsResponse extends BaseNodesResponse<SKOSNodeStats> implements ToXContent {
+
+    SKOSStatsResponse() {
+    }
+
+    public SKOSStatsResponse(ClusterName clusterName, SKOSNodeStats[] nodes) {
+        super(clusterName, nodes);
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        nodes = new SKOSNodeStats[in.readVInt()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new SKOSNodeStats();
+            nodes[i].readFrom(in);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(nodes.length);
+        for (SKOSNodeStats node : nodes) {
+            node.writeTo(out);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("cluster_name", getClusterNameAsString());
+        builder.startObject("nodes");
+        for (SKOSNodeStats node : nodes) {
+            builder.startObject(node.getNode().id());
+            builder.field("name", node.getNode().name());
+            builder.field("transport_address", node.getNode().address().toString());
+            builder.field("host", node.getNode().getHostName());
+            for (Map.Entry<String, Object> entry : node.getStats().entrySet()) {
+                builder.field(entry.getKey(), entry.getValue());
+            }
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+}
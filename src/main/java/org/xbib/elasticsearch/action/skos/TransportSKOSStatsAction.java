@@ -0,0 +1,133 @@
+package org.xbib.elasticsearch.action.skos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSFilterStats;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+
+/**
+ * Collects the statistics of the SKOS engines and filters of each node: the label lookups by
+ * method with their latency, the expansions per token and per field value, the load and index
+ * durations of the vocabularies, and the estimated heap and off-heap bytes of each engine.
+ */
+public class TransportSKOSStatsAction extends TransportNodesAction<SKOSStatsRequest, SKOSStatsResponse,
+        TransportSKOSStatsAction.NodeRequest, SKOSNodeStats> {
+
+    @Inject
+    public TransportSKOSStatsAction(Settings settings, ClusterName clusterName, ThreadPool threadPool,
+                                    ClusterService clusterService, TransportService transportService,
+                                    ActionFilters actionFilters, IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings, SKOSStatsAction.NAME, clusterName, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, SKOSStatsRequest.class, NodeRequest.class, ThreadPool.Names.MANAGEMENT);
+    }
+
+    @Override
+    protected SKOSStatsResponse newResponse(SKOSStatsRequest request, AtomicReferenceArray responses) {
+        List<SKOSNodeStats> nodes = new ArrayList<>();
+        for (int i = 0; i < responses.length(); i++) {
+            Object response = responses.get(i);
+            if (response instanceof SKOSNodeStats) {
+                nodes.add((SKOSNodeStats) response);
+            }
+        }
+        return new SKOSStatsResponse(clusterName, nodes.toArray(new SKOSNodeStats[nodes.size()]));
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(String nodeId, SKOSStatsRequest request) {
+        return new NodeRequest(request, nodeId);
+    }
+
+    @Override
+    protected SKOSNodeStats newNodeResponse() {
+        return new SKOSNodeStats();
+    }
+
+    @Override
+    protected SKOSNodeStats nodeOperation(NodeRequest request) {
+        try {
+            return new SKOSNodeStats(clusterService.localNode(), stats().bytes());
+        } catch (IOException e) {
+            throw new ElasticsearchException("failed to collect SKOS statistics", e);
+        }
+    }
+
+    @Override
+    protected boolean accumulateExceptions() {
+        return false;
+    }
+
+    private static XContentBuilder stats() throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        long heapBytes = 0L;
+        long offHeapBytes = 0L;
+        builder.startObject("engines");
+        for (Map.Entry<String, SKOSEngine> entry : new TreeMap<>(SKOSEngineFactory.getSKOSEngines()).entrySet()) {
+            SKOSEngine engine = entry.getValue();
+            long engineHeapBytes = engine.ramBytesUsed();
+            long engineOffHeapBytes = engine.offHeapBytesUsed();
+            heapBytes += engineHeapBytes;
+            offHeapBytes += engineOffHeapBytes;
+            builder.startObject(entry.getKey());
+            builder.field("version", engine.getVersion());
+            builder.startObject("memory");
+            builder.field("heap_in_bytes", engineHeapBytes);
+            builder.field("off_heap_in_bytes", engineOffHeapBytes);
+            builder.endObject();
+            engine.getStats().toXContent(builder);
+            builder.startObject("bulk_label_cache");
+            builder.field("resolved", engine.getBulkLabelCache().getResolved());
+            builder.field("hits", engine.getBulkLabelCache().getHits());
+            builder.endObject();
+            builder.startObject("warm_cache");
+            builder.field("size", engine.getWarmCache().size());
+            builder.field("preloaded", engine.getWarmCache().getPreloaded());
+            builder.endObject();
+            builder.endObject();
+        }
+        builder.endObject();
+        builder.startObject("memory");
+        builder.field("heap_in_bytes", heapBytes);
+        builder.field("off_heap_in_bytes", offHeapBytes);
+        builder.endObject();
+        builder.startObject("filters");
+        for (Map.Entry<String, SKOSFilterStats> entry : SKOSFilterStats.getAll().entrySet()) {
+            builder.startObject(entry.getKey());
+            entry.getValue().toXContent(builder);
+            builder.endObject();
+        }
+        builder.endObject();
+        builder.endObject();
+        return builder;
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+
+        public NodeRequest() {
+        }
+
+        NodeRequest(SKOSStatsRequest request, String nodeId) {
+            super(request, nodeId);
+        }
+    }
+}
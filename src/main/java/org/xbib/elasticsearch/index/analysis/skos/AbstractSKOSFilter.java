@@ -22,13 +22,12 @@ import java.util.*;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.payloads.PayloadHelper;
 import org.apache.lucene.analysis.tokenattributes.*;
 import org.apache.lucene.util.AttributeSource;
-import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.CharsRef;
 
 import org.apache.lucene.util.CharsRefBuilder;
+import org.xbib.elasticsearch.index.analysis.skos.engine.Expansion;
 import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
 import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
 
@@ -37,8 +36,8 @@ import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
  */
 public abstract class AbstractSKOSFilter extends TokenFilter {
 
-    // a stack holding the expanded terms for a token
-    protected Stack<ExpandedTerm> termStack;
+    // a queue holding the expansions for the tokens, emitted in order
+    protected Deque<ExpandedTerm> termStack;
     // an engine delivering SKOS concepts
     protected SKOSEngine engine;
     // the skos types to expand to
@@ -55,6 +54,18 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
     protected final SKOSTypeAttribute skosAtt;
     // the analyzer to use when parsing
     protected final Analyzer analyzer;
+    // how the SKOS type of expanded terms is propagated to the index
+    protected SKOSTypeCodec.Mode typeEncoding = SKOSTypeCodec.Mode.BYTE;
+    // the caps on the number of expanded terms
+    protected ExpansionBudget budget = ExpansionBudget.UNLIMITED;
+    // the statistics of the filter factory, or null
+    protected SKOSFilterStats stats;
+    // true if a token was started since the last recorded token
+    private boolean tokenStarted;
+    // the number of expanded terms pushed for the current token
+    private int tokenCount;
+    // the number of expanded terms pushed for the current field value
+    private int valueCount;
 
     private List<SKOSTypeAttribute.SKOSType> defaultTypes = Arrays.asList(SKOSAnalyzer.DEFAULT_SKOS_TYPES);
 
@@ -68,10 +79,10 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
      */
     public AbstractSKOSFilter(TokenStream input, SKOSEngine engine, Analyzer analyzer, List<SKOSType> types) {
         super(input);
-        termStack = new Stack<>();
+        termStack = new ArrayDeque<>();
         this.engine = engine;
         this.analyzer = analyzer;
-        this.types = new TreeSet<>(types != null && !types.isEmpty() ? types : defaultTypes);
+        this.types = EnumSet.copyOf(types != null && !types.isEmpty() ? types : defaultTypes);
         this.termAtt = addAttribute(CharTermAttribute.class);
         this.posIncrAtt = addAttribute(PositionIncrementAttribute.class);
         this.payloadAtt = addAttribute(PayloadAttribute.class);
@@ -79,6 +90,33 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
         this.offsetAtt = addAttribute(OffsetAttribute.class);
     }
 
+    /**
+     * Sets the caps on the number of expanded terms
+     *
+     * @param budget the expansion budget
+     */
+    public void setBudget(ExpansionBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Sets the statistics the lookups and expansions of this filter are counted in
+     *
+     * @param stats the filter statistics
+     */
+    public void setStats(SKOSFilterStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Sets how the SKOS type of expanded terms is propagated to the index
+     *
+     * @param typeEncoding the type encoding
+     */
+    public void setTypeEncoding(SKOSTypeCodec.Mode typeEncoding) {
+        this.typeEncoding = typeEncoding;
+    }
+
     /**
      * Advances the stream to the next token.
      *
@@ -88,68 +126,112 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
     public abstract boolean incrementToken() throws IOException;
 
     /**
-     * Replaces the current term (attributes) with term (attributes) from the stack
+     * Replaces the current term (attributes) with the next term (attributes) of the first expansion
+     * in the queue
      *
      * @throws IOException if analyzer failed
      */
     protected void processTermOnStack() throws IOException {
-        // dont use termStack.pop() to handle correct order
-        ExpandedTerm expandedTerm = termStack.firstElement();
-        termStack.remove(0);
-        String term = expandedTerm.getTerm();
-        SKOSType termType = expandedTerm.getTermType();
-        String sTerm = term;
+        ExpandedTerm expandedTerm = termStack.peekFirst();
+        Expansion expansion = expandedTerm.getExpansion();
+        int i = expandedTerm.next++;
+        if (expandedTerm.next == expandedTerm.limit) {
+            termStack.removeFirst();
+        }
+        CharsRef term = expansion.getTerm(i);
+        SKOSType termType = expansion.getType(i);
         // copies the values of all attribute implementations from this state into
         // the implementations of the target stream
         restoreState(expandedTerm.getState());
-        // adds the expanded term to the term buffer
-        termAtt.setEmpty().append(sTerm);
+        // adds the expanded term to the term buffer, prefixed with its type if requested
+        if (typeEncoding == SKOSTypeCodec.Mode.PREFIX) {
+            char[] prefix = SKOSTypeCodec.prefix(termType);
+            char[] buffer = termAtt.resizeBuffer(prefix.length + term.length);
+            System.arraycopy(prefix, 0, buffer, 0, prefix.length);
+            System.arraycopy(term.chars, term.offset, buffer, prefix.length, term.length);
+            termAtt.setLength(prefix.length + term.length);
+        } else {
+            termAtt.copyBuffer(term.chars, term.offset, term.length);
+        }
         // change endoffset in needed
         if(expandedTerm.getEndOffset() > 0) {
             offsetAtt.setOffset(offsetAtt.startOffset(), expandedTerm.getEndOffset());
         }
-        // set position increment to zero to put multiple terms into the same position
-        posIncrAtt.setPositionIncrement(expandedTerm.getPosIncr());
+        // only the first term of an expansion may advance the position, the others are put into the same position
+        posIncrAtt.setPositionIncrement(i == 0 ? expandedTerm.getPosIncr() : 0);
         // sets the type of the expanded term (pref, alt, broader, narrower, etc.)
         skosAtt.setSkosType(termType);
         // converts the SKOS Attribute to a payload, which is propagated to the index
-        byte[] bytes = PayloadHelper.encodeInt(skosAtt.getSkosType().ordinal());
-        payloadAtt.setPayload(new BytesRef(bytes));
+        payloadAtt.setPayload(SKOSTypeCodec.payload(termType, typeEncoding));
+    }
+
+    /**
+     * Starts the expansions of a new input token, with a fresh per token budget
+     */
+    protected void startToken() {
+        recordToken();
+        tokenStarted = true;
+        tokenCount = 0;
     }
 
-    protected void pushLabelsToStack(List<String> labels, SKOSType type, State state, int endOffset) {
-        if (labels != null) {
-            for (String label : labels) {
-                pushLabelToStack(label, type, state, endOffset, 0);
-            }
+    private void recordToken() {
+        if (stats != null && tokenStarted) {
+            stats.recordToken(tokenCount);
         }
+        tokenStarted = false;
     }
 
-    protected void pushLabelToStack(String label, SKOSType type, State state, int endOffset, int posIncr) {
-        termStack.push(new ExpandedTerm(label, type, state, endOffset, posIncr));
+    /**
+     * Queues an expansion, truncated to the remaining budget
+     */
+    protected void pushExpansionToStack(Expansion expansion, State state, int endOffset, int posIncr) {
+        int limit = budget.allow(expansion.size(), tokenCount, valueCount);
+        if (limit > 0) {
+            termStack.addLast(new ExpandedTerm(expansion, limit, state, endOffset, posIncr));
+            tokenCount += limit;
+            valueCount += limit;
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        if (stats != null) {
+            recordToken();
+            stats.recordValue(valueCount);
+        }
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        termStack.clear();
+        tokenStarted = false;
+        tokenCount = 0;
+        valueCount = 0;
     }
 
     /**
-     * Helper class for capturing terms and term types
+     * Helper class for capturing an expansion, its emission progress and its token state
      */
     protected static class ExpandedTerm {
 
-        private final String term;
-        private final SKOSType termType;
+        private final Expansion expansion;
+        private final int limit;
         private final State state;
         private final int endOffset;
         private final int posIncr;
+        private int next;
 
-        protected ExpandedTerm(String term, SKOSType termType, State state, int endOffset, int posIncr) {
-            this.term = term;
-            this.termType = termType;
+        protected ExpandedTerm(Expansion expansion, int limit, State state, int endOffset, int posIncr) {
+            this.expansion = expansion;
+            this.limit = limit;
             this.state = state;
             this.endOffset = endOffset;
             this.posIncr = posIncr;
         }
 
-        protected String getTerm() { return this.term; }
-        protected SKOSType getTermType() { return this.termType; }
+        protected Expansion getExpansion() { return this.expansion; }
         protected State getState() { return this.state; }
         protected int getEndOffset() { return this.endOffset; }
         protected int getPosIncr() { return this.posIncr; }
@@ -0,0 +1,107 @@
+package org.xbib.elasticsearch.index.analysis.skos;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps on the number of expanded terms a SKOS filter emits, per token, per concept
+ * and per field value, and on the hierarchy depth of transitive expansions.
+ * A limit of 0 means no limit. Expansions are ordered by priority, so a capped
+ * expansion keeps its PREF, ALT and HIDDEN labels first, then the labels of
+ * broader, narrower and related concepts, then the transitive ones.
+ *
+ * A budget is shared by all filters of a filter factory, and counts how often
+ * each cap truncated an expansion.
+ */
+public class ExpansionBudget {
+
+    public static final ExpansionBudget UNLIMITED = new ExpansionBudget(0, 0, 0, 0);
+
+    private final int maxPerToken;
+
+    private final int maxPerConcept;
+
+    private final int maxPerValue;
+
+    private final int maxDepth;
+
+    private final AtomicLong tokenTruncations = new AtomicLong();
+
+    private final AtomicLong conceptTruncations = new AtomicLong();
+
+    private final AtomicLong valueTruncations = new AtomicLong();
+
+    /**
+     * @param maxPerToken the maximum number of expanded terms per input token, 0 for no limit
+     * @param maxPerConcept the maximum number of expanded terms per matched concept, 0 for no limit
+     * @param maxPerValue the maximum number of expanded terms per field value, 0 for no limit
+     * @param maxDepth the maximum hierarchy depth of transitive expansions, 0 for no limit
+     */
+    public ExpansionBudget(int maxPerToken, int maxPerConcept, int maxPerValue, int maxDepth) {
+        this.maxPerToken = maxPerToken;
+        this.maxPerConcept = maxPerConcept;
+        this.maxPerValue = maxPerValue;
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxPerToken() {
+        return maxPerToken;
+    }
+
+    public int getMaxPerConcept() {
+        return maxPerConcept;
+    }
+
+    public int getMaxPerValue() {
+        return maxPerValue;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the number of expanded terms that may be emitted for a concept
+     *
+     * @param size the size of the concept expansion
+     * @param tokenCount the number of terms already emitted for the current token
+     * @param valueCount the number of terms already emitted for the current field value
+     * @return the number of terms to emit, at most size
+     */
+    int allow(int size, int tokenCount, int valueCount) {
+        int allowed = size;
+        if (maxPerConcept > 0 && allowed > maxPerConcept) {
+            allowed = maxPerConcept;
+            conceptTruncations.incrementAndGet();
+        }
+        if (maxPerToken > 0 && allowed > maxPerToken - tokenCount) {
+            allowed = Math.max(0, maxPerToken - tokenCount);
+            tokenTruncations.incrementAndGet();
+        }
+        if (maxPerValue > 0 && allowed > maxPerValue - valueCount) {
+            allowed = Math.max(0, maxPerValue - valueCount);
+            valueTruncations.incrementAndGet();
+        }
+        return allowed;
+    }
+
+    /**
+     * @return the number of expansions truncated by the per token limit
+     */
+    public long getTokenTruncations() {
+        return tokenTruncations.get();
+    }
+
+    /**
+     * @return the number of expansions truncated by the per concept limit
+     */
+    public long getConceptTruncations() {
+        return conceptTruncations.get();
+    }
+
+    /**
+     * @return the number of expansions truncated by the per field value limit
+     */
+    public long getValueTruncations() {
+        return valueTruncations.get();
+    }
+}
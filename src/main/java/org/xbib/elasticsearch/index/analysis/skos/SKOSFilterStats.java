@@ -0,0 +1,199 @@
+package org.xbib.elasticsearch.index.analysis.skos;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.xbib.elasticsearch.index.analysis.skos.engine.Histogram;
+
+/**
+ * The work of the SKOS filters of a filter factory: the label candidates looked up, with their
+ * hits and misses, the candidates skipped because they normalize to nothing, the candidates taken
+ * from the bulk label cache, and the number of expanded terms per input token and per field value.
+ *
+ * The statistics of the node are kept by index and filter name, so they survive the filter
+ * factory of an index being created again, when the index is closed and opened or its settings
+ * are updated. They belong to the index with the given UUID: an index created again under the
+ * same name starts with new statistics, and the statistics of a deleted index are removed.
+ */
+public class SKOSFilterStats {
+
+    private static final ConcurrentMap<String, SKOSFilterStats> registry = new ConcurrentHashMap<>();
+
+    private final String index;
+
+    private final String uuid;
+
+    private final String filter;
+
+    private volatile String vocabulary;
+
+    private volatile ExpansionBudget budget = ExpansionBudget.UNLIMITED;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private final AtomicLong cached = new AtomicLong();
+
+    private final Histogram expansionsPerToken = new Histogram();
+
+    private final Histogram expansionsPerValue = new Histogram();
+
+    SKOSFilterStats(String index, String uuid, String filter) {
+        this.index = index;
+        this.uuid = uuid;
+        this.filter = filter;
+    }
+
+    /**
+     * Returns the statistics of a filter, created on first use and when the index was created again
+     *
+     * @param index the index name
+     * @param uuid the index UUID
+     * @param filter the filter name
+     * @return the filter statistics
+     */
+    public static SKOSFilterStats get(String index, String uuid, String filter) {
+        String key = index + '/' + filter;
+        while (true) {
+            SKOSFilterStats stats = registry.get(key);
+            if (stats != null && stats.uuid.equals(uuid)) {
+                return stats;
+            }
+            SKOSFilterStats created = new SKOSFilterStats(index, uuid, filter);
+            if (stats == null ? registry.putIfAbsent(key, created) == null : registry.replace(key, stats, created)) {
+                return created;
+            }
+        }
+    }
+
+    /**
+     * Removes the statistics of the filters of an index
+     *
+     * @param index the index name
+     */
+    public static void remove(String index) {
+        for (Iterator<SKOSFilterStats> it = registry.values().iterator(); it.hasNext(); ) {
+            if (it.next().index.equals(index)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the statistics of all filters of the node, by index and filter name
+     */
+    public static Map<String, SKOSFilterStats> getAll() {
+        return Collections.unmodifiableMap(new TreeMap<>(registry));
+    }
+
+    /**
+     * Sets the vocabulary and the budget of the current filter factory
+     *
+     * @param vocabulary the name of the vocabulary
+     * @param budget the expansion budget with its truncation counters
+     */
+    void setFactory(String vocabulary, ExpansionBudget budget) {
+        this.vocabulary = vocabulary;
+        this.budget = budget;
+    }
+
+    void recordLookup(boolean hit) {
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    void recordSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    void recordCached() {
+        cached.incrementAndGet();
+    }
+
+    void recordToken(int expansions) {
+        expansionsPerToken.record(expansions);
+    }
+
+    void recordValue(int expansions) {
+        expansionsPerValue.record(expansions);
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public String getVocabulary() {
+        return vocabulary;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getCached() {
+        return cached.get();
+    }
+
+    public Histogram getExpansionsPerToken() {
+        return expansionsPerToken;
+    }
+
+    public Histogram getExpansionsPerValue() {
+        return expansionsPerValue;
+    }
+
+    /**
+     * Writes the statistics as fields of the current object
+     *
+     * @param builder the builder
+     * @return the builder
+     * @throws IOException if the fields can not be written
+     */
+    public XContentBuilder toXContent(XContentBuilder builder) throws IOException {
+        builder.field("index", index);
+        builder.field("filter", filter);
+        builder.field("vocabulary", vocabulary);
+        builder.startObject("lookups");
+        builder.field("hits", getHits());
+        builder.field("misses", getMisses());
+        builder.field("skipped", getSkipped());
+        builder.field("cached", getCached());
+        builder.endObject();
+        builder.startObject("expansions");
+        expansionsPerToken.toXContent(builder, "per_token", 1L);
+        expansionsPerValue.toXContent(builder, "per_value", 1L);
+        builder.endObject();
+        ExpansionBudget current = budget;
+        builder.startObject("truncations");
+        builder.field("token", current.getTokenTruncations());
+        builder.field("concept", current.getConceptTruncations());
+        builder.field("value", current.getValueTruncations());
+        builder.endObject();
+        return builder;
+    }
+}
@@ -16,7 +16,6 @@
 package org.xbib.elasticsearch.index.analysis.skos;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -24,7 +23,8 @@ import java.util.Queue;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 
-import org.apache.lucene.util.AttributeSource;
+import org.xbib.elasticsearch.index.analysis.skos.engine.Expansion;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
 import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
 import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
 
@@ -39,10 +39,22 @@ import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
 public final class SKOSLabelFilter extends AbstractSKOSFilter {
 
     public static final int DEFAULT_BUFFER_SIZE = 1;
+    public static final int DEFAULT_FUZZY_PREFIX_LENGTH = 1;
+    public static final int DEFAULT_FUZZY_MAX_EXPANSIONS = 10;
     /* the size of the buffer used for multi-term prediction */
     private int bufferSize = DEFAULT_BUFFER_SIZE;
     /* a list serving as token buffer between consumed and consuming stream */
     private Queue<State> buffer = new LinkedList<>();
+    /* the normalizer turning label candidates into dictionary keys */
+    private final LabelNormalizer normalizer;
+    /* the maximum edit distance for fuzzy label matches, 0 for exact matches */
+    private int maxEdits = 0;
+    /* the number of leading characters that must match exactly in fuzzy mode */
+    private int prefixLength = DEFAULT_FUZZY_PREFIX_LENGTH;
+    /* the maximum number of concepts a fuzzy match may expand to */
+    private int maxExpansions = DEFAULT_FUZZY_MAX_EXPANSIONS;
+    /* true if compact concept ids are emitted instead of concept URIs */
+    private boolean conceptIds = false;
 
     /**
      * Constructor for multi-term expansion support. Takes an input token
@@ -58,10 +70,53 @@ public final class SKOSLabelFilter extends AbstractSKOSFilter {
      */
     public SKOSLabelFilter(TokenStream input, SKOSEngine engine,
             Analyzer analyzer, int bufferSize, List<SKOSType> types) {
+        this(input, engine, analyzer, engine.getLabelNormalizer(), bufferSize, types);
+    }
+
+    /**
+     * Constructor for multi-term expansion support with a label normalizer.
+     * The normalizer must produce the same keys as the one the engine applied
+     * to the vocabulary labels.
+     *
+     * @param input the consumed token stream
+     * @param engine the skos expansion engine
+     * @param analyzer the analyzer
+     * @param normalizer the label normalizer
+     * @param bufferSize the length of the longest pref-label to consider
+     * (needed for mult-term expansion)
+     * @param types the skos types to expand to
+     */
+    public SKOSLabelFilter(TokenStream input, SKOSEngine engine,
+            Analyzer analyzer, LabelNormalizer normalizer, int bufferSize, List<SKOSType> types) {
         super(input, engine, analyzer, types);
+        this.normalizer = normalizer;
         this.bufferSize = bufferSize;
     }
 
+    /**
+     * Enables typo-tolerant label matching. Candidates are matched against
+     * the labels within the given edit distance, closest labels first.
+     *
+     * @param maxEdits the maximum edit distance (0 to 2), 0 disables fuzzy matching
+     * @param prefixLength the number of leading characters that must match exactly
+     * @param maxExpansions the maximum number of concepts a candidate may match
+     */
+    public void setFuzziness(int maxEdits, int prefixLength, int maxExpansions) {
+        this.maxEdits = maxEdits;
+        this.prefixLength = prefixLength;
+        this.maxExpansions = maxExpansions;
+    }
+
+    /**
+     * Emits compact concept ids instead of concept URIs. The ids are mapped
+     * back to URIs with {@link SKOSEngine#getConceptURI(String)}.
+     *
+     * @param conceptIds true for concept ids, false for concept URIs
+     */
+    public void setConceptIds(boolean conceptIds) {
+        this.conceptIds = conceptIds;
+    }
+
     /**
      * Advances the stream to the next token
      */
@@ -91,6 +146,7 @@ public final class SKOSLabelFilter extends AbstractSKOSFilter {
     private boolean addAliasesToStack() throws IOException {
         State entered = captureState();
         restoreState(buffer.peek());
+        startToken();
         for (int i = buffer.size(); i > 0; i--) {
             BufferString inputTokens = bufferToString(i);
             addConceptsToStack(inputTokens);
@@ -131,38 +187,45 @@ public final class SKOSLabelFilter extends AbstractSKOSFilter {
      * @return true if term stack is not empty
      */
     public boolean addConceptsToStack(BufferString term) throws IOException {
-        List<String> conceptURIs = engine.getConcepts(term.getText());
-        for (String conceptURI : conceptURIs) {
-
-            pushLabelToStack(conceptURI, SKOSType.PREF, term.getState(), term.getEndOffset(), 1);
-            pushLabelsToStack(engine.getBroaderConcepts(conceptURI), SKOSType.BROADER, term.getState(), term.getEndOffset());
-            pushLabelsToStack(engine.getBroaderTransitiveConcepts(conceptURI), SKOSType.BROADERTRANSITIVE, term.getState(), term.getEndOffset());
-
-            /*if (types.contains(SKOSType.PREF)) {
-                pushLabelsToStack(engine.getPrefLabels(conceptURI), SKOSType.PREF);
-            }
-            if (types.contains(SKOSType.ALT)) {
-                pushLabelsToStack(engine.getAltLabels(conceptURI), SKOSType.ALT);
-            }
-            if (types.contains(SKOSType.HIDDEN)) {
-                pushLabelsToStack(engine.getHiddenLabels(conceptURI), SKOSType.HIDDEN);
-            }
-            if (types.contains(SKOSType.BROADER)) {
-                pushLabelsToStack(engine.getBroaderLabels(conceptURI), SKOSType.BROADER);
-            }
-            if (types.contains(SKOSType.BROADERTRANSITIVE)) {
-                pushLabelsToStack(engine.getBroaderTransitiveLabels(conceptURI), SKOSType.BROADERTRANSITIVE);
+        List<String> conceptURIs = cachedConcepts(term.getText());
+        if (conceptURIs == null) {
+            String key = normalizer.normalize(term.getText());
+            if (key.isEmpty()) {
+                if (stats != null) {
+                    stats.recordSkipped();
+                }
+                return !termStack.isEmpty();
             }
-            if (types.contains(SKOSType.NARROWER)) {
-                pushLabelsToStack(engine.getNarrowerLabels(conceptURI), SKOSType.NARROWER);
-            }
-            if (types.contains(SKOSType.NARROWERTRANSITIVE)) {
-                pushLabelsToStack(engine.getNarrowerTransitiveLabels(conceptURI), SKOSType.NARROWERTRANSITIVE);
-            }*/
+            conceptURIs = maxEdits > 0 ?
+                    engine.getConceptsFuzzy(key, maxEdits, prefixLength, maxExpansions) :
+                    engine.getConceptsForKey(key);
         }
+        pushConcepts(conceptURIs, term);
         return !termStack.isEmpty();
     }
 
+    // candidates of a bulk request in flight are resolved already, if normalized like the vocabulary
+    private List<String> cachedConcepts(String text) {
+        List<String> conceptURIs = maxEdits == 0 && normalizer.getName().equals(engine.getLabelNormalizer().getName()) ?
+                engine.getBulkLabelCache().get(text) : null;
+        if (conceptURIs != null && stats != null) {
+            stats.recordCached();
+        }
+        return conceptURIs;
+    }
+
+    private void pushConcepts(List<String> conceptURIs, BufferString term) throws IOException {
+        if (stats != null) {
+            stats.recordLookup(!conceptURIs.isEmpty());
+        }
+        for (String conceptURI : conceptURIs) {
+            Expansion expansion = conceptIds ?
+                    engine.getExpansionTable().getConceptIdExpansion(conceptURI, budget.getMaxDepth()) :
+                    engine.getExpansionTable().getConceptExpansion(conceptURI, budget.getMaxDepth());
+            pushExpansionToStack(expansion, term.getState(), term.getEndOffset(), 1);
+        }
+    }
+
     /**
      * Helper class for capturing buffer string and states
      */
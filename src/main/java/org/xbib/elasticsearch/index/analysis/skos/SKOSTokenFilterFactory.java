@@ -1,25 +1,34 @@
 package org.xbib.elasticsearch.index.analysis.skos;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.hash.MurmurHash3;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Injector;
 import org.elasticsearch.common.inject.assistedinject.Assisted;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+import org.elasticsearch.index.analysis.AnalysisService;
 import org.elasticsearch.index.analysis.AnalysisSettingsRequired;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
 
 import org.elasticsearch.index.settings.IndexSettingsService;
 import org.xbib.elasticsearch.index.analysis.skos.SKOSAnalyzer.ExpansionType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
 import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
 import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
 import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
@@ -31,6 +40,12 @@ public class SKOSTokenFilterFactory extends AbstractTokenFilterFactory {
 
     private final Settings settings;
 
+    private final ExpansionBudget budget;
+
+    private final SKOSFilterStats stats;
+
+    private volatile LabelNormalizer normalizer;
+
     @Inject
     public SKOSTokenFilterFactory(Index index,
                                   IndexSettingsService indexSettingsService,
@@ -40,28 +55,64 @@ public class SKOSTokenFilterFactory extends AbstractTokenFilterFactory {
         super(index, indexSettingsService.indexSettings(), name, settings);
         this.injector = injector;
         this.settings = settings;
+        this.budget = new ExpansionBudget(getLimit(settings, "maxExpansionsPerToken"),
+                getLimit(settings, "maxExpansionsPerConcept"),
+                getLimit(settings, "maxExpansionsPerValue"),
+                getLimit(settings, "maxDepth"));
+        this.stats = SKOSFilterStats.get(index.name(),
+                indexSettingsService.indexSettings().get(IndexMetaData.SETTING_INDEX_UUID, IndexMetaData.INDEX_UUID_NA_VALUE),
+                name);
+        stats.setFactory(settings.get("indexName", "skos"), budget);
+        // lets mappers, queries and endpoints naming the vocabulary load the engine before a filter runs
+        SKOSEngineFactory.registerLoader(index.name(), settings.get("indexName", "skos"), new SKOSEngineFactory.Loader() {
+            @Override
+            public SKOSEngine load() {
+                return getEngine();
+            }
+        });
     }
 
-    @Override
-    public TokenStream create(TokenStream tokenStream) {
-        Client client = injector.getInstance(Client.class);
-        ExpansionType expansionType;
-        SKOSEngine skosEngine;
-        int bufferSize;
+    /**
+     * Returns the expansion budget of the filters of this factory, with its truncation counters
+     *
+     * @return the expansion budget
+     */
+    public ExpansionBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the statistics of the filters of this factory
+     *
+     * @return the filter statistics
+     */
+    public SKOSFilterStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the engine of the filters of this factory, loading the vocabulary on first use
+     *
+     * @return the SKOS engine
+     */
+    public SKOSEngine getEngine() {
         String skosFile = settings.get("skosFile");
         if (skosFile == null) {
             throw new IllegalArgumentException("mandatory parameter 'skosFile' missing");
         }
-        String expansionTypeString = settings.get("expansionType");
-        if (expansionTypeString == null) {
-            throw new IllegalArgumentException("mandatory parameter 'expansionType' missing");
-        }
         if (skosFile.endsWith(".n3") || skosFile.endsWith(".rdf") || skosFile.endsWith(".ttl") || skosFile.endsWith(".zip")) {
             try {
+                Client client = injector.getInstance(Client.class);
+                LabelNormalizer normalizer = getNormalizer();
                 String indexName = settings.get("indexName", "skos");
+                if (normalizer != LabelNormalizer.DEFAULT) {
+                    // the vocabulary index holds normalized labels, so each normalizer definition needs its own index
+                    indexName = indexName + "-" + normalizer.getName().toLowerCase(Locale.ROOT);
+                }
                 String languageString = settings.get("language");
-                skosEngine = SKOSEngineFactory.getSKOSEngine(client, indexName, skosFile,
-                        languageString != null ? Arrays.asList(languageString.split(" ")) : Collections.<String>emptyList());
+                return SKOSEngineFactory.getSKOSEngine(client, indexName, skosFile,
+                        languageString != null ? Arrays.asList(languageString.split(" ")) : Collections.<String>emptyList(),
+                        normalizer, settings.getAsBoolean("offHeap", false));
             } catch (IOException e) {
                 logger.error(e.getMessage(), e);
                 throw new IllegalArgumentException("could not instantiate SKOS engine", e);
@@ -69,20 +120,106 @@ public class SKOSTokenFilterFactory extends AbstractTokenFilterFactory {
         } else {
             throw new IllegalArgumentException("allowed file suffixes are: .n3 (N3), .rdf (RDF/XML), .ttl (Turtle) and .zip (zip)");
         }
-        if (expansionTypeString.equalsIgnoreCase(ExpansionType.LABEL.toString())) {
-            expansionType = ExpansionType.LABEL;
-        } else {
-            expansionType = ExpansionType.URI;
-        }
+    }
+
+    /**
+     * Returns true if the filters look up label candidates exactly, so their candidates can be
+     * resolved ahead of the analysis
+     *
+     * @return true for exact label expansion
+     */
+    public boolean isExactLabelExpansion() {
+        return ExpansionType.LABEL.toString().equalsIgnoreCase(settings.get("expansionType"))
+                && settings.getAsInt("fuzziness", 0) == 0;
+    }
+
+    /**
+     * Returns the number of tokens the label filters join to a label candidate
+     *
+     * @return the buffer size
+     */
+    public int getBufferSize() {
         String bufferSizeString = settings.get("bufferSize");
         if (bufferSizeString != null) {
-            bufferSize = Integer.parseInt(bufferSizeString);
+            int bufferSize = Integer.parseInt(bufferSizeString);
             if (bufferSize < 1) {
                 throw new IllegalArgumentException("'bufferSize' must be a positive (small) integer");
             }
+            return bufferSize;
+        }
+        return 4;
+    }
+
+    private LabelNormalizer getNormalizer() {
+        String normalizerName = settings.get("normalizer");
+        if (normalizerName == null) {
+            return LabelNormalizer.DEFAULT;
+        }
+        LabelNormalizer labelNormalizer = normalizer;
+        if (labelNormalizer == null) {
+            // the analysis service is not available while the filter factories are created
+            NamedAnalyzer analyzer = injector.getInstance(AnalysisService.class).analyzer(normalizerName);
+            if (analyzer == null) {
+                throw new IllegalArgumentException("normalizer analyzer [" + normalizerName + "] not found");
+            }
+            // the engine is shared across indices and outlives this one, so it gets token streams of its own,
+            // and analyzers of the same name but of different definitions get different engines
+            labelNormalizer = LabelNormalizer.copyOf(normalizerName + "-" + definitionHash(normalizerName),
+                    analyzer.analyzer());
+            normalizer = labelNormalizer;
+        }
+        return labelNormalizer;
+    }
+
+    /**
+     * Returns a hash of the settings of an analyzer and of the tokenizer, char filters and token
+     * filters it refers to, empty settings for the analyzers not defined in the index settings
+     */
+    private String definitionHash(String analyzerName) {
+        Settings analysis = indexSettings.getByPrefix("index.analysis.");
+        Settings analyzer = analysis.getByPrefix("analyzer." + analyzerName + ".");
+        Map<String, String> definition = new TreeMap<>();
+        definition.put("name", analyzerName);
+        addDefinition(definition, "analyzer." + analyzerName + ".", analyzer);
+        String tokenizer = analyzer.get("tokenizer");
+        if (tokenizer != null) {
+            addDefinition(definition, "tokenizer." + tokenizer + ".", analysis.getByPrefix("tokenizer." + tokenizer + "."));
+        }
+        for (String charFilter : analyzer.getAsArray("char_filter")) {
+            addDefinition(definition, "char_filter." + charFilter + ".", analysis.getByPrefix("char_filter." + charFilter + "."));
+        }
+        for (String filter : analyzer.getAsArray("filter")) {
+            addDefinition(definition, "filter." + filter + ".", analysis.getByPrefix("filter." + filter + "."));
+        }
+        byte[] bytes = definition.toString().getBytes(StandardCharsets.UTF_8);
+        MurmurHash3.Hash128 hash = MurmurHash3.hash128(bytes, 0, bytes.length, 0L, new MurmurHash3.Hash128());
+        return String.format(Locale.ROOT, "%08x", (int) hash.h1);
+    }
+
+    private static void addDefinition(Map<String, String> definition, String prefix, Settings settings) {
+        for (Map.Entry<String, String> entry : settings.getAsMap().entrySet()) {
+            definition.put(prefix + entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public TokenStream create(TokenStream tokenStream) {
+        ExpansionType expansionType;
+        if (settings.get("skosFile") == null) {
+            throw new IllegalArgumentException("mandatory parameter 'skosFile' missing");
+        }
+        String expansionTypeString = settings.get("expansionType");
+        if (expansionTypeString == null) {
+            throw new IllegalArgumentException("mandatory parameter 'expansionType' missing");
+        }
+        LabelNormalizer normalizer = getNormalizer();
+        SKOSEngine skosEngine = getEngine();
+        if (expansionTypeString.equalsIgnoreCase(ExpansionType.LABEL.toString())) {
+            expansionType = ExpansionType.LABEL;
         } else {
-            bufferSize = 4;
+            expansionType = ExpansionType.URI;
         }
+        int bufferSize = getBufferSize();
         List<SKOSType> types = new LinkedList<>();
         String typeString = settings.get("skosType");
         if (typeString != null) {
@@ -97,10 +234,37 @@ public class SKOSTokenFilterFactory extends AbstractTokenFilterFactory {
                 }
             }
         }
+        int fuzziness = settings.getAsInt("fuzziness", 0);
+        if (fuzziness < 0 || fuzziness > 2) {
+            throw new IllegalArgumentException("'fuzziness' must be 0, 1 or 2");
+        }
+        SKOSTypeCodec.Mode typeEncoding = SKOSTypeCodec.parseMode(settings.get("typeEncoding", "byte"));
         if (expansionType.equals(ExpansionType.LABEL)) {
-            return new SKOSLabelFilter(tokenStream, skosEngine, new StandardAnalyzer(), bufferSize, types);
+            SKOSLabelFilter labelFilter = new SKOSLabelFilter(tokenStream, skosEngine, new StandardAnalyzer(), normalizer, bufferSize, types);
+            labelFilter.setBudget(budget);
+            labelFilter.setStats(stats);
+            labelFilter.setTypeEncoding(typeEncoding);
+            labelFilter.setConceptIds(settings.getAsBoolean("conceptIds", false));
+            if (fuzziness > 0) {
+                labelFilter.setFuzziness(fuzziness,
+                        settings.getAsInt("fuzzyPrefixLength", SKOSLabelFilter.DEFAULT_FUZZY_PREFIX_LENGTH),
+                        settings.getAsInt("fuzzyMaxExpansions", SKOSLabelFilter.DEFAULT_FUZZY_MAX_EXPANSIONS));
+            }
+            return labelFilter;
         } else {
-            return new SKOSURIFilter(tokenStream, skosEngine, new StandardAnalyzer(), types);
+            SKOSURIFilter uriFilter = new SKOSURIFilter(tokenStream, skosEngine, new StandardAnalyzer(), types);
+            uriFilter.setBudget(budget);
+            uriFilter.setStats(stats);
+            uriFilter.setTypeEncoding(typeEncoding);
+            return uriFilter;
+        }
+    }
+
+    private static int getLimit(Settings settings, String name) {
+        int limit = settings.getAsInt(name, 0);
+        if (limit < 0) {
+            throw new IllegalArgumentException("'" + name + "' must be 0 (no limit) or a positive integer");
         }
+        return limit;
     }
 }
@@ -0,0 +1,156 @@
+package org.xbib.elasticsearch.index.analysis.skos;
+
+import java.util.Locale;
+
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.util.BytesRef;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * Encodes the SKOS type of expanded terms into the index, and decodes it at query time.
+ *
+ * BYTE writes a 1-byte payload with the ordinal of the type, INT the 4-byte payload of
+ * earlier versions. PREFIX writes no payload but prefixes the term with the lowercase
+ * type name and a colon, like "alt:leaps", so positions need not store payloads. NONE
+ * drops the type. Payload decoding accepts both payload sizes.
+ */
+public final class SKOSTypeCodec {
+
+    public enum Mode {
+        BYTE, INT, PREFIX, NONE
+    }
+
+    public static final char PREFIX_SEPARATOR = ':';
+
+    private static final SKOSType[] TYPES = SKOSType.values();
+
+    private static final BytesRef[] BYTE_PAYLOADS = new BytesRef[TYPES.length];
+
+    private static final BytesRef[] INT_PAYLOADS = new BytesRef[TYPES.length];
+
+    private static final char[][] PREFIXES = new char[TYPES.length][];
+
+    static {
+        for (SKOSType type : TYPES) {
+            BYTE_PAYLOADS[type.ordinal()] = new BytesRef(new byte[]{(byte) type.ordinal()});
+            INT_PAYLOADS[type.ordinal()] = new BytesRef(PayloadHelper.encodeInt(type.ordinal()));
+            PREFIXES[type.ordinal()] = (type.name().toLowerCase(Locale.ROOT) + PREFIX_SEPARATOR).toCharArray();
+        }
+    }
+
+    private SKOSTypeCodec() {
+    }
+
+    /**
+     * Parses the name of a mode, case insensitive
+     *
+     * @param name the name
+     * @return the mode
+     */
+    public static Mode parseMode(String name) {
+        try {
+            return Mode.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("'typeEncoding' must be one of byte, int, prefix, none");
+        }
+    }
+
+    /**
+     * Returns the payload of a SKOS type. The payloads are shared and must not be modified.
+     *
+     * @param type the SKOS type
+     * @param mode BYTE or INT
+     * @return the payload, or null for the other modes
+     */
+    public static BytesRef payload(SKOSType type, Mode mode) {
+        switch (mode) {
+            case BYTE:
+                return BYTE_PAYLOADS[type.ordinal()];
+            case INT:
+                return INT_PAYLOADS[type.ordinal()];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Decodes the SKOS type from a 1-byte or 4-byte payload
+     *
+     * @param payload the payload
+     * @return the SKOS type, or null if the payload does not encode a SKOS type
+     */
+    public static SKOSType decode(BytesRef payload) {
+        if (payload == null) {
+            return null;
+        }
+        int ordinal;
+        if (payload.length == 1) {
+            ordinal = payload.bytes[payload.offset];
+        } else if (payload.length == 4) {
+            ordinal = PayloadHelper.decodeInt(payload.bytes, payload.offset);
+        } else {
+            return null;
+        }
+        return ordinal >= 0 && ordinal < TYPES.length ? TYPES[ordinal] : null;
+    }
+
+    /**
+     * Returns the term prefix of a SKOS type. The arrays are shared and must not be modified.
+     *
+     * @param type the SKOS type
+     * @return the prefix, like "alt:"
+     */
+    public static char[] prefix(SKOSType type) {
+        return PREFIXES[type.ordinal()];
+    }
+
+    /**
+     * Prefixes a term with a SKOS type
+     *
+     * @param type the SKOS type
+     * @param term the term
+     * @return the prefixed term
+     */
+    public static String prefixed(SKOSType type, String term) {
+        return new String(PREFIXES[type.ordinal()]) + term;
+    }
+
+    /**
+     * Decodes the SKOS type from the prefix of a term
+     *
+     * @param term the term
+     * @return the SKOS type, or null if the term has no SKOS type prefix
+     */
+    public static SKOSType decodePrefix(CharSequence term) {
+        for (SKOSType type : TYPES) {
+            char[] prefix = PREFIXES[type.ordinal()];
+            if (startsWith(term, prefix)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the SKOS type prefix of a term
+     *
+     * @param term the term
+     * @return the term without prefix, or the term if it has no SKOS type prefix
+     */
+    public static String stripPrefix(String term) {
+        SKOSType type = decodePrefix(term);
+        return type != null ? term.substring(PREFIXES[type.ordinal()].length) : term;
+    }
+
+    private static boolean startsWith(CharSequence term, char[] prefix) {
+        if (term.length() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (term.charAt(i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
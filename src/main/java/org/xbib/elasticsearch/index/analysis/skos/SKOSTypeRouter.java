@@ -0,0 +1,148 @@
+package org.xbib.elasticsearch.index.analysis.skos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.AttributeSource;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * Consumes a SKOS token stream once and replays its tokens, all of them or only the tokens of
+ * one SKOS type, so the expansions of one analysis pass can be indexed in one field per type.
+ * Replayed tokens keep their positions; the tokens of a type are replayed without payloads,
+ * since their field already tells their type.
+ */
+public class SKOSTypeRouter {
+
+    private final AttributeSource attributes;
+
+    private final List<AttributeSource.State> states = new ArrayList<>();
+
+    private final List<Integer> positions = new ArrayList<>();
+
+    private final Map<SKOSType, List<Integer>> tokensByType = new EnumMap<>(SKOSType.class);
+
+    private AttributeSource.State endState;
+
+    /**
+     * Consumes and closes the token stream
+     *
+     * @param stream the token stream
+     * @param types the SKOS types to route
+     * @throws IOException if the stream fails
+     */
+    public SKOSTypeRouter(TokenStream stream, Set<SKOSType> types) throws IOException {
+        this.attributes = stream;
+        SKOSTypeAttribute skosAtt = stream.addAttribute(SKOSTypeAttribute.class);
+        PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+        try {
+            stream.reset();
+            int position = -1;
+            while (stream.incrementToken()) {
+                position += posIncAtt.getPositionIncrement();
+                SKOSType type = skosAtt.getSkosType();
+                if (type != null && types.contains(type)) {
+                    List<Integer> tokens = tokensByType.get(type);
+                    if (tokens == null) {
+                        tokens = new ArrayList<>();
+                        tokensByType.put(type, tokens);
+                    }
+                    tokens.add(states.size());
+                }
+                states.add(stream.captureState());
+                positions.add(position);
+            }
+            stream.end();
+            endState = stream.captureState();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * @return the types with at least one token
+     */
+    public Set<SKOSType> types() {
+        return tokensByType.keySet();
+    }
+
+    /**
+     * @return a replay of all tokens
+     */
+    public TokenStream all() {
+        return new Replay(null, false);
+    }
+
+    /**
+     * @param type the SKOS type
+     * @return a replay of the tokens of the type, without payloads
+     */
+    public TokenStream get(SKOSType type) {
+        List<Integer> tokens = tokensByType.get(type);
+        return new Replay(tokens != null ? tokens : new ArrayList<Integer>(), true);
+    }
+
+    private class Replay extends TokenStream {
+
+        // the indexes of the replayed tokens, null for all
+        private final List<Integer> tokens;
+
+        private final boolean clearPayloads;
+
+        private final PositionIncrementAttribute posIncAtt;
+
+        private final PayloadAttribute payloadAtt;
+
+        private int next;
+
+        private int position;
+
+        Replay(List<Integer> tokens, boolean clearPayloads) {
+            super(attributes.cloneAttributes());
+            this.tokens = tokens;
+            this.clearPayloads = clearPayloads;
+            this.posIncAtt = addAttribute(PositionIncrementAttribute.class);
+            this.payloadAtt = addAttribute(PayloadAttribute.class);
+        }
+
+        @Override
+        public boolean incrementToken() {
+            int size = tokens == null ? states.size() : tokens.size();
+            if (next == size) {
+                return false;
+            }
+            int token = tokens == null ? next : tokens.get(next);
+            next++;
+            restoreState(states.get(token));
+            int tokenPosition = positions.get(token);
+            posIncAtt.setPositionIncrement(tokenPosition - position);
+            position = tokenPosition;
+            if (clearPayloads) {
+                payloadAtt.setPayload(null);
+            }
+            return true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            if (endState != null) {
+                restoreState(endState);
+            }
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            next = 0;
+            position = -1;
+        }
+    }
+}
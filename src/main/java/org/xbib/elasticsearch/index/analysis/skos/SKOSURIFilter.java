@@ -21,6 +21,7 @@ import java.util.List;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 
+import org.xbib.elasticsearch.index.analysis.skos.engine.Expansion;
 import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
 import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
 
@@ -66,25 +67,12 @@ public final class SKOSURIFilter extends AbstractSKOSFilter {
      */
     public boolean addTermsToStack(String term) throws IOException {
         State state = captureState();
-
-        if (types.contains(SKOSType.PREF)) {
-            pushLabelsToStack(engine.getPrefLabels(term), SKOSType.PREF, state, 0);
-        }
-        if (types.contains(SKOSType.ALT)) {
-            pushLabelsToStack(engine.getAltLabels(term), SKOSType.ALT, state, 0);
-        }
-        if (types.contains(SKOSType.BROADER)) {
-            pushLabelsToStack(engine.getBroaderLabels(term), SKOSType.BROADER, state, 0);
-        }
-        if (types.contains(SKOSType.BROADERTRANSITIVE)) {
-            pushLabelsToStack(engine.getBroaderTransitiveLabels(term), SKOSType.BROADERTRANSITIVE, state, 0);
-        }
-        if (types.contains(SKOSType.NARROWER)) {
-            pushLabelsToStack(engine.getNarrowerLabels(term), SKOSType.NARROWER, state, 0);
-        }
-        if (types.contains(SKOSType.NARROWERTRANSITIVE)) {
-            pushLabelsToStack(engine.getNarrowerTransitiveLabels(term), SKOSType.NARROWERTRANSITIVE, state, 0);
+        startToken();
+        Expansion expansion = engine.getExpansionTable().getLabelExpansion(term, types, budget.getMaxDepth());
+        if (stats != null) {
+            stats.recordLookup(expansion.size() > 0);
         }
+        pushExpansionToStack(expansion, state, 0, 0);
         return !termStack.isEmpty();
     }
 }
@@ -0,0 +1,164 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The concepts of the label candidates of the bulk requests in flight. Before a bulk request
+ * is executed, its candidates are resolved in one engine call and kept here, and the label
+ * filters look them up instead of normalizing each candidate again for each document. Each
+ * candidate counts the open bulk requests holding it, and is removed when the last of them
+ * completes, so a steady stream of overlapping bulks does not keep the candidates of
+ * completed ones. The cache is not filled beyond its maximum size. A candidate not in the
+ * cache is resolved by the filter as usual.
+ */
+public class BulkLabelCache {
+
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    private final SKOSEngine engine;
+
+    private final int maxSize;
+
+    // the entries are added and released under the lock of the cache, and read without it
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong resolved = new AtomicLong();
+
+    public BulkLabelCache(SKOSEngine engine) {
+        this(engine, DEFAULT_MAX_SIZE);
+    }
+
+    public BulkLabelCache(SKOSEngine engine, int maxSize) {
+        this.engine = engine;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Resolves the candidates of a bulk request, to be closed when the request completes
+     *
+     * @param candidates the label candidates, as the label filter joins its buffered tokens
+     * @return the scope of the candidates
+     * @throws IOException if the candidates can not be resolved
+     */
+    public Scope open(Collection<String> candidates) throws IOException {
+        Scope scope = new Scope();
+        List<String> missing = new ArrayList<>();
+        synchronized (this) {
+            for (String candidate : candidates) {
+                Entry entry = entries.get(candidate);
+                if (entry != null) {
+                    entry.refs++;
+                    scope.candidates.add(candidate);
+                } else {
+                    missing.add(candidate);
+                }
+            }
+        }
+        if (missing.isEmpty() || entries.size() + missing.size() > maxSize) {
+            return scope;
+        }
+        Map<String, List<String>> concepts;
+        try {
+            concepts = engine.getConcepts(missing);
+        } catch (IOException e) {
+            scope.close();
+            throw e;
+        }
+        synchronized (this) {
+            for (String candidate : missing) {
+                Entry entry = entries.get(candidate);
+                // another bulk request may have resolved the candidate meanwhile
+                if (entry == null) {
+                    entry = new Entry(concepts.get(candidate));
+                    entries.put(candidate, entry);
+                }
+                entry.refs++;
+                scope.candidates.add(candidate);
+            }
+        }
+        resolved.addAndGet(missing.size());
+        return scope;
+    }
+
+    /**
+     * @param candidate the label candidate
+     * @return the concepts of the candidate, or null if it was not resolved for an open bulk request
+     */
+    public List<String> get(String candidate) {
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Entry entry = entries.get(candidate);
+        if (entry == null) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.concepts;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of candidate lookups answered by the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of candidates resolved ahead of their bulk requests
+     */
+    public long getResolved() {
+        return resolved.get();
+    }
+
+    private synchronized void release(List<String> candidates) {
+        for (String candidate : candidates) {
+            Entry entry = entries.get(candidate);
+            if (entry != null && --entry.refs == 0) {
+                entries.remove(candidate);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final List<String> concepts;
+
+        // the open scopes holding the candidate, guarded by the cache
+        private int refs;
+
+        Entry(List<String> concepts) {
+            this.concepts = concepts;
+        }
+    }
+
+    /**
+     * The candidates of one bulk request, released when the request completes
+     */
+    public class Scope implements Closeable {
+
+        private final List<String> candidates = new ArrayList<>();
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(candidates);
+            }
+        }
+    }
+}
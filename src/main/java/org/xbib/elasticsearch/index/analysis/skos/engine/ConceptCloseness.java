@@ -0,0 +1,131 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.util.Locale;
+
+import com.carrotsearch.hppc.IntFloatHashMap;
+import com.carrotsearch.hppc.IntIntHashMap;
+
+/**
+ * The closeness of concepts to a set of query concepts in the broader/narrower hierarchy,
+ * between 0 for unrelated concepts and 1 for the query concepts themselves. Two concepts are
+ * related by their common ancestors, a concept being its own ancestor. The closeness to the
+ * nearest query concept is taken.
+ *
+ * <ul>
+ * <li>PATH: 1 / (1 + d), where d is the number of steps up from one concept and down to the
+ * other over their nearest common ancestor</li>
+ * <li>WU_PALMER: 2 * (depth(a) + 1) / (depth(c) + depth(q) + 2), where a is the deepest common
+ * ancestor and depths count from the top concepts</li>
+ * </ul>
+ *
+ * The ancestors of each query concept are resolved once, the closeness of each concept is
+ * computed on first use and remembered, so an instance serves the concepts of many documents
+ * without allocating. An instance is not thread safe.
+ */
+public class ConceptCloseness {
+
+    public enum Measure {
+        PATH, WU_PALMER;
+
+        /**
+         * @param name the measure name, in any case
+         * @return the measure
+         * @throws IllegalArgumentException if there is no measure with the name
+         */
+        public static Measure fromString(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final ConceptGraph graph;
+
+    private final Measure measure;
+
+    private final int maxDistance;
+
+    private final int[] queryConcepts;
+
+    // per query concept, its ancestors and itself to the number of steps up to them
+    private final IntIntHashMap[] queryAncestors;
+
+    private final IntFloatHashMap closeness = new IntFloatHashMap();
+
+    /**
+     * @param graph the graph of the vocabulary
+     * @param queryConcepts the ordinals of the query concepts
+     * @param measure the closeness measure
+     * @param maxDistance the maximum number of steps between related concepts, 0 for no limit
+     */
+    public ConceptCloseness(ConceptGraph graph, int[] queryConcepts, Measure measure, int maxDistance) {
+        this.graph = graph;
+        this.measure = measure;
+        this.maxDistance = maxDistance;
+        this.queryConcepts = queryConcepts;
+        this.queryAncestors = new IntIntHashMap[queryConcepts.length];
+        for (int q = 0; q < queryConcepts.length; q++) {
+            int[] pairs = graph.getAncestorDistances(queryConcepts[q]);
+            IntIntHashMap ancestors = new IntIntHashMap(pairs.length / 2 + 1);
+            ancestors.put(queryConcepts[q], 0);
+            for (int i = 0; i < pairs.length; i += 2) {
+                ancestors.put(pairs[i], pairs[i + 1]);
+            }
+            queryAncestors[q] = ancestors;
+        }
+    }
+
+    /**
+     * @param concept the concept ordinal
+     * @return the closeness of the concept to the nearest query concept, 0 if unrelated
+     */
+    public float closeness(int concept) {
+        int slot = closeness.indexOf(concept);
+        if (slot >= 0) {
+            return closeness.indexGet(slot);
+        }
+        float value = compute(concept);
+        closeness.indexInsert(slot, concept, value);
+        return value;
+    }
+
+    /**
+     * @param docValues the concepts of a segment, positioned on a document
+     * @param count the number of concepts of the document
+     * @return the closeness of the nearest concept of the document, 0 if none is related
+     */
+    public float closeness(ConceptDocValues docValues, int count) {
+        float best = 0f;
+        for (int i = 0; i < count; i++) {
+            best = Math.max(best, closeness(docValues.concept(i)));
+        }
+        return best;
+    }
+
+    private float compute(int concept) {
+        int[] pairs = graph.getAncestorDistances(concept);
+        float best = 0f;
+        for (int q = 0; q < queryConcepts.length; q++) {
+            IntIntHashMap ancestors = queryAncestors[q];
+            int distance = ancestors.getOrDefault(concept, -1);
+            int commonDepth = distance >= 0 ? graph.getDepth(concept) : -1;
+            for (int i = 0; i < pairs.length; i += 2) {
+                int up = ancestors.getOrDefault(pairs[i], -1);
+                if (up >= 0) {
+                    int d = pairs[i + 1] + up;
+                    distance = distance < 0 ? d : Math.min(distance, d);
+                    commonDepth = Math.max(commonDepth, graph.getDepth(pairs[i]));
+                }
+            }
+            if (distance < 0 || (maxDistance > 0 && distance > maxDistance)) {
+                continue;
+            }
+            float value;
+            if (measure == Measure.PATH) {
+                value = 1f / (1 + distance);
+            } else {
+                value = 2f * (commonDepth + 1) / (graph.getDepth(concept) + graph.getDepth(queryConcepts[q]) + 2);
+            }
+            best = Math.max(best, Math.min(1f, value));
+        }
+        return best;
+    }
+}
@@ -0,0 +1,75 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * The concepts of the documents of a segment, read from the concept URIs in sorted set doc
+ * values. Segment ordinals are resolved to concept ordinals once, on first use, so reading
+ * the concepts of a document allocates nothing. URIs the vocabulary does not know are skipped.
+ */
+public class ConceptDocValues {
+
+    private final SortedSetDocValues values;
+
+    private final ConceptGraph graph;
+
+    // segment ordinal to concept ordinal, -2 if not resolved yet
+    private final int[] concepts;
+
+    private int[] docConcepts = new int[4];
+
+    private ConceptDocValues(SortedSetDocValues values, ConceptGraph graph) {
+        this.values = values;
+        this.graph = graph;
+        this.concepts = new int[(int) Math.min(Integer.MAX_VALUE - 16, values.getValueCount())];
+        Arrays.fill(concepts, -2);
+    }
+
+    /**
+     * @param reader the segment reader
+     * @param field the field with the concept URIs
+     * @param graph the graph of the vocabulary
+     * @return the concepts of the segment, or null if the segment has no doc values for the field
+     * @throws IOException if the doc values can not be read
+     */
+    public static ConceptDocValues get(LeafReader reader, String field, ConceptGraph graph) throws IOException {
+        SortedSetDocValues values = reader.getSortedSetDocValues(field);
+        return values != null ? new ConceptDocValues(values, graph) : null;
+    }
+
+    /**
+     * Reads the concepts of a document
+     *
+     * @param doc the document, in segment order
+     * @return the number of concepts of the document
+     */
+    public int setDocument(int doc) {
+        values.setDocument(doc);
+        int n = 0;
+        for (long ord = values.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = values.nextOrd()) {
+            int concept = concepts[(int) ord];
+            if (concept == -2) {
+                concept = graph.getOrdinal(values.lookupOrd(ord).utf8ToString());
+                concepts[(int) ord] = concept;
+            }
+            if (concept >= 0) {
+                docConcepts = ArrayUtil.grow(docConcepts, n + 1);
+                docConcepts[n++] = concept;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @param i the index of the concept, below the count of the last setDocument
+     * @return the concept ordinal
+     */
+    public int concept(int i) {
+        return docConcepts[i];
+    }
+}
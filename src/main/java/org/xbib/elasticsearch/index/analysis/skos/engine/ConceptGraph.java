@@ -0,0 +1,277 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * The broader/narrower graph of a concept store: the parents of each concept, from both
+ * broader and narrower relations, and the depth of each concept, its shortest distance from a
+ * top concept. Unlike the interval numbering of {@link ConceptHierarchy}, the graph is linear
+ * in the number of relations, so it exists for every vocabulary.
+ */
+public class ConceptGraph {
+
+    private final ConceptStore store;
+
+    // parentStarts[ordinal] to parentStarts[ordinal + 1] delimit the parents of a concept
+    private final int[] parentStarts;
+
+    private final int[] parents;
+
+    private final int[] depths;
+
+    private ConceptGraph(ConceptStore store, int[] parentStarts, int[] parents, int[] depths) {
+        this.store = store;
+        this.parentStarts = parentStarts;
+        this.parents = parents;
+        this.depths = depths;
+    }
+
+    /**
+     * @param uri the concept URI
+     * @return the ordinal of the concept, or -1 if the URI is unknown
+     */
+    public int getOrdinal(String uri) {
+        return store.getOrdinal(uri);
+    }
+
+    /**
+     * @param ordinal the concept ordinal
+     * @return the concept URI
+     */
+    public String getURI(int ordinal) {
+        return store.getURI(ordinal);
+    }
+
+    /**
+     * @param ordinal the concept ordinal
+     * @return the number of broader concepts of the concept
+     */
+    public int parentCount(int ordinal) {
+        return parentStarts[ordinal + 1] - parentStarts[ordinal];
+    }
+
+    public int getParent(int ordinal, int i) {
+        return parents[parentStarts[ordinal] + i];
+    }
+
+    /**
+     * @return the number of concepts
+     */
+    public int conceptCount() {
+        return parentStarts.length - 1;
+    }
+
+    /**
+     * Returns the concepts above a concept, nearest first
+     *
+     * @param ordinal the concept ordinal
+     * @return the ordinals of the ancestors, without the concept itself
+     */
+    public int[] getAncestors(int ordinal) {
+        int[] ancestors = new int[parentStarts[ordinal + 1] - parentStarts[ordinal]];
+        int count = 0;
+        int next = -1;
+        int current = ordinal;
+        while (true) {
+            for (int i = parentStarts[current]; i < parentStarts[current + 1]; i++) {
+                int parent = parents[i];
+                if (parent != ordinal && !contains(ancestors, count, parent)) {
+                    ancestors = ArrayUtil.grow(ancestors, count + 1);
+                    ancestors[count++] = parent;
+                }
+            }
+            if (++next == count) {
+                break;
+            }
+            current = ancestors[next];
+        }
+        return count < ancestors.length ? Arrays.copyOf(ancestors, count) : ancestors;
+    }
+
+    /**
+     * Returns the concepts above a concept with their distances, nearest first
+     *
+     * @param ordinal the concept ordinal
+     * @return pairs of ancestor ordinal and number of broader steps to it, without the concept itself
+     */
+    public int[] getAncestorDistances(int ordinal) {
+        int[] ancestors = getAncestors(ordinal);
+        int[] pairs = new int[ancestors.length * 2];
+        // the ancestors are in breadth first order, so the first step to a parent is the shortest
+        for (int i = 0; i < ancestors.length; i++) {
+            int ancestor = ancestors[i];
+            int distance = Integer.MAX_VALUE;
+            for (int j = 0; j < i && distance > 1; j++) {
+                if (isParent(ancestors[j], ancestor)) {
+                    distance = Math.min(distance, pairs[2 * j + 1] + 1);
+                }
+            }
+            if (isParent(ordinal, ancestor)) {
+                distance = 1;
+            }
+            pairs[2 * i] = ancestor;
+            pairs[2 * i + 1] = distance;
+        }
+        return pairs;
+    }
+
+    private boolean isParent(int ordinal, int parent) {
+        for (int i = parentStarts[ordinal]; i < parentStarts[ordinal + 1]; i++) {
+            if (parents[i] == parent) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param ordinal the concept ordinal
+     * @return the number of broader steps from the concept to its nearest top concept
+     */
+    public int getDepth(int ordinal) {
+        return depths[ordinal];
+    }
+
+    /**
+     * Returns the concepts below each concept, inverted from the parents
+     *
+     * @return per concept ordinal, the ordinals of its narrower concepts in ascending order
+     */
+    int[][] children() {
+        int size = conceptCount();
+        int[] counts = new int[size];
+        for (int parent : parents) {
+            counts[parent]++;
+        }
+        int[][] children = new int[size][];
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            children[ordinal] = new int[counts[ordinal]];
+            counts[ordinal] = 0;
+        }
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            for (int i = parentStarts[ordinal]; i < parentStarts[ordinal + 1]; i++) {
+                int parent = parents[i];
+                children[parent][counts[parent]++] = ordinal;
+            }
+        }
+        return children;
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long ramBytesUsed() {
+        return RamUsageEstimator.sizeOf(parentStarts) + RamUsageEstimator.sizeOf(parents)
+                + RamUsageEstimator.sizeOf(depths);
+    }
+
+    /**
+     * Collects the broader/narrower graph of a concept store
+     *
+     * @param store the concept store
+     * @return the graph
+     */
+    public static ConceptGraph build(ConceptStore store) {
+        int size = store.size();
+        int[][] children = children(store);
+        int[] parentStarts = new int[size + 1];
+        for (int[] c : children) {
+            for (int child : c) {
+                parentStarts[child + 1]++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            parentStarts[i + 1] += parentStarts[i];
+        }
+        int[] parents = new int[parentStarts[size]];
+        int[] next = Arrays.copyOf(parentStarts, size);
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            for (int child : children[ordinal]) {
+                parents[next[child]++] = ordinal;
+            }
+        }
+        return new ConceptGraph(store, parentStarts, parents, depths(children, parentStarts));
+    }
+
+    // breadth first from the top concepts, then from the concepts only reachable over a cycle
+    private static int[] depths(int[][] children, int[] parentStarts) {
+        int size = children.length;
+        int[] depths = new int[size];
+        Arrays.fill(depths, -1);
+        int[] queue = new int[size];
+        int tail = 0;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            if (parentStarts[ordinal] == parentStarts[ordinal + 1]) {
+                depths[ordinal] = 0;
+                queue[tail++] = ordinal;
+            }
+        }
+        int head = 0;
+        for (int ordinal = 0; ordinal <= size; ordinal++) {
+            while (head < tail) {
+                int node = queue[head++];
+                for (int child : children[node]) {
+                    if (depths[child] < 0) {
+                        depths[child] = depths[node] + 1;
+                        queue[tail++] = child;
+                    }
+                }
+            }
+            if (ordinal < size && depths[ordinal] < 0) {
+                depths[ordinal] = 0;
+                queue[tail++] = ordinal;
+            }
+        }
+        return depths;
+    }
+
+    private static int[][] children(ConceptStore store) {
+        int size = store.size();
+        int[] counts = new int[size];
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            for (int i = 0; i < store.count(ordinal, SKOSType.BROADER); i++) {
+                counts[store.get(ordinal, SKOSType.BROADER, i)]++;
+            }
+            counts[ordinal] += store.count(ordinal, SKOSType.NARROWER);
+        }
+        int[][] children = new int[size][];
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            children[ordinal] = new int[counts[ordinal]];
+            counts[ordinal] = 0;
+        }
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            for (int i = 0; i < store.count(ordinal, SKOSType.BROADER); i++) {
+                int parent = store.get(ordinal, SKOSType.BROADER, i);
+                children[parent][counts[parent]++] = ordinal;
+            }
+            for (int i = 0; i < store.count(ordinal, SKOSType.NARROWER); i++) {
+                children[ordinal][counts[ordinal]++] = store.get(ordinal, SKOSType.NARROWER, i);
+            }
+        }
+        // broader and narrower usually assert the same edges
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            int[] c = children[ordinal];
+            if (c.length > 1) {
+                Arrays.sort(c);
+                int n = 1;
+                for (int i = 1; i < c.length; i++) {
+                    if (c[i] != c[n - 1]) {
+                        c[n++] = c[i];
+                    }
+                }
+                children[ordinal] = n < c.length ? Arrays.copyOf(c, n) : c;
+            }
+        }
+        return children;
+    }
+}
@@ -0,0 +1,217 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Nested set numbering of the broader/narrower hierarchy of a concept store.
+ * A depth-first walk from the top concepts numbers each concept when it is
+ * entered (left) and when it is left (right), so the descendants of a concept
+ * are exactly the concepts with a left number within its interval. A concept
+ * with several broader concepts is reached on several paths and gets one
+ * interval per path. Cycles are cut where the walk meets a concept already on
+ * its path. Parents, ancestors and depths are kept by the {@link ConceptGraph}
+ * the numbering is built from, which exists even when the numbering does not.
+ */
+public class ConceptHierarchy {
+
+    /**
+     * The default maximum number of intervals, which bounds the walk over hierarchies
+     * with many paths to the same concepts
+     */
+    public static final int DEFAULT_MAX_INTERVALS = 1 << 24;
+
+    private final ConceptGraph graph;
+
+    // starts[ordinal] to starts[ordinal + 1] delimit the intervals of a concept
+    private final int[] starts;
+
+    private final int[] lefts;
+
+    private final int[] rights;
+
+    private ConceptHierarchy(ConceptGraph graph, int[] starts, int[] lefts, int[] rights) {
+        this.graph = graph;
+        this.starts = starts;
+        this.lefts = lefts;
+        this.rights = rights;
+    }
+
+    /**
+     * @return the graph the hierarchy is numbered from
+     */
+    public ConceptGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @param uri the concept URI
+     * @return the ordinal of the concept, or -1 if the URI is unknown
+     */
+    public int getOrdinal(String uri) {
+        return graph.getOrdinal(uri);
+    }
+
+    /**
+     * @param ordinal the concept ordinal
+     * @return the number of intervals of the concept
+     */
+    public int intervalCount(int ordinal) {
+        return starts[ordinal + 1] - starts[ordinal];
+    }
+
+    public int getLeft(int ordinal, int i) {
+        return lefts[starts[ordinal] + i];
+    }
+
+    public int getRight(int ordinal, int i) {
+        return rights[starts[ordinal] + i];
+    }
+
+    /**
+     * @return the total number of intervals
+     */
+    public int size() {
+        return lefts.length;
+    }
+
+    /**
+     * @return the bytes used by the intervals, without the graph
+     */
+    public long ramBytesUsed() {
+        return RamUsageEstimator.sizeOf(starts) + RamUsageEstimator.sizeOf(lefts) + RamUsageEstimator.sizeOf(rights);
+    }
+
+    /**
+     * Numbers the hierarchy of a concept graph
+     *
+     * @param graph the concept graph
+     * @return the hierarchy
+     */
+    public static ConceptHierarchy build(ConceptGraph graph) {
+        return build(graph, DEFAULT_MAX_INTERVALS);
+    }
+
+    /**
+     * Numbers the hierarchy of a concept graph
+     *
+     * @param graph the concept graph
+     * @param maxIntervals the maximum number of intervals
+     * @return the hierarchy
+     * @throws IllegalStateException if the hierarchy has more than maxIntervals paths
+     */
+    public static ConceptHierarchy build(ConceptGraph graph, int maxIntervals) {
+        int size = graph.conceptCount();
+        Walk walk = new Walk(size, graph.children(), maxIntervals);
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            if (graph.parentCount(ordinal) == 0) {
+                walk.walk(ordinal);
+            }
+        }
+        // concepts only reachable over a cycle
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            if (!walk.visited[ordinal]) {
+                walk.walk(ordinal);
+            }
+        }
+        return walk.group(graph);
+    }
+
+    private static class Walk {
+
+        private final int[][] children;
+
+        private final int maxIntervals;
+
+        private final boolean[] visited;
+
+        private final boolean[] onPath;
+
+        // the intervals in the order they were closed
+        private int[] nodes = new int[16];
+
+        private int[] lefts = new int[16];
+
+        private int[] rights = new int[16];
+
+        private int count;
+
+        private int counter;
+
+        // the walk stack: node, index of the next child, left number
+        private int[] stackNodes = new int[16];
+
+        private int[] stackNext = new int[16];
+
+        private int[] stackLefts = new int[16];
+
+        Walk(int size, int[][] children, int maxIntervals) {
+            this.children = children;
+            this.maxIntervals = maxIntervals;
+            this.visited = new boolean[size];
+            this.onPath = new boolean[size];
+        }
+
+        void walk(int root) {
+            int depth = 0;
+            push(depth++, root);
+            while (depth > 0) {
+                int top = depth - 1;
+                int node = stackNodes[top];
+                int[] c = children[node];
+                if (stackNext[top] < c.length) {
+                    int child = c[stackNext[top]++];
+                    if (!onPath[child]) {
+                        push(depth++, child);
+                    }
+                } else {
+                    if (count == maxIntervals) {
+                        throw new IllegalStateException("the concept hierarchy has more than " + maxIntervals + " paths");
+                    }
+                    nodes = ArrayUtil.grow(nodes, count + 1);
+                    lefts = ArrayUtil.grow(lefts, count + 1);
+                    rights = ArrayUtil.grow(rights, count + 1);
+                    nodes[count] = node;
+                    lefts[count] = stackLefts[top];
+                    rights[count] = counter++;
+                    count++;
+                    onPath[node] = false;
+                    depth--;
+                }
+            }
+        }
+
+        private void push(int depth, int node) {
+            stackNodes = ArrayUtil.grow(stackNodes, depth + 1);
+            stackNext = ArrayUtil.grow(stackNext, depth + 1);
+            stackLefts = ArrayUtil.grow(stackLefts, depth + 1);
+            stackNodes[depth] = node;
+            stackNext[depth] = 0;
+            stackLefts[depth] = counter++;
+            onPath[node] = true;
+            visited[node] = true;
+        }
+
+        ConceptHierarchy group(ConceptGraph graph) {
+            int size = visited.length;
+            int[] starts = new int[size + 1];
+            for (int i = 0; i < count; i++) {
+                starts[nodes[i] + 1]++;
+            }
+            for (int i = 0; i < size; i++) {
+                starts[i + 1] += starts[i];
+            }
+            int[] next = Arrays.copyOf(starts, size);
+            int[] groupedLefts = new int[count];
+            int[] groupedRights = new int[count];
+            for (int i = 0; i < count; i++) {
+                int j = next[nodes[i]]++;
+                groupedLefts[j] = lefts[i];
+                groupedRights[j] = rights[i];
+            }
+            return new ConceptHierarchy(graph, starts, groupedLefts, groupedRights);
+        }
+    }
+}
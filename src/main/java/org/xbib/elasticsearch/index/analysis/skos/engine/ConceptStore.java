@@ -0,0 +1,370 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import com.carrotsearch.hppc.IntArrayList;
+import org.apache.lucene.util.CharsRef;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * A compact in-memory SKOS vocabulary. Concepts are addressed by dense
+ * ordinals from a namespace-compressed URI table, labels by ids into a
+ * deduplicated label arena. The labels (PREF, ALT, HIDDEN) and relations
+ * (BROADER, NARROWER, BROADERTRANSITIVE, NARROWERTRANSITIVE, RELATED) of
+ * all concepts are stored in one pair of int arrays per SKOS type, in
+ * compressed sparse row layout, so the number of objects does not grow
+ * with the vocabulary size.
+ *
+ * Concepts may carry a compact numeric id, which is stable across reloads of
+ * the vocabulary, unlike the ordinal.
+ *
+ * A store built off-heap keeps all of these arrays in direct buffers, only
+ * the namespaces of the URI table remain on the heap.
+ */
+public class ConceptStore {
+
+    private final URITable uris;
+
+    private final LabelArena labels;
+
+    // per SKOS type: starts[type][ordinal] to starts[type][ordinal + 1] delimit the values of a concept
+    private final IntBuffer[] starts;
+
+    // per SKOS type: label ids for label types, concept ordinals for relation types
+    private final IntBuffer[] values;
+
+    // the concepts having a label, delimited by labelConceptStarts per label id
+    private final IntBuffer labelConceptStarts;
+
+    private final IntBuffer labelConcepts;
+
+    // the concept id per ordinal, -1 if the concept has no id
+    private final IntBuffer ids;
+
+    // the ordinal per concept id, -1 if the id is not assigned
+    private final IntBuffer ordinalsById;
+
+    private ConceptStore(URITable uris, LabelArena labels, IntBuffer[] starts, IntBuffer[] values,
+                         IntBuffer labelConceptStarts, IntBuffer labelConcepts, IntBuffer ids, IntBuffer ordinalsById) {
+        this.uris = uris;
+        this.labels = labels;
+        this.starts = starts;
+        this.values = values;
+        this.labelConceptStarts = labelConceptStarts;
+        this.labelConcepts = labelConcepts;
+        this.ids = ids;
+        this.ordinalsById = ordinalsById;
+    }
+
+    /**
+     * Returns the number of concepts, including URIs only referenced by relations
+     *
+     * @return the number of concepts
+     */
+    public int size() {
+        return uris.size();
+    }
+
+    /**
+     * @param uri the concept URI
+     * @return the ordinal of the concept, or -1 if the URI is unknown
+     */
+    public int getOrdinal(String uri) {
+        return uris.find(uri);
+    }
+
+    public String getURI(int ordinal) {
+        return uris.get(ordinal);
+    }
+
+    /**
+     * Returns the number of labels or related concepts of a concept
+     *
+     * @param ordinal the concept ordinal
+     * @param type the label or relation type
+     * @return the number of values
+     */
+    public int count(int ordinal, SKOSType type) {
+        IntBuffer s = starts[type.ordinal()];
+        return s.get(ordinal + 1) - s.get(ordinal);
+    }
+
+    /**
+     * Returns a label id or related concept ordinal of a concept
+     *
+     * @param ordinal the concept ordinal
+     * @param type the label or relation type
+     * @param i the index of the value, less than count(ordinal, type)
+     * @return the label id or the concept ordinal
+     */
+    public int get(int ordinal, SKOSType type, int i) {
+        return values[type.ordinal()].get(starts[type.ordinal()].get(ordinal) + i);
+    }
+
+    public LabelArena getLabels() {
+        return labels;
+    }
+
+    /**
+     * Points the given CharsRef to a label, without copying
+     *
+     * @param labelId the label id
+     * @param ref the CharsRef to reuse
+     * @return the CharsRef
+     */
+    public CharsRef getLabel(int labelId, CharsRef ref) {
+        return labels.get(labelId, ref);
+    }
+
+    public String getLabelString(int labelId) {
+        return labels.getString(labelId);
+    }
+
+    /**
+     * @param key the normalized label
+     * @return the label id, or -1 if no concept has this label
+     */
+    public int findLabel(CharSequence key) {
+        return labels.find(key);
+    }
+
+    /**
+     * @param labelId the label id
+     * @return the number of concepts having this label as PREF, ALT or HIDDEN label
+     */
+    public int conceptCount(int labelId) {
+        return labelConceptStarts.get(labelId + 1) - labelConceptStarts.get(labelId);
+    }
+
+    public int getConcept(int labelId, int i) {
+        return labelConcepts.get(labelConceptStarts.get(labelId) + i);
+    }
+
+    /**
+     * @param ordinal the concept ordinal
+     * @return the concept id, or -1 if the concept has no id
+     */
+    public int getId(int ordinal) {
+        return ids.get(ordinal);
+    }
+
+    /**
+     * @param id the concept id
+     * @return the concept ordinal, or -1 if no concept has this id
+     */
+    public int getOrdinalById(int id) {
+        return id >= 0 && id < ordinalsById.capacity() ? ordinalsById.get(id) : -1;
+    }
+
+    /**
+     * Formats a concept id as term, in base 36
+     *
+     * @param id the concept id
+     * @return the term
+     */
+    public static String formatId(int id) {
+        return Integer.toString(id, Character.MAX_RADIX);
+    }
+
+    /**
+     * Parses a term formatted by formatId
+     *
+     * @param term the term
+     * @return the concept id, or -1 if the term is not a concept id
+     */
+    public static int parseId(String term) {
+        try {
+            return Integer.parseInt(term, Character.MAX_RADIX);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public boolean isOffHeap() {
+        return labelConcepts.isDirect();
+    }
+
+    public long ramBytesUsed() {
+        long bytes = uris.ramBytesUsed() + labels.ramBytesUsed()
+                + DirectBuffers.ramBytesUsed(labelConceptStarts) + DirectBuffers.ramBytesUsed(labelConcepts)
+                + DirectBuffers.ramBytesUsed(ids) + DirectBuffers.ramBytesUsed(ordinalsById);
+        for (int i = 0; i < starts.length; i++) {
+            bytes += DirectBuffers.ramBytesUsed(starts[i]) + DirectBuffers.ramBytesUsed(values[i]);
+        }
+        return bytes;
+    }
+
+    public long offHeapBytesUsed() {
+        long bytes = uris.offHeapBytesUsed() + labels.offHeapBytesUsed()
+                + DirectBuffers.offHeapBytesUsed(labelConceptStarts) + DirectBuffers.offHeapBytesUsed(labelConcepts)
+                + DirectBuffers.offHeapBytesUsed(ids) + DirectBuffers.offHeapBytesUsed(ordinalsById);
+        for (int i = 0; i < starts.length; i++) {
+            bytes += DirectBuffers.offHeapBytesUsed(starts[i]) + DirectBuffers.offHeapBytesUsed(values[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Collects concepts, labels and relations. Labels must be added in normalized form,
+     * and a concept's labels should be added together, so the concepts of a label keep
+     * the order they were added in.
+     */
+    public static class Builder {
+
+        private final URITable uris = new URITable();
+
+        private final LabelArena labels = new LabelArena();
+
+        private final IntArrayList[] sources = new IntArrayList[SKOSType.values().length];
+
+        private final IntArrayList[] targets = new IntArrayList[SKOSType.values().length];
+
+        private final IntArrayList dictionaryLabels = new IntArrayList();
+
+        private final IntArrayList dictionaryConcepts = new IntArrayList();
+
+        private final IntArrayList ids = new IntArrayList();
+
+        public Builder() {
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = new IntArrayList();
+                targets[i] = new IntArrayList();
+            }
+        }
+
+        public int addConcept(String uri) {
+            return uris.add(uri);
+        }
+
+        /**
+         * @param ordinal the concept ordinal
+         * @param type PREF, ALT or HIDDEN
+         * @param label the normalized label
+         */
+        public void addLabel(int ordinal, SKOSType type, String label) {
+            int labelId = labels.add(label);
+            sources[type.ordinal()].add(ordinal);
+            targets[type.ordinal()].add(labelId);
+            dictionaryLabels.add(labelId);
+            dictionaryConcepts.add(ordinal);
+        }
+
+        /**
+         * Assigns a compact id to a concept. Ids should be dense, they index an array.
+         *
+         * @param ordinal the concept ordinal
+         * @param id the concept id
+         */
+        public void setId(int ordinal, int id) {
+            while (ids.size() <= ordinal) {
+                ids.add(-1);
+            }
+            ids.set(ordinal, id);
+        }
+
+        /**
+         * @param ordinal the concept ordinal
+         * @param type BROADER, NARROWER, BROADERTRANSITIVE, NARROWERTRANSITIVE or RELATED
+         * @param uri the URI of the related concept
+         */
+        public void addRelation(int ordinal, SKOSType type, String uri) {
+            sources[type.ordinal()].add(ordinal);
+            targets[type.ordinal()].add(uris.add(uri));
+        }
+
+        public ConceptStore build() {
+            return build(false);
+        }
+
+        /**
+         * Builds the store
+         *
+         * @param offHeap true if the store should be kept in direct buffers outside of the Java heap
+         * @return the concept store
+         */
+        public ConceptStore build(boolean offHeap) {
+            uris.trim();
+            labels.trim();
+            int size = uris.size();
+            IntBuffer[] starts = new IntBuffer[sources.length];
+            IntBuffer[] values = new IntBuffer[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                int[] s = new int[size + 1];
+                int[] v = new int[sources[i].size()];
+                int n = group(sources[i], targets[i], s, v);
+                starts[i] = toBuffer(s, s.length, offHeap);
+                values[i] = toBuffer(v, n, offHeap);
+            }
+            int[] labelConceptStarts = new int[labels.size() + 1];
+            int[] labelConcepts = new int[dictionaryLabels.size()];
+            int n = group(dictionaryLabels, dictionaryConcepts, labelConceptStarts, labelConcepts);
+            int[] conceptIds = new int[size];
+            Arrays.fill(conceptIds, -1);
+            int maxId = -1;
+            for (int i = 0; i < ids.size(); i++) {
+                conceptIds[i] = ids.get(i);
+                maxId = Math.max(maxId, conceptIds[i]);
+            }
+            int[] ordinalsById = new int[maxId + 1];
+            Arrays.fill(ordinalsById, -1);
+            for (int i = 0; i < size; i++) {
+                if (conceptIds[i] >= 0) {
+                    ordinalsById[conceptIds[i]] = i;
+                }
+            }
+            if (offHeap) {
+                uris.moveOffHeap();
+                labels.moveOffHeap();
+            }
+            return new ConceptStore(uris, labels, starts, values,
+                    toBuffer(labelConceptStarts, labelConceptStarts.length, offHeap),
+                    toBuffer(labelConcepts, n, offHeap),
+                    toBuffer(conceptIds, size, offHeap),
+                    toBuffer(ordinalsById, ordinalsById.length, offHeap));
+        }
+
+        private static IntBuffer toBuffer(int[] array, int length, boolean offHeap) {
+            if (offHeap) {
+                return DirectBuffers.copyOf(array, length);
+            }
+            return IntBuffer.wrap(length < array.length ? Arrays.copyOf(array, length) : array);
+        }
+
+        /**
+         * Groups the targets by source with a stable counting sort, dropping a target
+         * equal to the previous target of the same source
+         *
+         * @return the number of values
+         */
+        private static int group(IntArrayList sources, IntArrayList targets, int[] starts, int[] values) {
+            int n = sources.size();
+            int[] next = new int[starts.length];
+            for (int i = 0; i < n; i++) {
+                next[sources.get(i) + 1]++;
+            }
+            for (int i = 1; i < next.length; i++) {
+                next[i] += next[i - 1];
+            }
+            int[] ends = next.clone();
+            for (int i = 0; i < n; i++) {
+                int source = sources.get(i);
+                int target = targets.get(i);
+                if (ends[source] > next[source] && values[ends[source] - 1] == target) {
+                    continue;
+                }
+                values[ends[source]++] = target;
+            }
+            // compact the groups, duplicates left gaps
+            int written = 0;
+            for (int source = 0; source < starts.length - 1; source++) {
+                starts[source] = written;
+                for (int i = next[source]; i < ends[source]; i++) {
+                    values[written++] = values[i];
+                }
+            }
+            starts[starts.length - 1] = written;
+            return written;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Helpers for moving the arrays of the vocabulary structures into direct buffers,
+ * outside of the Java heap. The memory of a direct buffer is released when the
+ * buffer is garbage collected.
+ */
+final class DirectBuffers {
+
+    private DirectBuffers() {
+    }
+
+    static IntBuffer copyOf(int[] array, int length) {
+        IntBuffer buffer = ByteBuffer.allocateDirect(length * RamUsageEstimator.NUM_BYTES_INT)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        buffer.put(array, 0, length);
+        buffer.clear();
+        return buffer;
+    }
+
+    static CharBuffer copyOf(char[] array, int length) {
+        CharBuffer buffer = ByteBuffer.allocateDirect(length * RamUsageEstimator.NUM_BYTES_CHAR)
+                .order(ByteOrder.nativeOrder()).asCharBuffer();
+        buffer.put(array, 0, length);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns the heap bytes of a buffer's backing array, or 0 for a direct buffer
+     */
+    static long ramBytesUsed(IntBuffer buffer) {
+        return buffer.isDirect() ? 0 : RamUsageEstimator.sizeOf(buffer.array());
+    }
+
+    /**
+     * Returns the bytes of a direct buffer, or 0 for a heap buffer
+     */
+    static long offHeapBytesUsed(IntBuffer buffer) {
+        return buffer.isDirect() ? (long) buffer.capacity() * RamUsageEstimator.NUM_BYTES_INT : 0;
+    }
+
+    static long offHeapBytesUsed(CharBuffer buffer) {
+        return buffer.isDirect() ? (long) buffer.capacity() * RamUsageEstimator.NUM_BYTES_CHAR : 0;
+    }
+}
@@ -0,0 +1,133 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * The label lookups of an engine, counted by lookup method with their hits, misses and latency
+ * in nanoseconds, and the durations of loading and indexing its vocabulary. A lookup is a hit if
+ * it found at least one concept. The counters are updated without locks, a lookup costs two
+ * calls to System.nanoTime() and a few atomic increments.
+ */
+public class EngineStats {
+
+    /**
+     * The lookup methods of an engine
+     */
+    public enum Method {
+        CONCEPTS_FOR_KEY, CONCEPTS, CONCEPTS_FUZZY;
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Map<Method, Lookups> lookups = new EnumMap<>(Method.class);
+
+    private volatile long loadMillis;
+
+    private volatile long indexMillis;
+
+    public EngineStats() {
+        for (Method method : Method.values()) {
+            lookups.put(method, new Lookups());
+        }
+    }
+
+    /**
+     * Records a lookup
+     *
+     * @param method the lookup method
+     * @param hit true if the lookup found concepts
+     * @param startNanos the value of System.nanoTime() when the lookup started
+     */
+    public void record(Method method, boolean hit, long startNanos) {
+        lookups.get(method).record(hit, System.nanoTime() - startNanos);
+    }
+
+    public Lookups getLookups(Method method) {
+        return lookups.get(method);
+    }
+
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+
+    public void setLoadMillis(long loadMillis) {
+        this.loadMillis = loadMillis;
+    }
+
+    public long getIndexMillis() {
+        return indexMillis;
+    }
+
+    public void setIndexMillis(long indexMillis) {
+        this.indexMillis = indexMillis;
+    }
+
+    /**
+     * Writes the lookups and durations as fields of the current object, latencies in microseconds
+     *
+     * @param builder the builder
+     * @return the builder
+     * @throws IOException if the fields can not be written
+     */
+    public XContentBuilder toXContent(XContentBuilder builder) throws IOException {
+        builder.field("load_time_in_millis", loadMillis);
+        builder.field("index_time_in_millis", indexMillis);
+        builder.startObject("lookups");
+        for (Map.Entry<Method, Lookups> entry : lookups.entrySet()) {
+            Lookups methodLookups = entry.getValue();
+            builder.startObject(entry.getKey().getName());
+            builder.field("count", methodLookups.getCount());
+            builder.field("hits", methodLookups.getHits());
+            builder.field("misses", methodLookups.getMisses());
+            methodLookups.getLatency().toXContent(builder, "latency_in_micros", 1000L);
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * The lookups of one method
+     */
+    public static class Lookups {
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        private final Histogram latency = new Histogram();
+
+        void record(boolean hit, long nanos) {
+            if (hit) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            latency.record(nanos);
+        }
+
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public Histogram getLatency() {
+            return latency;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * The final, ordered and deduplicated output tokens of a concept expansion,
+ * each with the SKOS type it was expanded from.
+ *
+ * Expansions are immutable and shared between all filters using an engine.
+ * The terms are views into shared char arrays, like the label arena of the
+ * engine, and must not be modified.
+ */
+public final class Expansion {
+
+    public static final Expansion EMPTY = new Expansion(new CharsRef[0], new SKOSType[0]);
+
+    private final CharsRef[] terms;
+
+    private final SKOSType[] types;
+
+    public Expansion(CharsRef[] terms, SKOSType[] types) {
+        this.terms = terms;
+        this.types = types;
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    public CharsRef getTerm(int i) {
+        return terms[i];
+    }
+
+    public SKOSType getType(int i) {
+        return types[i];
+    }
+
+    /**
+     * Estimates the heap bytes of the expansion. The chars of each term are counted,
+     * even if they are shared with other expansions or the label arena.
+     *
+     * @return the estimated bytes
+     */
+    public long ramBytesUsed() {
+        long bytes = RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 2 * RamUsageEstimator.NUM_BYTES_OBJECT_REF
+                + RamUsageEstimator.shallowSizeOf(terms) + RamUsageEstimator.shallowSizeOf(types);
+        for (CharsRef term : terms) {
+            bytes += RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + RamUsageEstimator.NUM_BYTES_OBJECT_REF
+                    + 2 * RamUsageEstimator.NUM_BYTES_INT + RamUsageEstimator.NUM_BYTES_CHAR * term.length;
+        }
+        return bytes;
+    }
+}
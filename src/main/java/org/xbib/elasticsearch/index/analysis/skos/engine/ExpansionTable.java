@@ -0,0 +1,454 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntHashSet;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import org.apache.lucene.util.CharsRef;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * Memoizes the expansions of concepts. An expansion is computed once per
+ * concept and SKOS type set, and then shared by all filters of an engine.
+ * The memoized expansions are bounded by their estimated heap bytes, since
+ * the label copies of an off-heap vocabulary are held on the heap.
+ * Equal terms of different expansions share one char array, as long as the
+ * term is among the most recently interned ones. The intern map is bounded.
+ * If the engine keeps its vocabulary in a concept store, label expansions are
+ * computed from ordinals and refer to the label arena of the store, without
+ * copying and without interning.
+ */
+public class ExpansionTable {
+
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_TERMS = 100000;
+
+    /**
+     * The order of the SKOS types in a label expansion, which is also their priority
+     * when an expansion budget truncates the expansion: the labels of the concept
+     * itself, then those of directly related concepts, then the transitive ones
+     */
+    private static final SKOSType[] LABEL_ORDER = new SKOSType[]{
+            SKOSType.PREF,
+            SKOSType.ALT,
+            SKOSType.HIDDEN,
+            SKOSType.BROADER,
+            SKOSType.NARROWER,
+            SKOSType.RELATED,
+            SKOSType.BROADERTRANSITIVE,
+            SKOSType.NARROWERTRANSITIVE
+    };
+
+    private final SKOSEngine engine;
+
+    private final ConceptStore store;
+
+    private final Cache<Key, Expansion> cache;
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final ConcurrentMap<String, char[]> terms;
+
+    public ExpansionTable(SKOSEngine engine) {
+        this(engine, null, DEFAULT_MAX_BYTES);
+    }
+
+    public ExpansionTable(SKOSEngine engine, ConceptStore store) {
+        this(engine, store, DEFAULT_MAX_BYTES);
+    }
+
+    public ExpansionTable(SKOSEngine engine, ConceptStore store, long maxBytes) {
+        this.engine = engine;
+        this.store = store;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<Key, Expansion>() {
+                    @Override
+                    public int weigh(Key key, Expansion expansion) {
+                        return (int) Math.min(Integer.MAX_VALUE, expansion.ramBytesUsed());
+                    }
+                })
+                .removalListener(new RemovalListener<Key, Expansion>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, Expansion> notification) {
+                        bytes.addAndGet(-notification.getValue().ramBytesUsed());
+                    }
+                })
+                .build();
+        this.terms = CacheBuilder.newBuilder().maximumSize(DEFAULT_MAX_TERMS).<String, char[]>build().asMap();
+    }
+
+    /**
+     * @return the estimated heap bytes of the memoized expansions
+     */
+    public long ramBytesUsed() {
+        return bytes.get();
+    }
+
+    /**
+     * Returns the labels of a concept and its related concepts for the given SKOS types,
+     * in the order PREF, ALT, HIDDEN, BROADER, NARROWER, RELATED, BROADERTRANSITIVE, NARROWERTRANSITIVE.
+     * A label is only contained once, with the first type it was found for.
+     *
+     * @param conceptURI the concept URI
+     * @param types the SKOS types to expand to
+     * @return the expansion
+     * @throws IOException if the expansion can not be computed
+     */
+    public Expansion getLabelExpansion(String conceptURI, Set<SKOSType> types) throws IOException {
+        return getLabelExpansion(conceptURI, types, 0);
+    }
+
+    /**
+     * Returns the labels of a concept and its related concepts for the given SKOS types,
+     * in the order PREF, ALT, HIDDEN, BROADER, NARROWER, RELATED, BROADERTRANSITIVE, NARROWERTRANSITIVE.
+     * A label is only contained once, with the first type it was found for.
+     *
+     * With a maximum depth, the transitive concepts are the concepts reachable over at most
+     * maxDepth broader or narrower relations, nearest first, instead of the asserted
+     * transitive relations.
+     *
+     * @param conceptURI the concept URI
+     * @param types the SKOS types to expand to
+     * @param maxDepth the maximum hierarchy depth of transitive expansions, 0 for no limit
+     * @return the expansion
+     * @throws IOException if the expansion can not be computed
+     */
+    public Expansion getLabelExpansion(final String conceptURI, final Set<SKOSType> types, final int maxDepth)
+            throws IOException {
+        int mask = 0;
+        for (SKOSType type : types) {
+            mask |= 1 << type.ordinal();
+        }
+        final int typeMask = mask;
+        return get(new Key(conceptURI, mask, maxDepth), new Callable<Expansion>() {
+            @Override
+            public Expansion call() throws IOException {
+                engine.getWarmCache().recordLabelExpansion(conceptURI, typeMask, maxDepth);
+                if (store != null) {
+                    return computeLabelExpansion(conceptURI, types, maxDepth);
+                }
+                Map<String, SKOSType> labels = new LinkedHashMap<>();
+                for (SKOSType type : LABEL_ORDER) {
+                    if (!types.contains(type)) {
+                        continue;
+                    }
+                    if (maxDepth > 0 && isTransitive(type)) {
+                        for (String related : getHierarchy(conceptURI, directType(type), maxDepth)) {
+                            add(labels, engine.getPrefLabels(related), type);
+                            add(labels, engine.getAltLabels(related), type);
+                        }
+                    } else {
+                        add(labels, getLabels(conceptURI, type), type);
+                    }
+                }
+                return toExpansion(labels);
+            }
+        });
+    }
+
+    /**
+     * Returns the concept URI as PREF term, followed by the URIs of the broader
+     * concepts as BROADER terms and of the broader transitive concepts as
+     * BROADERTRANSITIVE terms. A URI is only contained once.
+     *
+     * @param conceptURI the concept URI
+     * @return the expansion
+     * @throws IOException if the expansion can not be computed
+     */
+    public Expansion getConceptExpansion(String conceptURI) throws IOException {
+        return getConceptExpansion(conceptURI, 0);
+    }
+
+    /**
+     * Returns the concept URI as PREF term, followed by the URIs of the broader
+     * concepts as BROADER terms and of the broader transitive concepts as
+     * BROADERTRANSITIVE terms. A URI is only contained once.
+     *
+     * With a maximum depth, the broader transitive concepts are the concepts reachable
+     * over at most maxDepth broader relations, nearest first.
+     *
+     * @param conceptURI the concept URI
+     * @param maxDepth the maximum hierarchy depth of the broader transitive concepts, 0 for no limit
+     * @return the expansion
+     * @throws IOException if the expansion can not be computed
+     */
+    public Expansion getConceptExpansion(final String conceptURI, final int maxDepth) throws IOException {
+        return get(new Key(conceptURI, -1, maxDepth), new Callable<Expansion>() {
+            @Override
+            public Expansion call() throws IOException {
+                engine.getWarmCache().recordConceptExpansion(conceptURI, false, maxDepth);
+                Map<String, SKOSType> concepts = new LinkedHashMap<>();
+                concepts.put(conceptURI, SKOSType.PREF);
+                add(concepts, engine.getBroaderConcepts(conceptURI), SKOSType.BROADER);
+                add(concepts, maxDepth > 0 ?
+                        getHierarchy(conceptURI, SKOSType.BROADER, maxDepth) :
+                        engine.getBroaderTransitiveConcepts(conceptURI), SKOSType.BROADERTRANSITIVE);
+                return toExpansion(concepts);
+            }
+        });
+    }
+
+    /**
+     * Returns the concept expansion with the concept URIs replaced by their compact
+     * concept ids. URIs without concept id are kept.
+     *
+     * @param conceptURI the concept URI
+     * @param maxDepth the maximum hierarchy depth of the broader transitive concepts, 0 for no limit
+     * @return the expansion
+     * @throws IOException if the expansion can not be computed
+     */
+    public Expansion getConceptIdExpansion(final String conceptURI, final int maxDepth) throws IOException {
+        return get(new Key(conceptURI, -2, maxDepth), new Callable<Expansion>() {
+            @Override
+            public Expansion call() throws IOException {
+                engine.getWarmCache().recordConceptExpansion(conceptURI, true, maxDepth);
+                Expansion expansion = getConceptExpansion(conceptURI, maxDepth);
+                Map<String, SKOSType> concepts = new LinkedHashMap<>();
+                for (int i = 0; i < expansion.size(); i++) {
+                    String uri = expansion.getTerm(i).toString();
+                    String id = engine.getConceptId(uri);
+                    concepts.put(id != null ? id : uri, expansion.getType(i));
+                }
+                return toExpansion(concepts);
+            }
+        });
+    }
+
+    private Expansion get(Key key, final Callable<Expansion> loader) throws IOException {
+        try {
+            return cache.get(key, new Callable<Expansion>() {
+                @Override
+                public Expansion call() throws Exception {
+                    Expansion expansion = loader.call();
+                    bytes.addAndGet(expansion.ramBytesUsed());
+                    return expansion;
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private Expansion computeLabelExpansion(String conceptURI, Set<SKOSType> types, int maxDepth) {
+        int ordinal = store.getOrdinal(conceptURI);
+        if (ordinal < 0) {
+            return Expansion.EMPTY;
+        }
+        IntHashSet seen = new IntHashSet();
+        IntArrayList labelIds = new IntArrayList();
+        List<SKOSType> labelTypes = new ArrayList<>();
+        for (SKOSType type : LABEL_ORDER) {
+            if (!types.contains(type)) {
+                continue;
+            }
+            switch (type) {
+                case PREF:
+                case ALT:
+                case HIDDEN:
+                    addLabels(ordinal, type, type, seen, labelIds, labelTypes);
+                    break;
+                default:
+                    // the labels of related concepts are their pref and alt labels
+                    IntArrayList related = maxDepth > 0 && isTransitive(type) ?
+                            getHierarchy(ordinal, directType(type), maxDepth) : getRelated(ordinal, type);
+                    for (int i = 0; i < related.size(); i++) {
+                        addLabels(related.get(i), SKOSType.PREF, type, seen, labelIds, labelTypes);
+                        addLabels(related.get(i), SKOSType.ALT, type, seen, labelIds, labelTypes);
+                    }
+                    break;
+            }
+        }
+        if (labelIds.isEmpty()) {
+            return Expansion.EMPTY;
+        }
+        CharsRef[] refs = new CharsRef[labelIds.size()];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = store.getLabel(labelIds.get(i), new CharsRef());
+        }
+        return new Expansion(refs, labelTypes.toArray(new SKOSType[labelTypes.size()]));
+    }
+
+    private IntArrayList getRelated(int ordinal, SKOSType type) {
+        IntArrayList related = new IntArrayList(store.count(ordinal, type));
+        for (int i = 0; i < store.count(ordinal, type); i++) {
+            related.add(store.get(ordinal, type, i));
+        }
+        return related;
+    }
+
+    /**
+     * Returns the concepts reachable over at most maxDepth relations of the given type,
+     * breadth first, so nearer concepts come first
+     */
+    private IntArrayList getHierarchy(int ordinal, SKOSType type, int maxDepth) {
+        IntHashSet seen = new IntHashSet();
+        seen.add(ordinal);
+        IntArrayList result = new IntArrayList();
+        IntArrayList level = new IntArrayList();
+        level.add(ordinal);
+        for (int depth = 1; depth <= maxDepth && !level.isEmpty(); depth++) {
+            IntArrayList next = new IntArrayList();
+            for (int i = 0; i < level.size(); i++) {
+                for (int j = 0; j < store.count(level.get(i), type); j++) {
+                    int related = store.get(level.get(i), type, j);
+                    if (seen.add(related)) {
+                        next.add(related);
+                    }
+                }
+            }
+            result.addAll(next);
+            level = next;
+        }
+        return result;
+    }
+
+    private List<String> getHierarchy(String conceptURI, SKOSType type, int maxDepth) throws IOException {
+        Set<String> seen = new LinkedHashSet<>();
+        seen.add(conceptURI);
+        List<String> level = Collections.singletonList(conceptURI);
+        for (int depth = 1; depth <= maxDepth && !level.isEmpty(); depth++) {
+            List<String> next = new ArrayList<>();
+            for (String concept : level) {
+                List<String> related = type == SKOSType.BROADER ?
+                        engine.getBroaderConcepts(concept) : engine.getNarrowerConcepts(concept);
+                for (String r : related) {
+                    if (r != null && seen.add(r)) {
+                        next.add(r);
+                    }
+                }
+            }
+            level = next;
+        }
+        seen.remove(conceptURI);
+        return new ArrayList<>(seen);
+    }
+
+    private static boolean isTransitive(SKOSType type) {
+        return type == SKOSType.BROADERTRANSITIVE || type == SKOSType.NARROWERTRANSITIVE;
+    }
+
+    private static SKOSType directType(SKOSType transitiveType) {
+        return transitiveType == SKOSType.BROADERTRANSITIVE ? SKOSType.BROADER : SKOSType.NARROWER;
+    }
+
+    private void addLabels(int ordinal, SKOSType labelType, SKOSType type,
+                           IntHashSet seen, IntArrayList labelIds, List<SKOSType> labelTypes) {
+        for (int i = 0; i < store.count(ordinal, labelType); i++) {
+            int labelId = store.get(ordinal, labelType, i);
+            if (seen.add(labelId)) {
+                labelIds.add(labelId);
+                labelTypes.add(type);
+            }
+        }
+    }
+
+    private List<String> getLabels(String conceptURI, SKOSType type) throws IOException {
+        switch (type) {
+            case PREF:
+                return engine.getPrefLabels(conceptURI);
+            case ALT:
+                return engine.getAltLabels(conceptURI);
+            case HIDDEN:
+                return engine.getHiddenLabels(conceptURI);
+            case BROADER:
+                return engine.getBroaderLabels(conceptURI);
+            case BROADERTRANSITIVE:
+                return engine.getBroaderTransitiveLabels(conceptURI);
+            case NARROWER:
+                return engine.getNarrowerLabels(conceptURI);
+            case NARROWERTRANSITIVE:
+                return engine.getNarrowerTransitiveLabels(conceptURI);
+            case RELATED:
+                return engine.getRelatedLabels(conceptURI);
+            default:
+                return null;
+        }
+    }
+
+    private static void add(Map<String, SKOSType> terms, List<String> values, SKOSType type) {
+        if (values != null) {
+            for (String value : values) {
+                if (value != null && !terms.containsKey(value)) {
+                    terms.put(value, type);
+                }
+            }
+        }
+    }
+
+    private Expansion toExpansion(Map<String, SKOSType> map) {
+        if (map.isEmpty()) {
+            return Expansion.EMPTY;
+        }
+        CharsRef[] refs = new CharsRef[map.size()];
+        SKOSType[] types = new SKOSType[map.size()];
+        int i = 0;
+        for (Map.Entry<String, SKOSType> entry : map.entrySet()) {
+            refs[i] = new CharsRef(intern(entry.getKey()), 0, entry.getKey().length());
+            types[i] = entry.getValue();
+            i++;
+        }
+        return new Expansion(refs, types);
+    }
+
+    private char[] intern(String term) {
+        char[] chars = terms.get(term);
+        if (chars == null) {
+            chars = term.toCharArray();
+            char[] previous = terms.putIfAbsent(term, chars);
+            if (previous != null) {
+                chars = previous;
+            }
+        }
+        return chars;
+    }
+
+    private static final class Key {
+
+        private final String conceptURI;
+
+        private final int types;
+
+        private final int maxDepth;
+
+        Key(String conceptURI, int types, int maxDepth) {
+            this.conceptURI = conceptURI;
+            this.types = types;
+            this.maxDepth = maxDepth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return types == other.types && maxDepth == other.maxDepth && conceptURI.equals(other.conceptURI);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * conceptURI.hashCode() + types) + maxDepth;
+        }
+    }
+}
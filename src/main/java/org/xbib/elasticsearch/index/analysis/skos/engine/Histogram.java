@@ -0,0 +1,126 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A histogram of non-negative values with a bounded relative error, recorded without locks by
+ * concurrent threads. Values below 8 are counted exactly, larger values in 8 buckets per power of
+ * two, so a percentile is at most 12.5% above the recorded value, like a HdrHistogram with one
+ * significant digit. The histogram takes a fixed 4 KB, whatever the range of the values.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value
+     *
+     * @param value the value, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0d;
+    }
+
+    /**
+     * Returns the highest value of the bucket holding the given percentile, at most the maximum
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the value, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100d * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                long highest = i + 1 < counts.length() ? lowestValue(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(highest, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Writes the count, mean, maximum and percentiles of the histogram as an object
+     *
+     * @param builder the builder
+     * @param name the name of the object
+     * @param divisor the divisor of the recorded values, to report nanoseconds in microseconds
+     * @return the builder
+     * @throws IOException if the object can not be written
+     */
+    public XContentBuilder toXContent(XContentBuilder builder, String name, long divisor) throws IOException {
+        builder.startObject(name);
+        builder.field("count", getCount());
+        builder.field("mean", getMean() / divisor);
+        builder.field("max", (double) getMax() / divisor);
+        builder.field("p50", (double) getPercentile(50d) / divisor);
+        builder.field("p90", (double) getPercentile(90d) / divisor);
+        builder.field("p99", (double) getPercentile(99d) / divisor);
+        builder.field("p999", (double) getPercentile(99.9d) / divisor);
+        builder.endObject();
+        return builder;
+    }
+}
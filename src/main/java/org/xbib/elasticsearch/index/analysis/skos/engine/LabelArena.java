@@ -0,0 +1,234 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * A deduplicated store of strings in a single char array. Each distinct
+ * string is stored once and addressed by an int id, ids are assigned in
+ * insertion order. Strings are handed out as CharsRef views into the arena,
+ * the views must not be modified.
+ *
+ * An arena can be moved off-heap into direct buffers once it is complete.
+ * It is read-only then, and strings are copied into the given CharsRef.
+ */
+public class LabelArena {
+
+    private char[] chars = new char[1024];
+
+    // offsets[id] is the start of string id, offsets[id + 1] its end
+    private int[] offsets = new int[65];
+
+    private int size;
+
+    // open addressing hash table of ids, -1 marks a free slot
+    private int[] table = newTable(64);
+
+    private CharBuffer directChars;
+
+    private IntBuffer directOffsets;
+
+    private IntBuffer directTable;
+
+    /**
+     * Adds a string if it is not yet contained
+     *
+     * @param s the string
+     * @return the id of the string
+     */
+    public int add(CharSequence s) {
+        if (isOffHeap()) {
+            throw new IllegalStateException("an off-heap label arena is read-only");
+        }
+        int slot = slot(s, hash(s));
+        if (table[slot] != -1) {
+            return table[slot];
+        }
+        int length = s.length();
+        int start = offsets[size];
+        chars = ArrayUtil.grow(chars, start + length);
+        for (int i = 0; i < length; i++) {
+            chars[start + i] = s.charAt(i);
+        }
+        offsets = ArrayUtil.grow(offsets, size + 2);
+        offsets[size + 1] = start + length;
+        table[slot] = size;
+        size++;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return size - 1;
+    }
+
+    /**
+     * Finds a string
+     *
+     * @param s the string
+     * @return the id of the string, or -1 if it is not contained
+     */
+    public int find(CharSequence s) {
+        return tableAt(slot(s, hash(s)));
+    }
+
+    /**
+     * Points the given CharsRef to a string in the arena, without copying.
+     * If the arena is off-heap, the string is copied into the CharsRef.
+     *
+     * @param id the id of the string
+     * @param ref the CharsRef to reuse
+     * @return the CharsRef
+     */
+    public CharsRef get(int id, CharsRef ref) {
+        int start = offset(id);
+        int length = offset(id + 1) - start;
+        if (isOffHeap()) {
+            if (ref.chars.length < length) {
+                ref.chars = new char[ArrayUtil.oversize(length, RamUsageEstimator.NUM_BYTES_CHAR)];
+            }
+            for (int i = 0; i < length; i++) {
+                ref.chars[i] = directChars.get(start + i);
+            }
+            ref.offset = 0;
+        } else {
+            ref.chars = chars;
+            ref.offset = start;
+        }
+        ref.length = length;
+        return ref;
+    }
+
+    public String getString(int id) {
+        if (isOffHeap()) {
+            return get(id, new CharsRef()).toString();
+        }
+        return new String(chars, offsets[id], offsets[id + 1] - offsets[id]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Releases the spare capacity of the arrays. Strings can still be added afterwards.
+     */
+    public void trim() {
+        if (!isOffHeap()) {
+            chars = Arrays.copyOf(chars, offsets[size]);
+            offsets = Arrays.copyOf(offsets, size + 1);
+        }
+    }
+
+    /**
+     * Moves the arena into direct buffers outside of the Java heap. The arena is read-only afterwards.
+     */
+    public void moveOffHeap() {
+        if (!isOffHeap()) {
+            directChars = DirectBuffers.copyOf(chars, offsets[size]);
+            directOffsets = DirectBuffers.copyOf(offsets, size + 1);
+            directTable = DirectBuffers.copyOf(table, table.length);
+            chars = null;
+            offsets = null;
+            table = null;
+        }
+    }
+
+    public boolean isOffHeap() {
+        return chars == null;
+    }
+
+    public long ramBytesUsed() {
+        if (isOffHeap()) {
+            return 0L;
+        }
+        return RamUsageEstimator.sizeOf(chars) + RamUsageEstimator.sizeOf(offsets) + RamUsageEstimator.sizeOf(table);
+    }
+
+    public long offHeapBytesUsed() {
+        if (!isOffHeap()) {
+            return 0L;
+        }
+        return DirectBuffers.offHeapBytesUsed(directChars) + DirectBuffers.offHeapBytesUsed(directOffsets)
+                + DirectBuffers.offHeapBytesUsed(directTable);
+    }
+
+    private int offset(int id) {
+        return offsets != null ? offsets[id] : directOffsets.get(id);
+    }
+
+    private char charAt(int i) {
+        return chars != null ? chars[i] : directChars.get(i);
+    }
+
+    private int tableAt(int slot) {
+        return table != null ? table[slot] : directTable.get(slot);
+    }
+
+    private int slot(CharSequence s, int hash) {
+        int mask = (table != null ? table.length : directTable.capacity()) - 1;
+        int slot = hash & mask;
+        while (tableAt(slot) != -1 && !equals(tableAt(slot), s)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean equals(int id, CharSequence s) {
+        int start = offset(id);
+        int length = offset(id + 1) - start;
+        if (length != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (charAt(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        table = newTable(capacity);
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(id) & mask;
+            while (table[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    private int hash(int id) {
+        int h = 0;
+        for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+            h = 31 * h + chars[i];
+        }
+        return mix(h);
+    }
+
+    private static int hash(CharSequence s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        return table;
+    }
+}
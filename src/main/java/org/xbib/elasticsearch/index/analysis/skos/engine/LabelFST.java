@@ -0,0 +1,183 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+/**
+ * An in-memory FST over normalized labels, mapping each label to its ordinal
+ * in code point order, which refers to the label in a label arena. Fuzzy
+ * lookups intersect a Levenshtein automaton with the FST, so only the
+ * branches of the FST the automaton can still accept are visited.
+ */
+public class LabelFST {
+
+    private final FST<Long> fst;
+
+    private final LabelArena arena;
+
+    // the arena ids of the labels, in code point order
+    private final int[] ids;
+
+    private LabelFST(FST<Long> fst, LabelArena arena, int[] ids) {
+        this.fst = fst;
+        this.arena = arena;
+        this.ids = ids;
+    }
+
+    /**
+     * Builds the FST
+     *
+     * @param keys the normalized labels
+     * @return the label FST
+     * @throws IOException if the FST can not be built
+     */
+    public static LabelFST build(Collection<String> keys) throws IOException {
+        LabelArena arena = new LabelArena();
+        for (String key : keys) {
+            arena.add(key);
+        }
+        arena.trim();
+        return build(arena);
+    }
+
+    /**
+     * Builds the FST over all labels of a label arena. The FST refers to the
+     * labels in the arena, they are not copied.
+     *
+     * @param arena the normalized labels
+     * @return the label FST
+     * @throws IOException if the FST can not be built
+     */
+    public static LabelFST build(final LabelArena arena) throws IOException {
+        Integer[] order = new Integer[arena.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // BYTE4 FSTs take their input in code point order
+        Arrays.sort(order, new Comparator<Integer>() {
+            private final CharsRef r1 = new CharsRef();
+            private final CharsRef r2 = new CharsRef();
+
+            @Override
+            public int compare(Integer id1, Integer id2) {
+                return compareCodePoints(arena.get(id1, r1), arena.get(id2, r2));
+            }
+        });
+        int[] ids = new int[order.length];
+        Builder<Long> builder = new Builder<>(FST.INPUT_TYPE.BYTE4, PositiveIntOutputs.getSingleton());
+        IntsRefBuilder scratch = new IntsRefBuilder();
+        CharsRef ref = new CharsRef();
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = order[i];
+            arena.get(ids[i], ref);
+            builder.add(Util.toUTF32(ref.chars, ref.offset, ref.length, scratch), (long) i);
+        }
+        return new LabelFST(builder.finish(), arena, ids);
+    }
+
+    private static int compareCodePoints(CharsRef s1, CharsRef s2) {
+        int i1 = s1.offset;
+        int i2 = s2.offset;
+        int end1 = s1.offset + s1.length;
+        int end2 = s2.offset + s2.length;
+        while (i1 < end1 && i2 < end2) {
+            int c1 = Character.codePointAt(s1.chars, i1, end1);
+            int c2 = Character.codePointAt(s2.chars, i2, end2);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+            i1 += Character.charCount(c1);
+            i2 += Character.charCount(c2);
+        }
+        return (end1 - i1) - (end2 - i2);
+    }
+
+    /**
+     * Returns the number of labels
+     *
+     * @return the number of labels
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the labels within the given edit distance of the key, ordered by
+     * distance. Labels with the same distance are in code point order.
+     *
+     * @param key the normalized label
+     * @param maxEdits the maximum edit distance (0 to 2), transpositions count as one edit
+     * @param prefixLength the number of leading characters that must match exactly
+     * @param maxMatches the maximum number of labels to return
+     * @return the labels mapped to their edit distance
+     * @throws IOException if the FST can not be read
+     */
+    public Map<String, Integer> fuzzy(String key, int maxEdits, int prefixLength, int maxMatches) throws IOException {
+        if (maxEdits < 0 || maxEdits > LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE) {
+            throw new IllegalArgumentException("edit distance must be between 0 and "
+                    + LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE);
+        }
+        Map<String, Integer> matches = new LinkedHashMap<>();
+        if (fst == null || maxMatches <= 0) {
+            return matches;
+        }
+        int prefixEnd = key.offsetByCodePoints(0, Math.min(prefixLength, key.codePointCount(0, key.length())));
+        String prefix = key.substring(0, prefixEnd);
+        LevenshteinAutomata levenshteinAutomata = new LevenshteinAutomata(key.substring(prefixEnd), true);
+        // one pass per distance yields the matches ranked by distance
+        for (int distance = 0; distance <= maxEdits && matches.size() < maxMatches; distance++) {
+            CharacterRunAutomaton automaton = new CharacterRunAutomaton(levenshteinAutomata.toAutomaton(distance, prefix));
+            List<Long> ordinals = new ArrayList<>();
+            FST.Arc<Long> root = fst.getFirstArc(new FST.Arc<Long>());
+            intersect(automaton, root, automaton.getInitialState(), 0L, fst.getBytesReader(), ordinals);
+            for (Long ordinal : ordinals) {
+                String label = arena.getString(ids[ordinal.intValue()]);
+                if (!matches.containsKey(label)) {
+                    matches.put(label, distance);
+                    if (matches.size() == maxMatches) {
+                        break;
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    private void intersect(CharacterRunAutomaton automaton, FST.Arc<Long> node, int state, long output,
+                           FST.BytesReader reader, List<Long> ordinals) throws IOException {
+        if (node.isFinal() && automaton.isAccept(state)) {
+            ordinals.add(output + node.nextFinalOutput);
+        }
+        if (!FST.targetHasArcs(node)) {
+            return;
+        }
+        FST.Arc<Long> arc = fst.readFirstTargetArc(node, new FST.Arc<Long>(), reader);
+        while (true) {
+            if (arc.label != FST.END_LABEL) {
+                int next = automaton.step(state, arc.label);
+                if (next != -1) {
+                    intersect(automaton, new FST.Arc<Long>().copyFrom(arc), next, output + arc.output, reader, ordinals);
+                }
+            }
+            if (arc.isLast()) {
+                break;
+            }
+            fst.readNextArc(arc, reader);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+
+/**
+ * Turns SKOS labels and label candidates into dictionary keys.
+ *
+ * The same normalizer is applied to every label when a vocabulary is loaded
+ * and to every candidate in the label filter, so a lookup is an exact key match.
+ * The tokens produced by the analyzer are joined by a single space.
+ *
+ * Engines outlive the indices that set them up, so a normalizer built from an index analyzer
+ * does not use the token streams of that analyzer, which are gone when the index is closed,
+ * but token streams of its own, built by the analysis chain of the index analyzer.
+ */
+public class LabelNormalizer {
+
+    /**
+     * The default normalizer: standard tokenization and lower-casing, no stop words, no stemming
+     */
+    public static final LabelNormalizer DEFAULT =
+            new LabelNormalizer("standard", new StandardAnalyzer(CharArraySet.EMPTY_SET));
+
+    private static final String FIELD = "label";
+
+    private final String name;
+
+    private final Analyzer analyzer;
+
+    /**
+     * Constructor
+     *
+     * @param name the name of the normalizer, e.g. the analyzer name from the index settings
+     * @param analyzer the analyzer producing the label tokens
+     */
+    public LabelNormalizer(String name, Analyzer analyzer) {
+        this.name = name;
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Creates a normalizer with token streams of its own, built by the analysis chain of the
+     * given analyzer, so it can be used after the analyzer is closed
+     *
+     * @param name the name of the normalizer, identifying the definition of the analyzer
+     * @param analyzer the analyzer producing the label tokens
+     * @return the normalizer
+     */
+    public static LabelNormalizer copyOf(String name, final Analyzer analyzer) {
+        return new LabelNormalizer(name, new AnalyzerWrapper(Analyzer.GLOBAL_REUSE_STRATEGY) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return analyzer;
+            }
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Normalizes a label
+     *
+     * @param label the label
+     * @return the normalized label, empty if the analyzer produced no tokens
+     * @throws IOException if analysis fails
+     */
+    public String normalize(String label) throws IOException {
+        StringBuilder builder = new StringBuilder(label.length());
+        try (TokenStream tokenStream = analyzer.tokenStream(FIELD, label)) {
+            CharTermAttribute termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                if (builder.length() > 0) {
+                    builder.append(' ');
+                }
+                builder.append(termAtt.buffer(), 0, termAtt.length());
+            }
+            tokenStream.end();
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Tokenizes a text like the labels, for finding labels in the text
+     *
+     * @param text the text
+     * @return the token stream, to be reset and consumed by the caller
+     */
+    public TokenStream tokenStream(String text) {
+        return analyzer.tokenStream(FIELD, text);
+    }
+}
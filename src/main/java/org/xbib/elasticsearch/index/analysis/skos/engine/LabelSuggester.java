@@ -0,0 +1,384 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * Completes label prefixes to concepts with a weighted FST over the preferred and alternative
+ * labels of a vocabulary. Each label is keyed by its language and its normalized form, once
+ * from each word on, so a prefix also matches inside a label. The output of a key is its cost,
+ * the inverted weight, the label weighs 2 for a preferred and 1 for an alternative label, times
+ * one plus the number of relations pointing to the concept. A lookup follows the prefix and
+ * takes the cheapest completions, so it visits only the arcs of the top suggestions.
+ */
+public class LabelSuggester {
+
+    private static final int MAX_WEIGHT = (1 << 30) - 1;
+
+    // separates the language from the label, and the label from the entry number
+    private static final byte SEPARATOR = 0;
+
+    private static final SKOSType[] TYPES = SKOSType.values();
+
+    private static final Comparator<Long> COST_ORDER = new Comparator<Long>() {
+        @Override
+        public int compare(Long c1, Long c2) {
+            return c1.compareTo(c2);
+        }
+    };
+
+    /**
+     * A suggested concept with its best matching label
+     */
+    public static class Suggestion {
+
+        private final String uri;
+
+        private final String label;
+
+        private final String language;
+
+        private final SKOSType type;
+
+        private final int weight;
+
+        Suggestion(String uri, String label, String language, SKOSType type, int weight) {
+            this.uri = uri;
+            this.label = label;
+            this.language = language;
+            this.type = type;
+            this.weight = weight;
+        }
+
+        public String getURI() {
+            return uri;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return the language of the label, empty if the label has none
+         */
+        public String getLanguage() {
+            return language;
+        }
+
+        public SKOSType getType() {
+            return type;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+    }
+
+    // the concept, the label id, the key id and the language and type of each entry
+    private static final int ENTRY_INTS = 4;
+
+    private final FST<Long> fst;
+
+    private final ConceptStore store;
+
+    private final IntBuffer entries;
+
+    private final LabelArena labels;
+
+    private final String[] languages;
+
+    private final int[] weights;
+
+    // the number of keys in the FST, every label once from each word on
+    private final int paths;
+
+    // all label languages, the empty language first
+    private final Set<String> allLanguages;
+
+    private LabelSuggester(FST<Long> fst, ConceptStore store, IntBuffer entries, LabelArena labels,
+                           String[] languages, int[] weights, int paths) {
+        this.fst = fst;
+        this.store = store;
+        this.entries = entries;
+        this.labels = labels;
+        this.languages = languages;
+        this.weights = weights;
+        this.paths = paths;
+        this.allLanguages = new LinkedHashSet<>(Arrays.asList(languages));
+    }
+
+    /**
+     * @return the number of suggestable labels
+     */
+    public int size() {
+        return weights.length;
+    }
+
+    /**
+     * Returns the concepts with a label starting with the key, or with a word of the label
+     * starting with the key, by weight. Matches at the start of a label come first among
+     * labels of the same weight. Each concept is suggested once, with its best label.
+     *
+     * @param key the normalized prefix
+     * @param languages the languages of the labels, labels without language always match,
+     *                  or null for all languages
+     * @param size the maximum number of concepts
+     * @return the suggestions
+     * @throws IOException if the FST can not be read
+     */
+    public List<Suggestion> suggest(String key, Collection<String> languages, int size) throws IOException {
+        if (fst == null || size <= 0) {
+            return Collections.emptyList();
+        }
+        Set<String> searched = new LinkedHashSet<>();
+        searched.add("");
+        searched.addAll(languages != null ? languages : allLanguages);
+        searched.retainAll(allLanguages);
+        FST.BytesReader reader = fst.getBytesReader();
+        BytesRefBuilder prefix = new BytesRefBuilder();
+        List<Suggestion> suggestions = new ArrayList<>();
+        // labels of one concept compete for the top paths, so ask for more until enough concepts are found,
+        // at most for all the paths of the FST
+        for (int topN = (int) Math.min(size * 2L, paths); ; topN = (int) Math.min(topN * 4L, paths)) {
+            long[] costs = new long[0];
+            int count = 0;
+            boolean exhausted = true;
+            for (String language : searched) {
+                prefix.clear();
+                prefix.append(new BytesRef(language));
+                prefix.append(SEPARATOR);
+                prefix.append(new BytesRef(key));
+                FST.Arc<Long> arc = new FST.Arc<>();
+                Long output = followPrefix(prefix.get(), arc, reader);
+                if (output == null) {
+                    continue;
+                }
+                Util.TopResults<Long> results = Util.shortestPaths(fst, arc, output, COST_ORDER, topN, true);
+                exhausted &= results.topN.size() < topN;
+                costs = ArrayUtil.grow(costs, count + results.topN.size());
+                for (Util.Result<Long> result : results) {
+                    costs[count++] = result.output;
+                }
+            }
+            Arrays.sort(costs, 0, count);
+            suggestions.clear();
+            Set<Integer> seen = new LinkedHashSet<>();
+            for (int i = 0; i < count && suggestions.size() < size; i++) {
+                int entry = (int) (costs[i] & Integer.MAX_VALUE);
+                int concept = entries.get(entry * ENTRY_INTS);
+                if (seen.add(concept)) {
+                    int languageAndType = entries.get(entry * ENTRY_INTS + 3);
+                    suggestions.add(new Suggestion(store.getURI(concept), labels.getString(entries.get(entry * ENTRY_INTS + 1)),
+                            this.languages[languageAndType >>> 8], TYPES[languageAndType & 0xff], weights[entry]));
+                }
+            }
+            if (suggestions.size() == size || exhausted || topN == paths) {
+                return suggestions;
+            }
+        }
+    }
+
+    private Long followPrefix(BytesRef prefix, FST.Arc<Long> arc, FST.BytesReader reader) throws IOException {
+        Long output = fst.outputs.getNoOutput();
+        fst.getFirstArc(arc);
+        for (int i = prefix.offset; i < prefix.offset + prefix.length; i++) {
+            if (fst.findTargetArc(prefix.bytes[i] & 0xff, arc, arc, reader) == null) {
+                return null;
+            }
+            output = fst.outputs.add(output, arc.output);
+        }
+        return output;
+    }
+
+    /**
+     * @return the heap bytes of the FST and the weights, and of the entries and labels unless they are off-heap
+     */
+    public long ramBytesUsed() {
+        return (fst != null ? fst.ramBytesUsed() : 0L) + RamUsageEstimator.sizeOf(weights)
+                + DirectBuffers.ramBytesUsed(entries) + labels.ramBytesUsed();
+    }
+
+    public long offHeapBytesUsed() {
+        return DirectBuffers.offHeapBytesUsed(entries) + labels.offHeapBytesUsed();
+    }
+
+    /**
+     * Collects the labels of a vocabulary while it is loaded. The collected labels take a few
+     * ints per label besides the deduplicated label chars, and can be moved off-heap, so an
+     * engine can keep the builder and build the suggester on first use.
+     */
+    public static class Builder {
+
+        private int[] entries = new int[16 * ENTRY_INTS];
+
+        private IntBuffer directEntries;
+
+        private int size;
+
+        private final LabelArena labels = new LabelArena();
+
+        private final LabelArena keys = new LabelArena();
+
+        private final List<String> languages = new ArrayList<>(Collections.singletonList(""));
+
+        /**
+         * Adds a label, only preferred and alternative labels are suggested
+         *
+         * @param ordinal the concept ordinal in the concept store
+         * @param type the label type
+         * @param label the label as given in the vocabulary
+         * @param language the language of the label, empty if none
+         * @param key the normalized label
+         */
+        public void add(int ordinal, SKOSType type, String label, String language, String key) {
+            if ((type != SKOSType.PREF && type != SKOSType.ALT) || key.isEmpty()) {
+                return;
+            }
+            if (directEntries != null) {
+                throw new IllegalStateException("an off-heap suggester builder is read-only");
+            }
+            String lang = language != null ? language : "";
+            int languageId = languages.indexOf(lang);
+            if (languageId < 0) {
+                languageId = languages.size();
+                languages.add(lang);
+            }
+            entries = ArrayUtil.grow(entries, (size + 1) * ENTRY_INTS);
+            int pos = size * ENTRY_INTS;
+            entries[pos] = ordinal;
+            entries[pos + 1] = labels.add(label);
+            entries[pos + 2] = keys.add(key);
+            entries[pos + 3] = languageId << 8 | type.ordinal();
+            size++;
+        }
+
+        /**
+         * Releases the spare capacity, and moves the collected labels into direct buffers
+         * outside of the Java heap if requested. No labels can be added after a move.
+         *
+         * @param offHeap true if the labels should be moved off-heap
+         * @return this builder
+         */
+        public Builder compact(boolean offHeap) {
+            if (directEntries == null) {
+                labels.trim();
+                keys.trim();
+                if (offHeap) {
+                    directEntries = DirectBuffers.copyOf(entries, size * ENTRY_INTS);
+                    entries = null;
+                    labels.moveOffHeap();
+                    keys.moveOffHeap();
+                } else {
+                    entries = Arrays.copyOf(entries, size * ENTRY_INTS);
+                }
+            }
+            return this;
+        }
+
+        public long ramBytesUsed() {
+            return (entries != null ? RamUsageEstimator.sizeOf(entries) : 0L) + labels.ramBytesUsed() + keys.ramBytesUsed();
+        }
+
+        public long offHeapBytesUsed() {
+            return (directEntries != null ? DirectBuffers.offHeapBytesUsed(directEntries) : 0L)
+                    + labels.offHeapBytesUsed() + keys.offHeapBytesUsed();
+        }
+
+        /**
+         * Builds the suggester. The suggester shares the labels of the builder.
+         *
+         * @param store the concept store of the vocabulary, for the URIs and relations of the concepts
+         * @return the suggester
+         * @throws IOException if the FST can not be built
+         */
+        public LabelSuggester build(ConceptStore store) throws IOException {
+            IntBuffer buffer = directEntries != null ? directEntries.duplicate() : IntBuffer.wrap(entries, 0, size * ENTRY_INTS);
+            int[] inDegrees = new int[store.size()];
+            for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+                for (SKOSType type : new SKOSType[]{SKOSType.BROADER, SKOSType.NARROWER, SKOSType.RELATED}) {
+                    for (int i = 0; i < store.count(ordinal, type); i++) {
+                        inDegrees[store.get(ordinal, type, i)]++;
+                    }
+                }
+            }
+            int[] weights = new int[size];
+            final List<BytesRef> entryKeys = new ArrayList<>();
+            List<Long> costs = new ArrayList<>();
+            for (int entry = 0; entry < size; entry++) {
+                int languageAndType = buffer.get(entry * ENTRY_INTS + 3);
+                String language = languages.get(languageAndType >>> 8);
+                long weight = (TYPES[languageAndType & 0xff] == SKOSType.PREF ? 2L : 1L)
+                        * (1L + inDegrees[buffer.get(entry * ENTRY_INTS)]);
+                weights[entry] = (int) Math.min(MAX_WEIGHT, weight);
+                String key = keys.getString(buffer.get(entry * ENTRY_INTS + 2));
+                int start = 0;
+                while (true) {
+                    entryKeys.add(entryKey(language, key.substring(start), entry));
+                    costs.add(((long) (MAX_WEIGHT - weights[entry]) << 32) | (start > 0 ? 1L << 31 : 0L) | entry);
+                    int space = key.indexOf(' ', start);
+                    if (space < 0) {
+                        break;
+                    }
+                    start = space + 1;
+                }
+            }
+            Integer[] order = new Integer[entryKeys.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    return entryKeys.get(i1).compareTo(entryKeys.get(i2));
+                }
+            });
+            FST<Long> fst = null;
+            if (order.length > 0) {
+                org.apache.lucene.util.fst.Builder<Long> builder =
+                        new org.apache.lucene.util.fst.Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+                IntsRefBuilder scratch = new IntsRefBuilder();
+                for (Integer i : order) {
+                    builder.add(Util.toIntsRef(entryKeys.get(i), scratch), costs.get(i));
+                }
+                fst = builder.finish();
+            }
+            return new LabelSuggester(fst, store, buffer, labels, languages.toArray(new String[languages.size()]), weights, order.length);
+        }
+
+        // language, separator, the label from a word on, separator, entry number for unique keys
+        private static BytesRef entryKey(String language, String key, int entry) {
+            byte[] lang = language.getBytes(StandardCharsets.UTF_8);
+            byte[] label = key.getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = new byte[lang.length + label.length + 6];
+            System.arraycopy(lang, 0, bytes, 0, lang.length);
+            bytes[lang.length] = SEPARATOR;
+            System.arraycopy(label, 0, bytes, lang.length + 1, label.length);
+            int pos = lang.length + 1 + label.length;
+            bytes[pos++] = SEPARATOR;
+            bytes[pos++] = (byte) (entry >>> 24);
+            bytes[pos++] = (byte) (entry >>> 16);
+            bytes[pos++] = (byte) (entry >>> 8);
+            bytes[pos] = (byte) entry;
+            return new BytesRef(bytes);
+        }
+    }
+}
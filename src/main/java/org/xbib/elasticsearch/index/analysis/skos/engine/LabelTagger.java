@@ -0,0 +1,240 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.carrotsearch.hppc.ObjectIntHashMap;
+
+/**
+ * Finds all labels of a vocabulary in a text in one pass, with an Aho-Corasick automaton over
+ * the tokens of the normalized labels. The text is tokenized by the label normalizer, each
+ * token moves the automaton by one transition or along its failure links, so the cost grows
+ * with the length of the text and the number of matches, not with the number of labels.
+ * Overlapping and nested labels are all reported. The automaton is read only, one instance
+ * serves concurrent callers.
+ */
+public class LabelTagger {
+
+    private static final int ROOT = 0;
+
+    /**
+     * A label found in a text
+     */
+    public static class Match {
+
+        private final int startOffset;
+
+        private final int endOffset;
+
+        private final int labelId;
+
+        Match(int startOffset, int endOffset, int labelId) {
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.labelId = labelId;
+        }
+
+        public int getStartOffset() {
+            return startOffset;
+        }
+
+        public int getEndOffset() {
+            return endOffset;
+        }
+
+        /**
+         * @return the id of the normalized label in the concept store
+         */
+        public int getLabelId() {
+            return labelId;
+        }
+    }
+
+    private final ConceptStore store;
+
+    // the token ids of all label tokens
+    private final ObjectIntHashMap<String> tokens;
+
+    // node and token id to the next node
+    private final LongIntHashMap transitions;
+
+    private final int[] failures;
+
+    // the label id ending at a node, or -1
+    private final int[] outputs;
+
+    // the next node with a label on the failure path, or -1
+    private final int[] outputLinks;
+
+    // the number of tokens from the root
+    private final int[] depths;
+
+    private LabelTagger(ConceptStore store, ObjectIntHashMap<String> tokens, LongIntHashMap transitions,
+                        int[] failures, int[] outputs, int[] outputLinks, int[] depths) {
+        this.store = store;
+        this.tokens = tokens;
+        this.transitions = transitions;
+        this.failures = failures;
+        this.outputs = outputs;
+        this.outputLinks = outputLinks;
+        this.depths = depths;
+    }
+
+    /**
+     * Builds the automaton over all labels of a concept store
+     *
+     * @param store the concept store
+     * @return the tagger
+     */
+    public static LabelTagger build(ConceptStore store) {
+        LabelArena labels = store.getLabels();
+        ObjectIntHashMap<String> tokens = new ObjectIntHashMap<>();
+        LongIntHashMap transitions = new LongIntHashMap();
+        int[] outputs = new int[16];
+        int[] depths = new int[16];
+        // the children of each node, as linked lists, for the breadth first pass
+        int[] firstChildren = new int[16];
+        int[] nextSiblings = new int[16];
+        int[] nodeTokens = new int[16];
+        outputs[ROOT] = -1;
+        firstChildren[ROOT] = -1;
+        int size = 1;
+        CharsRef ref = new CharsRef();
+        for (int labelId = 0; labelId < labels.size(); labelId++) {
+            String label = labels.get(labelId, ref).toString();
+            int node = ROOT;
+            for (String token : label.split(" ")) {
+                int tokenId = tokens.getOrDefault(token, -1);
+                if (tokenId < 0) {
+                    tokenId = tokens.size();
+                    tokens.put(token, tokenId);
+                }
+                int child = transitions.getOrDefault(key(node, tokenId), -1);
+                if (child < 0) {
+                    child = size++;
+                    outputs = ArrayUtil.grow(outputs, size);
+                    depths = ArrayUtil.grow(depths, size);
+                    firstChildren = ArrayUtil.grow(firstChildren, size);
+                    nextSiblings = ArrayUtil.grow(nextSiblings, size);
+                    nodeTokens = ArrayUtil.grow(nodeTokens, size);
+                    outputs[child] = -1;
+                    depths[child] = depths[node] + 1;
+                    firstChildren[child] = -1;
+                    nextSiblings[child] = firstChildren[node];
+                    firstChildren[node] = child;
+                    nodeTokens[child] = tokenId;
+                    transitions.put(key(node, tokenId), child);
+                }
+                node = child;
+            }
+            outputs[node] = labelId;
+        }
+        int[] failures = new int[size];
+        int[] outputLinks = new int[size];
+        outputLinks[ROOT] = -1;
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int child = firstChildren[ROOT]; child >= 0; child = nextSiblings[child]) {
+            failures[child] = ROOT;
+            outputLinks[child] = -1;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+                int tokenId = nodeTokens[child];
+                int failure = failures[node];
+                while (failure != ROOT && !transitions.containsKey(key(failure, tokenId))) {
+                    failure = failures[failure];
+                }
+                failures[child] = transitions.getOrDefault(key(failure, tokenId), ROOT);
+                int f = failures[child];
+                outputLinks[child] = outputs[f] >= 0 ? f : outputLinks[f];
+                queue[tail++] = child;
+            }
+        }
+        return new LabelTagger(store, tokens, transitions, failures, Arrays.copyOf(outputs, size), outputLinks,
+                Arrays.copyOf(depths, size));
+    }
+
+    private static long key(int node, int tokenId) {
+        return ((long) node << 32) | (tokenId & 0xffffffffL);
+    }
+
+    /**
+     * Finds the labels in a text, in the order of their end offsets
+     *
+     * @param normalizer the normalizer the labels were normalized with
+     * @param text the text
+     * @return the matches
+     * @throws IOException if the text can not be tokenized
+     */
+    public List<Match> tag(LabelNormalizer normalizer, String text) throws IOException {
+        List<Match> matches = new ArrayList<>();
+        int[] startOffsets = new int[16];
+        int count = 0;
+        int node = ROOT;
+        try (TokenStream stream = normalizer.tokenStream(text)) {
+            CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offsetAtt = stream.addAttribute(OffsetAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                startOffsets = ArrayUtil.grow(startOffsets, count + 1);
+                startOffsets[count] = offsetAtt.startOffset();
+                int tokenId = tokens.getOrDefault(termAtt.toString(), -1);
+                if (tokenId < 0) {
+                    node = ROOT;
+                } else {
+                    while (node != ROOT && !transitions.containsKey(key(node, tokenId))) {
+                        node = failures[node];
+                    }
+                    node = transitions.getOrDefault(key(node, tokenId), ROOT);
+                }
+                for (int n = outputs[node] >= 0 ? node : outputLinks[node]; n >= 0; n = outputLinks[n]) {
+                    matches.add(new Match(startOffsets[count - depths[n] + 1], offsetAtt.endOffset(), outputs[n]));
+                }
+                count++;
+            }
+            stream.end();
+        }
+        return matches;
+    }
+
+    /**
+     * @param labelId the label id of a match
+     * @return the normalized label
+     */
+    public String getLabel(int labelId) {
+        return store.getLabelString(labelId);
+    }
+
+    /**
+     * @param labelId the label id of a match
+     * @return the URIs of the concepts with this label
+     */
+    public List<String> getConcepts(int labelId) {
+        List<String> concepts = new ArrayList<>(store.conceptCount(labelId));
+        for (int i = 0; i < store.conceptCount(labelId); i++) {
+            concepts.add(store.getURI(store.getConcept(labelId, i)));
+        }
+        return concepts;
+    }
+
+    public long ramBytesUsed() {
+        return RamUsageEstimator.sizeOf(transitions.keys) + RamUsageEstimator.sizeOf(transitions.values)
+                + RamUsageEstimator.sizeOf(tokens.values) + RamUsageEstimator.shallowSizeOf(tokens.keys)
+                + RamUsageEstimator.sizeOf(failures) + RamUsageEstimator.sizeOf(outputs)
+                + RamUsageEstimator.sizeOf(outputLinks) + RamUsageEstimator.sizeOf(depths);
+    }
+}
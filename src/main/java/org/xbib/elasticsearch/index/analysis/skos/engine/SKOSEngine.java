@@ -16,7 +16,9 @@
 package org.xbib.elasticsearch.index.analysis.skos.engine;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An interface to the used SKOS model. It provides accessors to all the data
@@ -156,6 +158,143 @@ public interface SKOSEngine {
      */
     List<String> getConcepts(String label) throws IOException;
 
+    /**
+     * Returns the concepts (URIs) matching each of the given labels, normalizing
+     * each distinct label once
+     *
+     * @param labels the labels
+     * @return the concepts by label, an empty list for labels without concepts
+     * @throws IOException if method fails
+     */
+    Map<String, List<String>> getConcepts(Collection<String> labels) throws IOException;
+
+    /**
+     * Returns all concepts (URIs) having a label with the given normalized form.
+     * The key is looked up as is, callers normalize it with the label normalizer.
+     *
+     * @param key the normalized label
+     * @return String[] the concepts
+     * @throws IOException if method fails
+     */
+    List<String> getConceptsForKey(String key) throws IOException;
+
+    /**
+     * Returns the concepts (URIs) having a label within the given edit distance
+     * of the normalized key, ranked by the edit distance of the matching label
+     *
+     * @param key the normalized label
+     * @param maxEdits the maximum edit distance (0 to 2)
+     * @param prefixLength the number of leading characters that must match exactly
+     * @param maxMatches the maximum number of concepts to return
+     * @return String[] the concepts
+     * @throws IOException if method fails
+     */
+    List<String> getConceptsFuzzy(String key, int maxEdits, int prefixLength, int maxMatches) throws IOException;
+
+    /**
+     * Returns the memoized expansions of the concepts of this engine
+     *
+     * @return the expansion table
+     */
+    ExpansionTable getExpansionTable();
+
+    /**
+     * Returns the normalizer applied to the labels of this engine
+     *
+     * @return the label normalizer
+     */
+    LabelNormalizer getLabelNormalizer();
+
+    /**
+     * Returns the compact id of a concept. Concept ids are short base 36 terms,
+     * pinned in the vocabulary index, so they are stable across reloads.
+     *
+     * @param conceptURI the concept URI
+     * @return the concept id, or null if the concept has no id
+     */
+    String getConceptId(String conceptURI);
+
+    /**
+     * Returns the concept URI for a compact concept id
+     *
+     * @param conceptId the concept id
+     * @return the concept URI, or null if no concept has this id
+     */
+    String getConceptURI(String conceptId);
+
+    /**
+     * Returns the broader/narrower graph, computed on first use
+     *
+     * @return the concept graph
+     */
+    ConceptGraph getConceptGraph();
+
+    /**
+     * Returns the nested set numbering of the broader/narrower hierarchy, computed on first use
+     *
+     * @return the concept hierarchy, or null if the hierarchy has too many paths to be numbered
+     */
+    ConceptHierarchy getConceptHierarchy();
+
+    /**
+     * Returns the label completion of the preferred and alternative labels, built on first use
+     *
+     * @return the label suggester
+     * @throws IOException if the suggester can not be built
+     */
+    LabelSuggester getLabelSuggester() throws IOException;
+
+    /**
+     * Returns the automaton finding the labels of this engine in texts, built on first use
+     *
+     * @return the label tagger
+     */
+    LabelTagger getLabelTagger();
+
+    /**
+     * Returns the concepts of the label candidates of the bulk requests in flight
+     *
+     * @return the bulk label cache
+     */
+    BulkLabelCache getBulkLabelCache();
+
+    /**
+     * Returns the version of the loaded vocabulary, a hash of its concepts, labels and relations
+     *
+     * @return the vocabulary version
+     */
+    String getVersion();
+
+    /**
+     * Returns the counts of the label lookups and concept expansions, to be saved and preloaded
+     * across restarts
+     *
+     * @return the warm cache
+     */
+    WarmCache getWarmCache();
+
+    /**
+     * Returns the counts and latencies of the label lookups, and the load and index durations
+     * of the vocabulary
+     *
+     * @return the engine statistics
+     */
+    EngineStats getStats();
+
+    /**
+     * Returns the estimated number of bytes the vocabulary of this engine uses on the Java heap
+     *
+     * @return the heap bytes
+     */
+    long ramBytesUsed();
+
+    /**
+     * Returns the number of bytes the vocabulary of this engine uses outside of the Java heap
+     *
+     * @return the off-heap bytes
+     */
+    long offHeapBytesUsed();
+
     /**
      * Returns all alternative terms for a given label
      *
@@ -17,19 +17,128 @@ package org.xbib.elasticsearch.index.analysis.skos.engine;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
 import org.xbib.elasticsearch.index.analysis.skos.engine.jena.SKOSEngineImpl;
 
 /**
  * This factory instantiates the various kinds of SKOSEngine implementations
+ *
+ * Engines are cached by key. Each key is loaded once: concurrent requests for a key
+ * wait for the thread loading it, and a failed load is removed, so it is retried by
+ * the next request.
+ *
+ * The SKOS filter factories of the node register a loader for their vocabulary, so
+ * mappers, queries, aggregations and REST endpoints naming a vocabulary get its engine
+ * whether or not a filter has run on the node yet.
  */
 public class SKOSEngineFactory {
 
-    private final static Map<String, SKOSEngine> cache = new HashMap<>();
+    private final static ESLogger logger = ESLoggerFactory.getLogger(SKOSEngineFactory.class.getSimpleName());
+
+    private final static ConcurrentMap<String, FutureTask<SKOSEngine>> cache = new ConcurrentHashMap<>();
+
+    // the loaders of the SKOS filters of the node, by vocabulary and index name
+    private final static ConcurrentMap<String, ConcurrentMap<String, Loader>> loaders = new ConcurrentHashMap<>();
+
+    /**
+     * Loads the engine of a vocabulary on first use, like the SKOS filter defining it
+     */
+    public interface Loader {
+
+        SKOSEngine load() throws IOException;
+    }
+
+    // the directory of the warm cache files, set while a node runs
+    private static volatile Path warmCacheDirectory;
+
+    private static volatile int warmCacheMaxSize;
+
+    private static volatile Executor warmCacheExecutor;
+
+    /**
+     * Returns a SKOS Engine that has already been set up
+     *
+     * @param indexName the index name of the engine's vocabulary
+     * @return the SKOSEngine, or null if no engine has been set up for this index name
+     */
+    public static SKOSEngine getSKOSEngine(String indexName) {
+        SKOSEngine skosEngine = getLoaded(cache.get(indexName));
+        return skosEngine != null ? skosEngine : getLoaded(cache.get(indexName + "#offheap"));
+    }
+
+    /**
+     * Returns the engine of a vocabulary, loading it on first use with the loader of a SKOS filter
+     * defining the vocabulary, the filter of the given index if it defines one, else a filter of
+     * any index of the node
+     *
+     * @param index the name of the index asking, or null
+     * @param vocabulary the vocabulary, the index name of the engine
+     * @return the SKOSEngine, or null if no SKOS filter of the node defines the vocabulary and
+     * no engine has been set up for it
+     * @throws IOException if the engine can not be loaded
+     */
+    public static SKOSEngine getSKOSEngine(String index, String vocabulary) throws IOException {
+        Map<String, Loader> vocabularyLoaders = loaders.get(vocabulary);
+        if (vocabularyLoaders != null) {
+            Loader loader = index != null ? vocabularyLoaders.get(index) : null;
+            if (loader == null) {
+                for (Loader any : vocabularyLoaders.values()) {
+                    loader = any;
+                    break;
+                }
+            }
+            if (loader != null) {
+                return loader.load();
+            }
+        }
+        return getSKOSEngine(vocabulary);
+    }
+
+    /**
+     * Registers the loader of the engine of a SKOS filter
+     *
+     * @param index the name of the index of the filter
+     * @param vocabulary the vocabulary of the filter
+     * @param loader the loader
+     */
+    public static void registerLoader(String index, String vocabulary, Loader loader) {
+        ConcurrentMap<String, Loader> vocabularyLoaders = loaders.get(vocabulary);
+        if (vocabularyLoaders == null) {
+            vocabularyLoaders = new ConcurrentHashMap<>();
+            ConcurrentMap<String, Loader> previous = loaders.putIfAbsent(vocabulary, vocabularyLoaders);
+            if (previous != null) {
+                vocabularyLoaders = previous;
+            }
+        }
+        vocabularyLoaders.put(index, loader);
+    }
+
+    /**
+     * Removes the loaders of the SKOS filters of an index, when it is closed on the node.
+     * The engines stay cached.
+     *
+     * @param index the name of the index
+     */
+    public static void removeLoaders(String index) {
+        for (Map<String, Loader> vocabularyLoaders : loaders.values()) {
+            vocabularyLoaders.remove(index);
+        }
+    }
 
     /**
      * Sets up a SKOS Engine from a given InputStream. The inputstream must
@@ -42,13 +151,14 @@ public class SKOSEngineFactory {
      * @return a new SKOSEngine instance
      * @throws IOException if SKOS engine can not be instantiated
      */
-    public static SKOSEngine getSKOSEngine(Client client, String indexName, InputStream inputStream, String lang) throws IOException {
-        if (cache.containsKey(indexName)) {
-            return cache.get(indexName);
-        }
-        SKOSEngine skosEngine = new SKOSEngineImpl(client, indexName, inputStream, lang);
-        cache.put(indexName, skosEngine);
-        return skosEngine;
+    public static SKOSEngine getSKOSEngine(final Client client, final String indexName, final InputStream inputStream,
+                                           final String lang) throws IOException {
+        return load(indexName, new Callable<SKOSEngine>() {
+            @Override
+            public SKOSEngine call() throws IOException {
+                return new SKOSEngineImpl(client, indexName, inputStream, lang);
+            }
+        });
     }
 
     /**
@@ -64,12 +174,54 @@ public class SKOSEngineFactory {
      * @throws IOException if SKOS engine can not be instantiated
      */
     public static SKOSEngine getSKOSEngine(Client client, String indexName, String filenameOrURI, List<String> languages) throws IOException {
-        if (cache.containsKey(indexName)) {
-            return cache.get(indexName);
-        }
-        SKOSEngine skosEngine = new SKOSEngineImpl(client, indexName, filenameOrURI, languages);
-        cache.put(indexName, skosEngine);
-        return skosEngine;
+        return getSKOSEngine(client, indexName, filenameOrURI, languages, LabelNormalizer.DEFAULT);
+    }
+
+    /**
+     * Sets up a SKOS Engine from a given rdf file (serialized in any RDF
+     * serialization format) and considers only those concept labels that are
+     * defined in the language parameter. All labels are normalized by the
+     * given label normalizer.
+     *
+     * @param client the Elasticsearch client
+     * @param indexName the index name
+     * @param filenameOrURI the skos file
+     * @param languages the languages to be considered
+     * @param normalizer the label normalizer
+     * @return SKOSEngine
+     * @throws IOException if SKOS engine can not be instantiated
+     */
+    public static SKOSEngine getSKOSEngine(Client client, String indexName, String filenameOrURI, List<String> languages,
+                                           LabelNormalizer normalizer) throws IOException {
+        return getSKOSEngine(client, indexName, filenameOrURI, languages, normalizer, false);
+    }
+
+    /**
+     * Sets up a SKOS Engine from a given rdf file (serialized in any RDF
+     * serialization format) and considers only those concept labels that are
+     * defined in the language parameter. All labels are normalized by the
+     * given label normalizer. An off-heap engine keeps its vocabulary
+     * outside of the Java heap.
+     *
+     * @param client the Elasticsearch client
+     * @param indexName the index name
+     * @param filenameOrURI the skos file
+     * @param languages the languages to be considered
+     * @param normalizer the label normalizer
+     * @param offHeap true if the vocabulary should be kept outside of the Java heap
+     * @return SKOSEngine
+     * @throws IOException if SKOS engine can not be instantiated
+     */
+    public static SKOSEngine getSKOSEngine(final Client client, final String indexName, final String filenameOrURI,
+                                           final List<String> languages, final LabelNormalizer normalizer,
+                                           final boolean offHeap) throws IOException {
+        // on-heap and off-heap engines share the vocabulary index, but not the engine
+        return load(offHeap ? indexName + "#offheap" : indexName, new Callable<SKOSEngine>() {
+            @Override
+            public SKOSEngine call() throws IOException {
+                return new SKOSEngineImpl(client, indexName, filenameOrURI, languages, normalizer, offHeap);
+            }
+        });
     }
 
 
@@ -85,12 +237,131 @@ public class SKOSEngineFactory {
      * @return a new SKOSEngine instance
      * @throws IOException if SKOS engine can not be instantiated
      */
-    public static SKOSEngine getSKOSEngine(Client client, String indexName, InputStream inputStream, String format, List<String> languages) throws IOException {
-        if (cache.containsKey(indexName)) {
-            return cache.get(indexName);
+    public static SKOSEngine getSKOSEngine(final Client client, final String indexName, final InputStream inputStream,
+                                           final String format, final List<String> languages) throws IOException {
+        return load(indexName, new Callable<SKOSEngine>() {
+            @Override
+            public SKOSEngine call() throws IOException {
+                return new SKOSEngineImpl(client, indexName, inputStream, format, languages);
+            }
+        });
+    }
+
+    /**
+     * Returns the engines set up so far
+     *
+     * @return the engines by key, the index name, with suffix "#offheap" for off-heap engines
+     */
+    public static Map<String, SKOSEngine> getSKOSEngines() {
+        Map<String, SKOSEngine> engines = new HashMap<>();
+        for (Map.Entry<String, FutureTask<SKOSEngine>> entry : cache.entrySet()) {
+            SKOSEngine engine = getLoaded(entry.getValue());
+            if (engine != null) {
+                engines.put(entry.getKey(), engine);
+            }
         }
-        SKOSEngine skosEngine = new SKOSEngineImpl(client, indexName, inputStream, format, languages);
-        cache.put(indexName, skosEngine);
-        return skosEngine;
+        return engines;
+    }
+
+    /**
+     * Sets the directory of the warm cache files. Engines set up later look up the saved keys of
+     * their warm cache file in the background.
+     *
+     * @param directory the directory, or null to stop preloading
+     * @param maxSize the maximum number of keys to look up per engine
+     * @param executor the executor of the preloading
+     */
+    public static void setWarmCache(Path directory, int maxSize, Executor executor) {
+        warmCacheDirectory = directory;
+        warmCacheMaxSize = maxSize;
+        warmCacheExecutor = executor;
+    }
+
+    /**
+     * Returns the warm cache file of an engine
+     *
+     * @param directory the directory of the warm cache files
+     * @param key the key of the engine
+     * @return the file
+     */
+    public static Path getWarmCacheFile(Path directory, String key) {
+        return directory.resolve(key.replace('#', '.') + ".warm");
+    }
+
+    /**
+     * Returns the engine of a key, loading it if no other thread is loading it yet,
+     * or waiting for the thread loading it
+     */
+    private static SKOSEngine load(String key, Callable<SKOSEngine> loader) throws IOException {
+        FutureTask<SKOSEngine> task = cache.get(key);
+        if (task == null) {
+            FutureTask<SKOSEngine> newTask = new FutureTask<>(loader);
+            task = cache.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                newTask.run();
+                if (getLoaded(newTask) != null) {
+                    preloadWarmCache(key, getLoaded(newTask));
+                }
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the engine of [" + key + "]");
+        } catch (ExecutionException e) {
+            cache.remove(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Returns the engine of a finished load, or null while it is loading or if the load failed
+     */
+    private static SKOSEngine getLoaded(FutureTask<SKOSEngine> task) {
+        if (task == null || !task.isDone()) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    private static void preloadWarmCache(final String key, final SKOSEngine engine) {
+        final Path directory = warmCacheDirectory;
+        final Executor executor = warmCacheExecutor;
+        if (directory == null || executor == null) {
+            return;
+        }
+        final int maxSize = warmCacheMaxSize;
+        executor.execute(new AbstractRunnable() {
+            @Override
+            protected void doRun() throws Exception {
+                long start = System.nanoTime();
+                int count = engine.getWarmCache().preload(getWarmCacheFile(directory, key), maxSize);
+                if (count > 0) {
+                    logger.info("preloaded {} warm cache keys of [{}] in {} ms", count, key,
+                            (System.nanoTime() - start) / 1000000L);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                logger.warn("could not preload the warm cache of [{}]", t, key);
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.indices.IndicesLifecycle;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSFilterStats;
+
+/**
+ * Forgets the engine loaders of the SKOS filters of an index when the index is closed on the
+ * node, so a closed index is not kept alive by its filter factories, and vocabularies are only
+ * loaded on behalf of the indices of the node, and removes the filter statistics of an index
+ * when it is deleted.
+ */
+public class SKOSLoaderService extends AbstractLifecycleComponent<SKOSLoaderService> {
+
+    @Inject
+    public SKOSLoaderService(Settings settings, IndicesLifecycle indicesLifecycle) {
+        super(settings);
+        indicesLifecycle.addListener(new IndicesLifecycle.Listener() {
+            @Override
+            public void afterIndexClosed(Index index, Settings indexSettings) {
+                SKOSEngineFactory.removeLoaders(index.name());
+            }
+
+            @Override
+            public void afterIndexDeleted(Index index, Settings indexSettings) {
+                SKOSFilterStats.remove(index.name());
+            }
+        });
+    }
+
+    @Override
+    protected void doStart() {
+    }
+
+    @Override
+    protected void doStop() {
+    }
+
+    @Override
+    protected void doClose() {
+    }
+}
@@ -0,0 +1,219 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Maps concept URIs to dense ordinals and back. A URI is stored as a pair of
+ * a namespace id and a local name id, so a namespace shared by many concepts,
+ * like http://www.ukat.org.uk/thesaurus/concept/, is only stored once.
+ *
+ * Once complete, a table can be moved off-heap, except for the namespaces,
+ * which are few. It is read-only then.
+ */
+public class URITable {
+
+    private final List<String> namespaces = new ArrayList<>();
+
+    private final Map<String, Integer> namespaceIds = new HashMap<>();
+
+    private final LabelArena localNames = new LabelArena();
+
+    private int[] namespaceOf = new int[16];
+
+    private int[] localNameOf = new int[16];
+
+    private int size;
+
+    // open addressing hash table of ordinals, -1 marks a free slot
+    private int[] table = newTable(16);
+
+    private IntBuffer directNamespaceOf;
+
+    private IntBuffer directLocalNameOf;
+
+    private IntBuffer directTable;
+
+    /**
+     * Adds a URI if it is not yet contained
+     *
+     * @param uri the URI
+     * @return the ordinal of the URI
+     */
+    public int add(String uri) {
+        if (isOffHeap()) {
+            throw new IllegalStateException("an off-heap URI table is read-only");
+        }
+        int split = split(uri);
+        String namespace = uri.substring(0, split);
+        Integer namespaceId = namespaceIds.get(namespace);
+        if (namespaceId == null) {
+            namespaceId = namespaces.size();
+            namespaces.add(namespace);
+            namespaceIds.put(namespace, namespaceId);
+        }
+        int localNameId = localNames.add(uri.substring(split));
+        int slot = slot(namespaceId, localNameId);
+        if (table[slot] != -1) {
+            return table[slot];
+        }
+        namespaceOf = ArrayUtil.grow(namespaceOf, size + 1);
+        localNameOf = ArrayUtil.grow(localNameOf, size + 1);
+        namespaceOf[size] = namespaceId;
+        localNameOf[size] = localNameId;
+        table[slot] = size;
+        size++;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return size - 1;
+    }
+
+    /**
+     * Finds a URI
+     *
+     * @param uri the URI
+     * @return the ordinal of the URI, or -1 if it is not contained
+     */
+    public int find(String uri) {
+        int split = split(uri);
+        Integer namespaceId = namespaceIds.get(uri.substring(0, split));
+        if (namespaceId == null) {
+            return -1;
+        }
+        int localNameId = localNames.find(uri.substring(split));
+        if (localNameId == -1) {
+            return -1;
+        }
+        return tableAt(slot(namespaceId, localNameId));
+    }
+
+    public String get(int ordinal) {
+        return namespaces.get(namespaceOf(ordinal)) + localNames.getString(localNameOf(ordinal));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int namespaceCount() {
+        return namespaces.size();
+    }
+
+    public void trim() {
+        localNames.trim();
+        if (!isOffHeap()) {
+            namespaceOf = Arrays.copyOf(namespaceOf, size);
+            localNameOf = Arrays.copyOf(localNameOf, size);
+        }
+    }
+
+    /**
+     * Moves the table into direct buffers outside of the Java heap. The table is read-only afterwards.
+     */
+    public void moveOffHeap() {
+        localNames.moveOffHeap();
+        if (!isOffHeap()) {
+            directNamespaceOf = DirectBuffers.copyOf(namespaceOf, size);
+            directLocalNameOf = DirectBuffers.copyOf(localNameOf, size);
+            directTable = DirectBuffers.copyOf(table, table.length);
+            namespaceOf = null;
+            localNameOf = null;
+            table = null;
+        }
+    }
+
+    public boolean isOffHeap() {
+        return table == null;
+    }
+
+    public long ramBytesUsed() {
+        long bytes = localNames.ramBytesUsed();
+        if (!isOffHeap()) {
+            bytes += RamUsageEstimator.sizeOf(namespaceOf) + RamUsageEstimator.sizeOf(localNameOf)
+                    + RamUsageEstimator.sizeOf(table);
+        }
+        for (String namespace : namespaces) {
+            bytes += RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                    + RamUsageEstimator.NUM_BYTES_CHAR * namespace.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the position after the last '/', '#' or ':' of a URI, the end of its namespace
+     */
+    private static int split(String uri) {
+        for (int i = uri.length() - 1; i >= 0; i--) {
+            char c = uri.charAt(i);
+            if (c == '/' || c == '#' || c == ':') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    public long offHeapBytesUsed() {
+        long bytes = localNames.offHeapBytesUsed();
+        if (isOffHeap()) {
+            bytes += DirectBuffers.offHeapBytesUsed(directNamespaceOf) + DirectBuffers.offHeapBytesUsed(directLocalNameOf)
+                    + DirectBuffers.offHeapBytesUsed(directTable);
+        }
+        return bytes;
+    }
+
+    private int namespaceOf(int ordinal) {
+        return namespaceOf != null ? namespaceOf[ordinal] : directNamespaceOf.get(ordinal);
+    }
+
+    private int localNameOf(int ordinal) {
+        return localNameOf != null ? localNameOf[ordinal] : directLocalNameOf.get(ordinal);
+    }
+
+    private int tableAt(int slot) {
+        return table != null ? table[slot] : directTable.get(slot);
+    }
+
+    private int slot(int namespaceId, int localNameId) {
+        int mask = (table != null ? table.length : directTable.capacity()) - 1;
+        int slot = hash(namespaceId, localNameId) & mask;
+        while (tableAt(slot) != -1
+                && (namespaceOf(tableAt(slot)) != namespaceId || localNameOf(tableAt(slot)) != localNameId)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        table = newTable(capacity);
+        int mask = capacity - 1;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            int slot = hash(namespaceOf[ordinal], localNameOf[ordinal]) & mask;
+            while (table[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = ordinal;
+        }
+    }
+
+    private static int hash(int namespaceId, int localNameId) {
+        int h = 31 * namespaceId + localNameId;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        return table;
+    }
+}
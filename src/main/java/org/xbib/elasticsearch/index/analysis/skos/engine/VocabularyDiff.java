@@ -0,0 +1,203 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.elasticsearch.common.hash.MurmurHash3;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * The changes between two versions of a vocabulary, and the concepts and labels whose
+ * documents were expanded differently by the old version. A document needs a new expansion
+ * if it has an old term of an affected concept, the URI or id of the concept for label
+ * expansion, or the URI for URI expansion, or if it has the text of an added label, which
+ * had no concept before. Affected are the added, removed and changed concepts, the concepts
+ * related to changed concepts, since their expansions embed the changed labels, and the old
+ * concepts of labels whose concepts changed.
+ *
+ * A version is a hash of the URIs, labels and relations of all concepts, independent of
+ * their order in the vocabulary file and of the concept ids.
+ */
+public class VocabularyDiff {
+
+    private final Set<String> added = new TreeSet<>();
+
+    private final Set<String> removed = new TreeSet<>();
+
+    private final Set<String> changed = new TreeSet<>();
+
+    private final Set<String> affected = new TreeSet<>();
+
+    private final Set<String> addedLabels = new TreeSet<>();
+
+    private final Set<String> changedLabels = new TreeSet<>();
+
+    private VocabularyDiff() {
+    }
+
+    /**
+     * Computes the version of a vocabulary
+     *
+     * @param store the concept store of the vocabulary
+     * @return the version, 16 hex digits
+     */
+    public static String version(ConceptStore store) {
+        long h1 = 0L;
+        long h2 = 0L;
+        MurmurHash3.Hash128 hash = new MurmurHash3.Hash128();
+        for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+            Map<SKOSType, Set<String>> description = describe(store, ordinal);
+            if (description.isEmpty()) {
+                continue;
+            }
+            byte[] bytes = (store.getURI(ordinal) + description).getBytes(StandardCharsets.UTF_8);
+            MurmurHash3.hash128(bytes, 0, bytes.length, 0L, hash);
+            // a sum does not depend on the order of the concepts
+            h1 += hash.h1;
+            h2 += hash.h2;
+        }
+        return String.format(Locale.ROOT, "%016x", h1 ^ h2);
+    }
+
+    /**
+     * Compares two versions of a vocabulary
+     *
+     * @param oldStore the concept store of the old version
+     * @param newStore the concept store of the new version
+     * @return the changes
+     */
+    public static VocabularyDiff compare(ConceptStore oldStore, ConceptStore newStore) {
+        VocabularyDiff diff = new VocabularyDiff();
+        for (int ordinal = 0; ordinal < oldStore.size(); ordinal++) {
+            String uri = oldStore.getURI(ordinal);
+            Map<SKOSType, Set<String>> oldDescription = describe(oldStore, ordinal);
+            Map<SKOSType, Set<String>> newDescription = describe(newStore, newStore.getOrdinal(uri));
+            if (newDescription.isEmpty() && !oldDescription.isEmpty()) {
+                diff.removed.add(uri);
+            } else if (!newDescription.equals(oldDescription)) {
+                diff.changed.add(uri);
+            }
+        }
+        for (int ordinal = 0; ordinal < newStore.size(); ordinal++) {
+            String uri = newStore.getURI(ordinal);
+            if (describe(oldStore, oldStore.getOrdinal(uri)).isEmpty() && !describe(newStore, ordinal).isEmpty()) {
+                diff.added.add(uri);
+                diff.changed.remove(uri);
+            }
+        }
+        diff.affected.addAll(diff.added);
+        diff.affected.addAll(diff.removed);
+        diff.affected.addAll(diff.changed);
+        Set<String> modified = new TreeSet<>(diff.affected);
+        for (String uri : modified) {
+            addRelated(oldStore, uri, diff.affected);
+            addRelated(newStore, uri, diff.affected);
+        }
+        for (int labelId = 0; labelId < oldStore.getLabels().size(); labelId++) {
+            String label = oldStore.getLabelString(labelId);
+            Set<String> oldConcepts = concepts(oldStore, labelId);
+            if (!oldConcepts.equals(concepts(newStore, newStore.findLabel(label)))) {
+                diff.changedLabels.add(label);
+                diff.affected.addAll(oldConcepts);
+            }
+        }
+        for (int labelId = 0; labelId < newStore.getLabels().size(); labelId++) {
+            String label = newStore.getLabelString(labelId);
+            if (oldStore.findLabel(label) < 0 && newStore.conceptCount(labelId) > 0) {
+                diff.addedLabels.add(label);
+                diff.changedLabels.add(label);
+            }
+        }
+        return diff;
+    }
+
+    // the labels and related concept URIs by type, empty if the concept is unknown or only referenced
+    private static Map<SKOSType, Set<String>> describe(ConceptStore store, int ordinal) {
+        if (ordinal < 0) {
+            return Collections.emptyMap();
+        }
+        Map<SKOSType, Set<String>> description = new EnumMap<>(SKOSType.class);
+        for (SKOSType type : SKOSType.values()) {
+            int count = store.count(ordinal, type);
+            if (count == 0) {
+                continue;
+            }
+            Set<String> values = new TreeSet<>();
+            for (int i = 0; i < count; i++) {
+                int value = store.get(ordinal, type, i);
+                boolean label = type == SKOSType.PREF || type == SKOSType.ALT || type == SKOSType.HIDDEN;
+                values.add(label ? store.getLabelString(value) : store.getURI(value));
+            }
+            description.put(type, values);
+        }
+        return description;
+    }
+
+    private static void addRelated(ConceptStore store, String uri, Set<String> uris) {
+        int ordinal = store.getOrdinal(uri);
+        if (ordinal < 0) {
+            return;
+        }
+        for (SKOSType type : new SKOSType[]{SKOSType.BROADER, SKOSType.NARROWER, SKOSType.BROADERTRANSITIVE,
+                SKOSType.NARROWERTRANSITIVE, SKOSType.RELATED}) {
+            for (int i = 0; i < store.count(ordinal, type); i++) {
+                uris.add(store.getURI(store.get(ordinal, type, i)));
+            }
+        }
+    }
+
+    private static Set<String> concepts(ConceptStore store, int labelId) {
+        Set<String> uris = new TreeSet<>();
+        if (labelId >= 0) {
+            for (int i = 0; i < store.conceptCount(labelId); i++) {
+                uris.add(store.getURI(store.getConcept(labelId, i)));
+            }
+        }
+        return uris;
+    }
+
+    public Set<String> getAddedConcepts() {
+        return added;
+    }
+
+    public Set<String> getRemovedConcepts() {
+        return removed;
+    }
+
+    public Set<String> getChangedConcepts() {
+        return changed;
+    }
+
+    /**
+     * @return the URIs of the concepts whose documents need a new expansion
+     */
+    public Set<String> getAffectedConcepts() {
+        return affected;
+    }
+
+    /**
+     * @return the normalized labels whose concepts changed, including the added labels
+     */
+    public Set<String> getChangedLabels() {
+        return changedLabels;
+    }
+
+    /**
+     * @return the normalized labels without concept in the old version
+     */
+    public Set<String> getAddedLabels() {
+        return addedLabels;
+    }
+
+    /**
+     * @return true if both versions expand all documents alike
+     */
+    public boolean isEmpty() {
+        return affected.isEmpty() && changedLabels.isEmpty();
+    }
+}
@@ -0,0 +1,239 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * Counts the concept expansions an engine had to compute, so the hot set can be saved to a
+ * file and computed again after a restart, before the first documents arrive. The expansion
+ * table records its misses from inside its cache loader, so a cache hit costs nothing here.
+ * Label lookups are not recorded: they are direct lookups in the concept store, with nothing
+ * to warm but the pages of the store, which the expansions pull in anyway. Only the keys are
+ * saved, a concept URI with its expansion kind, with their counts; the values are computed
+ * again from the loaded vocabulary. A file saved for another vocabulary version is discarded.
+ *
+ * At most maxTracked keys are counted. When a new key finds the counts full, all counts are
+ * halved and the keys dropping to zero are forgotten, so keys that became hot later replace
+ * keys not used anymore. The counts of a preloaded file are taken over halved as well.
+ */
+public class WarmCache {
+
+    public static final int DEFAULT_MAX_TRACKED = 50000;
+
+    private static final int FORMAT = 2;
+
+    private static final char CONCEPT = 'C';
+
+    private static final char CONCEPT_ID = 'I';
+
+    private static final char LABEL_EXPANSION = 'E';
+
+    private final SKOSEngine engine;
+
+    private final int maxTracked;
+
+    private final ConcurrentHashMap<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    private final AtomicLong preloaded = new AtomicLong();
+
+    public WarmCache(SKOSEngine engine) {
+        this(engine, DEFAULT_MAX_TRACKED);
+    }
+
+    public WarmCache(SKOSEngine engine, int maxTracked) {
+        this.engine = engine;
+        this.maxTracked = maxTracked;
+    }
+
+    /**
+     * Counts the computed concept expansion of a concept
+     *
+     * @param conceptURI the concept URI
+     * @param conceptIds true for the expansion with concept ids
+     * @param maxDepth the maximum hierarchy depth of the expansion
+     */
+    public void recordConceptExpansion(String conceptURI, boolean conceptIds, int maxDepth) {
+        record((conceptIds ? CONCEPT_ID : CONCEPT) + Integer.toString(maxDepth) + ' ' + conceptURI, 1L);
+    }
+
+    /**
+     * Counts the computed label expansion of a concept
+     *
+     * @param conceptURI the concept URI
+     * @param types the bit mask of the SKOS types of the expansion
+     * @param maxDepth the maximum hierarchy depth of the expansion
+     */
+    public void recordLabelExpansion(String conceptURI, int types, int maxDepth) {
+        record(LABEL_EXPANSION + Integer.toString(types) + ' ' + maxDepth + ' ' + conceptURI, 1L);
+    }
+
+    private void record(String entry, long count) {
+        AtomicLong counter = counts.get(entry);
+        if (counter == null) {
+            if (counts.size() >= maxTracked) {
+                decay();
+            }
+            counter = new AtomicLong();
+            AtomicLong previous = counts.putIfAbsent(entry, counter);
+            if (previous != null) {
+                counter = previous;
+            }
+        }
+        counter.addAndGet(count);
+    }
+
+    /**
+     * Halves all counts until there is room for a new key, forgetting the keys dropping to zero
+     */
+    private synchronized void decay() {
+        while (counts.size() >= maxTracked) {
+            Iterator<AtomicLong> it = counts.values().iterator();
+            while (it.hasNext()) {
+                AtomicLong counter = it.next();
+                long current;
+                do {
+                    current = counter.get();
+                } while (!counter.compareAndSet(current, current / 2));
+                if (current / 2 == 0) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the most frequent keys, most frequent first
+     *
+     * @param file the file, replaced atomically
+     * @param maxSize the maximum number of keys to save
+     * @return the number of saved keys
+     * @throws IOException if the file can not be written
+     */
+    public int save(Path file, int maxSize) throws IOException {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.size());
+        for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().get()));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+                return Long.compare(e2.getValue(), e1.getValue());
+            }
+        });
+        int size = Math.min(maxSize, entries.size());
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FORMAT);
+            out.writeUTF(engine.getVersion());
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeUTF(entries.get(i).getKey());
+                out.writeLong(entries.get(i).getValue());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    /**
+     * Looks up the saved keys again, most frequent first, if they were saved for the version
+     * of the vocabulary of the engine
+     *
+     * @param file the file
+     * @param maxSize the maximum number of keys to look up
+     * @return the number of keys looked up, 0 if there is no file or it is for another version
+     * @throws IOException if the file can not be read or a key can not be looked up
+     */
+    public int preload(Path file, int maxSize) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT || !engine.getVersion().equals(in.readUTF())) {
+                return 0;
+            }
+            int size = Math.min(maxSize, in.readInt());
+            for (int i = 0; i < size; i++) {
+                String entry = in.readUTF();
+                long count = in.readLong();
+                warm(entry);
+                record(entry, Math.max(1L, count / 2));
+                loaded++;
+            }
+        } catch (EOFException e) {
+            // a truncated file, keep what was looked up
+        }
+        preloaded.addAndGet(loaded);
+        return loaded;
+    }
+
+    private void warm(String entry) throws IOException {
+        String value = entry.substring(1);
+        switch (entry.charAt(0)) {
+            case CONCEPT:
+            case CONCEPT_ID: {
+                int pos = value.indexOf(' ');
+                int maxDepth = Integer.parseInt(value.substring(0, pos));
+                String conceptURI = value.substring(pos + 1);
+                if (entry.charAt(0) == CONCEPT_ID) {
+                    engine.getExpansionTable().getConceptIdExpansion(conceptURI, maxDepth);
+                } else {
+                    engine.getExpansionTable().getConceptExpansion(conceptURI, maxDepth);
+                }
+                break;
+            }
+            case LABEL_EXPANSION: {
+                int pos = value.indexOf(' ');
+                int pos2 = value.indexOf(' ', pos + 1);
+                int mask = Integer.parseInt(value.substring(0, pos));
+                int maxDepth = Integer.parseInt(value.substring(pos + 1, pos2));
+                Set<SKOSType> types = EnumSet.noneOf(SKOSType.class);
+                for (SKOSType type : SKOSType.values()) {
+                    if ((mask & 1 << type.ordinal()) != 0) {
+                        types.add(type);
+                    }
+                }
+                engine.getExpansionTable().getLabelExpansion(value.substring(pos2 + 1), types, maxDepth);
+                break;
+            }
+            default:
+                throw new IOException("unknown warm cache entry [" + entry + "]");
+        }
+    }
+
+    /**
+     * @return the number of counted keys
+     */
+    public int size() {
+        return counts.size();
+    }
+
+    /**
+     * @return the number of keys looked up from saved files
+     */
+    public long getPreloaded() {
+        return preloaded.get();
+    }
+}
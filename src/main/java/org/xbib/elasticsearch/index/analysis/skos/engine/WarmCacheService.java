@@ -0,0 +1,111 @@
+package org.xbib.elasticsearch.index.analysis.skos.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Saves the warm caches of the engines to the "skos" directory of the node's data path, when
+ * the node stops and periodically, and lets the engines set up while the node runs preload
+ * their saved keys on the generic thread pool.
+ *
+ * <pre>
+ * skos.warm_cache.enabled: true
+ * skos.warm_cache.interval: 10m
+ * skos.warm_cache.max_size: 10000
+ * </pre>
+ */
+public class WarmCacheService extends AbstractLifecycleComponent<WarmCacheService> {
+
+    private final ThreadPool threadPool;
+
+    private final boolean enabled;
+
+    private final TimeValue interval;
+
+    private final int maxSize;
+
+    // null if disabled or the node has no data path
+    private final Path directory;
+
+    private volatile ScheduledFuture<?> scheduledSave;
+
+    @Inject
+    public WarmCacheService(Settings settings, NodeEnvironment nodeEnvironment, ThreadPool threadPool) {
+        super(settings);
+        this.threadPool = threadPool;
+        this.enabled = settings.getAsBoolean("skos.warm_cache.enabled", true);
+        this.interval = settings.getAsTime("skos.warm_cache.interval", TimeValue.timeValueMinutes(10));
+        this.maxSize = settings.getAsInt("skos.warm_cache.max_size", 10000);
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("'skos.warm_cache.max_size' must be 0 or a positive integer");
+        }
+        this.directory = enabled && nodeEnvironment.hasNodeFile() ?
+                nodeEnvironment.nodeDataPaths()[0].resolve("skos") : null;
+    }
+
+    @Override
+    protected void doStart() {
+        if (directory == null) {
+            return;
+        }
+        SKOSEngineFactory.setWarmCache(directory, maxSize, threadPool.generic());
+        if (interval.millis() > 0) {
+            scheduledSave = threadPool.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            }, interval);
+        }
+    }
+
+    @Override
+    protected void doStop() {
+        if (scheduledSave != null) {
+            scheduledSave.cancel(false);
+            scheduledSave = null;
+        }
+        if (directory != null) {
+            SKOSEngineFactory.setWarmCache(null, 0, null);
+            save();
+        }
+    }
+
+    @Override
+    protected void doClose() {
+    }
+
+    /**
+     * Saves the warm caches of all engines with counted keys
+     *
+     * @return the number of saved keys
+     */
+    public int save() {
+        if (directory == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Map.Entry<String, SKOSEngine> entry : SKOSEngineFactory.getSKOSEngines().entrySet()) {
+            WarmCache warmCache = entry.getValue().getWarmCache();
+            if (warmCache.size() == 0) {
+                continue;
+            }
+            try {
+                count += warmCache.save(SKOSEngineFactory.getWarmCacheFile(directory, entry.getKey()), maxSize);
+            } catch (IOException e) {
+                logger.warn("could not save the warm cache of [{}]", e, entry.getKey());
+            }
+        }
+        logger.debug("saved {} warm cache keys", count);
+        return count;
+    }
+}
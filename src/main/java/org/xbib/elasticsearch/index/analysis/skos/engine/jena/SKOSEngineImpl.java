@@ -20,13 +20,18 @@ import com.hp.hpl.jena.vocabulary.RDF;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthAction;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequestBuilder;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
@@ -34,34 +39,57 @@ import org.elasticsearch.action.admin.indices.create.CreateIndexAction;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.action.admin.indices.refresh.RefreshAction;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequestBuilder;
+import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
 import org.elasticsearch.action.bulk.BulkAction;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteAction;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.index.IndexAction;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.ClearScrollAction;
+import org.elasticsearch.action.search.ClearScrollRequestBuilder;
 import org.elasticsearch.action.search.SearchAction;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollAction;
+import org.elasticsearch.action.search.SearchScrollRequestBuilder;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.index.query.QueryBuilder;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.indices.IndexAlreadyExistsException;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptGraph;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptHierarchy;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptStore;
+import org.xbib.elasticsearch.index.analysis.skos.engine.BulkLabelCache;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ExpansionTable;
+import org.xbib.elasticsearch.index.analysis.skos.engine.EngineStats;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelFST;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelSuggester;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelTagger;
 import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.VocabularyDiff;
+import org.xbib.elasticsearch.index.analysis.skos.engine.WarmCache;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
-import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
-import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
 
 /**
  * SKOSEngine Implementation for Elasticsearch.
  * Each SKOS concept is stored/indexed as a Elasticsearch document.
- * All labels are converted to lowercase.
+ * All labels are normalized by the label normalizer when the model is loaded.
+ * Lookups are served from an in-memory concept store, which keeps the labels
+ * in a deduplicated arena and the URIs compressed by namespace. The Jena model
+ * is released after loading. In off-heap mode, the concept store is kept in
+ * direct buffers outside of the Java heap.
  */
 public class SKOSEngineImpl implements SKOSEngine {
 
@@ -71,6 +99,7 @@ public class SKOSEngineImpl implements SKOSEngine {
      * Static fields used in the Lucene Index
      */
     private static final String FIELD_URI = "uri";
+    private static final String FIELD_ID = "id";
     private static final String FIELD_PREF_LABEL = "pref";
     private static final String FIELD_ALT_LABEL = "alt";
     private static final String FIELD_HIDDEN_LABEL = "hidden";
@@ -79,6 +108,8 @@ public class SKOSEngineImpl implements SKOSEngine {
     private static final String FIELD_BROADER_TRANSITIVE = "broaderTransitive";
     private static final String FIELD_NARROWER_TRANSITIVE = "narrowerTransitive";
     private static final String FIELD_RELATED = "related";
+
+    private static final TimeValue SCROLL_TIMEOUT = TimeValue.timeValueMinutes(1);
     /**
      * The input SKOS model
      */
@@ -95,6 +126,86 @@ public class SKOSEngineImpl implements SKOSEngine {
      */
     private Set<String> languages;
 
+    /**
+     * The normalizer applied to all labels
+     */
+    private final LabelNormalizer normalizer;
+
+    /**
+     * True if the concept store is kept outside of the Java heap
+     */
+    private final boolean offHeap;
+
+    /**
+     * The concepts with their normalized labels and relations
+     */
+    private ConceptStore store = new ConceptStore.Builder().build();
+
+    /**
+     * The FST over the normalized labels, for fuzzy lookups, built on first use
+     */
+    private volatile LabelFST labelFST;
+
+    /**
+     * The Aho-Corasick automaton over the label tokens, for tagging texts, built on first use
+     */
+    private volatile LabelTagger labelTagger;
+
+    /**
+     * The broader/narrower graph, built on first use
+     */
+    private volatile ConceptGraph graph;
+
+    /**
+     * The nested set numbering of the hierarchy, built on first use, null if it has too many paths
+     */
+    private volatile ConceptHierarchy hierarchy;
+
+    /**
+     * True once the hierarchy was built, or failed to build
+     */
+    private volatile boolean hierarchyBuilt;
+
+    /**
+     * The preferred and alternative labels collected for completion, off-heap with the concept store
+     */
+    private LabelSuggester.Builder suggesterBuilder = new LabelSuggester.Builder().compact(false);
+
+    /**
+     * The completion of the preferred and alternative labels, built on first use
+     */
+    private volatile LabelSuggester suggester;
+
+    /**
+     * The memoized concept expansions
+     */
+    private ExpansionTable expansionTable = new ExpansionTable(this, store);
+
+    /**
+     * The resolved label candidates of the bulk requests in flight
+     */
+    private final BulkLabelCache bulkLabelCache = new BulkLabelCache(this);
+
+    /**
+     * The counts of the label lookups and concept expansions, saved across restarts
+     */
+    private final WarmCache warmCache = new WarmCache(this);
+
+    /**
+     * The counts and latencies of the label lookups
+     */
+    private final EngineStats stats = new EngineStats();
+
+    /**
+     * The concept ids of an engine without client, as pinned in the synonym index of the cluster
+     */
+    private Map<String, Integer> offlineIds = Collections.emptyMap();
+
+    /**
+     * The version of the vocabulary, stamped into documents for selective re-expansion
+     */
+    private String version = VocabularyDiff.version(store);
+
     /**
      * This constructor loads the SKOS model from a given InputStream using the
      * given serialization language parameter, which must be either N3, RDF/XML,
@@ -105,15 +216,7 @@ public class SKOSEngineImpl implements SKOSEngine {
      * @throws IOException if the model cannot be loaded
      */
     public SKOSEngineImpl(Client client, String indexName, InputStream inputStream, String lang) throws IOException {
-        if (!("N3".equals(lang) || "RDF/XML".equals(lang) || "TURTLE".equals(lang))) {
-            throw new IOException("Invalid RDF serialization format");
-        }
-        this.client = client;
-        this.indexName = indexName;
-        this.skosModel = ModelFactory.createDefaultModel();
-        skosModel.read(inputStream, null, lang);
-        entailSKOSModel();
-        indexSKOSModel();
+        this(client, indexName, inputStream, lang, null, LabelNormalizer.DEFAULT);
     }
 
     /**
@@ -127,7 +230,66 @@ public class SKOSEngineImpl implements SKOSEngine {
      * @throws IOException if indexing SKOS model fails
      */
     public SKOSEngineImpl(Client client, String indexName, String filenameOrURI, List<String> languages) throws IOException {
+        this(client, indexName, filenameOrURI, languages, LabelNormalizer.DEFAULT);
+    }
+
+    /**
+     * This constructor loads the SKOS model from a given filename or URI,
+     * starts the indexing process and sets up the index searcher.
+     *
+     * @param client the Elasticsearch client
+     * @param indexName index name
+     * @param filenameOrURI file name or URI
+     * @param languages the languages to be considered
+     * @param normalizer the label normalizer
+     * @throws IOException if indexing SKOS model fails
+     */
+    public SKOSEngineImpl(Client client, String indexName, String filenameOrURI, List<String> languages,
+                          LabelNormalizer normalizer) throws IOException {
+        this(client, indexName, filenameOrURI, languages, normalizer, false);
+    }
+
+    /**
+     * This constructor loads the SKOS model from a given filename or URI,
+     * starts the indexing process and sets up the index searcher.
+     *
+     * @param client the Elasticsearch client, or null for an engine without synonym index
+     * @param indexName index name
+     * @param filenameOrURI file name or URI
+     * @param languages the languages to be considered
+     * @param normalizer the label normalizer
+     * @param offHeap true if the concept store should be kept outside of the Java heap
+     * @throws IOException if indexing SKOS model fails
+     */
+    public SKOSEngineImpl(Client client, String indexName, String filenameOrURI, List<String> languages,
+                          LabelNormalizer normalizer, boolean offHeap) throws IOException {
+        this(client, indexName, filenameOrURI, languages, normalizer, offHeap, Collections.<String, Integer>emptyMap());
+    }
+
+    /**
+     * This constructor loads the SKOS model from a given filename or URI,
+     * starts the indexing process and sets up the index searcher.
+     *
+     * @param client the Elasticsearch client, or null for an engine without synonym index
+     * @param indexName index name
+     * @param filenameOrURI file name or URI
+     * @param languages the languages to be considered
+     * @param normalizer the label normalizer
+     * @param offHeap true if the concept store should be kept outside of the Java heap
+     * @param pinnedIds for an engine without client, the concept ids pinned in the synonym index of
+     *                  the cluster by URI, so the engine has the ids of the cluster
+     * @throws IOException if indexing SKOS model fails
+     */
+    public SKOSEngineImpl(Client client, String indexName, String filenameOrURI, List<String> languages,
+                          LabelNormalizer normalizer, boolean offHeap, Map<String, Integer> pinnedIds)
+            throws IOException {
+        if (client != null && !pinnedIds.isEmpty()) {
+            throw new IllegalArgumentException("the pinned concept ids of an engine with client are read from its index");
+        }
         this.client = client;
+        this.normalizer = normalizer;
+        this.offHeap = offHeap;
+        this.offlineIds = pinnedIds;
         String langSig = "";
         if (languages != null ) {
             this.languages = new TreeSet<>(languages);
@@ -145,9 +307,14 @@ public class SKOSEngineImpl implements SKOSEngine {
                 fileManager.addLocatorZip(filenameOrURI);
                 filenameOrURI = getBaseName(filenameOrURI);
             }
+            long start = System.currentTimeMillis();
             skosModel = fileManager.loadModel(filenameOrURI);
             entailSKOSModel();
+            stats.setLoadMillis(System.currentTimeMillis() - start);
+            start = System.currentTimeMillis();
             indexSKOSModel();
+            stats.setIndexMillis(System.currentTimeMillis() - start);
+            skosModel = null;
         }
     }
 
@@ -163,18 +330,58 @@ public class SKOSEngineImpl implements SKOSEngine {
      */
     public SKOSEngineImpl(Client client, String indexName, InputStream inputStream, String format, List<String> languages)
             throws IOException {
+        this(client, indexName, inputStream, format, languages, LabelNormalizer.DEFAULT);
+    }
+
+    /**
+     * This constructor loads the SKOS model from a given InputStream using the
+     * given serialization language parameter, which must be either N3, RDF/XML,
+     * or TURTLE.
+     *
+     * @param inputStream the input stream
+     * @param format the serialization language
+     * @param languages the languages
+     * @param normalizer the label normalizer
+     * @throws IOException if the model cannot be loaded
+     */
+    public SKOSEngineImpl(Client client, String indexName, InputStream inputStream, String format, List<String> languages,
+                          LabelNormalizer normalizer) throws IOException {
+        this(client, indexName, inputStream, format, languages, normalizer, false);
+    }
+
+    /**
+     * This constructor loads the SKOS model from a given InputStream using the
+     * given serialization language parameter, which must be either N3, RDF/XML,
+     * or TURTLE.
+     *
+     * @param inputStream the input stream
+     * @param format the serialization language
+     * @param languages the languages
+     * @param normalizer the label normalizer
+     * @param offHeap true if the concept store should be kept outside of the Java heap
+     * @throws IOException if the model cannot be loaded
+     */
+    public SKOSEngineImpl(Client client, String indexName, InputStream inputStream, String format, List<String> languages,
+                          LabelNormalizer normalizer, boolean offHeap) throws IOException {
         if (!("N3".equals(format) || "RDF/XML".equals(format) || "TURTLE".equals(format))) {
             throw new IOException("Invalid RDF serialization format");
         }
         this.client = client;
+        this.normalizer = normalizer;
+        this.offHeap = offHeap;
         this.indexName = indexName;
         if (languages != null) {
             this.languages = new TreeSet<>(languages);
         }
+        long start = System.currentTimeMillis();
         skosModel = ModelFactory.createDefaultModel();
         skosModel.read(inputStream, null, format);
         entailSKOSModel();
+        stats.setLoadMillis(System.currentTimeMillis() - start);
+        start = System.currentTimeMillis();
         indexSKOSModel();
+        stats.setIndexMillis(System.currentTimeMillis() - start);
+        skosModel = null;
     }
 
     private void entailSKOSModel() {
@@ -195,16 +402,14 @@ public class SKOSEngineImpl implements SKOSEngine {
 
     @Override
     public List<String> getAltLabels(String conceptURI) throws IOException {
-        return readConceptFieldValues(conceptURI, FIELD_ALT_LABEL);
+        return readLabels(conceptURI, SKOSType.ALT);
     }
 
     @Override
     public List<String> getAltTerms(String label) throws IOException {
         List<String> result = new LinkedList<>();
-        // convert the query to lower-case
-        String queryString = label.toLowerCase();
         try {
-            List<String> conceptURIs = getConcepts(queryString);
+            List<String> conceptURIs = getConcepts(label);
             if (conceptURIs != null) {
                 for (String conceptURI : conceptURIs) {
                     List<String> altLabels = getAltLabels(conceptURI);
@@ -221,63 +426,262 @@ public class SKOSEngineImpl implements SKOSEngine {
 
     @Override
     public List<String> getHiddenLabels(String conceptURI) throws IOException {
-        return readConceptFieldValues(conceptURI, FIELD_HIDDEN_LABEL);
+        return readLabels(conceptURI, SKOSType.HIDDEN);
     }
 
     @Override
     public List<String> getBroaderConcepts(String conceptURI) throws IOException {
-        return readConceptFieldValues(conceptURI, FIELD_BROADER);
+        return readConcepts(conceptURI, SKOSType.BROADER);
     }
 
     @Override
     public List<String> getBroaderLabels(String conceptURI) throws IOException {
-        return getLabels(conceptURI, FIELD_BROADER);
+        return getLabels(conceptURI, SKOSType.BROADER);
     }
 
     @Override
     public List<String> getBroaderTransitiveConcepts(String conceptURI)
             throws IOException {
-        return readConceptFieldValues(conceptURI, FIELD_BROADER_TRANSITIVE);
+        return readConcepts(conceptURI, SKOSType.BROADERTRANSITIVE);
     }
 
     @Override
     public List<String> getBroaderTransitiveLabels(String conceptURI)
             throws IOException {
-        return getLabels(conceptURI, FIELD_BROADER_TRANSITIVE);
+        return getLabels(conceptURI, SKOSType.BROADERTRANSITIVE);
     }
 
     @Override
     public List<String> getConcepts(String label) throws IOException {
-        List<String> concepts = new ArrayList<>();
-        // convert the query to lower-case
-        String queryString = label.toLowerCase();
-        QueryBuilder queryBuilder = QueryBuilders.disMaxQuery()
-                .tieBreaker(0.0f)
-                .add(matchQuery(FIELD_PREF_LABEL, queryString))
-                .add(matchQuery(FIELD_ALT_LABEL, queryString))
-                .add(matchQuery(FIELD_HIDDEN_LABEL, queryString));
-        SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client, SearchAction.INSTANCE);
-        SearchResponse searchResponse = searchRequestBuilder.setIndices(indexName)
-                .setQuery(queryBuilder)
-                .setSize(100) // is 100 ok? 10?
-                .execute().actionGet();
-        if (searchResponse.getHits() != null) {
-            for (SearchHit hit : searchResponse.getHits().getHits()) {
-                String conceptURI = (String) hit.getSource().get(FIELD_URI);
-                concepts.add(conceptURI);
+        long start = System.nanoTime();
+        List<String> concepts = lookup(normalizer.normalize(label));
+        stats.record(EngineStats.Method.CONCEPTS, !concepts.isEmpty(), start);
+        return concepts;
+    }
+
+    @Override
+    public Map<String, List<String>> getConcepts(Collection<String> labels) throws IOException {
+        Map<String, List<String>> concepts = new HashMap<>();
+        // labels differing only in case or punctuation share their concepts
+        Map<String, List<String>> conceptsByKey = new HashMap<>();
+        for (String label : labels) {
+            if (concepts.containsKey(label)) {
+                continue;
             }
+            String key = normalizer.normalize(label);
+            List<String> uris = conceptsByKey.get(key);
+            if (uris == null) {
+                if (key.isEmpty()) {
+                    uris = Collections.<String>emptyList();
+                } else {
+                    long start = System.nanoTime();
+                    uris = lookup(key);
+                    stats.record(EngineStats.Method.CONCEPTS, !uris.isEmpty(), start);
+                }
+                conceptsByKey.put(key, uris);
+            }
+            concepts.put(label, uris);
         }
         return concepts;
     }
 
-    private List<String> getLabels(String conceptURI, String field)
-            throws IOException {
+    @Override
+    public List<String> getConceptsForKey(String key) throws IOException {
+        long start = System.nanoTime();
+        List<String> concepts = lookup(key);
+        stats.record(EngineStats.Method.CONCEPTS_FOR_KEY, !concepts.isEmpty(), start);
+        return concepts;
+    }
+
+    private List<String> lookup(String key) {
+        int labelId = store.findLabel(key);
+        if (labelId < 0) {
+            return Collections.emptyList();
+        }
+        List<String> concepts = new ArrayList<>(store.conceptCount(labelId));
+        for (int i = 0; i < store.conceptCount(labelId); i++) {
+            concepts.add(store.getURI(store.getConcept(labelId, i)));
+        }
+        return concepts;
+    }
+
+    @Override
+    public List<String> getConceptsFuzzy(String key, int maxEdits, int prefixLength, int maxMatches) throws IOException {
+        long start = System.nanoTime();
+        List<String> concepts = fuzzyLookup(key, maxEdits, prefixLength, maxMatches);
+        stats.record(EngineStats.Method.CONCEPTS_FUZZY, !concepts.isEmpty(), start);
+        return concepts;
+    }
+
+    private List<String> fuzzyLookup(String key, int maxEdits, int prefixLength, int maxMatches) throws IOException {
+        Set<String> concepts = new LinkedHashSet<>();
+        for (String label : getLabelFST().fuzzy(key, maxEdits, prefixLength, maxMatches).keySet()) {
+            int labelId = store.findLabel(label);
+            for (int i = 0; i < store.conceptCount(labelId); i++) {
+                concepts.add(store.getURI(store.getConcept(labelId, i)));
+                if (concepts.size() == maxMatches) {
+                    return new ArrayList<>(concepts);
+                }
+            }
+        }
+        return new ArrayList<>(concepts);
+    }
+
+    @Override
+    public ExpansionTable getExpansionTable() {
+        return expansionTable;
+    }
+
+    @Override
+    public LabelNormalizer getLabelNormalizer() {
+        return normalizer;
+    }
+
+    @Override
+    public ConceptGraph getConceptGraph() {
+        ConceptGraph conceptGraph = graph;
+        if (conceptGraph == null) {
+            synchronized (this) {
+                conceptGraph = graph;
+                if (conceptGraph == null) {
+                    conceptGraph = ConceptGraph.build(store);
+                    graph = conceptGraph;
+                }
+            }
+        }
+        return conceptGraph;
+    }
+
+    @Override
+    public ConceptHierarchy getConceptHierarchy() {
+        if (!hierarchyBuilt) {
+            ConceptGraph conceptGraph = getConceptGraph();
+            synchronized (this) {
+                if (!hierarchyBuilt) {
+                    try {
+                        hierarchy = ConceptHierarchy.build(conceptGraph);
+                    } catch (IllegalStateException e) {
+                        logger.warn("no hierarchy intervals for {}: {}", indexName, e.getMessage());
+                    }
+                    hierarchyBuilt = true;
+                }
+            }
+        }
+        return hierarchy;
+    }
+
+    @Override
+    public LabelSuggester getLabelSuggester() throws IOException {
+        LabelSuggester labelSuggester = suggester;
+        if (labelSuggester == null) {
+            synchronized (this) {
+                labelSuggester = suggester;
+                if (labelSuggester == null) {
+                    labelSuggester = suggesterBuilder.build(store);
+                    suggester = labelSuggester;
+                }
+            }
+        }
+        return labelSuggester;
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public BulkLabelCache getBulkLabelCache() {
+        return bulkLabelCache;
+    }
+
+    @Override
+    public WarmCache getWarmCache() {
+        return warmCache;
+    }
+
+    @Override
+    public EngineStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public LabelTagger getLabelTagger() {
+        LabelTagger tagger = labelTagger;
+        if (tagger == null) {
+            synchronized (this) {
+                tagger = labelTagger;
+                if (tagger == null) {
+                    tagger = LabelTagger.build(store);
+                    labelTagger = tagger;
+                }
+            }
+        }
+        return tagger;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        LabelTagger tagger = labelTagger;
+        ConceptGraph conceptGraph = graph;
+        ConceptHierarchy conceptHierarchy = hierarchy;
+        LabelSuggester labelSuggester = suggester;
+        // a built suggester shares the labels of its builder
+        return store.ramBytesUsed() + (conceptGraph != null ? conceptGraph.ramBytesUsed() : 0L)
+                + (conceptHierarchy != null ? conceptHierarchy.ramBytesUsed() : 0L)
+                + (labelSuggester != null ? labelSuggester.ramBytesUsed() : suggesterBuilder.ramBytesUsed())
+                + (tagger != null ? tagger.ramBytesUsed() : 0L) + expansionTable.ramBytesUsed();
+    }
+
+    @Override
+    public long offHeapBytesUsed() {
+        return store.offHeapBytesUsed() + suggesterBuilder.offHeapBytesUsed();
+    }
+
+    @Override
+    public String getConceptId(String conceptURI) {
+        int ordinal = store.getOrdinal(conceptURI);
+        int id = ordinal >= 0 ? store.getId(ordinal) : -1;
+        return id >= 0 ? ConceptStore.formatId(id) : null;
+    }
+
+    @Override
+    public String getConceptURI(String conceptId) {
+        int ordinal = store.getOrdinalById(ConceptStore.parseId(conceptId));
+        return ordinal >= 0 ? store.getURI(ordinal) : null;
+    }
+
+    private LabelFST getLabelFST() throws IOException {
+        LabelFST fst = labelFST;
+        if (fst == null) {
+            synchronized (this) {
+                fst = labelFST;
+                if (fst == null) {
+                    fst = LabelFST.build(store.getLabels());
+                    labelFST = fst;
+                }
+            }
+        }
+        return fst;
+    }
+
+    /**
+     * Returns the concept store, the in-memory form of the vocabulary
+     *
+     * @return the concept store
+     */
+    public ConceptStore getConceptStore() {
+        return store;
+    }
+
+    private List<String> getLabels(String conceptURI, SKOSType type) {
         List<String> labels = new LinkedList<>();
-        List<String> concepts = readConceptFieldValues(conceptURI, field);
-        if (concepts != null) {
-            for (String aConceptURI : concepts) {
-                labels.addAll(getPrefLabels(aConceptURI));
-                labels.addAll(getAltLabels(aConceptURI));
+        int ordinal = getOrdinal(conceptURI);
+        if (ordinal >= 0) {
+            for (int i = 0; i < store.count(ordinal, type); i++) {
+                int related = store.get(ordinal, type, i);
+                addLabels(labels, related, SKOSType.PREF);
+                addLabels(labels, related, SKOSType.ALT);
             }
         }
         return labels;
@@ -285,66 +689,93 @@ public class SKOSEngineImpl implements SKOSEngine {
 
     @Override
     public List<String> getNarrowerConcepts(String conceptURI) throws IOException {
-        return readConceptFieldValues(conceptURI, FIELD_NARROWER);
+        return readConcepts(conceptURI, SKOSType.NARROWER);
     }
 
     @Override
     public List<String> getNarrowerLabels(String conceptURI) throws IOException {
-        return getLabels(conceptURI, FIELD_NARROWER);
+        return getLabels(conceptURI, SKOSType.NARROWER);
     }
 
     @Override
     public List<String> getNarrowerTransitiveConcepts(String conceptURI) throws IOException {
-        return readConceptFieldValues(conceptURI, FIELD_NARROWER_TRANSITIVE);
+        return readConcepts(conceptURI, SKOSType.NARROWERTRANSITIVE);
     }
 
     @Override
     public List<String>getNarrowerTransitiveLabels(String conceptURI) throws IOException {
-        return getLabels(conceptURI, FIELD_NARROWER_TRANSITIVE);
+        return getLabels(conceptURI, SKOSType.NARROWERTRANSITIVE);
     }
 
     @Override
     public List<String> getPrefLabels(String conceptURI) throws IOException {
-        return readConceptFieldValues(conceptURI, FIELD_PREF_LABEL);
+        return readLabels(conceptURI, SKOSType.PREF);
     }
 
     @Override
     public List<String> getRelatedConcepts(String conceptURI) throws IOException {
-        return readConceptFieldValues(conceptURI, FIELD_RELATED);
+        return readConcepts(conceptURI, SKOSType.RELATED);
     }
 
     @Override
     public List<String> getRelatedLabels(String conceptURI) throws IOException {
-        return getLabels(conceptURI, FIELD_RELATED);
+        return getLabels(conceptURI, SKOSType.RELATED);
     }
 
-    @SuppressWarnings("unchecked")
-    private List<String> readConceptFieldValues(String conceptURI, String field)
-            throws IOException {
-        TermQueryBuilder termQueryBuilder = termQuery(FIELD_URI, conceptURI);
-        SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client, SearchAction.INSTANCE);
-        SearchResponse searchResponse = searchRequestBuilder.setIndices(indexName)
-                .setQuery(termQueryBuilder)
-                .setSize(1)
-                .execute().actionGet();
-        if (searchResponse.getHits().totalHits() != 1) {
+    private int getOrdinal(String conceptURI) {
+        int ordinal = store.getOrdinal(conceptURI);
+        if (ordinal < 0) {
             logger.warn("unknown concept " + conceptURI);
-            return Collections.emptyList();
         }
-        SearchHit hit = searchResponse.getHits().getAt(0);
-        Object object = hit.getSource().get(field);
-        if (!(object instanceof List)) {
-            object = Collections.singletonList(object);
+        return ordinal;
+    }
+
+    private List<String> readLabels(String conceptURI, SKOSType type) {
+        List<String> labels = new ArrayList<>();
+        int ordinal = getOrdinal(conceptURI);
+        if (ordinal >= 0) {
+            addLabels(labels, ordinal, type);
         }
-        return (List<String>) object;
+        return labels;
+    }
+
+    private void addLabels(List<String> labels, int ordinal, SKOSType type) {
+        for (int i = 0; i < store.count(ordinal, type); i++) {
+            labels.add(store.getLabelString(store.get(ordinal, type, i)));
+        }
+    }
+
+    private List<String> readConcepts(String conceptURI, SKOSType type) {
+        List<String> concepts = new ArrayList<>();
+        int ordinal = getOrdinal(conceptURI);
+        if (ordinal >= 0) {
+            for (int i = 0; i < store.count(ordinal, type); i++) {
+                concepts.add(store.getURI(store.get(ordinal, type, i)));
+            }
+        }
+        return concepts;
     }
 
     /**
-     * Creates the synonym index
+     * Creates the synonym index and the concept store. Labels are normalized once here,
+     * the normalized forms are both indexed and added to the store.
+     *
+     * The concept ids are pinned in the synonym index. If the index exists, the ids are
+     * read from it, and only concepts not yet in the index get new ids. Concepts new or changed
+     * since the index was written are indexed, and concepts removed from the vocabulary keep only
+     * their URI and id, so their ids are never given to other concepts.
+     * Without client, there is no synonym index, and the concepts get the ids they were given,
+     * the others get their ids in URI order after them, like the synonym index would assign them.
      *
      * @throws IOException
      */
     private void indexSKOSModel() throws IOException {
+        if (client == null) {
+            // an engine without cluster, like the offline expansion tool, only builds the concept store
+            buildConceptStore(new ConceptStore.Builder(), new LabelSuggester.Builder(),
+                    assignConceptIds(offlineIds), Collections.<String, Map<String, Object>>emptyMap(), null, true);
+            return;
+        }
 
         ClusterHealthRequestBuilder clusterHealthRequestBuilder = new ClusterHealthRequestBuilder(client, ClusterHealthAction.INSTANCE);
         ClusterHealthResponse clusterIndexHealthResponse = clusterHealthRequestBuilder
@@ -356,48 +787,187 @@ public class SKOSEngineImpl implements SKOSEngine {
         }
 
         CreateIndexRequestBuilder createIndexRequestBuilder = new CreateIndexRequestBuilder(client, CreateIndexAction.INSTANCE, indexName);
+        // labels are already normalized, and URIs must match exactly
         Settings settings = Settings.builder()
-//                .put("index.analysis.analyzer.default.type", "keyword")
-                .put("index.analysis.filter.concatenate.type", "concatenate")
-                .put("index.analysis.filter.concatenate.token_separator", " ")
-                .put("index.analysis.filter.french_elision.type", "elision")
-                .put("index.analysis.filter.french_elision.articles_case", true)
-                .putArray("index.analysis.filter.french_elision.articles", "l", "m", "t", "qu", "n", "s", "j", "d", "c", "jusqu", "quoiqu", "lorsqu", "puisqu")
-                .put("index.analysis.filter.french_stop.type", "stop")
-                .put("index.analysis.filter.french_stop.stopwords", "_french_")
-                .put("index.analysis.filter.french_stemmer.type", "stemmer")
-                .put("index.analysis.filter.french_stemmer.language", "light_french")
-                .put("index.analysis.analyzer.default.tokenizer", "standard")
-                .putArray("index.analysis.analyzer.default.filter", "french_elision", "lowercase", "french_stop", "french_stemmer", "concatenate")
+                .put("index.analysis.analyzer.default.type", "keyword")
                 .build();
+        boolean created = true;
         try {
             createIndexRequestBuilder.setSettings(settings).execute().actionGet();
         } catch (IndexAlreadyExistsException e) {
-            return;
+            // the concept store must be built anyway
+            created = false;
         }
 
         BulkRequestBuilder bulkRequestBuilder = new BulkRequestBuilder(client, BulkAction.INSTANCE);
+        ConceptStore.Builder storeBuilder = new ConceptStore.Builder();
+        LabelSuggester.Builder suggesterBuilder = new LabelSuggester.Builder();
+        Map<String, Integer> pinnedIds = new HashMap<>();
+        Map<String, Map<String, Object>> pinnedSources = new HashMap<>();
+        if (!created) {
+            // documents indexed before concept ids were introduced are replaced
+            for (String docId : readConceptIds(pinnedIds, pinnedSources)) {
+                bulkRequestBuilder.add(new DeleteRequestBuilder(client, DeleteAction.INSTANCE, indexName)
+                        .setType("skos").setId(docId));
+            }
+        }
+        Map<String, Integer> conceptIds = assignConceptIds(pinnedIds);
+        bulkRequestBuilder = buildConceptStore(storeBuilder, suggesterBuilder, conceptIds, pinnedSources,
+                bulkRequestBuilder, created);
+        for (Map.Entry<String, Map<String, Object>> entry : pinnedSources.entrySet()) {
+            String uri = entry.getKey();
+            if (store.getOrdinal(uri) >= 0) {
+                continue;
+            }
+            // a removed concept loses its labels and relations, but its id stays taken
+            XContentBuilder builder = jsonBuilder().startObject()
+                    .field(FIELD_URI, uri)
+                    .field(FIELD_ID, ConceptStore.formatId(pinnedIds.get(uri)))
+                    .endObject();
+            if (!entry.getValue().equals(XContentHelper.convertToMap(builder.bytes(), false).v2())) {
+                bulkRequestBuilder.add(new IndexRequestBuilder(client, IndexAction.INSTANCE)
+                        .setIndex(indexName).setType("skos").setId(uri).setSource(builder));
+            }
+        }
+        if (bulkRequestBuilder.numberOfActions() == 0 && !created) {
+            return;
+        }
+        if (onBulkThread()) {
+            indexAsync(bulkRequestBuilder);
+            return;
+        }
+        if (bulkRequestBuilder.numberOfActions() > 0) {
+            BulkResponse bulkResponse = bulkRequestBuilder.execute().actionGet();
+            if (bulkResponse.hasFailures()) {
+                throw new IOException("can't index SKOS: " + bulkResponse.buildFailureMessage());
+            }
+        }
+        RefreshRequestBuilder refreshRequestBuilder = new RefreshRequestBuilder(client, RefreshAction.INSTANCE);
+        refreshRequestBuilder.setIndices(indexName).execute().actionGet();
+    }
+
+    /**
+     * True if the engine is loaded by a thread of the bulk pool, which happens when the first document
+     * of a bulk request is analyzed. The shard bulk of the vocabulary index runs on the same pool,
+     * so waiting for it could block the last free bulk thread forever.
+     */
+    private static boolean onBulkThread() {
+        return Thread.currentThread().getName().contains("[" + ThreadPool.Names.BULK + "]");
+    }
 
+    /**
+     * Indexes the concepts and refreshes the vocabulary index without waiting. The concept store is
+     * already built, failures only leave concept ids unpinned, and they are logged.
+     *
+     * @param bulkRequestBuilder the bulk request for the vocabulary index
+     */
+    private void indexAsync(BulkRequestBuilder bulkRequestBuilder) {
+        final RefreshRequestBuilder refreshRequestBuilder = new RefreshRequestBuilder(client, RefreshAction.INSTANCE)
+                .setIndices(indexName);
+        final ActionListener<RefreshResponse> refreshListener = new ActionListener<RefreshResponse>() {
+            @Override
+            public void onResponse(RefreshResponse refreshResponse) {
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                logger.warn("can't refresh SKOS index {}", e, indexName);
+            }
+        };
+        if (bulkRequestBuilder.numberOfActions() == 0) {
+            refreshRequestBuilder.execute(refreshListener);
+            return;
+        }
+        bulkRequestBuilder.execute(new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse bulkResponse) {
+                if (bulkResponse.hasFailures()) {
+                    logger.warn("can't index SKOS: {}", bulkResponse.buildFailureMessage());
+                }
+                refreshRequestBuilder.execute(refreshListener);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                logger.warn("can't index SKOS into {}", e, indexName);
+            }
+        });
+    }
+
+    /**
+     * Builds the concept store and collects the labels of the suggester from the SKOS model, and adds the
+     * concepts not yet in the vocabulary index, or changed since they were indexed, to the bulk request
+     *
+     * @param storeBuilder the concept store builder
+     * @param suggesterBuilder the suggester builder
+     * @param conceptIds the ids of all concepts by URI
+     * @param pinnedSources the sources of the concepts already in the vocabulary index
+     * @param bulkRequestBuilder the bulk request for the vocabulary index, or null for no index
+     * @param created true if the vocabulary index was created, false if the pinned concepts are indexed
+     * @return the bulk request with the remaining actions
+     * @throws IOException if the concepts can not be indexed
+     */
+    private BulkRequestBuilder buildConceptStore(ConceptStore.Builder storeBuilder, LabelSuggester.Builder suggesterBuilder,
+                                                 Map<String, Integer> conceptIds, Map<String, Map<String, Object>> pinnedSources,
+                                                 BulkRequestBuilder bulkRequestBuilder, boolean created) throws IOException {
         ResIterator it = skosModel.listResourcesWithProperty(RDF.type, SKOS.Concept);
         while (it.hasNext()) {
             Resource skos_concept = it.next();
+            List<Literal> prefLiterals = new ArrayList<>();
+            List<Literal> altLiterals = new ArrayList<>();
+            List<String> prefLabels = normalizeLabels(skos_concept, SKOS.prefLabel, prefLiterals);
+            List<String> altLabels = normalizeLabels(skos_concept, SKOS.altLabel, altLiterals);
+            List<String> hiddenLabels = normalizeLabels(skos_concept, SKOS.hiddenLabel, new ArrayList<Literal>());
+            List<String> broader = readRelations(skos_concept, SKOS.broader);
+            List<String> broaderTransitive = readRelations(skos_concept, SKOS.broaderTransitive);
+            List<String> narrower = readRelations(skos_concept, SKOS.narrower);
+            List<String> narrowerTransitive = readRelations(skos_concept, SKOS.narrowerTransitive);
+            List<String> related = readRelations(skos_concept, SKOS.related);
+            // blank node concepts can not be looked up by URI
+            if (skos_concept.getURI() != null) {
+                int ordinal = storeBuilder.addConcept(skos_concept.getURI());
+                storeBuilder.setId(ordinal, conceptIds.get(skos_concept.getURI()));
+                addLabels(storeBuilder, ordinal, SKOSType.PREF, prefLabels);
+                addLabels(storeBuilder, ordinal, SKOSType.ALT, altLabels);
+                addLabels(storeBuilder, ordinal, SKOSType.HIDDEN, hiddenLabels);
+                addSuggestions(suggesterBuilder, ordinal, SKOSType.PREF, prefLiterals, prefLabels);
+                addSuggestions(suggesterBuilder, ordinal, SKOSType.ALT, altLiterals, altLabels);
+                addRelations(storeBuilder, ordinal, SKOSType.BROADER, broader);
+                addRelations(storeBuilder, ordinal, SKOSType.BROADERTRANSITIVE, broaderTransitive);
+                addRelations(storeBuilder, ordinal, SKOSType.NARROWER, narrower);
+                addRelations(storeBuilder, ordinal, SKOSType.NARROWERTRANSITIVE, narrowerTransitive);
+                addRelations(storeBuilder, ordinal, SKOSType.RELATED, related);
+            }
+            if (bulkRequestBuilder == null || (!created && skos_concept.getURI() == null)) {
+                continue;
+            }
             XContentBuilder builder = jsonBuilder();
             builder.startObject()
                     .field(FIELD_URI, skos_concept.getURI());
-            buildAnnotation(builder, skos_concept, SKOS.prefLabel, FIELD_PREF_LABEL);
-            buildAnnotation(builder, skos_concept, SKOS.altLabel, FIELD_ALT_LABEL);
-            buildAnnotation(builder, skos_concept, SKOS.hiddenLabel, FIELD_HIDDEN_LABEL);
-            buildObject(builder, skos_concept, SKOS.broader, FIELD_BROADER);
-            buildObject(builder, skos_concept, SKOS.broaderTransitive, FIELD_BROADER_TRANSITIVE);
-            buildObject(builder, skos_concept, SKOS.narrower, FIELD_NARROWER);
-            buildObject(builder, skos_concept, SKOS.narrowerTransitive, FIELD_NARROWER_TRANSITIVE);
-            buildObject(builder, skos_concept, SKOS.related, FIELD_RELATED);
+            if (skos_concept.getURI() != null) {
+                builder.field(FIELD_ID, ConceptStore.formatId(conceptIds.get(skos_concept.getURI())));
+            }
+            builder.field(FIELD_PREF_LABEL, prefLabels.toArray(new String[prefLabels.size()]));
+            builder.field(FIELD_ALT_LABEL, altLabels.toArray(new String[altLabels.size()]));
+            builder.field(FIELD_HIDDEN_LABEL, hiddenLabels.toArray(new String[hiddenLabels.size()]));
+            builder.field(FIELD_BROADER, broader.toArray(new String[broader.size()]));
+            builder.field(FIELD_BROADER_TRANSITIVE, broaderTransitive.toArray(new String[broaderTransitive.size()]));
+            builder.field(FIELD_NARROWER, narrower.toArray(new String[narrower.size()]));
+            builder.field(FIELD_NARROWER_TRANSITIVE, narrowerTransitive.toArray(new String[narrowerTransitive.size()]));
+            builder.field(FIELD_RELATED, related.toArray(new String[related.size()]));
             builder.endObject();
+            // a pinned concept keeps its id, and is only indexed again if it changed
+            if (!created && XContentHelper.convertToMap(builder.bytes(), false).v2()
+                    .equals(pinnedSources.get(skos_concept.getURI()))) {
+                continue;
+            }
             IndexRequestBuilder indexRequestBuilder = new IndexRequestBuilder(client, IndexAction.INSTANCE);
             indexRequestBuilder.setIndex(indexName).setType("skos")
+                    .setId(skos_concept.getURI())
                     .setSource(builder);
             bulkRequestBuilder.add(indexRequestBuilder);
-            if (bulkRequestBuilder.numberOfActions() == 1000) {
+            // on a bulk thread, the concepts are indexed at once without waiting
+            if (bulkRequestBuilder.numberOfActions() == 1000 && !onBulkThread()) {
                 BulkResponse bulkResponse = bulkRequestBuilder.execute().actionGet();
                 if (bulkResponse.hasFailures()) {
                     throw new IOException("can't index SKOS: " + bulkResponse.buildFailureMessage());
@@ -405,18 +975,82 @@ public class SKOSEngineImpl implements SKOSEngine {
                 bulkRequestBuilder = new BulkRequestBuilder(client, BulkAction.INSTANCE);
             }
         }
-        if (bulkRequestBuilder.numberOfActions() > 0) {
-            BulkResponse bulkResponse = bulkRequestBuilder.execute().actionGet();
-            if (bulkResponse.hasFailures()) {
-                throw new IOException("can't index SKOS: " + bulkResponse.buildFailureMessage());
+        store = storeBuilder.build(offHeap);
+        version = VocabularyDiff.version(store);
+        expansionTable = new ExpansionTable(this, store);
+        // the suggester and the hierarchy are built on first use, most engines never need them
+        this.suggesterBuilder = suggesterBuilder.compact(offHeap);
+        logger.debug("loaded {} concepts, {} labels, {} heap bytes, {} off-heap bytes", store.size(),
+                store.getLabels().size(), store.ramBytesUsed(), store.offHeapBytesUsed());
+        return bulkRequestBuilder;
+    }
+
+    /**
+     * Reads the pinned concept ids and the concept documents from the synonym index
+     *
+     * @param ids the map receiving the concept ids by URI
+     * @param sources the map receiving the sources of the documents with concept id by URI
+     * @return the ids of documents without concept id
+     */
+    private List<String> readConceptIds(Map<String, Integer> ids, Map<String, Map<String, Object>> sources) {
+        List<String> docIds = new ArrayList<>();
+        SearchResponse searchResponse = new SearchRequestBuilder(client, SearchAction.INSTANCE)
+                .setIndices(indexName)
+                .setTypes("skos")
+                .setQuery(matchAllQuery())
+                .setScroll(SCROLL_TIMEOUT)
+                .setSize(1000)
+                .execute().actionGet();
+        while (searchResponse.getHits().getHits().length > 0) {
+            for (SearchHit hit : searchResponse.getHits().getHits()) {
+                Map<String, Object> source = hit.getSource();
+                Object uri = source != null ? source.get(FIELD_URI) : null;
+                Object id = source != null ? source.get(FIELD_ID) : null;
+                if (uri != null && id != null && ConceptStore.parseId(id.toString()) >= 0) {
+                    ids.put(uri.toString(), ConceptStore.parseId(id.toString()));
+                    sources.put(uri.toString(), source);
+                } else if (uri != null) {
+                    docIds.add(hit.getId());
+                }
             }
+            searchResponse = new SearchScrollRequestBuilder(client, SearchScrollAction.INSTANCE, searchResponse.getScrollId())
+                    .setScroll(SCROLL_TIMEOUT)
+                    .execute().actionGet();
         }
-        RefreshRequestBuilder refreshRequestBuilder = new RefreshRequestBuilder(client, RefreshAction.INSTANCE);
-        refreshRequestBuilder.setIndices(indexName).execute().actionGet();
+        new ClearScrollRequestBuilder(client, ClearScrollAction.INSTANCE)
+                .addScrollId(searchResponse.getScrollId())
+                .execute().actionGet();
+        return docIds;
     }
 
-    private void buildAnnotation(XContentBuilder builder, Resource skos_concept,
-                                 AnnotationProperty property, String field) throws IOException {
+    /**
+     * Assigns ids to the concepts without pinned id, in URI order, after the highest pinned id
+     *
+     * @param pinnedIds the pinned concept ids by URI
+     * @return the ids of all concepts by URI
+     */
+    private Map<String, Integer> assignConceptIds(Map<String, Integer> pinnedIds) {
+        Map<String, Integer> ids = new HashMap<>(pinnedIds);
+        int next = 0;
+        for (Integer id : pinnedIds.values()) {
+            next = Math.max(next, id + 1);
+        }
+        Set<String> uris = new TreeSet<>();
+        ResIterator it = skosModel.listResourcesWithProperty(RDF.type, SKOS.Concept);
+        while (it.hasNext()) {
+            String uri = it.next().getURI();
+            if (uri != null && !ids.containsKey(uri)) {
+                uris.add(uri);
+            }
+        }
+        for (String uri : uris) {
+            ids.put(uri, next++);
+        }
+        return ids;
+    }
+
+    private List<String> normalizeLabels(Resource skos_concept, AnnotationProperty property, List<Literal> literals)
+            throws IOException {
         List<String> values = new LinkedList<>();
         StmtIterator stmt_iter = skos_concept.listProperties(property);
         while (stmt_iter.hasNext()) {
@@ -426,25 +1060,47 @@ public class SKOSEngineImpl implements SKOSEngine {
             if (this.languages != null && !this.languages.isEmpty() && !this.languages.contains(labelLang)) {
                 continue;
             }
-            values.add(label.toLowerCase());
+            String key = normalizer.normalize(label);
+            if (!key.isEmpty()) {
+                values.add(key);
+                literals.add(labelLiteral);
+            }
+        }
+        return values;
+    }
+
+    private static void addLabels(ConceptStore.Builder storeBuilder, int ordinal, SKOSType type, List<String> labels) {
+        for (String label : labels) {
+            storeBuilder.addLabel(ordinal, type, label);
+        }
+    }
+
+    private static void addSuggestions(LabelSuggester.Builder suggesterBuilder, int ordinal, SKOSType type,
+                                       List<Literal> literals, List<String> keys) {
+        for (int i = 0; i < keys.size(); i++) {
+            suggesterBuilder.add(ordinal, type, literals.get(i).getLexicalForm(), literals.get(i).getLanguage(), keys.get(i));
+        }
+    }
+
+    private static void addRelations(ConceptStore.Builder storeBuilder, int ordinal, SKOSType type, List<String> uris) {
+        for (String uri : uris) {
+            storeBuilder.addRelation(ordinal, type, uri);
         }
-        builder.field(field, values.toArray(new String[values.size()]));
     }
 
-    private void buildObject(XContentBuilder builder, Resource skos_concept,
-                             ObjectProperty property, String field) throws IOException {
+    private List<String> readRelations(Resource skos_concept, ObjectProperty property) {
         List<String> values = new LinkedList<>();
         StmtIterator stmt_iter = skos_concept.listProperties(property);
         while (stmt_iter.hasNext()) {
             RDFNode concept = stmt_iter.nextStatement().getObject();
-            if (!concept.canAs(Resource.class)) {
+            if (!concept.isURIResource()) {
                 logger.warn("error when indexing relationship of concept " + skos_concept.getURI() + " .");
                 continue;
             }
             Resource resource = concept.as(Resource.class);
             values.add(resource.getURI());
         }
-        builder.field(field, values.toArray(new String[values.size()]));
+        return values;
     }
 
     private String join(Iterator iterator, char separator) {
@@ -0,0 +1,446 @@
+package org.xbib.elasticsearch.index.mapper.skos;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.fielddata.FieldDataType;
+import org.elasticsearch.index.mapper.ContentPath;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.mapper.core.IntegerFieldMapper;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptGraph;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptHierarchy;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+
+import com.google.common.collect.Iterators;
+
+import static org.elasticsearch.index.mapper.core.TypeParsers.parseField;
+import static org.elasticsearch.index.mapper.core.TypeParsers.parseMultiField;
+
+/**
+ * A field of concept URIs of a loaded vocabulary. The URI is indexed as a keyword, and the
+ * left numbers of the nested set intervals of the concept in the broader/narrower hierarchy
+ * are indexed in the integer sub-field "interval", so all documents under a concept are
+ * found with one range query per interval of that concept. Vocabularies whose hierarchy has too
+ * many paths to be numbered get no intervals, their URIs and doc values are indexed all the same.
+ *
+ * <pre>
+ * "subject" : {
+ *     "type" : "skos_concept",
+ *     "vocabulary" : "ukat",
+ *     "match" : "label",
+ *     "include_ancestors" : true
+ * }
+ * </pre>
+ *
+ * With match "label", the values are labels and are indexed as the URIs of the concepts having
+ * them. The concept URIs are also written to sorted set doc values, so terms aggregations over
+ * concepts run on the doc values ordinals instead of field data on the heap. With include_ancestors,
+ * the doc values also hold the URIs of all broader concepts, so facets count documents under a concept.
+ */
+public class SKOSConceptFieldMapper extends FieldMapper {
+
+    public static final String CONTENT_TYPE = "skos_concept";
+
+    public static final String INTERVAL = "interval";
+
+    /**
+     * How the values of a skos_concept field are resolved to concepts
+     */
+    public enum Match {
+        URI, LABEL
+    }
+
+    public static class Defaults {
+
+        public static final SKOSConceptFieldType FIELD_TYPE = new SKOSConceptFieldType();
+
+        static {
+            FIELD_TYPE.setTokenized(false);
+            FIELD_TYPE.setOmitNorms(true);
+            FIELD_TYPE.setIndexOptions(IndexOptions.DOCS);
+            FIELD_TYPE.setIndexAnalyzer(Lucene.KEYWORD_ANALYZER);
+            FIELD_TYPE.setSearchAnalyzer(Lucene.KEYWORD_ANALYZER);
+            FIELD_TYPE.setSearchQuoteAnalyzer(Lucene.KEYWORD_ANALYZER);
+            FIELD_TYPE.setHasDocValues(true);
+            FIELD_TYPE.setFieldDataType(new FieldDataType("string"));
+            FIELD_TYPE.freeze();
+        }
+    }
+
+    public static class Builder extends FieldMapper.Builder<Builder, SKOSConceptFieldMapper> {
+
+        public Builder(String name) {
+            super(name, Defaults.FIELD_TYPE, Defaults.FIELD_TYPE);
+            builder = this;
+        }
+
+        @Override
+        public SKOSConceptFieldType fieldType() {
+            return (SKOSConceptFieldType) super.fieldType();
+        }
+
+        public Builder vocabulary(String vocabulary) {
+            fieldType().setVocabulary(vocabulary);
+            return this;
+        }
+
+        public Builder match(Match match) {
+            fieldType().setMatch(match);
+            return this;
+        }
+
+        public Builder includeAncestors(boolean includeAncestors) {
+            fieldType().setIncludeAncestors(includeAncestors);
+            return this;
+        }
+
+        @Override
+        public SKOSConceptFieldMapper build(BuilderContext context) {
+            if (fieldType().vocabulary() == null) {
+                throw new MapperParsingException("[vocabulary] is required for field [" + name + "] of type [" + CONTENT_TYPE + "]");
+            }
+            ContentPath.Type pathType = context.path().pathType();
+            context.path().pathType(ContentPath.Type.FULL);
+            context.path().add(name);
+            IntegerFieldMapper intervalMapper = new IntegerFieldMapper.Builder(INTERVAL)
+                    .includeInAll(false)
+                    .build(context);
+            context.path().remove();
+            context.path().pathType(pathType);
+            setupFieldType(context);
+            return new SKOSConceptFieldMapper(name, fieldType, defaultFieldType, context.indexSettings(),
+                    intervalMapper, multiFieldsBuilder.build(this, context), copyTo);
+        }
+    }
+
+    public static class TypeParser implements Mapper.TypeParser {
+
+        @Override
+        public Mapper.Builder<?, ?> parse(String name, Map<String, Object> node, ParserContext parserContext) {
+            Builder builder = new Builder(name);
+            parseField(builder, name, node, parserContext);
+            for (Iterator<Map.Entry<String, Object>> it = node.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Object> entry = it.next();
+                if ("vocabulary".equals(entry.getKey())) {
+                    builder.vocabulary(entry.getValue().toString());
+                    it.remove();
+                } else if ("match".equals(entry.getKey())) {
+                    builder.match(parseMatch(name, entry.getValue().toString()));
+                    it.remove();
+                } else if ("include_ancestors".equals(entry.getKey())) {
+                    builder.includeAncestors(XContentMapValues.nodeBooleanValue(entry.getValue()));
+                    it.remove();
+                } else if (parseMultiField(builder, name, parserContext, entry.getKey(), entry.getValue())) {
+                    it.remove();
+                }
+            }
+            return builder;
+        }
+
+        private static Match parseMatch(String name, String match) {
+            try {
+                return Match.valueOf(match.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new MapperParsingException("[match] of field [" + name + "] must be one of uri, label");
+            }
+        }
+    }
+
+    public static final class SKOSConceptFieldType extends MappedFieldType {
+
+        private String vocabulary;
+
+        private Match match = Match.URI;
+
+        private boolean includeAncestors;
+
+        public SKOSConceptFieldType() {
+        }
+
+        protected SKOSConceptFieldType(SKOSConceptFieldType ref) {
+            super(ref);
+            this.vocabulary = ref.vocabulary;
+            this.match = ref.match;
+            this.includeAncestors = ref.includeAncestors;
+        }
+
+        @Override
+        public SKOSConceptFieldType clone() {
+            return new SKOSConceptFieldType(this);
+        }
+
+        @Override
+        public String typeName() {
+            return CONTENT_TYPE;
+        }
+
+        public String vocabulary() {
+            return vocabulary;
+        }
+
+        public void setVocabulary(String vocabulary) {
+            checkIfFrozen();
+            this.vocabulary = vocabulary;
+        }
+
+        public Match match() {
+            return match;
+        }
+
+        public void setMatch(Match match) {
+            checkIfFrozen();
+            this.match = match;
+        }
+
+        public boolean includeAncestors() {
+            return includeAncestors;
+        }
+
+        public void setIncludeAncestors(boolean includeAncestors) {
+            checkIfFrozen();
+            this.includeAncestors = includeAncestors;
+        }
+
+        @Override
+        public String value(Object value) {
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!super.equals(o)) {
+                return false;
+            }
+            SKOSConceptFieldType other = (SKOSConceptFieldType) o;
+            return (vocabulary == null ? other.vocabulary == null : vocabulary.equals(other.vocabulary))
+                    && match == other.match && includeAncestors == other.includeAncestors;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 31 * super.hashCode() + (vocabulary == null ? 0 : vocabulary.hashCode());
+            h = 31 * h + match.hashCode();
+            return 31 * h + (includeAncestors ? 1 : 0);
+        }
+
+        @Override
+        public void checkCompatibility(MappedFieldType fieldType, List<String> conflicts, boolean strict) {
+            super.checkCompatibility(fieldType, conflicts, strict);
+            SKOSConceptFieldType other = (SKOSConceptFieldType) fieldType;
+            if (vocabulary == null ? other.vocabulary != null : !vocabulary.equals(other.vocabulary)) {
+                conflicts.add("mapper [" + names().fullName() + "] has different [vocabulary]");
+            }
+            if (match != other.match) {
+                conflicts.add("mapper [" + names().fullName() + "] has different [match]");
+            }
+            if (includeAncestors != other.includeAncestors) {
+                conflicts.add("mapper [" + names().fullName() + "] has different [include_ancestors]");
+            }
+        }
+
+        /**
+         * @return the name of the integer field holding the left interval numbers
+         */
+        public String intervalField() {
+            return names().indexName() + "." + INTERVAL;
+        }
+
+        /**
+         * Returns the engine of the vocabulary, loaded on first use through the skos filter defining it
+         *
+         * @param index the name of the index of the field
+         * @return the engine
+         * @throws IllegalStateException if the vocabulary is not defined on this node or can not be loaded
+         */
+        public SKOSEngine engine(String index) {
+            SKOSEngine engine;
+            try {
+                engine = SKOSEngineFactory.getSKOSEngine(index, vocabulary);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new IllegalStateException("vocabulary [" + vocabulary + "] of field [" + names().fullName()
+                        + "] can not be loaded", e);
+            }
+            if (engine == null) {
+                throw new IllegalStateException("vocabulary [" + vocabulary + "] of field [" + names().fullName()
+                        + "] is not defined by a skos filter of an index on this node");
+            }
+            return engine;
+        }
+
+        /**
+         * @param index the name of the index of the field
+         * @return the hierarchy of the vocabulary
+         * @throws IllegalStateException if the vocabulary can not be loaded on this node or has no hierarchy
+         */
+        public ConceptHierarchy hierarchy(String index) {
+            ConceptHierarchy hierarchy = engine(index).getConceptHierarchy();
+            if (hierarchy == null) {
+                throw new IllegalStateException("vocabulary [" + vocabulary + "] has no hierarchy intervals");
+            }
+            return hierarchy;
+        }
+
+        /**
+         * Creates a query for the documents under a concept
+         *
+         * @param index the name of the index of the field
+         * @param conceptURI the concept URI
+         * @param includeSelf true to also match the documents of the concept itself
+         * @return the query
+         */
+        public Query descendantsQuery(String index, String conceptURI, boolean includeSelf) {
+            return descendantsQuery(intervalField(), hierarchy(index), conceptURI, includeSelf);
+        }
+
+        /**
+         * Creates a query for the documents under a concept
+         *
+         * @param intervalField the name of the integer field holding the left interval numbers
+         * @param hierarchy the hierarchy
+         * @param conceptURI the concept URI
+         * @param includeSelf true to also match the documents of the concept itself
+         * @return the query
+         */
+        public static Query descendantsQuery(String intervalField, ConceptHierarchy hierarchy,
+                                             String conceptURI, boolean includeSelf) {
+            int ordinal = hierarchy.getOrdinal(conceptURI);
+            if (ordinal < 0 || hierarchy.intervalCount(ordinal) == 0) {
+                return new MatchNoDocsQuery();
+            }
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setDisableCoord(true);
+            for (int i = 0; i < hierarchy.intervalCount(ordinal); i++) {
+                // the right number of a concept is never the left number of another
+                builder.add(NumericRangeQuery.newIntRange(intervalField,
+                        hierarchy.getLeft(ordinal, i), hierarchy.getRight(ordinal, i), includeSelf, false),
+                        BooleanClause.Occur.SHOULD);
+            }
+            return new ConstantScoreQuery(builder.build());
+        }
+    }
+
+    private FieldMapper intervalMapper;
+
+    protected SKOSConceptFieldMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType,
+                                     Settings indexSettings, FieldMapper intervalMapper,
+                                     MultiFields multiFields, CopyTo copyTo) {
+        super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
+        this.intervalMapper = intervalMapper;
+    }
+
+    @Override
+    public SKOSConceptFieldType fieldType() {
+        return (SKOSConceptFieldType) super.fieldType();
+    }
+
+    @Override
+    protected void parseCreateField(ParseContext context, List<Field> fields) throws IOException {
+        String value = context.externalValueSet() ?
+                context.externalValue().toString() : context.parser().textOrNull();
+        if (value == null) {
+            return;
+        }
+        SKOSEngine engine;
+        try {
+            engine = fieldType().engine(context.index());
+        } catch (IllegalStateException e) {
+            throw new MapperParsingException(e.getMessage(), e.getCause());
+        }
+        ConceptGraph graph = engine.getConceptGraph();
+        // null for hierarchies with too many paths, whose concepts are indexed without intervals
+        ConceptHierarchy hierarchy = engine.getConceptHierarchy();
+        List<String> concepts;
+        if (fieldType().match() == Match.LABEL) {
+            concepts = engine.getConcepts(value);
+        } else {
+            concepts = Collections.singletonList(value);
+        }
+        Set<String> docValues = new LinkedHashSet<>();
+        for (String concept : concepts) {
+            if (fieldType().indexOptions() != IndexOptions.NONE || fieldType().stored()) {
+                fields.add(new Field(fieldType().names().indexName(), concept, fieldType()));
+            }
+            docValues.add(concept);
+            int ordinal = graph.getOrdinal(concept);
+            if (ordinal < 0) {
+                continue;
+            }
+            if (hierarchy != null) {
+                for (int i = 0; i < hierarchy.intervalCount(ordinal); i++) {
+                    intervalMapper.parse(context.createExternalValueContext(hierarchy.getLeft(ordinal, i)));
+                }
+            }
+            if (fieldType().includeAncestors()) {
+                for (int ancestor : graph.getAncestors(ordinal)) {
+                    docValues.add(graph.getURI(ancestor));
+                }
+            }
+        }
+        if (fieldType().hasDocValues()) {
+            for (String concept : docValues) {
+                fields.add(new SortedSetDocValuesField(fieldType().names().indexName(), new BytesRef(concept)));
+            }
+        }
+    }
+
+    @Override
+    public Iterator<Mapper> iterator() {
+        return Iterators.concat(super.iterator(), Collections.<Mapper>singleton(intervalMapper).iterator());
+    }
+
+    @Override
+    public FieldMapper updateFieldType(Map<String, MappedFieldType> fullNameToFieldType) {
+        SKOSConceptFieldMapper updated = (SKOSConceptFieldMapper) super.updateFieldType(fullNameToFieldType);
+        FieldMapper updatedIntervalMapper = intervalMapper.updateFieldType(fullNameToFieldType);
+        if (updated == this && updatedIntervalMapper == intervalMapper) {
+            return this;
+        }
+        if (updated == this) {
+            updated = (SKOSConceptFieldMapper) updated.clone();
+        }
+        updated.intervalMapper = updatedIntervalMapper;
+        return updated;
+    }
+
+    @Override
+    protected void doXContentBody(XContentBuilder builder, boolean includeDefaults, Params params) throws IOException {
+        super.doXContentBody(builder, includeDefaults, params);
+        builder.field("vocabulary", fieldType().vocabulary());
+        if (includeDefaults || fieldType().match() != Match.URI) {
+            builder.field("match", fieldType().match().name().toLowerCase(Locale.ROOT));
+        }
+        if (includeDefaults || fieldType().includeAncestors()) {
+            builder.field("include_ancestors", fieldType().includeAncestors());
+        }
+    }
+
+    @Override
+    protected String contentType() {
+        return CONTENT_TYPE;
+    }
+}
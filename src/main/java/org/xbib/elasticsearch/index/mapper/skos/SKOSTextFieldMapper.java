@@ -0,0 +1,278 @@
+package org.xbib.elasticsearch.index.mapper.skos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexOptions;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.analysis.CustomAnalyzer;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.analysis.TokenFilterFactory;
+import org.elasticsearch.index.mapper.ContentPath;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.mapper.core.StringFieldMapper;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTokenFilterFactory;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeRouter;
+
+import com.google.common.collect.Iterators;
+
+import static org.elasticsearch.index.mapper.core.TypeParsers.parseTextField;
+import static org.elasticsearch.index.mapper.core.TypeParsers.parseMultiField;
+
+/**
+ * A text field analyzed with a SKOS analyzer, which also indexes the expansions of each SKOS
+ * type in a sub-field of its own, like "subject.skos.alt" or "subject.skos.broader". The value
+ * is analyzed once, so all fields share one vocabulary lookup, and queries can target the
+ * relations they need without checking payloads.
+ *
+ * With a version stamp, the version of the vocabulary the value was expanded with is indexed in
+ * "subject.skos.version", so the documents of an old version can be found and expanded again.
+ *
+ * <pre>
+ * "subject" : {
+ *     "type" : "skos_text",
+ *     "analyzer" : "skos",
+ *     "relations" : "pref alt broader",
+ *     "version_stamp" : true
+ * }
+ * </pre>
+ */
+public class SKOSTextFieldMapper extends FieldMapper {
+
+    public static final String CONTENT_TYPE = "skos_text";
+
+    public static final String SKOS = "skos";
+
+    public static final String VERSION = "version";
+
+    public static class Builder extends FieldMapper.Builder<Builder, SKOSTextFieldMapper> {
+
+        private Set<SKOSType> relations = EnumSet.allOf(SKOSType.class);
+
+        private boolean versionStamp = false;
+
+        public Builder(String name) {
+            super(name, StringFieldMapper.Defaults.FIELD_TYPE, StringFieldMapper.Defaults.FIELD_TYPE);
+            builder = this;
+        }
+
+        public Builder relations(Set<SKOSType> relations) {
+            this.relations = relations;
+            return this;
+        }
+
+        public Builder versionStamp(boolean versionStamp) {
+            this.versionStamp = versionStamp;
+            return this;
+        }
+
+        @Override
+        public SKOSTextFieldMapper build(BuilderContext context) {
+            setupFieldType(context);
+            ContentPath.Type pathType = context.path().pathType();
+            context.path().pathType(ContentPath.Type.FULL);
+            context.path().add(name);
+            context.path().add(SKOS);
+            Map<SKOSType, FieldMapper> relationMappers = new EnumMap<>(SKOSType.class);
+            for (SKOSType type : relations) {
+                StringFieldMapper.Builder relationBuilder = new StringFieldMapper.Builder(type.name().toLowerCase(Locale.ROOT));
+                relationBuilder.includeInAll(false);
+                if (fieldType.indexAnalyzer() != null) {
+                    relationBuilder.indexAnalyzer(fieldType.indexAnalyzer());
+                }
+                if (fieldType.searchAnalyzer() != null) {
+                    relationBuilder.searchAnalyzer(fieldType.searchAnalyzer());
+                }
+                relationMappers.put(type, relationBuilder.build(context));
+            }
+            FieldMapper versionMapper = null;
+            if (versionStamp) {
+                StringFieldMapper.Builder versionBuilder = new StringFieldMapper.Builder(VERSION);
+                versionBuilder.includeInAll(false);
+                versionBuilder.index(true).tokenized(false).omitNorms(true);
+                versionMapper = versionBuilder.build(context);
+            }
+            context.path().remove();
+            context.path().remove();
+            context.path().pathType(pathType);
+            return new SKOSTextFieldMapper(name, fieldType, defaultFieldType, context.indexSettings(),
+                    relationMappers, versionMapper, multiFieldsBuilder.build(this, context), copyTo);
+        }
+    }
+
+    public static class TypeParser implements Mapper.TypeParser {
+
+        @Override
+        public Mapper.Builder<?, ?> parse(String name, Map<String, Object> node, ParserContext parserContext) {
+            Builder builder = new Builder(name);
+            parseTextField(builder, name, node, parserContext);
+            for (Iterator<Map.Entry<String, Object>> it = node.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Object> entry = it.next();
+                if ("relations".equals(entry.getKey())) {
+                    builder.relations(parseRelations(name, entry.getValue()));
+                    it.remove();
+                } else if ("version_stamp".equals(entry.getKey())) {
+                    builder.versionStamp(XContentMapValues.nodeBooleanValue(entry.getValue()));
+                    it.remove();
+                } else if (parseMultiField(builder, name, parserContext, entry.getKey(), entry.getValue())) {
+                    it.remove();
+                }
+            }
+            return builder;
+        }
+
+        private static Set<SKOSType> parseRelations(String name, Object value) {
+            List<String> names = new ArrayList<>();
+            if (value instanceof List) {
+                for (Object o : (List<?>) value) {
+                    names.add(o.toString());
+                }
+            } else {
+                names.addAll(Arrays.asList(value.toString().split(" ")));
+            }
+            Set<SKOSType> relations = EnumSet.noneOf(SKOSType.class);
+            for (String s : names) {
+                try {
+                    relations.add(SKOSType.valueOf(s.toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new MapperParsingException("[relations] of field [" + name + "] must be of PREF, ALT, HIDDEN, "
+                            + "BROADER, NARROWER, BROADERTRANSITIVE, NARROWERTRANSITIVE, RELATED");
+                }
+            }
+            return relations;
+        }
+    }
+
+    private Map<SKOSType, FieldMapper> relationMappers;
+
+    // the mapper of the vocabulary version, null without version stamp
+    private FieldMapper versionMapper;
+
+    // the field type for the token stream of the main field, which can not be stored
+    private final MappedFieldType indexedFieldType;
+
+    protected SKOSTextFieldMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType,
+                                  Settings indexSettings, Map<SKOSType, FieldMapper> relationMappers,
+                                  FieldMapper versionMapper, MultiFields multiFields, CopyTo copyTo) {
+        super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
+        this.relationMappers = relationMappers;
+        this.versionMapper = versionMapper;
+        this.indexedFieldType = fieldType.clone();
+        this.indexedFieldType.setStored(false);
+        this.indexedFieldType.freeze();
+    }
+
+    @Override
+    protected void parseCreateField(ParseContext context, List<Field> fields) throws IOException {
+        String value = context.externalValueSet() ?
+                context.externalValue().toString() : context.parser().textOrNull();
+        if (value == null) {
+            return;
+        }
+        if (fieldType().stored()) {
+            fields.add(new StoredField(fieldType().names().indexName(), value));
+        }
+        if (fieldType().indexOptions() == IndexOptions.NONE) {
+            return;
+        }
+        Analyzer analyzer = fieldType().indexAnalyzer() != null ?
+                fieldType().indexAnalyzer() : context.analysisService().defaultIndexAnalyzer();
+        SKOSTypeRouter router = new SKOSTypeRouter(analyzer.tokenStream(fieldType().names().indexName(), value),
+                relationMappers.keySet());
+        fields.add(new Field(fieldType().names().indexName(), router.all(), indexedFieldType));
+        for (SKOSType type : router.types()) {
+            MappedFieldType relationFieldType = relationMappers.get(type).fieldType();
+            fields.add(new Field(relationFieldType.names().indexName(), router.get(type), relationFieldType));
+        }
+        if (versionMapper != null) {
+            String version = vocabularyVersion(analyzer);
+            if (version != null) {
+                MappedFieldType versionFieldType = versionMapper.fieldType();
+                fields.add(new Field(versionFieldType.names().indexName(), version, versionFieldType));
+            }
+        }
+    }
+
+    // the version of the vocabulary of the first skos filter of the analyzer, null if there is none
+    private static String vocabularyVersion(Analyzer analyzer) {
+        if (analyzer instanceof NamedAnalyzer) {
+            analyzer = ((NamedAnalyzer) analyzer).analyzer();
+        }
+        if (analyzer instanceof CustomAnalyzer) {
+            for (TokenFilterFactory filter : ((CustomAnalyzer) analyzer).tokenFilters()) {
+                if (filter instanceof SKOSTokenFilterFactory) {
+                    return ((SKOSTokenFilterFactory) filter).getEngine().getVersion();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Iterator<Mapper> iterator() {
+        Iterator<Mapper> mappers = Iterators.concat(super.iterator(), relationMappers.values().iterator());
+        return versionMapper != null ? Iterators.concat(mappers, Iterators.<Mapper>singletonIterator(versionMapper)) : mappers;
+    }
+
+    @Override
+    public FieldMapper updateFieldType(Map<String, MappedFieldType> fullNameToFieldType) {
+        SKOSTextFieldMapper updated = (SKOSTextFieldMapper) super.updateFieldType(fullNameToFieldType);
+        Map<SKOSType, FieldMapper> updatedRelationMappers = new EnumMap<>(SKOSType.class);
+        boolean changed = false;
+        for (Map.Entry<SKOSType, FieldMapper> entry : relationMappers.entrySet()) {
+            FieldMapper relationMapper = entry.getValue().updateFieldType(fullNameToFieldType);
+            changed |= relationMapper != entry.getValue();
+            updatedRelationMappers.put(entry.getKey(), relationMapper);
+        }
+        FieldMapper updatedVersionMapper = versionMapper != null ? versionMapper.updateFieldType(fullNameToFieldType) : null;
+        changed |= updatedVersionMapper != versionMapper;
+        if (updated == this && !changed) {
+            return this;
+        }
+        if (updated == this) {
+            updated = (SKOSTextFieldMapper) updated.clone();
+        }
+        updated.relationMappers = updatedRelationMappers;
+        updated.versionMapper = updatedVersionMapper;
+        return updated;
+    }
+
+    @Override
+    protected void doXContentBody(XContentBuilder builder, boolean includeDefaults, Params params) throws IOException {
+        super.doXContentBody(builder, includeDefaults, params);
+        doXContentAnalyzers(builder, includeDefaults);
+        if (includeDefaults || relationMappers.size() < SKOSType.values().length) {
+            builder.startArray("relations");
+            for (SKOSType type : relationMappers.keySet()) {
+                builder.value(type.name().toLowerCase(Locale.ROOT));
+            }
+            builder.endArray();
+        }
+        if (includeDefaults || versionMapper != null) {
+            builder.field("version_stamp", versionMapper != null);
+        }
+    }
+
+    @Override
+    protected String contentType() {
+        return CONTENT_TYPE;
+    }
+}
@@ -0,0 +1,189 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptCloseness;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptDocValues;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptGraph;
+
+/**
+ * Scores documents by the closeness of their concepts, read from sorted set doc values, to
+ * query concepts in the hierarchy of a vocabulary. The query matches every document, unrelated
+ * documents with a score of 0, so its scorer advances to any document in constant time. It is
+ * meant as a rescore query: only the documents of the rescore window are scored, instead of
+ * expanding a query to all concepts under the query concepts. The query carries no boost, wrap it
+ * in a BoostQuery to boost it.
+ */
+public class SKOSClosenessQuery extends Query {
+
+    private final String field;
+
+    private final ConceptGraph graph;
+
+    private final int[] concepts;
+
+    private final ConceptCloseness.Measure measure;
+
+    private final int maxDistance;
+
+    /**
+     * @param field the field with the concept URIs in doc values
+     * @param graph the graph of the vocabulary
+     * @param concepts the ordinals of the query concepts
+     * @param measure the closeness measure
+     * @param maxDistance the maximum number of steps between related concepts, 0 for no limit
+     */
+    public SKOSClosenessQuery(String field, ConceptGraph graph, int[] concepts,
+                              ConceptCloseness.Measure measure, int maxDistance) {
+        this.field = field;
+        this.graph = graph;
+        this.concepts = concepts;
+        this.measure = measure;
+        this.maxDistance = maxDistance;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        return new ClosenessWeight();
+    }
+
+    @Override
+    public String toString(String field) {
+        StringBuilder sb = new StringBuilder("skos_closeness(");
+        if (!this.field.equals(field)) {
+            sb.append(this.field).append(':');
+        }
+        for (int i = 0; i < concepts.length; i++) {
+            sb.append(i > 0 ? " " : "").append(graph.getURI(concepts[i]));
+        }
+        sb.append(", ").append(measure.name().toLowerCase(Locale.ROOT));
+        if (maxDistance > 0) {
+            sb.append(", max_distance=").append(maxDistance);
+        }
+        return sb.append(')').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+        SKOSClosenessQuery other = (SKOSClosenessQuery) o;
+        return field.equals(other.field) && graph == other.graph && Arrays.equals(concepts, other.concepts)
+                && measure == other.measure && maxDistance == other.maxDistance;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 31 * super.hashCode() + field.hashCode();
+        h = 31 * h + System.identityHashCode(graph);
+        h = 31 * h + Arrays.hashCode(concepts);
+        h = 31 * h + measure.hashCode();
+        return 31 * h + maxDistance;
+    }
+
+    private class ClosenessWeight extends Weight {
+
+        // shared by the segments, which are scored one after the other
+        private final ConceptCloseness closeness;
+
+        private float queryNorm = 1f;
+
+        private float queryWeight;
+
+        ClosenessWeight() {
+            super(SKOSClosenessQuery.this);
+            this.closeness = new ConceptCloseness(graph, concepts, measure, maxDistance);
+            this.queryWeight = 1f;
+        }
+
+        @Override
+        public void extractTerms(Set<Term> terms) {
+        }
+
+        @Override
+        public float getValueForNormalization() throws IOException {
+            return queryWeight * queryWeight;
+        }
+
+        @Override
+        public void normalize(float norm, float topLevelBoost) {
+            this.queryNorm = norm * topLevelBoost;
+            this.queryWeight = queryNorm;
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+            ConceptDocValues values = ConceptDocValues.get(context.reader(), field, graph);
+            return new ClosenessScorer(this, DocIdSetIterator.all(context.reader().maxDoc()), values, closeness, queryWeight);
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            ClosenessScorer scorer = (ClosenessScorer) scorer(context);
+            scorer.iterator().advance(doc);
+            float value = scorer.closeness();
+            return Explanation.match(value * queryWeight, "skos_closeness(" + field + " in " + doc + "), product of:",
+                    Explanation.match(value, "closeness of the nearest concept"),
+                    Explanation.match(queryWeight, "queryWeight"));
+        }
+    }
+
+    private static class ClosenessScorer extends Scorer {
+
+        private final DocIdSetIterator iterator;
+
+        private final ConceptDocValues values;
+
+        private final ConceptCloseness closeness;
+
+        private final float weight;
+
+        ClosenessScorer(Weight weight, DocIdSetIterator iterator, ConceptDocValues values,
+                        ConceptCloseness closeness, float queryWeight) {
+            super(weight);
+            this.iterator = iterator;
+            this.values = values;
+            this.closeness = closeness;
+            this.weight = queryWeight;
+        }
+
+        float closeness() {
+            if (values == null) {
+                return 0f;
+            }
+            return closeness.closeness(values, values.setDocument(iterator.docID()));
+        }
+
+        @Override
+        public int docID() {
+            return iterator.docID();
+        }
+
+        @Override
+        public float score() throws IOException {
+            return closeness() * weight;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return 1;
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return iterator;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.BoostableQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+
+/**
+ * Builds a skos_closeness query, scoring documents by the closeness of their concepts to query concepts
+ */
+public class SKOSClosenessQueryBuilder extends QueryBuilder implements BoostableQueryBuilder<SKOSClosenessQueryBuilder> {
+
+    private final String name;
+
+    private final String[] concepts;
+
+    private String vocabulary;
+
+    private String measure;
+
+    private Integer maxDistance;
+
+    private float boost = -1;
+
+    private String queryName;
+
+    /**
+     * @param name the field name
+     * @param concepts the concept URIs
+     */
+    public SKOSClosenessQueryBuilder(String name, String... concepts) {
+        this.name = name;
+        this.concepts = concepts;
+    }
+
+    public SKOSClosenessQueryBuilder vocabulary(String vocabulary) {
+        this.vocabulary = vocabulary;
+        return this;
+    }
+
+    /**
+     * @param measure path or wu_palmer
+     * @return this builder
+     */
+    public SKOSClosenessQueryBuilder measure(String measure) {
+        this.measure = measure;
+        return this;
+    }
+
+    public SKOSClosenessQueryBuilder maxDistance(int maxDistance) {
+        this.maxDistance = maxDistance;
+        return this;
+    }
+
+    @Override
+    public SKOSClosenessQueryBuilder boost(float boost) {
+        this.boost = boost;
+        return this;
+    }
+
+    public SKOSClosenessQueryBuilder queryName(String queryName) {
+        this.queryName = queryName;
+        return this;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(SKOSClosenessQueryParser.NAME);
+        builder.startObject(name);
+        builder.array("concepts", concepts);
+        if (vocabulary != null) {
+            builder.field("vocabulary", vocabulary);
+        }
+        if (measure != null) {
+            builder.field("measure", measure);
+        }
+        if (maxDistance != null) {
+            builder.field("max_distance", maxDistance);
+        }
+        if (boost != -1) {
+            builder.field("boost", boost);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+        builder.endObject();
+        builder.endObject();
+    }
+}
@@ -0,0 +1,156 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryParser;
+import org.elasticsearch.index.query.QueryParsingException;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptCloseness;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptGraph;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+import org.xbib.elasticsearch.index.mapper.skos.SKOSConceptFieldMapper.SKOSConceptFieldType;
+
+/**
+ * Parses the skos_closeness query, which scores the documents by the closeness of their
+ * concepts to the query concepts, for use as a rescore query.
+ *
+ * <pre>
+ * "rescore" : {
+ *     "window_size" : 50,
+ *     "query" : {
+ *         "rescore_query" : {
+ *             "skos_closeness" : {
+ *                 "category" : {
+ *                     "concepts" : [ "http://www.ukat.org.uk/thesaurus/concept/5060" ],
+ *                     "measure" : "path",
+ *                     "max_distance" : 4
+ *                 }
+ *             }
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * The vocabulary is the one of a skos_concept field, or must be given as "vocabulary". Only its
+ * broader/narrower graph is used, so vocabularies without hierarchy intervals are ranked too.
+ */
+public class SKOSClosenessQueryParser implements QueryParser {
+
+    public static final String NAME = "skos_closeness";
+
+    @Inject
+    public SKOSClosenessQueryParser() {
+    }
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME};
+    }
+
+    @Override
+    public Query parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        XContentParser parser = parseContext.parser();
+        XContentParser.Token token = parser.nextToken();
+        if (token != XContentParser.Token.FIELD_NAME) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query malformed, no field");
+        }
+        String fieldName = parser.currentName();
+        List<String> conceptURIs = new ArrayList<>();
+        String vocabulary = null;
+        ConceptCloseness.Measure measure = ConceptCloseness.Measure.PATH;
+        int maxDistance = 0;
+        String queryName = null;
+        float boost = 1.0f;
+        token = parser.nextToken();
+        if (token == XContentParser.Token.START_OBJECT) {
+            String currentFieldName = null;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if (token == XContentParser.Token.START_ARRAY && "concepts".equals(currentFieldName)) {
+                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                        conceptURIs.add(parser.text());
+                    }
+                } else if (token.isValue()) {
+                    if ("concepts".equals(currentFieldName) || "concept".equals(currentFieldName)) {
+                        conceptURIs.add(parser.text());
+                    } else if ("vocabulary".equals(currentFieldName)) {
+                        vocabulary = parser.text();
+                    } else if ("measure".equals(currentFieldName)) {
+                        try {
+                            measure = ConceptCloseness.Measure.fromString(parser.text());
+                        } catch (IllegalArgumentException e) {
+                            throw new QueryParsingException(parseContext, "[" + NAME + "] measure must be path or wu_palmer");
+                        }
+                    } else if ("max_distance".equals(currentFieldName)) {
+                        maxDistance = parser.intValue();
+                    } else if ("boost".equals(currentFieldName)) {
+                        boost = parser.floatValue();
+                    } else if ("_name".equals(currentFieldName)) {
+                        queryName = parser.text();
+                    } else {
+                        throw new QueryParsingException(parseContext, "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                    }
+                } else {
+                    throw new QueryParsingException(parseContext, "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            }
+            parser.nextToken();
+        } else {
+            conceptURIs.add(parser.text());
+            parser.nextToken();
+        }
+        if (conceptURIs.isEmpty()) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query requires concepts");
+        }
+        if (maxDistance < 0) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] max_distance must be 0 (no limit) or positive");
+        }
+        MappedFieldType fieldType = parseContext.fieldMapper(fieldName);
+        if (vocabulary == null && fieldType instanceof SKOSConceptFieldType) {
+            vocabulary = ((SKOSConceptFieldType) fieldType).vocabulary();
+        }
+        if (vocabulary == null) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] requires a vocabulary, field [" + fieldName
+                    + "] is not of type skos_concept");
+        }
+        SKOSEngine engine;
+        try {
+            engine = SKOSEngineFactory.getSKOSEngine(parseContext.index().name(), vocabulary);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] vocabulary [" + vocabulary + "] can not be loaded", e);
+        }
+        if (engine == null) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] vocabulary [" + vocabulary
+                    + "] is not defined by a skos filter of an index on this node");
+        }
+        ConceptGraph graph = engine.getConceptGraph();
+        // unknown concepts are close to nothing
+        int[] concepts = new int[conceptURIs.size()];
+        int n = 0;
+        for (String uri : conceptURIs) {
+            int concept = graph.getOrdinal(uri);
+            if (concept >= 0) {
+                concepts[n++] = concept;
+            }
+        }
+        String indexName = fieldType != null ? fieldType.names().indexName() : fieldName;
+        Query query = new SKOSClosenessQuery(indexName, graph, Arrays.copyOf(concepts, n), measure, maxDistance);
+        if (boost != 1f) {
+            query = new BoostQuery(query, boost);
+        }
+        if (queryName != null) {
+            parseContext.addNamedQuery(queryName, query);
+        }
+        return query;
+    }
+}
@@ -0,0 +1,66 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.BoostableQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+
+/**
+ * Builds a skos_descendants query, matching the documents under a concept in a skos_concept field
+ */
+public class SKOSDescendantsQueryBuilder extends QueryBuilder implements BoostableQueryBuilder<SKOSDescendantsQueryBuilder> {
+
+    private final String name;
+
+    private final String concept;
+
+    private Boolean includeSelf;
+
+    private float boost = -1;
+
+    private String queryName;
+
+    /**
+     * @param name the field name
+     * @param concept the concept URI
+     */
+    public SKOSDescendantsQueryBuilder(String name, String concept) {
+        this.name = name;
+        this.concept = concept;
+    }
+
+    public SKOSDescendantsQueryBuilder includeSelf(boolean includeSelf) {
+        this.includeSelf = includeSelf;
+        return this;
+    }
+
+    @Override
+    public SKOSDescendantsQueryBuilder boost(float boost) {
+        this.boost = boost;
+        return this;
+    }
+
+    public SKOSDescendantsQueryBuilder queryName(String queryName) {
+        this.queryName = queryName;
+        return this;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(SKOSDescendantsQueryParser.NAME);
+        builder.startObject(name);
+        builder.field("concept", concept);
+        if (includeSelf != null) {
+            builder.field("include_self", includeSelf);
+        }
+        if (boost != -1) {
+            builder.field("boost", boost);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+        builder.endObject();
+        builder.endObject();
+    }
+}
@@ -0,0 +1,103 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryParser;
+import org.elasticsearch.index.query.QueryParsingException;
+import org.xbib.elasticsearch.index.mapper.skos.SKOSConceptFieldMapper.SKOSConceptFieldType;
+
+/**
+ * Parses the skos_descendants query, which matches the documents with a concept under a given
+ * concept in a field of type skos_concept.
+ *
+ * <pre>
+ * "skos_descendants" : {
+ *     "subject" : {
+ *         "concept" : "http://www.ukat.org.uk/thesaurus/concept/5060",
+ *         "include_self" : true
+ *     }
+ * }
+ * </pre>
+ *
+ * The short form is <code>"subject" : "http://www.ukat.org.uk/thesaurus/concept/5060"</code>.
+ */
+public class SKOSDescendantsQueryParser implements QueryParser {
+
+    public static final String NAME = "skos_descendants";
+
+    @Inject
+    public SKOSDescendantsQueryParser() {
+    }
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME};
+    }
+
+    @Override
+    public Query parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        XContentParser parser = parseContext.parser();
+        XContentParser.Token token = parser.nextToken();
+        if (token != XContentParser.Token.FIELD_NAME) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query malformed, no field");
+        }
+        String fieldName = parser.currentName();
+        String concept = null;
+        boolean includeSelf = true;
+        String queryName = null;
+        float boost = 1.0f;
+        token = parser.nextToken();
+        if (token == XContentParser.Token.START_OBJECT) {
+            String currentFieldName = null;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if (token.isValue()) {
+                    if ("concept".equals(currentFieldName)) {
+                        concept = parser.text();
+                    } else if ("include_self".equals(currentFieldName)) {
+                        includeSelf = parser.booleanValue();
+                    } else if ("boost".equals(currentFieldName)) {
+                        boost = parser.floatValue();
+                    } else if ("_name".equals(currentFieldName)) {
+                        queryName = parser.text();
+                    } else {
+                        throw new QueryParsingException(parseContext, "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                    }
+                } else {
+                    throw new QueryParsingException(parseContext, "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            }
+            parser.nextToken();
+        } else {
+            concept = parser.text();
+            parser.nextToken();
+        }
+        if (concept == null) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query requires a concept");
+        }
+        MappedFieldType fieldType = parseContext.fieldMapper(fieldName);
+        if (!(fieldType instanceof SKOSConceptFieldType)) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] field [" + fieldName + "] is not of type skos_concept");
+        }
+        Query query;
+        try {
+            query = ((SKOSConceptFieldType) fieldType).descendantsQuery(parseContext.index().name(), concept, includeSelf);
+        } catch (IllegalStateException e) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] " + e.getMessage(), e.getCause());
+        }
+        if (boost != 1f) {
+            query = new BoostQuery(query, boost);
+        }
+        if (queryName != null) {
+            parseContext.addNamedQuery(queryName, query);
+        }
+        return query;
+    }
+}
@@ -0,0 +1,235 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.search.spans.FilterSpans;
+import org.apache.lucene.search.spans.SpanCollector;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanScorer;
+import org.apache.lucene.search.spans.SpanWeight;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.BytesRef;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeCodec;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * A span query that scales the score of its matches by the SKOS type of the matched terms,
+ * decoded from the payloads written by the SKOS filter. A span of several terms, like a phrase,
+ * weighs as its weakest term, a document as its best span. Terms without a SKOS type payload,
+ * like the original tokens of a field, weigh 1. The query carries no boost, wrap it in a
+ * BoostQuery to boost it.
+ */
+public class SKOSPayloadQuery extends SpanQuery {
+
+    private final SpanQuery query;
+
+    private final float[] weights;
+
+    /**
+     * @param query the span query to wrap
+     * @param weights the weights by SKOS type, missing types weigh 1
+     */
+    public SKOSPayloadQuery(SpanQuery query, Map<SKOSType, Float> weights) {
+        this(query, toArray(weights));
+    }
+
+    private SKOSPayloadQuery(SpanQuery query, float[] weights) {
+        this.query = query;
+        this.weights = weights;
+    }
+
+    public SpanQuery getQuery() {
+        return query;
+    }
+
+    public float getWeight(SKOSType type) {
+        return type != null ? weights[type.ordinal()] : 1f;
+    }
+
+    @Override
+    public String getField() {
+        return query.getField();
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        SpanQuery rewritten = (SpanQuery) query.rewrite(reader);
+        if (rewritten != query) {
+            return new SKOSPayloadQuery(rewritten, weights);
+        }
+        return super.rewrite(reader);
+    }
+
+    @Override
+    public SpanWeight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        SpanWeight innerWeight = query.createWeight(searcher, needsScores);
+        if (!needsScores) {
+            return innerWeight;
+        }
+        return new SKOSPayloadWeight(searcher, innerWeight);
+    }
+
+    @Override
+    public String toString(String field) {
+        StringBuilder sb = new StringBuilder("skos_payload(").append(query.toString(field)).append(", ");
+        SKOSType[] types = SKOSType.values();
+        for (int i = 0; i < types.length; i++) {
+            sb.append(i > 0 ? " " : "").append(types[i].name().toLowerCase(Locale.ROOT)).append('=').append(weights[i]);
+        }
+        return sb.append(')').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+        SKOSPayloadQuery other = (SKOSPayloadQuery) o;
+        return query.equals(other.query) && Arrays.equals(weights, other.weights);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * super.hashCode() + query.hashCode()) + Arrays.hashCode(weights);
+    }
+
+    private static float[] toArray(Map<SKOSType, Float> weights) {
+        float[] array = new float[SKOSType.values().length];
+        Arrays.fill(array, 1f);
+        if (weights != null) {
+            for (Map.Entry<SKOSType, Float> entry : weights.entrySet()) {
+                array[entry.getKey().ordinal()] = entry.getValue();
+            }
+        }
+        return array;
+    }
+
+    private class SKOSPayloadWeight extends SpanWeight {
+
+        private final SpanWeight innerWeight;
+
+        SKOSPayloadWeight(IndexSearcher searcher, SpanWeight innerWeight) throws IOException {
+            super(SKOSPayloadQuery.this, searcher, null);
+            this.innerWeight = innerWeight;
+        }
+
+        @Override
+        public void extractTermContexts(Map<Term, TermContext> contexts) {
+            innerWeight.extractTermContexts(contexts);
+        }
+
+        @Override
+        public Spans getSpans(LeafReaderContext ctx, Postings requiredPostings) throws IOException {
+            return innerWeight.getSpans(ctx, requiredPostings.atLeast(Postings.PAYLOADS));
+        }
+
+        @Override
+        public SKOSPayloadScorer scorer(LeafReaderContext context) throws IOException {
+            Spans spans = getSpans(context, Postings.PAYLOADS);
+            if (spans == null) {
+                return null;
+            }
+            Similarity.SimScorer docScorer = innerWeight.getSimScorer(context);
+            return new SKOSPayloadScorer(this, new TypeWeightSpans(spans), docScorer);
+        }
+
+        @Override
+        public void extractTerms(Set<Term> terms) {
+            innerWeight.extractTerms(terms);
+        }
+
+        @Override
+        public float getValueForNormalization() throws IOException {
+            return innerWeight.getValueForNormalization();
+        }
+
+        @Override
+        public void normalize(float queryNorm, float topLevelBoost) {
+            innerWeight.normalize(queryNorm, topLevelBoost);
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            SKOSPayloadScorer scorer = scorer(context);
+            if (scorer == null || scorer.iterator().advance(doc) != doc) {
+                return Explanation.noMatch("no matching term");
+            }
+            float score = scorer.score();
+            return Explanation.match(score, "weight(" + getQuery() + " in " + doc + "), product of:",
+                    innerWeight.explain(context, doc),
+                    Explanation.match(scorer.getTypeWeight(), "SKOS type weight"));
+        }
+    }
+
+    private class TypeWeightSpans extends FilterSpans implements SpanCollector {
+
+        // the best span weight of the current document
+        float docWeight;
+
+        // the weight of the current span, the minimum of its terms
+        private float spanWeight;
+
+        TypeWeightSpans(Spans in) {
+            super(in);
+        }
+
+        @Override
+        protected AcceptStatus accept(Spans candidate) throws IOException {
+            return AcceptStatus.YES;
+        }
+
+        @Override
+        protected void doStartCurrentDoc() {
+            docWeight = 0f;
+        }
+
+        @Override
+        protected void doCurrentSpans() throws IOException {
+            spanWeight = Float.POSITIVE_INFINITY;
+            in.collect(this);
+            docWeight = Math.max(docWeight, spanWeight == Float.POSITIVE_INFINITY ? 1f : spanWeight);
+        }
+
+        @Override
+        public void collectLeaf(PostingsEnum postings, int position, Term term) throws IOException {
+            BytesRef payload = postings.getPayload();
+            spanWeight = Math.min(spanWeight, getWeight(SKOSTypeCodec.decode(payload)));
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+
+    private static class SKOSPayloadScorer extends SpanScorer {
+
+        private final TypeWeightSpans spans;
+
+        SKOSPayloadScorer(SpanWeight weight, TypeWeightSpans spans, Similarity.SimScorer docScorer) {
+            super(weight, spans, docScorer);
+            this.spans = spans;
+        }
+
+        float getTypeWeight() {
+            return spans.docWeight;
+        }
+
+        @Override
+        protected float scoreCurrentDoc() throws IOException {
+            return super.scoreCurrentDoc() * spans.docWeight;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.BoostableQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * Builds a skos_payload query, a term or phrase query whose matches are weighted by SKOS type
+ */
+public class SKOSPayloadQueryBuilder extends QueryBuilder implements BoostableQueryBuilder<SKOSPayloadQueryBuilder> {
+
+    private final String name;
+
+    private final String text;
+
+    private final Map<SKOSType, Float> weights = new EnumMap<>(SKOSType.class);
+
+    private String analyzer;
+
+    private Integer slop;
+
+    private float boost = -1;
+
+    private String queryName;
+
+    /**
+     * @param name the field name
+     * @param text the term or phrase
+     */
+    public SKOSPayloadQueryBuilder(String name, String text) {
+        this.name = name;
+        this.text = text;
+    }
+
+    /**
+     * Sets the weight of matches on terms of a SKOS type, the default is 1
+     */
+    public SKOSPayloadQueryBuilder weight(SKOSType type, float weight) {
+        weights.put(type, weight);
+        return this;
+    }
+
+    public SKOSPayloadQueryBuilder analyzer(String analyzer) {
+        this.analyzer = analyzer;
+        return this;
+    }
+
+    public SKOSPayloadQueryBuilder slop(int slop) {
+        this.slop = slop;
+        return this;
+    }
+
+    @Override
+    public SKOSPayloadQueryBuilder boost(float boost) {
+        this.boost = boost;
+        return this;
+    }
+
+    public SKOSPayloadQueryBuilder queryName(String queryName) {
+        this.queryName = queryName;
+        return this;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(SKOSPayloadQueryParser.NAME);
+        builder.startObject(name);
+        builder.field("query", text);
+        if (!weights.isEmpty()) {
+            builder.startObject("weights");
+            for (Map.Entry<SKOSType, Float> entry : weights.entrySet()) {
+                builder.field(entry.getKey().name().toLowerCase(Locale.ROOT), entry.getValue());
+            }
+            builder.endObject();
+        }
+        if (analyzer != null) {
+            builder.field("analyzer", analyzer);
+        }
+        if (slop != null) {
+            builder.field("slop", slop);
+        }
+        if (boost != -1) {
+            builder.field("boost", boost);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+        builder.endObject();
+        builder.endObject();
+    }
+}
@@ -0,0 +1,185 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryParser;
+import org.elasticsearch.index.query.QueryParsingException;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * Parses the skos_payload query, a term or phrase query whose matches are weighted by SKOS type.
+ *
+ * <pre>
+ * "skos_payload" : {
+ *     "subject" : {
+ *         "query" : "lazy dog",
+ *         "weights" : { "pref" : 1.0, "alt" : 0.8, "broadertransitive" : 0.2 },
+ *         "slop" : 0
+ *     }
+ * }
+ * </pre>
+ */
+public class SKOSPayloadQueryParser implements QueryParser {
+
+    public static final String NAME = "skos_payload";
+
+    @Inject
+    public SKOSPayloadQueryParser() {
+    }
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME};
+    }
+
+    @Override
+    public Query parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        XContentParser parser = parseContext.parser();
+        XContentParser.Token token = parser.nextToken();
+        if (token != XContentParser.Token.FIELD_NAME) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query malformed, no field");
+        }
+        String fieldName = parser.currentName();
+        String text = null;
+        String analyzerName = null;
+        String queryName = null;
+        float boost = 1.0f;
+        int slop = 0;
+        Map<SKOSType, Float> weights = new EnumMap<>(SKOSType.class);
+        token = parser.nextToken();
+        if (token == XContentParser.Token.START_OBJECT) {
+            String currentFieldName = null;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if (token == XContentParser.Token.START_OBJECT && "weights".equals(currentFieldName)) {
+                    parseWeights(parseContext, parser, weights);
+                } else if (token.isValue()) {
+                    if ("query".equals(currentFieldName)) {
+                        text = parser.text();
+                    } else if ("analyzer".equals(currentFieldName)) {
+                        analyzerName = parser.text();
+                    } else if ("slop".equals(currentFieldName)) {
+                        slop = parser.intValue();
+                    } else if ("boost".equals(currentFieldName)) {
+                        boost = parser.floatValue();
+                    } else if ("_name".equals(currentFieldName)) {
+                        queryName = parser.text();
+                    } else {
+                        throw new QueryParsingException(parseContext, "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                    }
+                } else {
+                    throw new QueryParsingException(parseContext, "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            }
+            parser.nextToken();
+        } else {
+            text = parser.text();
+            parser.nextToken();
+        }
+        if (text == null) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query requires a query text");
+        }
+        MappedFieldType fieldType = parseContext.fieldMapper(fieldName);
+        String field = fieldType != null ? fieldType.names().indexName() : fieldName;
+        Analyzer analyzer;
+        if (analyzerName != null) {
+            analyzer = parseContext.analysisService().analyzer(analyzerName);
+            if (analyzer == null) {
+                throw new QueryParsingException(parseContext, "[" + NAME + "] analyzer [" + analyzerName + "] not found");
+            }
+        } else if (fieldType != null) {
+            analyzer = parseContext.getSearchAnalyzer(fieldType);
+        } else {
+            analyzer = parseContext.mapperService().searchAnalyzer();
+        }
+        SpanQuery spanQuery = toSpanQuery(analyzer, field, text, slop);
+        if (spanQuery == null) {
+            return null;
+        }
+        Query query = new SKOSPayloadQuery(spanQuery, weights);
+        if (boost != 1f) {
+            query = new BoostQuery(query, boost);
+        }
+        if (queryName != null) {
+            parseContext.addNamedQuery(queryName, query);
+        }
+        return query;
+    }
+
+    /**
+     * Analyzes a text into a span query. Terms at the same position are alternatives,
+     * and several positions form a phrase.
+     *
+     * @param analyzer the analyzer
+     * @param field the field
+     * @param text the text
+     * @param slop the slop of a phrase
+     * @return the span query, or null if the text has no terms
+     * @throws IOException if the analyzer fails
+     */
+    public static SpanQuery toSpanQuery(Analyzer analyzer, String field, String text, int slop) throws IOException {
+        List<List<SpanQuery>> positions = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posIncrAtt = stream.addAttribute(PositionIncrementAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                if (positions.isEmpty() || posIncrAtt.getPositionIncrement() > 0) {
+                    positions.add(new ArrayList<SpanQuery>());
+                }
+                positions.get(positions.size() - 1).add(new SpanTermQuery(new Term(field, termAtt.toString())));
+            }
+            stream.end();
+        }
+        List<SpanQuery> clauses = new ArrayList<>();
+        for (List<SpanQuery> terms : positions) {
+            clauses.add(terms.size() == 1 ? terms.get(0) : new SpanOrQuery(terms.toArray(new SpanQuery[terms.size()])));
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        if (clauses.size() == 1) {
+            return clauses.get(0);
+        }
+        return new SpanNearQuery(clauses.toArray(new SpanQuery[clauses.size()]), slop, true);
+    }
+
+    private static void parseWeights(QueryParseContext parseContext, XContentParser parser, Map<SKOSType, Float> weights)
+            throws IOException {
+        String type = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                type = parser.currentName();
+            } else {
+                try {
+                    weights.put(SKOSType.valueOf(type.toUpperCase(Locale.ROOT)), parser.floatValue());
+                } catch (IllegalArgumentException e) {
+                    throw new QueryParsingException(parseContext, "[" + NAME + "] weights must be given for PREF, ALT, HIDDEN, "
+                            + "BROADER, NARROWER, BROADERTRANSITIVE, NARROWERTRANSITIVE, RELATED");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.TermsQuery;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.FixedBitSet;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.Expansion;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * A query-time SKOS expansion. The query resolves a concept URI, or the concepts of a label,
+ * into the labels of the given SKOS types with the engine of a vocabulary, and rewrites into
+ * scored term clauses for the PREF, ALT and HIDDEN labels and a single constant score
+ * TermsQuery for the labels of related concepts, so large expansions neither hit the maximum
+ * clause count nor score each term. Labels that occur in no segment of the searched reader
+ * are dropped before the rewrite, so the query grows with the labels present in the shard,
+ * not with the breadth of the vocabulary. Presence is checked per segment and cached.
+ *
+ * The resolved labels are cached per node, by vocabulary name and version, input, types and
+ * depth. A changed vocabulary has a new version, so its expansions are resolved again, and the
+ * cache holds no engine, so a replaced engine is not kept alive by its cached expansions.
+ *
+ * The query carries no boost, wrap it in a BoostQuery to boost it.
+ */
+public class SKOSQuery extends Query {
+
+    private static final Set<SKOSType> SCORED_TYPES = EnumSet.of(SKOSType.PREF, SKOSType.ALT, SKOSType.HIDDEN);
+
+    // the maximum number of labels of all cached expansions
+    private static final long CACHE_MAX_WEIGHT = 1000000L;
+
+    private static final Cache<Key, ResolvedLabels> CACHE = CacheBuilder.newBuilder()
+            .maximumWeight(CACHE_MAX_WEIGHT)
+            .weigher(new Weigher<Key, ResolvedLabels>() {
+                @Override
+                public int weigh(Key key, ResolvedLabels value) {
+                    return 1 + value.scored.size() + value.unscored.size();
+                }
+            })
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    private final String field;
+
+    private final String vocabulary;
+
+    private final SKOSEngine engine;
+
+    private final String conceptURI;
+
+    private final String label;
+
+    private final Set<SKOSType> types;
+
+    private final int maxDepth;
+
+    /**
+     * @param field the field to search
+     * @param vocabulary the name of the vocabulary
+     * @param engine the engine of the vocabulary
+     * @param conceptURI the concept URI to expand, or null to expand the concepts of the label
+     * @param label the label whose concepts to expand, if no concept URI is given
+     * @param types the SKOS types to expand to
+     * @param maxDepth the maximum hierarchy depth of transitive expansions, 0 for no limit
+     */
+    public SKOSQuery(String field, String vocabulary, SKOSEngine engine, String conceptURI, String label, Set<SKOSType> types, int maxDepth) {
+        if (conceptURI == null && label == null) {
+            throw new IllegalArgumentException("a concept URI or a label is required");
+        }
+        this.field = field;
+        this.vocabulary = vocabulary;
+        this.engine = engine;
+        this.conceptURI = conceptURI;
+        this.label = label;
+        this.types = EnumSet.copyOf(types);
+        this.maxDepth = maxDepth;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Resolves the labels of the expansion, from the node cache if possible
+     *
+     * @return the labels to score, and the labels to match only
+     * @throws IOException if the engine fails
+     */
+    public ResolvedLabels resolve() throws IOException {
+        try {
+            return CACHE.get(new Key(vocabulary, engine.getVersion(), conceptURI, label, types, maxDepth), new Callable<ResolvedLabels>() {
+                @Override
+                public ResolvedLabels call() throws IOException {
+                    return doResolve();
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private ResolvedLabels doResolve() throws IOException {
+        List<String> concepts = conceptURI != null ?
+                Collections.singletonList(conceptURI) : engine.getConcepts(label);
+        Set<String> scored = new LinkedHashSet<>();
+        Set<String> unscored = new LinkedHashSet<>();
+        for (String concept : concepts) {
+            Expansion expansion = engine.getExpansionTable().getLabelExpansion(concept, types, maxDepth);
+            for (int i = 0; i < expansion.size(); i++) {
+                String term = expansion.getTerm(i).toString();
+                if (SCORED_TYPES.contains(expansion.getType(i))) {
+                    scored.add(term);
+                } else {
+                    unscored.add(term);
+                }
+            }
+        }
+        unscored.removeAll(scored);
+        return new ResolvedLabels(new ArrayList<>(scored), new ArrayList<>(unscored));
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        ResolvedLabels labels = resolve();
+        // drops the labels no segment of the reader contains
+        FixedBitSet scoredPresent = new FixedBitSet(Math.max(1, labels.scored.size()));
+        FixedBitSet unscoredPresent = new FixedBitSet(Math.max(1, labels.unscored.size()));
+        for (LeafReaderContext leaf : reader.leaves()) {
+            scoredPresent.or(TermPresenceCache.get(leaf.reader(), field, labels.scored));
+            unscoredPresent.or(TermPresenceCache.get(leaf.reader(), field, labels.unscored));
+        }
+        List<Term> unscored = new ArrayList<>();
+        for (int i = 0; i < labels.unscored.size(); i++) {
+            if (unscoredPresent.get(i)) {
+                unscored.add(new Term(field, labels.unscored.get(i)));
+            }
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.setDisableCoord(true);
+        int clauses = 0;
+        for (int i = 0; i < labels.scored.size(); i++) {
+            if (!scoredPresent.get(i)) {
+                continue;
+            }
+            Term term = new Term(field, labels.scored.get(i));
+            // keeps one clause for the unscored labels, the rest of the scored labels join them
+            if (clauses < BooleanQuery.getMaxClauseCount() - 1) {
+                builder.add(new TermQuery(term), BooleanClause.Occur.SHOULD);
+                clauses++;
+            } else {
+                unscored.add(term);
+            }
+        }
+        if (!unscored.isEmpty()) {
+            builder.add(new ConstantScoreQuery(new TermsQuery(unscored)), BooleanClause.Occur.SHOULD);
+            clauses++;
+        }
+        if (clauses == 0) {
+            return new MatchNoDocsQuery();
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString(String field) {
+        StringBuilder sb = new StringBuilder("skos(");
+        if (!this.field.equals(field)) {
+            sb.append(this.field).append(':');
+        }
+        sb.append(conceptURI != null ? conceptURI : "\"" + label + "\"").append(", ").append(types);
+        if (maxDepth > 0) {
+            sb.append(", depth=").append(maxDepth);
+        }
+        return sb.append(')').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+        SKOSQuery other = (SKOSQuery) o;
+        return field.equals(other.field) && vocabulary.equals(other.vocabulary)
+                && engine.getVersion().equals(other.engine.getVersion())
+                && Objects.equals(conceptURI, other.conceptURI) && Objects.equals(label, other.label)
+                && types.equals(other.types) && maxDepth == other.maxDepth;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(field, vocabulary, engine.getVersion(), conceptURI, label, types, maxDepth);
+    }
+
+    /**
+     * The labels of an expansion, as index terms
+     */
+    public static class ResolvedLabels {
+
+        private final List<String> scored;
+
+        private final List<String> unscored;
+
+        ResolvedLabels(List<String> scored, List<String> unscored) {
+            this.scored = scored;
+            this.unscored = unscored;
+        }
+
+        /**
+         * @return the PREF, ALT and HIDDEN labels
+         */
+        public List<String> getScored() {
+            return scored;
+        }
+
+        /**
+         * @return the labels of the broader, narrower and related concepts
+         */
+        public List<String> getUnscored() {
+            return unscored;
+        }
+    }
+
+    private static class Key {
+
+        private final String vocabulary;
+
+        private final String version;
+
+        private final String conceptURI;
+
+        private final String label;
+
+        private final Set<SKOSType> types;
+
+        private final int maxDepth;
+
+        Key(String vocabulary, String version, String conceptURI, String label, Set<SKOSType> types, int maxDepth) {
+            this.vocabulary = vocabulary;
+            this.version = version;
+            this.conceptURI = conceptURI;
+            this.label = label;
+            this.types = types;
+            this.maxDepth = maxDepth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return vocabulary.equals(other.vocabulary) && version.equals(other.version)
+                    && Objects.equals(conceptURI, other.conceptURI)
+                    && Objects.equals(label, other.label) && types.equals(other.types) && maxDepth == other.maxDepth;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(vocabulary, version, conceptURI, label, types, maxDepth);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.BoostableQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+
+/**
+ * Builds a skos query, a query-time expansion of a concept or label with a loaded vocabulary
+ */
+public class SKOSQueryBuilder extends QueryBuilder implements BoostableQueryBuilder<SKOSQueryBuilder> {
+
+    private final String name;
+
+    private final String vocabulary;
+
+    private String concept;
+
+    private String label;
+
+    private SKOSType[] types;
+
+    private Integer depth;
+
+    private float boost = -1;
+
+    private String queryName;
+
+    /**
+     * @param name the field name
+     * @param vocabulary the index name of the loaded vocabulary
+     */
+    public SKOSQueryBuilder(String name, String vocabulary) {
+        this.name = name;
+        this.vocabulary = vocabulary;
+    }
+
+    public SKOSQueryBuilder concept(String concept) {
+        this.concept = concept;
+        return this;
+    }
+
+    public SKOSQueryBuilder label(String label) {
+        this.label = label;
+        return this;
+    }
+
+    public SKOSQueryBuilder types(SKOSType... types) {
+        this.types = types;
+        return this;
+    }
+
+    public SKOSQueryBuilder depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    @Override
+    public SKOSQueryBuilder boost(float boost) {
+        this.boost = boost;
+        return this;
+    }
+
+    public SKOSQueryBuilder queryName(String queryName) {
+        this.queryName = queryName;
+        return this;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(SKOSQueryParser.NAME);
+        builder.startObject(name);
+        builder.field("vocabulary", vocabulary);
+        if (concept != null) {
+            builder.field("concept", concept);
+        }
+        if (label != null) {
+            builder.field("label", label);
+        }
+        if (types != null) {
+            builder.startArray("types");
+            for (SKOSType type : types) {
+                builder.value(type.name().toLowerCase(Locale.ROOT));
+            }
+            builder.endArray();
+        }
+        if (depth != null) {
+            builder.field("depth", depth);
+        }
+        if (boost != -1) {
+            builder.field("boost", boost);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+        builder.endObject();
+        builder.endObject();
+    }
+}
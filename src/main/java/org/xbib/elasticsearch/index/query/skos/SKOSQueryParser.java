@@ -0,0 +1,147 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryParser;
+import org.elasticsearch.index.query.QueryParsingException;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSAnalyzer;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+
+/**
+ * Parses the skos query, a query-time expansion of a concept or label with a loaded vocabulary.
+ *
+ * <pre>
+ * "skos" : {
+ *     "subject" : {
+ *         "vocabulary" : "ukat",
+ *         "concept" : "http://www.ukat.org.uk/thesaurus/concept/859",
+ *         "types" : "pref alt narrowertransitive",
+ *         "depth" : 2
+ *     }
+ * }
+ * </pre>
+ *
+ * Instead of a concept, a label expands all concepts having that label.
+ */
+public class SKOSQueryParser implements QueryParser {
+
+    public static final String NAME = "skos";
+
+    @Inject
+    public SKOSQueryParser() {
+    }
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME};
+    }
+
+    @Override
+    public Query parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        XContentParser parser = parseContext.parser();
+        XContentParser.Token token = parser.nextToken();
+        if (token != XContentParser.Token.FIELD_NAME) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query malformed, no field");
+        }
+        String fieldName = parser.currentName();
+        String vocabulary = null;
+        String concept = null;
+        String label = null;
+        String queryName = null;
+        float boost = 1.0f;
+        int depth = 0;
+        Set<SKOSType> types = EnumSet.copyOf(Arrays.asList(SKOSAnalyzer.DEFAULT_SKOS_TYPES));
+        token = parser.nextToken();
+        if (token != XContentParser.Token.START_OBJECT) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query malformed, no object for field [" + fieldName + "]");
+        }
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY && "types".equals(currentFieldName)) {
+                types.clear();
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    types.add(parseType(parseContext, parser.text()));
+                }
+            } else if (token.isValue()) {
+                if ("vocabulary".equals(currentFieldName)) {
+                    vocabulary = parser.text();
+                } else if ("concept".equals(currentFieldName)) {
+                    concept = parser.text();
+                } else if ("label".equals(currentFieldName)) {
+                    label = parser.text();
+                } else if ("types".equals(currentFieldName)) {
+                    types.clear();
+                    for (String type : parser.text().split(" ")) {
+                        types.add(parseType(parseContext, type));
+                    }
+                } else if ("depth".equals(currentFieldName)) {
+                    depth = parser.intValue();
+                } else if ("boost".equals(currentFieldName)) {
+                    boost = parser.floatValue();
+                } else if ("_name".equals(currentFieldName)) {
+                    queryName = parser.text();
+                } else {
+                    throw new QueryParsingException(parseContext, "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            } else {
+                throw new QueryParsingException(parseContext, "[" + NAME + "] query does not support [" + currentFieldName + "]");
+            }
+        }
+        parser.nextToken();
+        if (vocabulary == null) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query requires a vocabulary");
+        }
+        if (concept == null && label == null) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query requires a concept or a label");
+        }
+        if (types.isEmpty()) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] query requires at least one SKOS type");
+        }
+        if (depth < 0) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] depth must be 0 (no limit) or a positive integer");
+        }
+        SKOSEngine engine;
+        try {
+            engine = SKOSEngineFactory.getSKOSEngine(parseContext.index().name(), vocabulary);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] vocabulary [" + vocabulary + "] can not be loaded", e);
+        }
+        if (engine == null) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] vocabulary [" + vocabulary
+                    + "] is not defined by a skos filter of an index on this node");
+        }
+        MappedFieldType fieldType = parseContext.fieldMapper(fieldName);
+        String field = fieldType != null ? fieldType.names().indexName() : fieldName;
+        Query query = new SKOSQuery(field, vocabulary, engine, concept, label, types, depth);
+        if (boost != 1f) {
+            query = new BoostQuery(query, boost);
+        }
+        if (queryName != null) {
+            parseContext.addNamedQuery(queryName, query);
+        }
+        return query;
+    }
+
+    private static SKOSType parseType(QueryParseContext parseContext, String type) {
+        try {
+            return SKOSType.valueOf(type.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] types must be of PREF, ALT, HIDDEN, BROADER, "
+                    + "NARROWER, BROADERTRANSITIVE, NARROWERTRANSITIVE, RELATED");
+        }
+    }
+}
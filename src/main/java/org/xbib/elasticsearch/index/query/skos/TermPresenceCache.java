@@ -0,0 +1,155 @@
+package org.xbib.elasticsearch.index.query.skos;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.FixedBitSet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Caches, per segment, which terms of a term list occur in the term dictionary of a field,
+ * so query-time expansions can drop the labels a segment does not contain before building
+ * scorers. Term lists are identified by identity, they are the cached lists of resolved
+ * expansions. The entries of a segment are dropped when the segment is closed, found by the
+ * keys tracked per segment, so closing a segment costs in proportion to its own entries.
+ */
+public final class TermPresenceCache {
+
+    // the maximum number of bits of all cached term lists
+    private static final long CACHE_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    private static final Cache<Key, FixedBitSet> CACHE = CacheBuilder.newBuilder()
+            .maximumWeight(CACHE_MAX_WEIGHT)
+            .weigher(new Weigher<Key, FixedBitSet>() {
+                @Override
+                public int weigh(Key key, FixedBitSet value) {
+                    return 64 + value.length();
+                }
+            })
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .removalListener(new RemovalListener<Key, FixedBitSet>() {
+                @Override
+                public void onRemoval(RemovalNotification<Key, FixedBitSet> notification) {
+                    Key key = notification.getKey();
+                    Set<Key> keys = key != null ? KEYS.get(key.coreKey) : null;
+                    if (keys != null) {
+                        keys.remove(key);
+                    }
+                }
+            })
+            .build();
+
+    // the cached keys of each segment we listen to for closing, by core key
+    private static final ConcurrentMap<Object, Set<Key>> KEYS = new ConcurrentHashMap<>();
+
+    private static final LeafReader.CoreClosedListener ON_CLOSE = new LeafReader.CoreClosedListener() {
+        @Override
+        public void onClose(Object ownerCoreCacheKey) {
+            Set<Key> keys = KEYS.remove(ownerCoreCacheKey);
+            if (keys != null) {
+                CACHE.invalidateAll(keys);
+            }
+        }
+    };
+
+    private TermPresenceCache() {
+    }
+
+    /**
+     * Returns which terms occur in a field of a segment
+     *
+     * @param reader the segment reader
+     * @param field the field
+     * @param terms the terms
+     * @return a bit set with bit i set if terms[i] occurs
+     * @throws IOException if the term dictionary can not be read
+     */
+    public static FixedBitSet get(LeafReader reader, String field, List<String> terms) throws IOException {
+        Object coreKey = reader.getCoreCacheKey();
+        Key key = new Key(coreKey, field, terms);
+        FixedBitSet bits = CACHE.getIfPresent(key);
+        if (bits == null) {
+            bits = compute(reader, field, terms);
+            Set<Key> keys = KEYS.get(coreKey);
+            if (keys == null) {
+                keys = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+                Set<Key> previous = KEYS.putIfAbsent(coreKey, keys);
+                if (previous != null) {
+                    keys = previous;
+                } else {
+                    reader.addCoreClosedListener(ON_CLOSE);
+                }
+            }
+            keys.add(key);
+            CACHE.put(key, bits);
+        }
+        return bits;
+    }
+
+    /**
+     * @return the number of cached term lists of all segments
+     */
+    public static long size() {
+        return CACHE.size();
+    }
+
+    private static FixedBitSet compute(LeafReader reader, String field, List<String> terms) throws IOException {
+        FixedBitSet bits = new FixedBitSet(Math.max(1, terms.size()));
+        Terms fieldTerms = reader.terms(field);
+        if (fieldTerms == null) {
+            return bits;
+        }
+        TermsEnum termsEnum = fieldTerms.iterator();
+        BytesRefBuilder scratch = new BytesRefBuilder();
+        for (int i = 0; i < terms.size(); i++) {
+            scratch.copyChars(terms.get(i));
+            if (termsEnum.seekExact(scratch.get())) {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    private static class Key {
+
+        private final Object coreKey;
+
+        private final String field;
+
+        private final List<String> terms;
+
+        Key(Object coreKey, String field, List<String> terms) {
+            this.coreKey = coreKey;
+            this.field = field;
+            this.terms = terms;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return coreKey == other.coreKey && terms == other.terms && field.equals(other.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(coreKey) + field.hashCode()) + System.identityHashCode(terms);
+        }
+    }
+}
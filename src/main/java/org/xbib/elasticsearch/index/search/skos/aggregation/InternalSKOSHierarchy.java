@@ -0,0 +1,245 @@
+package org.xbib.elasticsearch.index.search.skos.aggregation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.aggregations.AggregationStreams;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.metrics.InternalMetricsAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+/**
+ * The shard and reduced result of a skos_hierarchy aggregation. Shards send the rolled up count
+ * and the broader concepts of every concept they counted, so the tree is built on reduce without
+ * the vocabulary.
+ */
+public class InternalSKOSHierarchy extends InternalMetricsAggregation implements SKOSHierarchy {
+
+    public static final Type TYPE = new Type(SKOSHierarchyParser.TYPE);
+
+    public static final AggregationStreams.Stream STREAM = new AggregationStreams.Stream() {
+        @Override
+        public InternalSKOSHierarchy readResult(StreamInput in) throws IOException {
+            InternalSKOSHierarchy result = new InternalSKOSHierarchy();
+            result.readFrom(in);
+            return result;
+        }
+    };
+
+    public static void registerStreams() {
+        AggregationStreams.registerStream(STREAM, TYPE.stream());
+    }
+
+    private static final Comparator<Bucket> BY_COUNT = new Comparator<Bucket>() {
+        @Override
+        public int compare(Bucket b1, Bucket b2) {
+            int cmp = Long.compare(b2.getDocCount(), b1.getDocCount());
+            return cmp != 0 ? cmp : b1.getKey().compareTo(b2.getKey());
+        }
+    };
+
+    private int size;
+
+    private int maxDepth;
+
+    // concept URI to its count and broader concept URIs
+    private Map<String, Entry> entries;
+
+    private List<Bucket> buckets;
+
+    InternalSKOSHierarchy() {
+    }
+
+    InternalSKOSHierarchy(String name, int size, int maxDepth, Map<String, Entry> entries,
+                          List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+        super(name, pipelineAggregators, metaData);
+        this.size = size;
+        this.maxDepth = maxDepth;
+        this.entries = entries;
+    }
+
+    @Override
+    public Type type() {
+        return TYPE;
+    }
+
+    @Override
+    public List<Bucket> getBuckets() {
+        if (buckets == null) {
+            buckets = buildTree();
+        }
+        return buckets;
+    }
+
+    @Override
+    public InternalAggregation doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+        Map<String, Entry> reduced = new HashMap<>();
+        for (InternalAggregation aggregation : aggregations) {
+            for (Entry entry : ((InternalSKOSHierarchy) aggregation).entries.values()) {
+                Entry existing = reduced.get(entry.uri);
+                if (existing == null) {
+                    reduced.put(entry.uri, new Entry(entry.uri, entry.count, entry.parents));
+                } else {
+                    existing.count += entry.count;
+                }
+            }
+        }
+        return new InternalSKOSHierarchy(name, size, maxDepth, reduced, pipelineAggregators(), getMetaData());
+    }
+
+    @Override
+    public Object getProperty(List<String> path) {
+        if (path.isEmpty()) {
+            return this;
+        }
+        throw new IllegalArgumentException("path not supported for [" + getName() + "]: " + path);
+    }
+
+    private List<Bucket> buildTree() {
+        Map<String, List<Entry>> children = new HashMap<>();
+        List<Entry> roots = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            boolean hasParent = false;
+            for (String parent : entry.parents) {
+                if (entries.containsKey(parent)) {
+                    List<Entry> list = children.get(parent);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        children.put(parent, list);
+                    }
+                    list.add(entry);
+                    hasParent = true;
+                }
+            }
+            if (!hasParent) {
+                roots.add(entry);
+            }
+        }
+        return buckets(roots, children, 1, new HashSet<String>());
+    }
+
+    private List<Bucket> buckets(List<Entry> level, Map<String, List<Entry>> children, int depth, Set<String> path) {
+        List<Bucket> result = new ArrayList<>(level.size());
+        for (Entry entry : level) {
+            if (!path.contains(entry.uri)) {
+                result.add(new InternalBucket(entry.uri, entry.count));
+            }
+        }
+        Collections.sort(result, BY_COUNT);
+        if (size > 0 && result.size() > size) {
+            result = new ArrayList<>(result.subList(0, size));
+        }
+        if (maxDepth == 0 || depth < maxDepth) {
+            for (Bucket bucket : result) {
+                List<Entry> next = children.get(bucket.getKey());
+                if (next != null) {
+                    path.add(bucket.getKey());
+                    ((InternalBucket) bucket).children = buckets(next, children, depth + 1, path);
+                    path.remove(bucket.getKey());
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+        toXContent(builder, getBuckets());
+        return builder;
+    }
+
+    private static void toXContent(XContentBuilder builder, List<Bucket> buckets) throws IOException {
+        builder.startArray("buckets");
+        for (Bucket bucket : buckets) {
+            builder.startObject();
+            builder.field("key", bucket.getKey());
+            builder.field("doc_count", bucket.getDocCount());
+            if (!bucket.getChildren().isEmpty()) {
+                builder.startObject("children");
+                toXContent(builder, bucket.getChildren());
+                builder.endObject();
+            }
+            builder.endObject();
+        }
+        builder.endArray();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeVInt(size);
+        out.writeVInt(maxDepth);
+        out.writeVInt(entries.size());
+        for (Entry entry : entries.values()) {
+            out.writeString(entry.uri);
+            out.writeVLong(entry.count);
+            out.writeStringArray(entry.parents);
+        }
+    }
+
+    @Override
+    protected void doReadFrom(StreamInput in) throws IOException {
+        size = in.readVInt();
+        maxDepth = in.readVInt();
+        int n = in.readVInt();
+        entries = new LinkedHashMap<>(n);
+        for (int i = 0; i < n; i++) {
+            Entry entry = new Entry(in.readString(), in.readVLong(), in.readStringArray());
+            entries.put(entry.uri, entry);
+        }
+    }
+
+    static class Entry {
+
+        final String uri;
+
+        long count;
+
+        final String[] parents;
+
+        Entry(String uri, long count, String[] parents) {
+            this.uri = uri;
+            this.count = count;
+            this.parents = parents;
+        }
+    }
+
+    static class InternalBucket implements Bucket {
+
+        private final String key;
+
+        private final long docCount;
+
+        private List<Bucket> children = Collections.emptyList();
+
+        InternalBucket(String key, long docCount) {
+            this.key = key;
+            this.docCount = docCount;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public long getDocCount() {
+            return docCount;
+        }
+
+        @Override
+        public List<Bucket> getChildren() {
+            return children;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.xbib.elasticsearch.index.search.skos.aggregation;
+
+import java.util.List;
+
+import org.elasticsearch.search.aggregations.Aggregation;
+
+/**
+ * The result of a skos_hierarchy aggregation, document counts per concept rolled up the
+ * broader/narrower hierarchy, as a tree from the top concepts down
+ */
+public interface SKOSHierarchy extends Aggregation {
+
+    /**
+     * A concept in the tree
+     */
+    interface Bucket {
+
+        /**
+         * @return the concept URI
+         */
+        String getKey();
+
+        /**
+         * @return the number of documents with this concept or a concept under it
+         */
+        long getDocCount();
+
+        /**
+         * @return the narrower concepts with the most documents
+         */
+        List<Bucket> getChildren();
+    }
+
+    /**
+     * @return the top concepts with the most documents
+     */
+    List<Bucket> getBuckets();
+}
@@ -0,0 +1,139 @@
+package org.xbib.elasticsearch.index.search.skos.aggregation;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.common.lease.Releasables;
+import org.elasticsearch.common.util.LongArray;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.metrics.MetricsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.aggregations.support.AggregationContext;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptDocValues;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptGraph;
+
+import com.carrotsearch.hppc.IntObjectHashMap;
+
+/**
+ * Counts documents per concept, rolled up the broader/narrower hierarchy. The concepts of
+ * each document are read from doc values, each document marks its concepts and
+ * their ancestors in a bit set, so a document counts once under every concept above it,
+ * however many of its concepts share that ancestor.
+ */
+public class SKOSHierarchyAggregator extends MetricsAggregator {
+
+    private final String field;
+
+    private final ConceptGraph graph;
+
+    private final int size;
+
+    private final int maxDepth;
+
+    private final LongArray counts;
+
+    // the concepts marked for the current document
+    private final FixedBitSet marked;
+
+    private int[] touched = new int[16];
+
+    // concept ordinal to the ordinals of its ancestors
+    private final IntObjectHashMap<int[]> ancestors = new IntObjectHashMap<>();
+
+    public SKOSHierarchyAggregator(String name, String field, ConceptGraph graph, int size, int maxDepth,
+                                   AggregationContext context, Aggregator parent,
+                                   List<PipelineAggregator> pipelineAggregators,
+                                   Map<String, Object> metaData) throws IOException {
+        super(name, context, parent, pipelineAggregators, metaData);
+        this.field = field;
+        this.graph = graph;
+        this.size = size;
+        this.maxDepth = maxDepth;
+        this.counts = context.bigArrays().newLongArray(graph.conceptCount(), true);
+        this.marked = new FixedBitSet(Math.max(1, graph.conceptCount()));
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    @Override
+    protected LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+        final ConceptDocValues values = ConceptDocValues.get(ctx.reader(), field, graph);
+        if (values == null) {
+            return LeafBucketCollector.NO_OP_COLLECTOR;
+        }
+        return new LeafBucketCollectorBase(sub, values) {
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                int count = values.setDocument(doc);
+                int n = 0;
+                for (int i = 0; i < count; i++) {
+                    int concept = values.concept(i);
+                    n = mark(concept, n);
+                    for (int ancestor : ancestors(concept)) {
+                        n = mark(ancestor, n);
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    marked.clear(touched[i]);
+                }
+            }
+        };
+    }
+
+    private int mark(int concept, int n) {
+        if (!marked.getAndSet(concept)) {
+            counts.increment(concept, 1);
+            touched = ArrayUtil.grow(touched, n + 1);
+            touched[n++] = concept;
+        }
+        return n;
+    }
+
+    private int[] ancestors(int concept) {
+        int[] result = ancestors.get(concept);
+        if (result == null) {
+            result = graph.getAncestors(concept);
+            ancestors.put(concept, result);
+        }
+        return result;
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long owningBucketOrdinal) throws IOException {
+        Map<String, InternalSKOSHierarchy.Entry> entries = new LinkedHashMap<>();
+        for (int concept = 0; concept < graph.conceptCount(); concept++) {
+            long count = counts.get(concept);
+            if (count > 0) {
+                String[] parents = new String[graph.parentCount(concept)];
+                for (int i = 0; i < parents.length; i++) {
+                    parents[i] = graph.getURI(graph.getParent(concept, i));
+                }
+                String uri = graph.getURI(concept);
+                entries.put(uri, new InternalSKOSHierarchy.Entry(uri, count, parents));
+            }
+        }
+        return new InternalSKOSHierarchy(name, size, maxDepth, entries, pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        return new InternalSKOSHierarchy(name, size, maxDepth, new LinkedHashMap<String, InternalSKOSHierarchy.Entry>(),
+                pipelineAggregators(), metaData());
+    }
+
+    @Override
+    protected void doClose() {
+        Releasables.close(counts);
+    }
+}
@@ -0,0 +1,44 @@
+package org.xbib.elasticsearch.index.search.skos.aggregation;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.aggregations.support.AggregationContext;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptGraph;
+
+/**
+ * Creates the skos_hierarchy aggregator for a field and the broader/narrower graph of a loaded vocabulary
+ */
+public class SKOSHierarchyAggregatorFactory extends AggregatorFactory {
+
+    private final String field;
+
+    private final ConceptGraph graph;
+
+    private final int size;
+
+    private final int maxDepth;
+
+    public SKOSHierarchyAggregatorFactory(String name, String field, ConceptGraph graph, int size, int maxDepth) {
+        super(name, SKOSHierarchyParser.TYPE);
+        this.field = field;
+        this.graph = graph;
+        this.size = size;
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    protected Aggregator createInternal(AggregationContext context, Aggregator parent, boolean collectsFromSingleBucket,
+                                        List<PipelineAggregator> pipelineAggregators,
+                                        Map<String, Object> metaData) throws IOException {
+        if (!collectsFromSingleBucket) {
+            return asMultiBucketAggregator(this, context, parent);
+        }
+        return new SKOSHierarchyAggregator(name, field, graph, size, maxDepth, context, parent,
+                pipelineAggregators, metaData);
+    }
+}
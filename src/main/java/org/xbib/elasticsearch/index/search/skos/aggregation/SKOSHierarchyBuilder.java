@@ -0,0 +1,60 @@
+package org.xbib.elasticsearch.index.search.skos.aggregation;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.aggregations.metrics.MetricsAggregationBuilder;
+
+/**
+ * Builds a skos_hierarchy aggregation, document counts per concept rolled up the hierarchy
+ */
+public class SKOSHierarchyBuilder extends MetricsAggregationBuilder<SKOSHierarchyBuilder> {
+
+    private String field;
+
+    private String vocabulary;
+
+    private Integer size;
+
+    private Integer depth;
+
+    public SKOSHierarchyBuilder(String name) {
+        super(name, SKOSHierarchyParser.TYPE);
+    }
+
+    public SKOSHierarchyBuilder field(String field) {
+        this.field = field;
+        return this;
+    }
+
+    public SKOSHierarchyBuilder vocabulary(String vocabulary) {
+        this.vocabulary = vocabulary;
+        return this;
+    }
+
+    public SKOSHierarchyBuilder size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    public SKOSHierarchyBuilder depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    @Override
+    protected void internalXContent(XContentBuilder builder, Params params) throws IOException {
+        if (field != null) {
+            builder.field("field", field);
+        }
+        if (vocabulary != null) {
+            builder.field("vocabulary", vocabulary);
+        }
+        if (size != null) {
+            builder.field("size", size);
+        }
+        if (depth != null) {
+            builder.field("depth", depth);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.xbib.elasticsearch.index.search.skos.aggregation;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.search.SearchParseException;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.internal.SearchContext;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+import org.xbib.elasticsearch.index.mapper.skos.SKOSConceptFieldMapper.SKOSConceptFieldType;
+
+/**
+ * Parses the skos_hierarchy aggregation over concept URIs in sorted set doc values.
+ *
+ * <pre>
+ * "categories" : {
+ *     "skos_hierarchy" : {
+ *         "field" : "category",
+ *         "size" : 10,
+ *         "depth" : 3
+ *     }
+ * }
+ * </pre>
+ *
+ * The vocabulary is the one of a skos_concept field, or must be given as "vocabulary". It is loaded
+ * on first use through the skos filter defining it, preferably one of the searched index. The
+ * counts are rolled up its broader/narrower graph, which unlike the intervals exists for every
+ * vocabulary.
+ */
+public class SKOSHierarchyParser implements Aggregator.Parser {
+
+    public static final String TYPE = "skos_hierarchy";
+
+    @Inject
+    public SKOSHierarchyParser() {
+    }
+
+    @Override
+    public String type() {
+        return TYPE;
+    }
+
+    @Override
+    public AggregatorFactory parse(String aggregationName, XContentParser parser, SearchContext context) throws IOException {
+        String field = null;
+        String vocabulary = null;
+        int size = 10;
+        int depth = 0;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if ("field".equals(currentFieldName)) {
+                    field = parser.text();
+                } else if ("vocabulary".equals(currentFieldName)) {
+                    vocabulary = parser.text();
+                } else if ("size".equals(currentFieldName)) {
+                    size = parser.intValue();
+                } else if ("depth".equals(currentFieldName)) {
+                    depth = parser.intValue();
+                } else {
+                    throw new SearchParseException(context, "Unknown key for a " + token + " in [" + aggregationName + "]: ["
+                            + currentFieldName + "].", parser.getTokenLocation());
+                }
+            } else {
+                throw new SearchParseException(context, "Unexpected token " + token + " in [" + aggregationName + "].",
+                        parser.getTokenLocation());
+            }
+        }
+        if (field == null) {
+            throw new SearchParseException(context, "Missing [field] in [" + TYPE + "] aggregation [" + aggregationName + "]",
+                    parser.getTokenLocation());
+        }
+        if (size < 0 || depth < 0) {
+            throw new SearchParseException(context, "[size] and [depth] must be 0 (no limit) or positive in [" + aggregationName + "]",
+                    parser.getTokenLocation());
+        }
+        MappedFieldType fieldType = context.smartNameFieldType(field);
+        if (vocabulary == null && fieldType instanceof SKOSConceptFieldType) {
+            vocabulary = ((SKOSConceptFieldType) fieldType).vocabulary();
+        }
+        if (vocabulary == null) {
+            throw new SearchParseException(context, "Missing [vocabulary] in [" + TYPE + "] aggregation [" + aggregationName
+                    + "], field [" + field + "] is not of type skos_concept", parser.getTokenLocation());
+        }
+        SKOSEngine engine;
+        try {
+            engine = SKOSEngineFactory.getSKOSEngine(context.mapperService().index().name(), vocabulary);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new SearchParseException(context, "[" + TYPE + "] vocabulary [" + vocabulary + "] can not be loaded",
+                    parser.getTokenLocation(), e);
+        }
+        if (engine == null) {
+            throw new SearchParseException(context, "[" + TYPE + "] vocabulary [" + vocabulary
+                    + "] is not defined by a skos filter of an index on this node", parser.getTokenLocation());
+        }
+        String indexName = fieldType != null ? fieldType.names().indexName() : field;
+        return new SKOSHierarchyAggregatorFactory(aggregationName, indexName, engine.getConceptGraph(), size, depth);
+    }
+}
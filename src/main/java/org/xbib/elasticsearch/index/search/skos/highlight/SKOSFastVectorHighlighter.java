@@ -14,7 +14,10 @@ import org.elasticsearch.search.fetch.FetchSubPhase;
 import org.elasticsearch.search.highlight.*;
 import org.elasticsearch.search.highlight.vectorhighlight.*;
 import org.elasticsearch.search.internal.SearchContext;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Map;
 
@@ -80,6 +83,21 @@ public class SKOSFastVectorHighlighter implements Highlighter {
                     htmlProperty = field.fieldOptions().options().get("property").toString();
                 }
 
+                // the vocabulary maps compact concept ids back to URIs
+                SKOSEngine engine = null;
+                if (field.fieldOptions().options() != null && field.fieldOptions().options().containsKey("vocabulary")) {
+                    String vocabulary = field.fieldOptions().options().get("vocabulary").toString();
+                    try {
+                        engine = SKOSEngineFactory.getSKOSEngine(context.mapperService().index().name(), vocabulary);
+                    } catch (IOException | IllegalArgumentException e) {
+                        throw new IllegalArgumentException("SKOS vocabulary [" + vocabulary + "] can not be loaded", e);
+                    }
+                    if (engine == null) {
+                        throw new IllegalArgumentException("SKOS vocabulary [" + vocabulary
+                                + "] is not defined by a skos filter of an index on this node");
+                    }
+                }
+
                 BoundaryScanner boundaryScanner = DEFAULT_BOUNDARY_SCANNER;
                 if (field.fieldOptions().boundaryMaxScan() != SimpleBoundaryScanner.DEFAULT_MAX_SCAN || field.fieldOptions().boundaryChars() != SimpleBoundaryScanner.DEFAULT_BOUNDARY_CHARS) {
                     boundaryScanner = new SimpleBoundaryScanner(field.fieldOptions().boundaryMaxScan(), field.fieldOptions().boundaryChars());
@@ -111,6 +129,9 @@ public class SKOSFastVectorHighlighter implements Highlighter {
                         }
 //                    }
                 }
+                if (fragmentsBuilder instanceof SKOSFragmentsBuilder) {
+                    ((SKOSFragmentsBuilder) fragmentsBuilder).setEngine(engine);
+                }
                 fragmentsBuilder.setDiscreteMultiValueHighlighting(termVectorMultiValue);
                 entry = new MapperHighlightEntry();
                 entry.fragListBuilder = fragListBuilder;
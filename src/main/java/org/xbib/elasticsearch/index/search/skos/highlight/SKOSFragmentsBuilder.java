@@ -7,6 +7,7 @@ import org.apache.lucene.search.vectorhighlight.FieldFragList;
 import org.apache.lucene.search.vectorhighlight.FieldPhraseList;
 import org.elasticsearch.index.mapper.FieldMapper;
 import org.elasticsearch.search.highlight.vectorhighlight.SimpleFragmentsBuilder;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -18,6 +19,8 @@ import java.util.List;
  */
 public class SKOSFragmentsBuilder extends SimpleFragmentsBuilder {
     protected String htmlProperty;
+    // maps compact concept ids back to URIs, null if the field holds URIs
+    protected SKOSEngine engine;
 
     public SKOSFragmentsBuilder(FieldMapper mapper,
                                 String[] preTags, String[] postTags, String htmlProperty, BoundaryScanner boundaryScanner) {
@@ -25,6 +28,15 @@ public class SKOSFragmentsBuilder extends SimpleFragmentsBuilder {
         this.htmlProperty = htmlProperty;
     }
 
+    /**
+     * Sets the engine mapping compact concept ids in the matched terms back to concept URIs
+     *
+     * @param engine the SKOS engine of the vocabulary
+     */
+    public void setEngine(SKOSEngine engine) {
+        this.engine = engine;
+    }
+
     protected String makeFragment(StringBuilder buffer, int[] index, Field[] values, FieldFragList.WeightedFragInfo fragInfo, String[] preTags, String[] postTags, Encoder encoder) {
         StringBuilder fragment = new StringBuilder();
         int s = fragInfo.getStartOffset();
@@ -55,6 +67,12 @@ public class SKOSFragmentsBuilder extends SimpleFragmentsBuilder {
         String preTag = preTags[n];
         List<String> uris = Arrays.asList(subInfo.getText().split("\\|"));
         for (String uri : uris) {
+            if (engine != null) {
+                String conceptURI = engine.getConceptURI(uri);
+                if (conceptURI != null) {
+                    uri = conceptURI;
+                }
+            }
             preTag = preTag.replaceAll(">", " "+ this.htmlProperty +"=\"" + uri + "\">");
         }
         return preTag;
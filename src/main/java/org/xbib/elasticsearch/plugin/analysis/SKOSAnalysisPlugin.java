@@ -1,11 +1,39 @@
 package org.xbib.elasticsearch.plugin.analysis;
 
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.common.component.LifecycleComponent;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.index.analysis.AnalysisModule;
+import org.elasticsearch.indices.IndicesModule;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.script.ScriptModule;
 
 import org.elasticsearch.search.SearchModule;
+import org.xbib.elasticsearch.action.skos.SKOSBulkActionFilter;
+import org.xbib.elasticsearch.action.skos.SKOSStatsAction;
+import org.xbib.elasticsearch.action.skos.TransportSKOSStatsAction;
+import org.xbib.elasticsearch.index.search.skos.aggregation.InternalSKOSHierarchy;
+import org.xbib.elasticsearch.index.search.skos.aggregation.SKOSHierarchyParser;
 import org.xbib.elasticsearch.index.search.skos.highlight.SKOSFastVectorHighlighter;
 import org.xbib.elasticsearch.index.analysis.skos.SKOSAnalysisBinderProcessor;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSLoaderService;
+import org.xbib.elasticsearch.index.analysis.skos.engine.WarmCacheService;
+import org.xbib.elasticsearch.index.mapper.skos.SKOSConceptFieldMapper;
+import org.xbib.elasticsearch.index.mapper.skos.SKOSTextFieldMapper;
+import org.xbib.elasticsearch.index.query.skos.SKOSClosenessQueryParser;
+import org.xbib.elasticsearch.index.query.skos.SKOSDescendantsQueryParser;
+import org.xbib.elasticsearch.index.query.skos.SKOSPayloadQueryParser;
+import org.xbib.elasticsearch.index.query.skos.SKOSQueryParser;
+import org.xbib.elasticsearch.rest.skos.RestSKOSReexpandAction;
+import org.xbib.elasticsearch.rest.skos.RestSKOSStatsAction;
+import org.xbib.elasticsearch.rest.skos.RestSKOSSuggestAction;
+import org.xbib.elasticsearch.rest.skos.RestSKOSTagAction;
+import org.xbib.elasticsearch.script.skos.SKOSClosenessScriptFactory;
 
 public class SKOSAnalysisPlugin extends Plugin {
 
@@ -19,12 +47,57 @@ public class SKOSAnalysisPlugin extends Plugin {
         return "SKOS analysis support";
     }
 
+    @Override
+    public Settings additionalSettings() {
+        // the pool tagging texts, bounded in threads and queued chunks
+        return Settings.builder()
+                .put("threadpool." + RestSKOSTagAction.THREAD_POOL + ".type", "fixed")
+                .put("threadpool." + RestSKOSTagAction.THREAD_POOL + ".size", EsExecutors.boundedNumberOfProcessors(Settings.EMPTY))
+                .put("threadpool." + RestSKOSTagAction.THREAD_POOL + ".queue_size", 1000)
+                .build();
+    }
+
+    @Override
+    public Collection<Class<? extends LifecycleComponent>> nodeServices() {
+        Collection<Class<? extends LifecycleComponent>> services = new ArrayList<>();
+        services.add(WarmCacheService.class);
+        services.add(SKOSLoaderService.class);
+        return services;
+    }
+
     public void onModule(AnalysisModule module) {
         module.addProcessor(new SKOSAnalysisBinderProcessor());
     }
 
-    public void onModule(SearchModule highlightModule) {
-        highlightModule.registerHighlighter("skos-fvh", SKOSFastVectorHighlighter.class);
+    public void onModule(SearchModule searchModule) {
+        searchModule.registerHighlighter("skos-fvh", SKOSFastVectorHighlighter.class);
+        searchModule.registerAggregatorParser(SKOSHierarchyParser.class);
+        InternalSKOSHierarchy.registerStreams();
+    }
+
+    public void onModule(RestModule restModule) {
+        restModule.addRestAction(RestSKOSSuggestAction.class);
+        restModule.addRestAction(RestSKOSTagAction.class);
+        restModule.addRestAction(RestSKOSReexpandAction.class);
+        restModule.addRestAction(RestSKOSStatsAction.class);
+    }
+
+    public void onModule(ActionModule actionModule) {
+        actionModule.registerFilter(SKOSBulkActionFilter.class);
+        actionModule.registerAction(SKOSStatsAction.INSTANCE, TransportSKOSStatsAction.class);
+    }
+
+    public void onModule(ScriptModule scriptModule) {
+        scriptModule.registerScript(SKOSClosenessScriptFactory.NAME, SKOSClosenessScriptFactory.class);
+    }
+
+    public void onModule(IndicesModule indicesModule) {
+        indicesModule.registerQueryParser(SKOSPayloadQueryParser.class);
+        indicesModule.registerQueryParser(SKOSQueryParser.class);
+        indicesModule.registerQueryParser(SKOSDescendantsQueryParser.class);
+        indicesModule.registerQueryParser(SKOSClosenessQueryParser.class);
+        indicesModule.registerMapper(SKOSConceptFieldMapper.CONTENT_TYPE, new SKOSConceptFieldMapper.TypeParser());
+        indicesModule.registerMapper(SKOSTextFieldMapper.CONTENT_TYPE, new SKOSTextFieldMapper.TypeParser());
     }
 
 }
@@ -0,0 +1,192 @@
+package org.xbib.elasticsearch.rest.skos;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.action.skos.SKOSReexpandJob;
+
+import static org.elasticsearch.rest.RestRequest.Method.DELETE;
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * Starts a job indexing the documents of an index affected by a vocabulary change again, with
+ * the output of the diff tool as body, and lists or cancels the jobs of the node.
+ *
+ * <pre>
+ * POST /test/_skos/_reexpand?fields=subject&amp;label_fields=subject.text&amp;requests_per_second=500
+ * { "version" : "...", "concepts" : [ ... ], "changed_labels" : [ ... ], "labels" : [ ... ] }
+ *
+ * GET /_skos/_reexpand
+ * DELETE /_skos/_reexpand/{id}
+ * </pre>
+ *
+ * The affected concepts and the changed labels are looked up as terms in the fields, the added
+ * labels as phrases in the label fields. The jobs run on the generic thread pool. A finished job
+ * is kept in memory with its terms for the retention period, and removed by the next request after it:
+ *
+ * <pre>
+ * skos.reexpand.retention: 1h
+ * </pre>
+ */
+public class RestSKOSReexpandAction extends BaseRestHandler {
+
+    private static final ConcurrentMap<String, SKOSReexpandJob> jobs = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger jobCounter = new AtomicInteger();
+
+    private final ThreadPool threadPool;
+
+    private final TimeValue retention;
+
+    @Inject
+    public RestSKOSReexpandAction(Settings settings, RestController controller, Client client, ThreadPool threadPool) {
+        super(settings, controller, client);
+        this.threadPool = threadPool;
+        this.retention = settings.getAsTime("skos.reexpand.retention", TimeValue.timeValueHours(1));
+        controller.registerHandler(POST, "/{index}/_skos/_reexpand", this);
+        controller.registerHandler(GET, "/_skos/_reexpand", this);
+        controller.registerHandler(DELETE, "/_skos/_reexpand/{id}", this);
+    }
+
+    @Override
+    protected void handleRequest(final RestRequest request, final RestChannel channel, Client client) throws Exception {
+        removeFinishedJobs(System.currentTimeMillis() - retention.millis());
+        if (request.method() == GET) {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject().startObject("jobs");
+            for (Map.Entry<String, SKOSReexpandJob> entry : jobs.entrySet()) {
+                builder.field(entry.getKey());
+                entry.getValue().toXContent(builder, request);
+            }
+            builder.endObject().endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+            return;
+        }
+        if (request.method() == DELETE) {
+            SKOSReexpandJob job = jobs.get(request.param("id"));
+            if (job == null) {
+                throw new ResourceNotFoundException("re-expansion job [{}] not found", request.param("id"));
+            }
+            job.cancel();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, job.toXContent(channel.newBuilder(), request)));
+            return;
+        }
+        Map<String, Object> body = request.hasContent() ?
+                XContentHelper.convertToMap(request.content(), false).v2() : null;
+        List<String> fields = fields(request, body, "fields");
+        List<String> labelFields = fields(request, body, "label_fields");
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("[_reexpand] requires fields");
+        }
+        Set<String> terms = new LinkedHashSet<>();
+        Set<String> labels = new LinkedHashSet<>();
+        String version = request.param("version");
+        if (body != null) {
+            terms.addAll(strings(body.get("concepts")));
+            terms.addAll(strings(body.get("changed_labels")));
+            terms.addAll(strings(body.get("terms")));
+            labels.addAll(strings(body.get("labels")));
+            if (version == null && body.get("version") != null) {
+                version = body.get("version").toString();
+            }
+        }
+        float requestsPerSecond = request.paramAsFloat("requests_per_second",
+                body != null && body.containsKey("requests_per_second") ?
+                        XContentMapValues.nodeFloatValue(body.get("requests_per_second")) : 0f);
+        int batchSize = request.paramAsInt("batch_size", 100);
+        String labelAnalyzer = request.param("label_analyzer", "standard");
+        final SKOSReexpandJob job = new SKOSReexpandJob(client, request.param("index"), fields, labelFields, terms, labels,
+                version, labelAnalyzer, requestsPerSecond, batchSize);
+        final String id = Integer.toString(jobCounter.incrementAndGet());
+        jobs.put(id, job);
+        if (!request.paramAsBoolean("wait_for_completion", false)) {
+            threadPool.generic().execute(job);
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, response(channel, request, id, job)));
+            return;
+        }
+        // the job blocks on its requests, so it does not run on the network thread
+        threadPool.generic().execute(new AbstractRunnable() {
+            @Override
+            protected void doRun() throws Exception {
+                job.run();
+                channel.sendResponse(new BytesRestResponse(RestStatus.OK, response(channel, request, id, job)));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                try {
+                    channel.sendResponse(new BytesRestResponse(channel, t));
+                } catch (Throwable e) {
+                    logger.error("failed to send failure response", e);
+                }
+            }
+        });
+    }
+
+    private static void removeFinishedJobs(long endedBefore) {
+        for (Iterator<SKOSReexpandJob> it = jobs.values().iterator(); it.hasNext(); ) {
+            SKOSReexpandJob job = it.next();
+            if (job.isDone() && job.getEndTime() < endedBefore) {
+                it.remove();
+            }
+        }
+    }
+
+    private static XContentBuilder response(RestChannel channel, RestRequest request, String id,
+                                            SKOSReexpandJob job) throws Exception {
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject().field("id", id).field("job");
+        job.toXContent(builder, request);
+        builder.endObject();
+        return builder;
+    }
+
+    private static List<String> fields(RestRequest request, Map<String, Object> body, String name) {
+        List<String> fields = new ArrayList<>();
+        if (request.param(name) != null) {
+            for (String field : Strings.commaDelimitedListToStringArray(request.param(name))) {
+                fields.add(field.trim());
+            }
+        } else if (body != null) {
+            fields.addAll(strings(body.get(name)));
+        }
+        return fields;
+    }
+
+    private static List<String> strings(Object value) {
+        List<String> strings = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object o : (List<?>) value) {
+                strings.add(o.toString());
+            }
+        } else if (value != null) {
+            strings.add(value.toString());
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,41 @@
+package org.xbib.elasticsearch.rest.skos;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.support.RestToXContentListener;
+import org.xbib.elasticsearch.action.skos.SKOSStatsAction;
+import org.xbib.elasticsearch.action.skos.SKOSStatsRequest;
+import org.xbib.elasticsearch.action.skos.SKOSStatsResponse;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * Returns the statistics of the SKOS engines and filters of all or of the given nodes.
+ *
+ * <pre>
+ * GET /_nodes/_skos/stats
+ * GET /_nodes/{nodeId}/_skos/stats
+ * </pre>
+ */
+public class RestSKOSStatsAction extends BaseRestHandler {
+
+    @Inject
+    public RestSKOSStatsAction(Settings settings, RestController controller, Client client) {
+        super(settings, controller, client);
+        controller.registerHandler(GET, "/_nodes/_skos/stats", this);
+        controller.registerHandler(GET, "/_nodes/{nodeId}/_skos/stats", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, RestChannel channel, Client client) throws Exception {
+        SKOSStatsRequest statsRequest = new SKOSStatsRequest(Strings.splitStringByCommaToArray(request.param("nodeId")));
+        statsRequest.timeout(request.param("timeout"));
+        client.execute(SKOSStatsAction.INSTANCE, statsRequest, new RestToXContentListener<SKOSStatsResponse>(channel));
+    }
+}
@@ -0,0 +1,118 @@
+package org.xbib.elasticsearch.rest.skos;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelSuggester;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * Completes a label prefix to concepts of a vocabulary defined by a skos filter of an index on the
+ * node receiving the request, loaded on first use.
+ *
+ * <pre>
+ * GET /_skos/ukat/_suggest?text=milit&amp;size=5&amp;lang=en,de
+ * </pre>
+ *
+ * The vocabulary is loaded and its suggester is built on first use, so the request is answered
+ * from the generic thread pool, not from the network thread.
+ */
+public class RestSKOSSuggestAction extends BaseRestHandler {
+
+    public static final int MAX_SIZE = 100;
+
+    private final ThreadPool threadPool;
+
+    @Inject
+    public RestSKOSSuggestAction(Settings settings, RestController controller, Client client, ThreadPool threadPool) {
+        super(settings, controller, client);
+        this.threadPool = threadPool;
+        controller.registerHandler(GET, "/_skos/{vocabulary}/_suggest", this);
+        controller.registerHandler(POST, "/_skos/{vocabulary}/_suggest", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, final RestChannel channel, Client client) throws Exception {
+        final long start = System.nanoTime();
+        final String vocabulary = request.param("vocabulary");
+        final String text = request.param("text");
+        if (text == null) {
+            throw new IllegalArgumentException("[_suggest] requires a text");
+        }
+        final int size = request.paramAsInt("size", 10);
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("[_suggest] size must be between 0 and " + MAX_SIZE);
+        }
+        final String[] languages = request.paramAsStringArray("lang", null);
+        threadPool.generic().execute(new AbstractRunnable() {
+            @Override
+            protected void doRun() throws Exception {
+                channel.sendResponse(new BytesRestResponse(RestStatus.OK,
+                        suggest(channel, vocabulary, text, size, languages, start)));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                try {
+                    channel.sendResponse(new BytesRestResponse(channel, t));
+                } catch (Throwable e) {
+                    logger.error("failed to send failure response", e);
+                }
+            }
+        });
+    }
+
+    private static XContentBuilder suggest(RestChannel channel, String vocabulary, String text, int size,
+                                           String[] languages, long start) throws IOException {
+        SKOSEngine engine;
+        try {
+            engine = SKOSEngineFactory.getSKOSEngine(null, vocabulary);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("vocabulary [" + vocabulary + "] can not be loaded", e);
+        }
+        if (engine == null) {
+            throw new ResourceNotFoundException("vocabulary [{}] is not defined by a skos filter of an index on this node",
+                    vocabulary);
+        }
+        String key = engine.getLabelNormalizer().normalize(text);
+        List<LabelSuggester.Suggestion> suggestions = engine.getLabelSuggester()
+                .suggest(key, languages != null ? Arrays.asList(languages) : null, size);
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        builder.field("took_micros", (System.nanoTime() - start) / 1000L);
+        builder.startArray("suggestions");
+        for (LabelSuggester.Suggestion suggestion : suggestions) {
+            builder.startObject()
+                    .field("uri", suggestion.getURI())
+                    .field("label", suggestion.getLabel());
+            if (!suggestion.getLanguage().isEmpty()) {
+                builder.field("lang", suggestion.getLanguage());
+            }
+            builder.field("type", suggestion.getType().name().toLowerCase(Locale.ROOT))
+                    .field("weight", suggestion.getWeight())
+                    .endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+        return builder;
+    }
+}
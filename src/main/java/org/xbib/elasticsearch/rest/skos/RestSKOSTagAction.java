@@ -0,0 +1,174 @@
+package org.xbib.elasticsearch.rest.skos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelTagger;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * Finds the labels of a vocabulary in a batch of texts, and returns the concepts of each label
+ * with its offsets. The vocabulary is defined by a skos filter of an index on the node receiving
+ * the request, and loaded on first use.
+ *
+ * <pre>
+ * POST /_skos/ukat/_tag
+ * { "texts" : [ "Arms and ammunition", "Military equipment" ] }
+ * </pre>
+ *
+ * The vocabulary is loaded and its tagger is built on the bounded skos_tag thread pool, not on the
+ * network thread. The texts are then split into chunks, tagged in parallel on the same pool.
+ * The response is sent by the thread finishing the last chunk, no thread waits for the others.
+ */
+public class RestSKOSTagAction extends BaseRestHandler {
+
+    public static final String THREAD_POOL = "skos_tag";
+
+    private final ThreadPool threadPool;
+
+    @Inject
+    public RestSKOSTagAction(Settings settings, RestController controller, Client client, ThreadPool threadPool) {
+        super(settings, controller, client);
+        this.threadPool = threadPool;
+        controller.registerHandler(GET, "/_skos/{vocabulary}/_tag", this);
+        controller.registerHandler(POST, "/_skos/{vocabulary}/_tag", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, final RestChannel channel, Client client) throws Exception {
+        final long start = System.nanoTime();
+        final String vocabulary = request.param("vocabulary");
+        final List<String> texts = new ArrayList<>();
+        if (request.hasContent()) {
+            Map<String, Object> body = XContentHelper.convertToMap(request.content(), false).v2();
+            Object value = body.get("texts");
+            if (value instanceof List) {
+                for (Object text : (List<?>) value) {
+                    texts.add(text.toString());
+                }
+            } else if (value != null) {
+                texts.add(value.toString());
+            }
+        } else if (request.param("text") != null) {
+            texts.add(request.param("text"));
+        }
+        if (texts.isEmpty()) {
+            throw new IllegalArgumentException("[_tag] requires texts");
+        }
+        threadPool.executor(THREAD_POOL).execute(new AbstractRunnable() {
+            @Override
+            protected void doRun() throws Exception {
+                tag(channel, vocabulary, texts, start);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                sendFailure(channel, t);
+            }
+        });
+    }
+
+    private void tag(final RestChannel channel, String vocabulary, final List<String> texts, final long start)
+            throws IOException {
+        SKOSEngine engine;
+        try {
+            engine = SKOSEngineFactory.getSKOSEngine(null, vocabulary);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("vocabulary [" + vocabulary + "] can not be loaded", e);
+        }
+        if (engine == null) {
+            throw new ResourceNotFoundException("vocabulary [{}] is not defined by a skos filter of an index on this node",
+                    vocabulary);
+        }
+        final LabelNormalizer normalizer = engine.getLabelNormalizer();
+        final LabelTagger tagger = engine.getLabelTagger();
+        final AtomicReferenceArray<List<LabelTagger.Match>> results = new AtomicReferenceArray<>(texts.size());
+        int chunks = Math.min(texts.size(), threadPool.info(THREAD_POOL).getMax());
+        final int chunkSize = (texts.size() + chunks - 1) / chunks;
+        chunks = (texts.size() + chunkSize - 1) / chunkSize;
+        final AtomicInteger remaining = new AtomicInteger(chunks);
+        final AtomicBoolean failed = new AtomicBoolean();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int from = chunk * chunkSize;
+            final int to = Math.min(texts.size(), from + chunkSize);
+            threadPool.executor(THREAD_POOL).execute(new AbstractRunnable() {
+                @Override
+                protected void doRun() throws Exception {
+                    for (int i = from; i < to; i++) {
+                        results.set(i, tagger.tag(normalizer, texts.get(i)));
+                    }
+                    if (remaining.decrementAndGet() == 0 && !failed.get()) {
+                        channel.sendResponse(new BytesRestResponse(RestStatus.OK,
+                                response(channel, tagger, texts, results, start)));
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    if (failed.compareAndSet(false, true)) {
+                        sendFailure(channel, t);
+                    }
+                }
+            });
+        }
+    }
+
+    private void sendFailure(RestChannel channel, Throwable t) {
+        try {
+            channel.sendResponse(new BytesRestResponse(channel, t));
+        } catch (Throwable e) {
+            logger.error("failed to send failure response", e);
+        }
+    }
+
+    private static XContentBuilder response(RestChannel channel, LabelTagger tagger, List<String> texts,
+                                            AtomicReferenceArray<List<LabelTagger.Match>> results,
+                                            long start) throws Exception {
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        builder.field("took", (System.nanoTime() - start) / 1000000L);
+        builder.startArray("results");
+        for (int i = 0; i < results.length(); i++) {
+            builder.startObject();
+            builder.startArray("matches");
+            for (LabelTagger.Match match : results.get(i)) {
+                builder.startObject()
+                        .field("start_offset", match.getStartOffset())
+                        .field("end_offset", match.getEndOffset())
+                        .field("text", texts.get(i).substring(match.getStartOffset(), match.getEndOffset()))
+                        .field("label", tagger.getLabel(match.getLabelId()))
+                        .field("concepts", tagger.getConcepts(match.getLabelId()))
+                        .endObject();
+            }
+            builder.endArray();
+            builder.endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,188 @@
+package org.xbib.elasticsearch.script.skos;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.SpecialPermission;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.script.AbstractDoubleSearchScript;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.script.NativeScriptFactory;
+import org.elasticsearch.search.lookup.LeafDocLookup;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptCloseness;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptDocValues;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptGraph;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+
+/**
+ * The native script skos_closeness, the closeness of the concepts of a document to query
+ * concepts, between 0 (unrelated) and 1, for function_score.
+ *
+ * <pre>
+ * "script_score" : {
+ *     "script" : {
+ *         "lang" : "native",
+ *         "inline" : "skos_closeness",
+ *         "params" : {
+ *             "field" : "category",
+ *             "vocabulary" : "ukat",
+ *             "concepts" : [ "http://www.ukat.org.uk/thesaurus/concept/5060" ],
+ *             "measure" : "wu_palmer"
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * The vocabulary is loaded on first use through a skos filter defining it, which must belong to
+ * an index with shards on every node searched. A script is created per segment. It reads the
+ * concepts from the sorted set doc values of the segment, resolves each segment ordinal to a
+ * concept and computes the closeness of each concept once, so scoring a document allocates
+ * nothing and looks up no strings.
+ */
+public class SKOSClosenessScriptFactory implements NativeScriptFactory {
+
+    public static final String NAME = "skos_closeness";
+
+    private static final Field SEGMENT = segmentField();
+
+    @Override
+    public ExecutableScript newScript(Map<String, Object> params) {
+        if (params == null) {
+            throw new IllegalArgumentException("[" + NAME + "] script requires the params field, vocabulary and concepts");
+        }
+        Object field = params.get("field");
+        Object vocabulary = params.get("vocabulary");
+        Object concepts = params.get("concepts");
+        if (field == null || vocabulary == null || concepts == null) {
+            throw new IllegalArgumentException("[" + NAME + "] script requires the params field, vocabulary and concepts");
+        }
+        SKOSEngine engine;
+        try {
+            // the script is not told the searched index, any skos filter defining the vocabulary loads it
+            engine = SKOSEngineFactory.getSKOSEngine(null, vocabulary.toString());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("[" + NAME + "] vocabulary [" + vocabulary + "] can not be loaded", e);
+        }
+        if (engine == null) {
+            throw new IllegalArgumentException("[" + NAME + "] vocabulary [" + vocabulary
+                    + "] is not defined by a skos filter of an index on this node");
+        }
+        ConceptGraph graph = engine.getConceptGraph();
+        List<Object> uris = new ArrayList<>();
+        if (concepts instanceof List) {
+            uris.addAll((List<?>) concepts);
+        } else {
+            uris.add(concepts);
+        }
+        // unknown concepts are close to nothing
+        int[] ordinals = new int[uris.size()];
+        int n = 0;
+        for (Object uri : uris) {
+            int concept = graph.getOrdinal(uri.toString());
+            if (concept >= 0) {
+                ordinals[n++] = concept;
+            }
+        }
+        ConceptCloseness.Measure measure = ConceptCloseness.Measure.PATH;
+        if (params.get("measure") != null) {
+            try {
+                measure = ConceptCloseness.Measure.fromString(params.get("measure").toString());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("[" + NAME + "] measure must be path or wu_palmer");
+            }
+        }
+        int maxDistance = XContentMapValues.nodeIntegerValue(params.get("max_distance"), 0);
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("[" + NAME + "] max_distance must be 0 (no limit) or positive");
+        }
+        return new ClosenessScript(field.toString(), graph,
+                new ConceptCloseness(graph, Arrays.copyOf(ordinals, n), measure, maxDistance));
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    private static class ClosenessScript extends AbstractDoubleSearchScript {
+
+        private final String field;
+
+        private final ConceptGraph graph;
+
+        private final ConceptCloseness closeness;
+
+        private boolean initialized;
+
+        // null if the segment has no doc values for the field
+        private ConceptDocValues values;
+
+        private int count;
+
+        ClosenessScript(String field, ConceptGraph graph, ConceptCloseness closeness) {
+            this.field = field;
+            this.graph = graph;
+            this.closeness = closeness;
+        }
+
+        @Override
+        public void setDocument(int doc) {
+            super.setDocument(doc);
+            // the segment is known once the lookup is set, after the script is created
+            if (!initialized) {
+                MappedFieldType fieldType = doc().mapperService().smartNameFieldType(field);
+                String indexName = fieldType != null ? fieldType.names().indexName() : field;
+                try {
+                    values = ConceptDocValues.get(segment(doc()).reader(), indexName, graph);
+                } catch (IOException e) {
+                    throw new ElasticsearchException("[" + NAME + "] can not read the doc values of [" + field + "]", e);
+                }
+                initialized = true;
+            }
+            count = values != null ? values.setDocument(doc) : 0;
+        }
+
+        @Override
+        public double runAsDouble() {
+            return values != null ? closeness.closeness(values, count) : 0d;
+        }
+    }
+
+    // the doc lookup of a script keeps its segment to itself, but the segment ordinals are only reachable through it
+    private static LeafReaderContext segment(LeafDocLookup lookup) {
+        try {
+            return (LeafReaderContext) SEGMENT.get(lookup);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Field segmentField() {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new SpecialPermission());
+        }
+        return AccessController.doPrivileged(new PrivilegedAction<Field>() {
+            @Override
+            public Field run() {
+                try {
+                    Field field = LeafDocLookup.class.getDeclaredField("reader");
+                    field.setAccessible(true);
+                    return field;
+                } catch (NoSuchFieldException e) {
+                    throw new IllegalStateException("the doc lookup has no segment field", e);
+                }
+            }
+        });
+    }
+}
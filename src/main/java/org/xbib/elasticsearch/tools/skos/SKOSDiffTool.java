@@ -0,0 +1,167 @@
+package org.xbib.elasticsearch.tools.skos;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptStore;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.VocabularyDiff;
+import org.xbib.elasticsearch.index.analysis.skos.engine.jena.SKOSEngineImpl;
+
+/**
+ * Compares two versions of a vocabulary and writes the concepts and labels whose documents need
+ * a new expansion, as body of a re-expansion request:
+ *
+ * <pre>
+ * java -cp ... org.xbib.elasticsearch.tools.skos.SKOSDiffTool --old ukat-2015.n3 --new ukat-2016.n3 \
+ *     --normalizer "standard lowercase asciifolding" --conceptIdFile ukat-ids.json --output diff.json
+ * </pre>
+ *
+ * The output has the versions of both vocabularies, the added, removed and changed concepts,
+ * the URIs of the affected concepts in "concepts", the changed labels, the added labels,
+ * which had no concept before, in "labels", and in "terms" the old terms of the affected concepts
+ * as the filters index them: the URIs, the concept ids and the labels of the old version.
+ *
+ * The concept ids are pinned in the vocabulary index of the cluster and differ from the ids a
+ * vocabulary file gets on its own, so they are only written with a "conceptIdFile", the sources of
+ * the documents of the vocabulary index, one per line. Without it, "concept_ids" is false in the
+ * output and the documents of filters with concept ids are not found by their old terms.
+ *
+ * The labels are normalized like the labels of the filter, so the vocabularies must be loaded with
+ * the normalizer of the filter, given as a Lucene tokenizer name followed by token filter names,
+ * otherwise the versions do not match the stamped versions and the labels are not the indexed ones.
+ */
+public class SKOSDiffTool {
+
+    /**
+     * Runs the tool, the options are given as "--name value" pairs
+     *
+     * @param args the options
+     */
+    public static void main(String[] args) {
+        try {
+            Settings settings = SKOSExpandTool.parseArgs(args);
+            String oldFile = settings.get("old");
+            String newFile = settings.get("new");
+            if (oldFile == null || newFile == null) {
+                throw new IllegalArgumentException("mandatory parameters 'old' and 'new' missing");
+            }
+            String languageString = settings.get("language");
+            List<String> languages = languageString != null ?
+                    Arrays.asList(languageString.split(" ")) : Collections.<String>emptyList();
+            LabelNormalizer normalizer = normalizer(settings.get("normalizer"));
+            String conceptIdFile = settings.get("conceptIdFile");
+            boolean conceptIds = conceptIdFile != null;
+            Map<String, Integer> pinnedIds = conceptIds ?
+                    SKOSExpandTool.readConceptIds(conceptIdFile) : Collections.<String, Integer>emptyMap();
+            SKOSEngineImpl oldEngine = new SKOSEngineImpl(null, "skos-old", oldFile, languages, normalizer, false,
+                    pinnedIds);
+            ConceptStore oldStore = oldEngine.getConceptStore();
+            ConceptStore newStore = new SKOSEngineImpl(null, "skos-new", newFile, languages,
+                    normalizer, false).getConceptStore();
+            VocabularyDiff diff = VocabularyDiff.compare(oldStore, newStore);
+            String output = settings.get("output", "-");
+            try (OutputStream out = "-".equals(output) ? System.out : new FileOutputStream(output)) {
+                write(diff, VocabularyDiff.version(oldStore), VocabularyDiff.version(newStore),
+                        terms(oldEngine, diff, conceptIds), conceptIds, out);
+            }
+            if (!conceptIds) {
+                System.err.println("no conceptIdFile given, the terms have no concept ids");
+            }
+            System.err.println(diff.getAffectedConcepts().size() + " affected concepts, "
+                    + diff.getAddedLabels().size() + " added labels");
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates the label normalizer of a definition
+     *
+     * @param definition a Lucene tokenizer name followed by token filter names, separated by spaces,
+     *                   or null for the default normalizer of the filter
+     * @return the normalizer
+     * @throws IOException if the analyzer can not be built
+     */
+    public static LabelNormalizer normalizer(String definition) throws IOException {
+        if (definition == null || definition.trim().isEmpty()) {
+            return LabelNormalizer.DEFAULT;
+        }
+        String[] names = definition.trim().split("\\s+");
+        CustomAnalyzer.Builder builder = CustomAnalyzer.builder().withTokenizer(names[0]);
+        for (int i = 1; i < names.length; i++) {
+            builder.addTokenFilter(names[i]);
+        }
+        return new LabelNormalizer(definition, builder.build());
+    }
+
+    /**
+     * Returns the old terms of the affected concepts in the form the filters index them, the URIs
+     * of the concept expansion, the ids of the concept id expansion and the labels of the label
+     * expansion, and the changed labels
+     *
+     * @param oldEngine the engine of the old vocabulary, loaded with the normalizer of the filter
+     * @param diff the diff
+     * @param conceptIds true if the engine was loaded with the concept ids pinned in the cluster
+     * @return the terms
+     * @throws IOException if the labels can not be read
+     */
+    public static Set<String> terms(SKOSEngine oldEngine, VocabularyDiff diff, boolean conceptIds) throws IOException {
+        Set<String> terms = new TreeSet<>();
+        for (String uri : diff.getAffectedConcepts()) {
+            terms.add(uri);
+            String id = conceptIds ? oldEngine.getConceptId(uri) : null;
+            if (id != null) {
+                terms.add(id);
+            }
+            terms.addAll(oldEngine.getPrefLabels(uri));
+            terms.addAll(oldEngine.getAltLabels(uri));
+            terms.addAll(oldEngine.getHiddenLabels(uri));
+        }
+        terms.addAll(diff.getChangedLabels());
+        return terms;
+    }
+
+    /**
+     * Writes a diff as JSON
+     *
+     * @param diff the diff
+     * @param oldVersion the version of the old vocabulary
+     * @param newVersion the version of the new vocabulary
+     * @param terms the old terms of the affected concepts
+     * @param conceptIds true if the terms have the concept ids
+     * @param out the output stream
+     * @throws IOException if the diff can not be written
+     */
+    public static void write(VocabularyDiff diff, String oldVersion, String newVersion, Collection<String> terms,
+                             boolean conceptIds, OutputStream out) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder(out).prettyPrint();
+        builder.startObject()
+                .field("old_version", oldVersion)
+                .field("version", newVersion)
+                .field("added", diff.getAddedConcepts())
+                .field("removed", diff.getRemovedConcepts())
+                .field("changed", diff.getChangedConcepts())
+                .field("concepts", diff.getAffectedConcepts())
+                .field("changed_labels", diff.getChangedLabels())
+                .field("labels", diff.getAddedLabels())
+                .field("terms", terms)
+                .field("concept_ids", conceptIds)
+                .endObject();
+        builder.flush();
+    }
+}
@@ -0,0 +1,487 @@
+package org.xbib.elasticsearch.tools.skos;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.KeywordTokenizer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.xbib.elasticsearch.index.analysis.skos.ExpansionBudget;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSAnalyzer.ExpansionType;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSLabelFilter;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSURIFilter;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptStore;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.jena.SKOSEngineImpl;
+
+/**
+ * Expands documents outside of the cluster, before they are indexed. The tool reads NDJSON,
+ * one document per line, or the body of a bulk request, runs the values of the given fields
+ * through the SKOS label or URI filter of an engine without cluster, and writes a bulk request
+ * where each expanded field has an object next to it with the expanded terms by SKOS type:
+ *
+ * <pre>
+ * {"subject":"Weapons","subject_skos":{"pref":["http://www.ukat.org.uk/thesaurus/concept/859"],...}}
+ * </pre>
+ *
+ * Documents are expanded in batches on a pool of worker threads, and written in input order.
+ * The options have the names of the skos filter settings, plus fields, input, output, format,
+ * index, type, suffix, threads, batchSize and conceptIdFile:
+ *
+ * <pre>
+ * java -cp ... org.xbib.elasticsearch.tools.skos.SKOSExpandTool --skosFile ukat.n3 --expansionType label \
+ *     --skosType "pref broader" --conceptIds true --conceptIdFile ukat-ids.json --fields subject \
+ *     --input docs.json --output bulk.json
+ * </pre>
+ *
+ * Concept ids are those pinned in the vocabulary index of the cluster, so conceptIds requires
+ * the conceptIdFile exported from it.
+ */
+public class SKOSExpandTool {
+
+    public static final String DEFAULT_SUFFIX = "_skos";
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final Set<String> ACTIONS = new LinkedHashSet<>(Arrays.asList("index", "create", "update", "delete"));
+
+    private final List<String> fields;
+
+    private final String suffix;
+
+    private final boolean bulk;
+
+    private final String action;
+
+    private final int threads;
+
+    private final int batchSize;
+
+    private final Analyzer analyzer;
+
+    /**
+     * @param engine the SKOS engine
+     * @param settings the tool settings
+     */
+    public SKOSExpandTool(final SKOSEngine engine, Settings settings) {
+        String[] fieldNames = settings.getAsArray("fields");
+        if (fieldNames.length == 0) {
+            throw new IllegalArgumentException("mandatory parameter 'fields' missing");
+        }
+        this.fields = Arrays.asList(fieldNames);
+        this.suffix = settings.get("suffix", DEFAULT_SUFFIX);
+        String format = settings.get("format", "ndjson");
+        if (!"ndjson".equals(format) && !"bulk".equals(format)) {
+            throw new IllegalArgumentException("'format' must be ndjson or bulk");
+        }
+        this.bulk = "bulk".equals(format);
+        this.action = action(settings.get("index"), settings.get("type"));
+        this.threads = settings.getAsInt("threads", Runtime.getRuntime().availableProcessors());
+        this.batchSize = settings.getAsInt("batchSize", DEFAULT_BATCH_SIZE);
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("'threads' and 'batchSize' must be positive integers");
+        }
+        String expansionTypeString = settings.get("expansionType");
+        if (expansionTypeString == null) {
+            throw new IllegalArgumentException("mandatory parameter 'expansionType' missing");
+        }
+        final ExpansionType expansionType = expansionTypeString.equalsIgnoreCase(ExpansionType.LABEL.toString()) ?
+                ExpansionType.LABEL : ExpansionType.URI;
+        final List<SKOSType> types = new LinkedList<>();
+        String typeString = settings.get("skosType");
+        if (typeString != null) {
+            for (String s : typeString.split(" ")) {
+                try {
+                    types.add(SKOSType.valueOf(s.toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("'skosType' must be one of PREF, ALT, HIDDEN, BROADER, NARROWER, BROADERTRANSITIVE, NARROWERTRANSITIVE, RELATED");
+                }
+            }
+        }
+        final int bufferSize = settings.getAsInt("bufferSize", 4);
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("'bufferSize' must be a positive (small) integer");
+        }
+        final boolean conceptIds = settings.getAsBoolean("conceptIds", false);
+        if (conceptIds && settings.get("conceptIdFile") == null) {
+            // the ids of the vocabulary file alone are not the ids pinned in the cluster
+            throw new IllegalArgumentException("'conceptIds' requires 'conceptIdFile', the concept ids of the vocabulary index");
+        }
+        final ExpansionBudget budget = new ExpansionBudget(getLimit(settings, "maxExpansionsPerToken"),
+                getLimit(settings, "maxExpansionsPerConcept"),
+                getLimit(settings, "maxExpansionsPerValue"),
+                getLimit(settings, "maxDepth"));
+        // token stream components are reused per thread, so all workers share the analyzer
+        this.analyzer = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                if (expansionType == ExpansionType.URI) {
+                    Tokenizer src = new KeywordTokenizer();
+                    SKOSURIFilter filter = new SKOSURIFilter(src, engine, new StandardAnalyzer(), types);
+                    filter.setBudget(budget);
+                    return new TokenStreamComponents(src, filter);
+                }
+                Tokenizer src = new StandardTokenizer();
+                SKOSLabelFilter filter = new SKOSLabelFilter(new StandardFilter(src), engine, new StandardAnalyzer(),
+                        bufferSize, types);
+                filter.setBudget(budget);
+                filter.setConceptIds(conceptIds);
+                return new TokenStreamComponents(src, filter);
+            }
+        };
+    }
+
+    /**
+     * Runs the tool, the options are given as "--name value" pairs
+     *
+     * @param args the options
+     */
+    public static void main(String[] args) {
+        try {
+            Settings settings = parseArgs(args);
+            String skosFile = settings.get("skosFile");
+            if (skosFile == null) {
+                throw new IllegalArgumentException("mandatory parameter 'skosFile' missing");
+            }
+            String languageString = settings.get("language");
+            String conceptIdFile = settings.get("conceptIdFile");
+            SKOSEngine engine = new SKOSEngineImpl(null, settings.get("indexName", "skos"), skosFile,
+                    languageString != null ? Arrays.asList(languageString.split(" ")) : Collections.<String>emptyList(),
+                    LabelNormalizer.DEFAULT, false, conceptIdFile != null ?
+                    readConceptIds(conceptIdFile) : Collections.<String, Integer>emptyMap());
+            SKOSExpandTool tool = new SKOSExpandTool(engine, settings);
+            String input = settings.get("input", "-");
+            String output = settings.get("output", "-");
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    "-".equals(input) ? System.in : new FileInputStream(input), StandardCharsets.UTF_8));
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(
+                         "-".equals(output) ? System.out : new FileOutputStream(output), StandardCharsets.UTF_8))) {
+                long start = System.nanoTime();
+                long count = tool.expand(reader, writer);
+                System.err.println("expanded " + count + " documents in "
+                        + (System.nanoTime() - start) / 1000000L + " ms");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the concept ids pinned in the vocabulary index of a cluster, exported as the sources
+     * of its documents, one JSON object with "uri" and "id" per line
+     *
+     * @param file the exported file
+     * @return the concept ids by URI
+     * @throws IOException if the file can not be read
+     * @throws IllegalArgumentException if a line has no URI or no valid id
+     */
+    public static Map<String, Integer> readConceptIds(String file) throws IOException {
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                Map<String, Object> source = XContentHelper.convertToMap(new BytesArray(line), false).v2();
+                Object uri = source.get("uri");
+                Object id = source.get("id");
+                int value = id != null ? ConceptStore.parseId(id.toString()) : -1;
+                if (uri == null || value < 0) {
+                    throw new IllegalArgumentException("concept id file " + file + " has a line without uri or id: " + line);
+                }
+                ids.put(uri.toString(), value);
+            }
+        }
+        return ids;
+    }
+
+    static Settings parseArgs(String[] args) {
+        Settings.Builder builder = Settings.builder();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("options must be given as --name value, found " + args[i]);
+            }
+            String name = args[i].substring(2);
+            String value = args[++i];
+            if ("fields".equals(name)) {
+                builder.putArray(name, value.split(","));
+            } else {
+                builder.put(name, value);
+            }
+        }
+        return builder.build();
+    }
+
+    private static String action(String index, String type) {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder().startObject().startObject("index");
+            if (index != null) {
+                builder.field("_index", index);
+            }
+            if (type != null) {
+                builder.field("_type", type);
+            }
+            return builder.endObject().endObject().string();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int getLimit(Settings settings, String name) {
+        int limit = settings.getAsInt(name, 0);
+        if (limit < 0) {
+            throw new IllegalArgumentException("'" + name + "' must be 0 (no limit) or a positive integer");
+        }
+        return limit;
+    }
+
+    /**
+     * Expands all documents of the input and writes them as bulk request
+     *
+     * @param reader the NDJSON or bulk input
+     * @param writer the bulk output
+     * @return the number of documents
+     * @throws IOException if the input can not be read or a document can not be expanded
+     */
+    public long expand(BufferedReader reader, Writer writer) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // the batches in expansion, in input order, at most two per thread to bound the memory
+        Deque<Future<List<String>>> pending = new ArrayDeque<>();
+        long count = 0;
+        try {
+            List<Item> batch = new ArrayList<>(batchSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                if (!bulk) {
+                    batch.add(new Item(action, line, true));
+                } else {
+                    String actionName = readAction(line);
+                    String source = null;
+                    if (!"delete".equals(actionName)) {
+                        source = reader.readLine();
+                        if (source == null) {
+                            throw new IOException("missing source for action " + line);
+                        }
+                    }
+                    // partial documents of updates are not expanded
+                    batch.add(new Item(line, source, "index".equals(actionName) || "create".equals(actionName)));
+                }
+                count++;
+                if (batch.size() == batchSize) {
+                    pending.addLast(executor.submit(new Batch(batch)));
+                    batch = new ArrayList<>(batchSize);
+                    if (pending.size() >= threads * 2) {
+                        write(pending.removeFirst(), writer);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                pending.addLast(executor.submit(new Batch(batch)));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.removeFirst(), writer);
+            }
+            writer.flush();
+            return count;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String readAction(String line) throws IOException {
+        Map<String, Object> map;
+        try {
+            map = XContentHelper.convertToMap(new BytesArray(line), false).v2();
+        } catch (RuntimeException e) {
+            throw new IOException("malformed action " + line, e);
+        }
+        if (map.size() != 1 || !ACTIONS.contains(map.keySet().iterator().next())) {
+            throw new IOException("action must be one of " + ACTIONS + ": " + line);
+        }
+        return map.keySet().iterator().next();
+    }
+
+    private static void write(Future<List<String>> future, Writer writer) throws IOException {
+        List<String> lines;
+        try {
+            lines = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        for (String line : lines) {
+            writer.write(line);
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Expands the fields of a document
+     *
+     * @param line the document
+     * @return the document with the expanded terms
+     * @throws IOException if the document is malformed or can not be analyzed
+     */
+    public String expandDocument(String line) throws IOException {
+        Map<String, Object> source;
+        try {
+            source = XContentHelper.convertToMap(new BytesArray(line), true).v2();
+        } catch (RuntimeException e) {
+            throw new IOException("malformed document " + line, e);
+        }
+        for (String field : fields) {
+            Map<String, Object> parent = parent(source, field);
+            if (parent == null) {
+                continue;
+            }
+            Map<SKOSType, Set<String>> terms = new EnumMap<>(SKOSType.class);
+            Object value = XContentMapValues.extractValue(field, source);
+            if (value instanceof List) {
+                for (Object o : (List<?>) value) {
+                    if (o != null && !(o instanceof Map)) {
+                        analyze(field, o.toString(), terms);
+                    }
+                }
+            } else if (value != null && !(value instanceof Map)) {
+                analyze(field, value.toString(), terms);
+            }
+            if (terms.isEmpty()) {
+                continue;
+            }
+            Map<String, Object> target = new LinkedHashMap<>();
+            for (Map.Entry<SKOSType, Set<String>> entry : terms.entrySet()) {
+                target.put(entry.getKey().name().toLowerCase(Locale.ROOT), new ArrayList<>(entry.getValue()));
+            }
+            parent.put(field.substring(field.lastIndexOf('.') + 1) + suffix, target);
+        }
+        return XContentFactory.jsonBuilder().map(source).string();
+    }
+
+    // the object holding a field, null if the path crosses an array or a value
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parent(Map<String, Object> source, String field) {
+        Map<String, Object> parent = source;
+        String[] path = field.split("\\.");
+        for (int i = 0; i < path.length - 1; i++) {
+            Object child = parent.get(path[i]);
+            if (!(child instanceof Map)) {
+                return null;
+            }
+            parent = (Map<String, Object>) child;
+        }
+        return parent;
+    }
+
+    private void analyze(String field, String text, Map<SKOSType, Set<String>> terms) throws IOException {
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            SKOSTypeAttribute skosAtt = stream.addAttribute(SKOSTypeAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                SKOSType type = skosAtt.getSkosType();
+                if (type == null) {
+                    continue;
+                }
+                Set<String> set = terms.get(type);
+                if (set == null) {
+                    set = new LinkedHashSet<>();
+                    terms.put(type, set);
+                }
+                set.add(termAtt.toString());
+            }
+            stream.end();
+        }
+    }
+
+    /**
+     * A bulk action with its source, if any
+     */
+    private static class Item {
+
+        private final String action;
+
+        private final String source;
+
+        private final boolean expand;
+
+        Item(String action, String source, boolean expand) {
+            this.action = action;
+            this.source = source;
+            this.expand = expand;
+        }
+    }
+
+    /**
+     * Expands a batch of documents into the lines of a bulk request
+     */
+    private class Batch implements Callable<List<String>> {
+
+        private final List<Item> items;
+
+        Batch(List<Item> items) {
+            this.items = items;
+        }
+
+        @Override
+        public List<String> call() throws IOException {
+            List<String> lines = new ArrayList<>(items.size() * 2);
+            for (Item item : items) {
+                lines.add(item.action);
+                if (item.source != null) {
+                    lines.add(item.expand ? expandDocument(item.source) : item.source);
+                }
+            }
+            return lines;
+        }
+    }
+}
@@ -27,11 +27,16 @@ public class NodeTestUtils extends Assert {
     private Client client;
 
     public static Node createNode() {
+        return createNode(Settings.EMPTY);
+    }
+
+    public static Node createNode(Settings settings) {
         Settings nodeSettings = Settings.settingsBuilder()
                 .put("path.home", System.getProperty("path.home"))
                 .put("client.type", "node")
                 .put("index.number_of_shards", 1)
                 .put("index.number_of_replica", 0)
+                .put(settings)
                 .build();
         // ES 2.1 renders NodeBuilder as useless
         Node node = new MockNode(nodeSettings, SKOSAnalysisPlugin.class);
@@ -49,14 +54,22 @@ public class NodeTestUtils extends Assert {
 
     @Before
     public void setupNode() throws IOException {
-        node = createNode();
+        node = createNode(nodeSettings());
         client = node.client();
     }
 
+    protected Settings nodeSettings() {
+        return Settings.EMPTY;
+    }
+
     protected Client client(String id) {
         return client;
     }
 
+    protected Node node() {
+        return node;
+    }
+
     @After
     public void cleanupNode() throws IOException {
         releaseNode(node);
@@ -0,0 +1,57 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.BulkLabelCache;
+import org.xbib.elasticsearch.index.analysis.skos.test.filter.SKOSEngineMock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that the candidates of a bulk request are released when the request completes,
+ * while other bulk requests are in flight
+ */
+public class BulkLabelCacheTest {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    @Test
+    public void overlappingScopes() throws IOException {
+        SKOSEngineMock engine = new SKOSEngineMock();
+        engine.addEntry(NS + "859", SKOSType.PREF, "weapons");
+        engine.addEntry(NS + "859", SKOSType.ALT, "arms");
+        engine.addEntry(NS + "18874", SKOSType.PREF, "ammunition");
+        BulkLabelCache cache = new BulkLabelCache(engine);
+        BulkLabelCache.Scope first = cache.open(Arrays.asList("weapons", "arms"));
+        BulkLabelCache.Scope second = cache.open(Arrays.asList("arms", "ammunition"));
+        assertEquals(3, cache.size());
+        assertEquals(3, cache.getResolved());
+        first.close();
+        // the candidates of the completed request only
+        assertEquals(2, cache.size());
+        assertNull(cache.get("weapons"));
+        assertEquals(Collections.singletonList(NS + "859"), cache.get("arms"));
+        BulkLabelCache.Scope third = cache.open(Collections.singletonList("ammunition"));
+        second.close();
+        second.close();
+        assertEquals(1, cache.size());
+        assertEquals(Collections.singletonList(NS + "18874"), cache.get("ammunition"));
+        third.close();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void maxSize() throws IOException {
+        SKOSEngineMock engine = new SKOSEngineMock();
+        BulkLabelCache cache = new BulkLabelCache(engine, 1);
+        BulkLabelCache.Scope scope = cache.open(Arrays.asList("weapons", "arms"));
+        assertEquals(0, cache.size());
+        scope.close();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,175 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import org.apache.lucene.util.CharsRef;
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptCloseness;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptGraph;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptHierarchy;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptStore;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelArena;
+import org.xbib.elasticsearch.index.analysis.skos.engine.URITable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the label arena, the URI table, the concept store and the concept hierarchy
+ */
+public class ConceptStoreTest {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    @Test
+    public void labelArena() {
+        LabelArena arena = new LabelArena();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, arena.add("label " + i));
+        }
+        assertEquals(42, arena.add("label 42"));
+        assertEquals(1000, arena.size());
+        assertEquals(-1, arena.find("label 1000"));
+        arena.trim();
+        CharsRef ref = arena.get(999, new CharsRef());
+        assertEquals("label 999", ref.toString());
+        assertSame(ref.chars, arena.get(0, new CharsRef()).chars);
+    }
+
+    @Test
+    public void uriTable() {
+        URITable uris = new URITable();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, uris.add(NS + i));
+        }
+        assertEquals(1000, uris.add("http://www.w3.org/2004/02/skos/core#Concept"));
+        assertEquals(17, uris.add(NS + 17));
+        assertEquals(2, uris.namespaceCount());
+        assertEquals(17, uris.find(NS + 17));
+        assertEquals(-1, uris.find(NS + "x"));
+        assertEquals(NS + 859, uris.get(859));
+    }
+
+    @Test
+    public void conceptStore() {
+        assertConceptStore(false);
+    }
+
+    @Test
+    public void offHeapConceptStore() {
+        ConceptStore store = assertConceptStore(true);
+        assertTrue(store.isOffHeap());
+        assertTrue(store.offHeapBytesUsed() > 0);
+        // only the namespaces stay on the heap
+        assertTrue(store.ramBytesUsed() < 1024);
+    }
+
+    @Test
+    public void conceptHierarchy() {
+        ConceptStore.Builder builder = new ConceptStore.Builder();
+        int equipment = builder.addConcept(NS + "5060");
+        int weapons = builder.addConcept(NS + "859");
+        int tools = builder.addConcept(NS + "100");
+        int knives = builder.addConcept(NS + "101");
+        int daggers = builder.addConcept(NS + "102");
+        int cycle = builder.addConcept(NS + "200");
+        builder.addRelation(equipment, SKOSType.NARROWER, NS + "859");
+        builder.addRelation(weapons, SKOSType.BROADER, NS + "5060");
+        builder.addRelation(tools, SKOSType.BROADER, NS + "5060");
+        // knives are weapons and tools
+        builder.addRelation(knives, SKOSType.BROADER, NS + "859");
+        builder.addRelation(knives, SKOSType.BROADER, NS + "100");
+        builder.addRelation(daggers, SKOSType.BROADER, NS + "101");
+        builder.addRelation(cycle, SKOSType.BROADER, NS + "201");
+        int other = builder.addConcept(NS + "201");
+        builder.addRelation(other, SKOSType.BROADER, NS + "200");
+        ConceptStore store = builder.build();
+        ConceptGraph graph = ConceptGraph.build(store);
+        ConceptHierarchy hierarchy = ConceptHierarchy.build(graph);
+        assertEquals(1, hierarchy.intervalCount(equipment));
+        assertEquals(2, hierarchy.intervalCount(knives));
+        assertEquals(2, hierarchy.intervalCount(daggers));
+        assertTrue(isUnder(hierarchy, daggers, equipment));
+        assertTrue(isUnder(hierarchy, daggers, weapons));
+        assertTrue(isUnder(hierarchy, daggers, tools));
+        assertTrue(isUnder(hierarchy, knives, weapons));
+        assertFalse(isUnder(hierarchy, tools, weapons));
+        assertFalse(isUnder(hierarchy, equipment, weapons));
+        // the cycle is cut, each concept is numbered
+        assertTrue(hierarchy.intervalCount(cycle) > 0);
+        assertTrue(hierarchy.intervalCount(other) > 0);
+        assertFalse(isUnder(hierarchy, cycle, equipment));
+        int[] ancestors = graph.getAncestors(daggers);
+        assertEquals(4, ancestors.length);
+        assertEquals(knives, ancestors[0]);
+        assertEquals(NS + "5060", graph.getURI(ancestors[3]));
+        assertEquals(1, graph.getAncestors(cycle).length);
+        assertEquals(0, graph.getDepth(equipment));
+        assertEquals(2, graph.getDepth(knives));
+        assertEquals(3, graph.getDepth(daggers));
+        assertEquals(0, graph.getDepth(cycle) * graph.getDepth(other));
+        int[] distances = graph.getAncestorDistances(daggers);
+        assertEquals(8, distances.length);
+        assertEquals(knives, distances[0]);
+        assertEquals(1, distances[1]);
+        assertEquals(equipment, distances[6]);
+        assertEquals(3, distances[7]);
+        ConceptCloseness closeness = new ConceptCloseness(graph, new int[]{weapons}, ConceptCloseness.Measure.PATH, 0);
+        assertEquals(1f, closeness.closeness(weapons), 0f);
+        assertEquals(0.5f, closeness.closeness(knives), 0f);
+        assertEquals(1f / 3, closeness.closeness(tools), 1e-6f);
+        assertEquals(1f / 3, closeness.closeness(daggers), 1e-6f);
+        assertEquals(0f, closeness.closeness(cycle), 0f);
+        closeness = new ConceptCloseness(graph, new int[]{weapons}, ConceptCloseness.Measure.PATH, 1);
+        assertEquals(0f, closeness.closeness(tools), 0f);
+        closeness = new ConceptCloseness(graph, new int[]{weapons}, ConceptCloseness.Measure.WU_PALMER, 0);
+        assertEquals(0.8f, closeness.closeness(knives), 1e-6f);
+        assertEquals(0.5f, closeness.closeness(tools), 1e-6f);
+        try {
+            ConceptHierarchy.build(graph, 8);
+            fail();
+        } catch (IllegalStateException e) {
+            // more paths than intervals
+        }
+        // the graph does not depend on the intervals
+        assertEquals(2, graph.parentCount(knives));
+        assertEquals(1, ConceptHierarchy.build(graph, 16).intervalCount(equipment));
+    }
+
+    private static boolean isUnder(ConceptHierarchy hierarchy, int descendant, int ancestor) {
+        for (int i = 0; i < hierarchy.intervalCount(descendant); i++) {
+            int left = hierarchy.getLeft(descendant, i);
+            for (int j = 0; j < hierarchy.intervalCount(ancestor); j++) {
+                if (left > hierarchy.getLeft(ancestor, j) && left < hierarchy.getRight(ancestor, j)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private ConceptStore assertConceptStore(boolean offHeap) {
+        ConceptStore.Builder builder = new ConceptStore.Builder();
+        int weapons = builder.addConcept(NS + "859");
+        builder.addLabel(weapons, SKOSType.PREF, "weapons");
+        builder.addLabel(weapons, SKOSType.ALT, "arms");
+        builder.addLabel(weapons, SKOSType.ALT, "arms");
+        builder.addRelation(weapons, SKOSType.BROADER, NS + "1");
+        int arms = builder.addConcept(NS + "860");
+        builder.addLabel(arms, SKOSType.PREF, "arms");
+        ConceptStore store = builder.build(offHeap);
+        assertEquals(3, store.size());
+        assertEquals(1, store.count(weapons, SKOSType.ALT));
+        assertEquals(NS + "1", store.getURI(store.get(weapons, SKOSType.BROADER, 0)));
+        assertEquals(0, store.count(arms, SKOSType.BROADER));
+        int label = store.findLabel("arms");
+        assertEquals(2, store.conceptCount(label));
+        assertEquals(weapons, store.getConcept(label, 0));
+        assertEquals(arms, store.getConcept(label, 1));
+        assertEquals("weapons", store.getLabel(store.get(weapons, SKOSType.PREF, 0), new CharsRef()).toString());
+        assertEquals(weapons, store.getOrdinal(NS + "859"));
+        return store;
+    }
+}
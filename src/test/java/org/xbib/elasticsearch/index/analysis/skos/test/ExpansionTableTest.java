@@ -0,0 +1,137 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptStore;
+import org.xbib.elasticsearch.index.analysis.skos.engine.Expansion;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ExpansionTable;
+import org.xbib.elasticsearch.index.analysis.skos.test.filter.SKOSEngineMock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the order, the maximum depth and the deduplication of expansions,
+ * computed from the engine and from a concept store
+ */
+public class ExpansionTableTest {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    private static final String WEAPONS = NS + "859";
+
+    private static final String EQUIPMENT = NS + "5060";
+
+    private static final String THINGS = NS + "1";
+
+    private static final Set<SKOSType> ALL_TYPES =
+            EnumSet.of(SKOSType.PREF, SKOSType.ALT, SKOSType.BROADER, SKOSType.BROADERTRANSITIVE);
+
+    private static final Set<SKOSType> TRANSITIVE_TYPES = EnumSet.of(SKOSType.PREF, SKOSType.BROADERTRANSITIVE);
+
+    @Test
+    public void labelExpansion() throws IOException {
+        assertLabelExpansions(new ExpansionTable(createEngine()));
+    }
+
+    @Test
+    public void storeLabelExpansion() throws IOException {
+        assertLabelExpansions(new ExpansionTable(createEngine(), createStore()));
+    }
+
+    @Test
+    public void conceptExpansion() throws IOException {
+        ExpansionTable table = new ExpansionTable(createEngine());
+        Expansion expansion = table.getConceptExpansion(WEAPONS);
+        assertExpansion(expansion, WEAPONS, SKOSType.PREF, EQUIPMENT, SKOSType.BROADER, THINGS, SKOSType.BROADERTRANSITIVE);
+        assertSame(expansion, table.getConceptExpansion(WEAPONS));
+        // the direct broader concept is not repeated as a transitive one
+        assertExpansion(table.getConceptExpansion(WEAPONS, 1), WEAPONS, SKOSType.PREF, EQUIPMENT, SKOSType.BROADER);
+        assertExpansion(table.getConceptExpansion(WEAPONS, 2),
+                WEAPONS, SKOSType.PREF, EQUIPMENT, SKOSType.BROADER, THINGS, SKOSType.BROADERTRANSITIVE);
+    }
+
+    @Test
+    public void sharedTerms() throws IOException {
+        ExpansionTable table = new ExpansionTable(createEngine());
+        Expansion weapons = table.getLabelExpansion(WEAPONS, EnumSet.of(SKOSType.ALT));
+        Expansion equipment = table.getLabelExpansion(EQUIPMENT, EnumSet.of(SKOSType.ALT));
+        assertEquals("arms", weapons.getTerm(0).toString());
+        assertEquals("arms", equipment.getTerm(0).toString());
+        assertSame(weapons.getTerm(0).chars, equipment.getTerm(0).chars);
+    }
+
+    @Test
+    public void maxBytes() throws IOException {
+        SKOSEngineMock engine = createEngine();
+        ExpansionTable table = new ExpansionTable(engine, null, 1024);
+        Expansion expansion = table.getLabelExpansion(WEAPONS, ALL_TYPES);
+        assertEquals(expansion.ramBytesUsed(), table.ramBytesUsed());
+        for (int i = 0; i < 100; i++) {
+            engine.addEntry(NS + "x" + i, SKOSType.PREF, "label " + i);
+            table.getLabelExpansion(NS + "x" + i, ALL_TYPES);
+        }
+        assertTrue(table.ramBytesUsed() <= 1024);
+    }
+
+    private static void assertLabelExpansions(ExpansionTable table) throws IOException {
+        // the duplicate alt label of the concept and the alt label of the broader concept are dropped
+        assertExpansion(table.getLabelExpansion(WEAPONS, ALL_TYPES),
+                "weapons", SKOSType.PREF, "arms", SKOSType.ALT,
+                "equipment", SKOSType.BROADER, "things", SKOSType.BROADERTRANSITIVE);
+        assertExpansion(table.getLabelExpansion(WEAPONS, TRANSITIVE_TYPES, 1),
+                "weapons", SKOSType.PREF, "equipment", SKOSType.BROADERTRANSITIVE, "arms", SKOSType.BROADERTRANSITIVE);
+        // nearer concepts come first
+        assertExpansion(table.getLabelExpansion(WEAPONS, TRANSITIVE_TYPES, 2),
+                "weapons", SKOSType.PREF, "equipment", SKOSType.BROADERTRANSITIVE, "arms", SKOSType.BROADERTRANSITIVE,
+                "things", SKOSType.BROADERTRANSITIVE);
+        assertExpansion(table.getLabelExpansion(THINGS, TRANSITIVE_TYPES, 2), "things", SKOSType.PREF);
+        assertSame(table.getLabelExpansion(WEAPONS, ALL_TYPES), table.getLabelExpansion(WEAPONS, ALL_TYPES));
+    }
+
+    private static void assertExpansion(Expansion expansion, Object... termsAndTypes) {
+        assertEquals(termsAndTypes.length / 2, expansion.size());
+        for (int i = 0; i < expansion.size(); i++) {
+            assertEquals(termsAndTypes[2 * i], expansion.getTerm(i).toString());
+            assertEquals(termsAndTypes[2 * i + 1], expansion.getType(i));
+        }
+    }
+
+    private static SKOSEngineMock createEngine() {
+        SKOSEngineMock engine = new SKOSEngineMock();
+        engine.addEntry(WEAPONS, SKOSType.PREF, "weapons");
+        engine.addEntry(WEAPONS, SKOSType.ALT, "arms", "weapons");
+        engine.addEntry(WEAPONS, SKOSType.BROADER, EQUIPMENT);
+        engine.addEntry(WEAPONS, SKOSType.BROADERTRANSITIVE, EQUIPMENT, THINGS);
+        engine.addEntry(EQUIPMENT, SKOSType.PREF, "equipment");
+        engine.addEntry(EQUIPMENT, SKOSType.ALT, "arms");
+        engine.addEntry(EQUIPMENT, SKOSType.BROADER, THINGS);
+        engine.addEntry(EQUIPMENT, SKOSType.BROADERTRANSITIVE, THINGS);
+        engine.addEntry(THINGS, SKOSType.PREF, "things");
+        return engine;
+    }
+
+    private static ConceptStore createStore() {
+        ConceptStore.Builder builder = new ConceptStore.Builder();
+        int weapons = builder.addConcept(WEAPONS);
+        builder.addLabel(weapons, SKOSType.PREF, "weapons");
+        builder.addLabel(weapons, SKOSType.ALT, "arms");
+        builder.addLabel(weapons, SKOSType.ALT, "weapons");
+        builder.addRelation(weapons, SKOSType.BROADER, EQUIPMENT);
+        builder.addRelation(weapons, SKOSType.BROADERTRANSITIVE, EQUIPMENT);
+        builder.addRelation(weapons, SKOSType.BROADERTRANSITIVE, THINGS);
+        int equipment = builder.addConcept(EQUIPMENT);
+        builder.addLabel(equipment, SKOSType.PREF, "equipment");
+        builder.addLabel(equipment, SKOSType.ALT, "arms");
+        builder.addRelation(equipment, SKOSType.BROADER, THINGS);
+        builder.addRelation(equipment, SKOSType.BROADERTRANSITIVE, THINGS);
+        int things = builder.addConcept(THINGS);
+        builder.addLabel(things, SKOSType.PREF, "things");
+        return builder.build();
+    }
+}
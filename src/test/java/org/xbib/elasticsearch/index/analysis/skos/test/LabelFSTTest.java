@@ -0,0 +1,57 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelFST;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests fuzzy label matching on the label FST
+ */
+public class LabelFSTTest {
+
+    private final LabelFST fst;
+
+    public LabelFSTTest() throws IOException {
+        fst = LabelFST.build(Arrays.asList("weapons", "weapon", "armaments", "arms", "ammunition",
+                "artillery", "military equipment", "ordnance"));
+    }
+
+    @Test
+    public void exactMatch() throws IOException {
+        Map<String, Integer> matches = fst.fuzzy("arms", 0, 0, 10);
+        assertEquals(1, matches.size());
+        assertEquals(Integer.valueOf(0), matches.get("arms"));
+    }
+
+    @Test
+    public void rankedByDistance() throws IOException {
+        Map<String, Integer> matches = fst.fuzzy("weapns", 2, 1, 10);
+        assertEquals(Arrays.asList("weapons", "weapon"), new ArrayList<>(matches.keySet()));
+        assertEquals(Integer.valueOf(1), matches.get("weapons"));
+        assertEquals(Integer.valueOf(2), matches.get("weapon"));
+        matches = fst.fuzzy("artilery", 2, 1, 10);
+        assertEquals(Integer.valueOf(1), matches.get("artillery"));
+        matches = fst.fuzzy("miltary equipmnet", 2, 1, 10);
+        assertEquals(Integer.valueOf(2), matches.get("military equipment"));
+    }
+
+    @Test
+    public void prefixLength() throws IOException {
+        assertTrue(fst.fuzzy("xrms", 1, 0, 10).containsKey("arms"));
+        assertTrue(fst.fuzzy("xrms", 1, 1, 10).isEmpty());
+    }
+
+    @Test
+    public void maxMatches() throws IOException {
+        Map<String, Integer> matches = fst.fuzzy("weapon", 1, 0, 1);
+        assertEquals(1, matches.size());
+        assertTrue(matches.containsKey("weapon"));
+    }
+}
@@ -0,0 +1,97 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptStore;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelSuggester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests label completion with the label suggester
+ */
+public class LabelSuggesterTest {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    private final LabelSuggester suggester;
+
+    public LabelSuggesterTest() throws IOException {
+        suggester = createSuggester(false);
+    }
+
+    private static LabelSuggester createSuggester(boolean offHeap) throws IOException {
+        ConceptStore.Builder storeBuilder = new ConceptStore.Builder();
+        LabelSuggester.Builder builder = new LabelSuggester.Builder();
+        int equipment = storeBuilder.addConcept(NS + "5060");
+        int weapons = storeBuilder.addConcept(NS + "859");
+        int ammunition = storeBuilder.addConcept(NS + "18874");
+        int artillery = storeBuilder.addConcept(NS + "7630");
+        storeBuilder.addRelation(weapons, SKOSType.BROADER, NS + "5060");
+        storeBuilder.addRelation(ammunition, SKOSType.BROADER, NS + "859");
+        storeBuilder.addRelation(artillery, SKOSType.BROADER, NS + "859");
+        builder.add(equipment, SKOSType.PREF, "Military equipment", "en", "military equipment");
+        builder.add(equipment, SKOSType.ALT, "Militärausrüstung", "de", "militärausrüstung");
+        builder.add(weapons, SKOSType.PREF, "Weapons", "en", "weapons");
+        builder.add(weapons, SKOSType.ALT, "Armaments", "en", "armaments");
+        builder.add(weapons, SKOSType.ALT, "Arms", "en", "arms");
+        builder.add(weapons, SKOSType.HIDDEN, "Wepons", "en", "wepons");
+        builder.add(ammunition, SKOSType.PREF, "Ammunition", "", "ammunition");
+        builder.add(artillery, SKOSType.PREF, "Artillery", "en", "artillery");
+        return builder.compact(offHeap).build(storeBuilder.build(offHeap));
+    }
+
+    @Test
+    public void prefix() throws IOException {
+        List<LabelSuggester.Suggestion> suggestions = suggester.suggest("ar", null, 10);
+        assertEquals(2, suggestions.size());
+        // weapons has two narrower concepts
+        assertEquals(NS + "859", suggestions.get(0).getURI());
+        assertEquals("Armaments", suggestions.get(0).getLabel());
+        assertEquals(SKOSType.ALT, suggestions.get(0).getType());
+        assertEquals(NS + "7630", suggestions.get(1).getURI());
+        assertEquals(1, suggester.suggest("ar", null, 1).size());
+        assertTrue(suggester.suggest("wep", null, 10).isEmpty());
+    }
+
+    @Test
+    public void size() throws IOException {
+        // the paths asked for never exceed the keys of the FST
+        assertEquals(2, suggester.suggest("ar", null, Integer.MAX_VALUE).size());
+        assertEquals(4, suggester.suggest("", null, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void offHeap() throws IOException {
+        LabelSuggester offHeapSuggester = createSuggester(true);
+        assertTrue(offHeapSuggester.offHeapBytesUsed() > 0);
+        List<LabelSuggester.Suggestion> suggestions = offHeapSuggester.suggest("milit", Collections.singletonList("de"), 10);
+        assertEquals(1, suggestions.size());
+        assertEquals("Militärausrüstung", suggestions.get(0).getLabel());
+        assertEquals("de", suggestions.get(0).getLanguage());
+        assertEquals(suggester.suggest("ar", null, 10).size(), offHeapSuggester.suggest("ar", null, 10).size());
+    }
+
+    @Test
+    public void infix() throws IOException {
+        List<LabelSuggester.Suggestion> suggestions = suggester.suggest("equip", null, 10);
+        assertEquals(1, suggestions.size());
+        assertEquals("Military equipment", suggestions.get(0).getLabel());
+    }
+
+    @Test
+    public void languages() throws IOException {
+        assertEquals(1, suggester.suggest("milit", null, 10).size());
+        List<LabelSuggester.Suggestion> suggestions = suggester.suggest("milit", Collections.singletonList("de"), 10);
+        assertEquals(1, suggestions.size());
+        assertEquals("Militärausrüstung", suggestions.get(0).getLabel());
+        // labels without language match any language
+        assertEquals(1, suggester.suggest("am", Collections.singletonList("de"), 10).size());
+        assertTrue(suggester.suggest("weap", Collections.singletonList("fr"), 10).isEmpty());
+    }
+}
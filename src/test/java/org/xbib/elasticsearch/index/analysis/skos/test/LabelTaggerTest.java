@@ -0,0 +1,63 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptStore;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelTagger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests finding labels in texts with the label tagger
+ */
+public class LabelTaggerTest {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    private final LabelTagger tagger;
+
+    public LabelTaggerTest() {
+        ConceptStore.Builder builder = new ConceptStore.Builder();
+        int equipment = builder.addConcept(NS + "5060");
+        int weapons = builder.addConcept(NS + "859");
+        int ammunition = builder.addConcept(NS + "18874");
+        builder.addLabel(equipment, SKOSType.PREF, "military equipment");
+        builder.addLabel(equipment, SKOSType.ALT, "defense equipment and supplies");
+        builder.addLabel(weapons, SKOSType.PREF, "weapons");
+        builder.addLabel(weapons, SKOSType.ALT, "arms");
+        builder.addLabel(ammunition, SKOSType.PREF, "ammunition");
+        builder.addLabel(ammunition, SKOSType.ALT, "equipment");
+        tagger = LabelTagger.build(builder.build());
+    }
+
+    @Test
+    public void offsets() throws IOException {
+        String text = "Arms and Ammunition";
+        List<LabelTagger.Match> matches = tagger.tag(LabelNormalizer.DEFAULT, text);
+        assertEquals(2, matches.size());
+        assertEquals("Arms", text.substring(matches.get(0).getStartOffset(), matches.get(0).getEndOffset()));
+        assertEquals(Collections.singletonList(NS + "859"), tagger.getConcepts(matches.get(0).getLabelId()));
+        assertEquals("ammunition", tagger.getLabel(matches.get(1).getLabelId()));
+        assertEquals(Collections.singletonList(NS + "18874"), tagger.getConcepts(matches.get(1).getLabelId()));
+    }
+
+    @Test
+    public void nestedAndFailedMatches() throws IOException {
+        // "defense equipment" fails the longer label, "equipment" still matches through the failure link
+        String text = "defense equipment for military equipment";
+        List<LabelTagger.Match> matches = tagger.tag(LabelNormalizer.DEFAULT, text);
+        assertEquals(3, matches.size());
+        assertEquals("equipment", tagger.getLabel(matches.get(0).getLabelId()));
+        assertEquals(8, matches.get(0).getStartOffset());
+        assertEquals("military equipment", tagger.getLabel(matches.get(1).getLabelId()));
+        assertEquals(22, matches.get(1).getStartOffset());
+        assertEquals("equipment", tagger.getLabel(matches.get(2).getLabelId()));
+        assertTrue(tagger.tag(LabelNormalizer.DEFAULT, "nothing to find").isEmpty());
+    }
+}
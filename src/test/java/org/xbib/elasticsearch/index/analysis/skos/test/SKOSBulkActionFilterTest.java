@@ -0,0 +1,54 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.File;
+
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+import org.xbib.elasticsearch.index.analysis.skos.engine.BulkLabelCache;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+
+/**
+ * Tests resolving the label candidates of a bulk request before its documents are analyzed
+ */
+public class SKOSBulkActionFilterTest extends NodeTestUtils {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    @Override
+    protected Settings nodeSettings() {
+        return Settings.settingsBuilder().put("skos.bulk_resolve.enabled", true).build();
+    }
+
+    @Test
+    public void bulkCandidates() {
+        String skosFile = new File("src/test/resources/skos_samples/ukat_examples.n3").getAbsolutePath();
+        Client client = client("1");
+        client.admin().indices().prepareCreate("test").setSource("{"
+                + "\"settings\":{\"index\":{\"analysis\":{"
+                + "\"filter\":{\"skosfilter\":{\"type\":\"skos\",\"indexName\":\"ukat-bulk\",\"skosFile\":\"" + skosFile + "\","
+                + "\"expansionType\":\"LABEL\",\"bufferSize\":2,\"skosType\":\"PREF BROADER\"}},"
+                + "\"analyzer\":{\"skos\":{\"type\":\"custom\",\"tokenizer\":\"standard\",\"filter\":\"skosfilter\"}}}}},"
+                + "\"mappings\":{\"docs\":{\"properties\":{\"subject\":{\"type\":\"string\",\"analyzer\":\"skos\","
+                + "\"search_analyzer\":\"keyword\"}}}}}").get();
+        BulkResponse response = client.prepareBulk()
+                .add(client.prepareIndex("test", "docs", "1").setSource("subject", "weapons"))
+                .add(client.prepareIndex("test", "docs", "2").setSource("subject", "Arms and ammunition"))
+                .add(client.prepareIndex("test", "docs", "3").setSource("subject", "military equipment"))
+                .setRefresh(true).get();
+        assertFalse(response.hasFailures());
+        BulkLabelCache cache = SKOSEngineFactory.getSKOSEngine("ukat-bulk").getBulkLabelCache();
+        // weapons, Arms, and, ammunition, military, equipment and the three pairs
+        assertEquals(9, cache.getResolved());
+        assertTrue(cache.getHits() >= 9);
+        assertEquals(0, cache.size());
+        // the documents are expanded as without the cache
+        assertEquals(2, client.prepareSearch("test")
+                .setQuery(QueryBuilders.termQuery("subject", NS + "859")).get().getHits().getTotalHits());
+        assertEquals(3, client.prepareSearch("test")
+                .setQuery(QueryBuilders.termQuery("subject", NS + "5060")).get().getHits().getTotalHits());
+    }
+}
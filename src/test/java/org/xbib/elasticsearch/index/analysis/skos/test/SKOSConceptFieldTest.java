@@ -0,0 +1,131 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.rescore.RescoreBuilder;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+import org.xbib.elasticsearch.index.query.skos.SKOSClosenessQueryBuilder;
+import org.xbib.elasticsearch.index.query.skos.SKOSDescendantsQueryBuilder;
+import org.xbib.elasticsearch.index.search.skos.aggregation.SKOSHierarchy;
+import org.xbib.elasticsearch.index.search.skos.aggregation.SKOSHierarchyBuilder;
+import org.xbib.elasticsearch.script.skos.SKOSClosenessScriptFactory;
+
+/**
+ * Tests the skos_concept field, the skos_descendants and skos_closeness queries, the
+ * skos_hierarchy aggregation and the skos_closeness script
+ */
+public class SKOSConceptFieldTest extends NodeTestUtils {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    private Client index(String match, String... values) throws IOException {
+        Client client = client("1");
+        SKOSEngineFactory.getSKOSEngine(client, "ukat-concepts",
+                getClass().getResourceAsStream("/skos_samples/ukat_examples.n3"), "N3");
+        client.admin().indices().prepareCreate("test").addMapping("docs",
+                "{\"docs\":{\"properties\":{\"category\":{\"type\":\"skos_concept\",\"vocabulary\":\"ukat-concepts\","
+                        + "\"match\":\"" + match + "\"}}}}").get();
+        for (int i = 0; i < values.length; i++) {
+            client.prepareIndex("test", "docs", Integer.toString(i)).setSource("category", values[i]).get();
+        }
+        client.admin().indices().prepareRefresh("test").get();
+        return client;
+    }
+
+    @Test
+    public void descendants() throws IOException {
+        Client client = index("uri", NS + "859", NS + "5060", NS + "18874");
+        SearchResponse response = client.prepareSearch("test")
+                .setQuery(new SKOSDescendantsQueryBuilder("category", NS + "5060").includeSelf(false)).get();
+        assertEquals(2, response.getHits().getTotalHits());
+        response = client.prepareSearch("test")
+                .setQuery(new SKOSDescendantsQueryBuilder("category", NS + "859")).get();
+        assertEquals(2, response.getHits().getTotalHits());
+    }
+
+    @Test
+    public void docValues() throws IOException {
+        Client client = index("label", "Weapons", "ammunition", "Arms");
+        SearchResponse response = client.prepareSearch("test")
+                .setSize(0)
+                .addAggregation(AggregationBuilders.terms("categories").field("category")).get();
+        List<Terms.Bucket> buckets = ((Terms) response.getAggregations().get("categories")).getBuckets();
+        assertEquals(2, buckets.size());
+        assertEquals(NS + "859", buckets.get(0).getKeyAsString());
+        assertEquals(2, buckets.get(0).getDocCount());
+    }
+
+    @Test
+    public void hierarchy() throws IOException {
+        Client client = index("uri", NS + "859", NS + "18874", NS + "7630", NS + "18874");
+        SearchResponse response = client.prepareSearch("test")
+                .setSize(0)
+                .addAggregation(new SKOSHierarchyBuilder("categories").field("category").size(1)).get();
+        SKOSHierarchy hierarchy = response.getAggregations().get("categories");
+        assertEquals(1, hierarchy.getBuckets().size());
+        SKOSHierarchy.Bucket equipment = hierarchy.getBuckets().get(0);
+        assertEquals(NS + "5060", equipment.getKey());
+        assertEquals(4, equipment.getDocCount());
+        SKOSHierarchy.Bucket weapons = equipment.getChildren().get(0);
+        assertEquals(4, weapons.getDocCount());
+        // the top narrower concept only
+        assertEquals(1, weapons.getChildren().size());
+        assertEquals(NS + "18874", weapons.getChildren().get(0).getKey());
+        assertEquals(2, weapons.getChildren().get(0).getDocCount());
+        response = client.prepareSearch("test")
+                .setSize(0)
+                .addAggregation(new SKOSHierarchyBuilder("categories").field("category").depth(2)).get();
+        hierarchy = response.getAggregations().get("categories");
+        assertTrue(hierarchy.getBuckets().get(0).getChildren().get(0).getChildren().isEmpty());
+    }
+
+    @Test
+    public void closenessRescore() throws IOException {
+        Client client = index("uri", NS + "5060", NS + "7630", NS + "859", NS + "18874");
+        SearchResponse response = client.prepareSearch("test")
+                .setQuery(QueryBuilders.matchAllQuery())
+                .addRescorer(RescoreBuilder.queryRescorer(new SKOSClosenessQueryBuilder("category", NS + "18874"))
+                        .setScoreMode("total"), 10).get();
+        assertEquals(4, response.getHits().getHits().length);
+        assertEquals("3", response.getHits().getAt(0).getId());
+        assertEquals(2f, response.getHits().getAt(0).getScore(), 1e-6f);
+        assertEquals("2", response.getHits().getAt(1).getId());
+        assertEquals(1.5f, response.getHits().getAt(1).getScore(), 1e-6f);
+        // the sibling and the top concept are two steps away
+        assertEquals(1f + 1f / 3, response.getHits().getAt(3).getScore(), 1e-6f);
+    }
+
+    @Test
+    public void closenessScript() throws IOException {
+        Client client = index("uri", NS + "5060", NS + "7630", NS + "859", NS + "18874");
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "category");
+        params.put("vocabulary", "ukat-concepts");
+        params.put("concepts", Collections.singletonList(NS + "18874"));
+        params.put("measure", "wu_palmer");
+        SearchResponse response = client.prepareSearch("test")
+                .setQuery(QueryBuilders.functionScoreQuery(QueryBuilders.matchAllQuery(),
+                        ScoreFunctionBuilders.scriptFunction(new Script(SKOSClosenessScriptFactory.NAME,
+                                ScriptService.ScriptType.INLINE, "native", params))).boostMode("replace")).get();
+        assertEquals(4, response.getHits().getHits().length);
+        assertEquals("3", response.getHits().getAt(0).getId());
+        assertEquals(1f, response.getHits().getAt(0).getScore(), 1e-6f);
+        // weapons, the parent, share two levels with ammunition out of three
+        assertEquals("2", response.getHits().getAt(1).getId());
+        assertEquals(0.8f, response.getHits().getAt(1).getScore(), 1e-6f);
+    }
+}
@@ -0,0 +1,152 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.search.rescore.RescoreBuilder;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+import org.xbib.elasticsearch.index.query.skos.SKOSClosenessQueryBuilder;
+import org.xbib.elasticsearch.index.query.skos.SKOSDescendantsQueryBuilder;
+import org.xbib.elasticsearch.index.query.skos.SKOSQueryBuilder;
+import org.xbib.elasticsearch.index.search.skos.aggregation.SKOSHierarchy;
+import org.xbib.elasticsearch.index.search.skos.aggregation.SKOSHierarchyBuilder;
+import org.xbib.elasticsearch.script.skos.SKOSClosenessScriptFactory;
+
+/**
+ * Tests that queries, mappers, aggregations and endpoints naming a vocabulary load its engine
+ * through the skos filter defining it, before any filter has analyzed a document
+ */
+public class SKOSEngineLoaderTest extends NodeTestUtils {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    private static final String SKOS_FILE = new File("src/test/resources/skos_samples/ukat_examples.n3").getAbsolutePath();
+
+    /**
+     * Creates an index with a skos filter for the vocabulary and the given properties of type docs
+     */
+    private Client createIndex(String index, String vocabulary, String properties) {
+        Client client = client("1");
+        client.admin().indices().prepareCreate(index).setSource("{"
+                + "\"settings\":{\"index\":{\"analysis\":{"
+                + "\"filter\":{\"skosfilter\":{\"type\":\"skos\",\"indexName\":\"" + vocabulary + "\",\"skosFile\":\"" + SKOS_FILE + "\","
+                + "\"expansionType\":\"LABEL\",\"skosType\":\"PREF ALT\"}},"
+                + "\"analyzer\":{\"skos\":{\"type\":\"custom\",\"tokenizer\":\"keyword\",\"filter\":[\"lowercase\",\"skosfilter\"]}}}}},"
+                + "\"mappings\":{\"docs\":{\"properties\":{" + properties + "}}}}").get();
+        return client;
+    }
+
+    @Test
+    public void skosQuery() {
+        Client client = createIndex("loader-query", "ukat-loader-query",
+                "\"subject\":{\"type\":\"string\",\"index\":\"not_analyzed\"}");
+        client.prepareIndex("loader-query", "docs", "1").setSource("subject", "weapons").get();
+        client.prepareIndex("loader-query", "docs", "2").setSource("subject", "arms").get();
+        client.prepareIndex("loader-query", "docs", "3").setSource("subject", "ammunition").setRefresh(true).get();
+        // no document went through the skos filter
+        assertNull(SKOSEngineFactory.getSKOSEngine("ukat-loader-query"));
+        SearchResponse response = client.prepareSearch("loader-query")
+                .setQuery(new SKOSQueryBuilder("subject", "ukat-loader-query")
+                        .concept(NS + "859").types(SKOSType.PREF, SKOSType.ALT)).get();
+        assertEquals(2, response.getHits().getTotalHits());
+        assertNotNull(SKOSEngineFactory.getSKOSEngine("ukat-loader-query"));
+        try {
+            client.prepareSearch("loader-query")
+                    .setQuery(new SKOSQueryBuilder("subject", "undefined").concept(NS + "859")).get();
+            fail();
+        } catch (SearchPhaseExecutionException e) {
+            assertEquals(RestStatus.BAD_REQUEST, e.status());
+        }
+    }
+
+    @Test
+    public void conceptField() {
+        Client client = createIndex("loader-mapper", "ukat-loader-mapper",
+                "\"category\":{\"type\":\"skos_concept\",\"vocabulary\":\"ukat-loader-mapper\",\"match\":\"label\"}");
+        assertNull(SKOSEngineFactory.getSKOSEngine("ukat-loader-mapper"));
+        client.prepareIndex("loader-mapper", "docs", "1").setSource("category", "Weapons").get();
+        client.prepareIndex("loader-mapper", "docs", "2").setSource("category", "ammunition").setRefresh(true).get();
+        assertNotNull(SKOSEngineFactory.getSKOSEngine("ukat-loader-mapper"));
+        SearchResponse response = client.prepareSearch("loader-mapper")
+                .setQuery(new SKOSDescendantsQueryBuilder("category", NS + "5060").includeSelf(false)).get();
+        assertEquals(2, response.getHits().getTotalHits());
+    }
+
+    @Test
+    public void hierarchyAggregation() {
+        Client client = createIndex("loader-aggregation", "ukat-loader-aggregation",
+                "\"category\":{\"type\":\"string\",\"index\":\"not_analyzed\"}");
+        client.prepareIndex("loader-aggregation", "docs", "1").setSource("category", NS + "859").get();
+        client.prepareIndex("loader-aggregation", "docs", "2").setSource("category", NS + "18874").setRefresh(true).get();
+        assertNull(SKOSEngineFactory.getSKOSEngine("ukat-loader-aggregation"));
+        SearchResponse response = client.prepareSearch("loader-aggregation")
+                .setSize(0)
+                .addAggregation(new SKOSHierarchyBuilder("categories").field("category")
+                        .vocabulary("ukat-loader-aggregation")).get();
+        SKOSHierarchy hierarchy = response.getAggregations().get("categories");
+        assertEquals(NS + "5060", hierarchy.getBuckets().get(0).getKey());
+        assertEquals(2, hierarchy.getBuckets().get(0).getDocCount());
+        try {
+            client.prepareSearch("loader-aggregation")
+                    .addAggregation(new SKOSHierarchyBuilder("categories").field("category").vocabulary("undefined")).get();
+            fail();
+        } catch (SearchPhaseExecutionException e) {
+            assertEquals(RestStatus.BAD_REQUEST, e.status());
+        }
+    }
+
+    @Test
+    public void closenessQuery() {
+        Client client = createIndex("loader-closeness", "ukat-loader-closeness",
+                "\"category\":{\"type\":\"string\",\"index\":\"not_analyzed\"}");
+        client.prepareIndex("loader-closeness", "docs", "1").setSource("category", NS + "5060").get();
+        client.prepareIndex("loader-closeness", "docs", "2").setSource("category", NS + "18874").setRefresh(true).get();
+        assertNull(SKOSEngineFactory.getSKOSEngine("ukat-loader-closeness"));
+        SearchResponse response = client.prepareSearch("loader-closeness")
+                .setQuery(QueryBuilders.matchAllQuery())
+                .addRescorer(RescoreBuilder.queryRescorer(new SKOSClosenessQueryBuilder("category", NS + "18874")
+                        .vocabulary("ukat-loader-closeness")).setScoreMode("total"), 10).get();
+        assertEquals("2", response.getHits().getAt(0).getId());
+        assertEquals(2f, response.getHits().getAt(0).getScore(), 1e-6f);
+    }
+
+    @Test
+    public void closenessScript() {
+        Client client = createIndex("loader-script", "ukat-loader-script",
+                "\"category\":{\"type\":\"string\",\"index\":\"not_analyzed\"}");
+        client.prepareIndex("loader-script", "docs", "1").setSource("category", NS + "18874").setRefresh(true).get();
+        assertNull(SKOSEngineFactory.getSKOSEngine("ukat-loader-script"));
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "category");
+        params.put("vocabulary", "ukat-loader-script");
+        params.put("concepts", Collections.singletonList(NS + "18874"));
+        SearchResponse response = client.prepareSearch("loader-script")
+                .setQuery(QueryBuilders.functionScoreQuery(QueryBuilders.matchAllQuery(),
+                        ScoreFunctionBuilders.scriptFunction(new Script(SKOSClosenessScriptFactory.NAME,
+                                ScriptService.ScriptType.INLINE, "native", params))).boostMode("replace")).get();
+        assertEquals(1f, response.getHits().getAt(0).getScore(), 1e-6f);
+        params.put("vocabulary", "undefined");
+        try {
+            client.prepareSearch("loader-script")
+                    .setQuery(QueryBuilders.functionScoreQuery(QueryBuilders.matchAllQuery(),
+                            ScoreFunctionBuilders.scriptFunction(new Script(SKOSClosenessScriptFactory.NAME,
+                                    ScriptService.ScriptType.INLINE, "native", params)))).get();
+            fail();
+        } catch (SearchPhaseExecutionException e) {
+            assertEquals(RestStatus.BAD_REQUEST, e.status());
+        }
+    }
+}
@@ -15,15 +15,29 @@
  */
 package org.xbib.elasticsearch.index.analysis.skos.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.junit.Test;
 import org.xbib.elasticsearch.NodeTestUtils;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
 import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
 import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+import org.xbib.elasticsearch.index.analysis.skos.engine.jena.SKOSEngineImpl;
 
 /**
  * Tests the functionality of the Elasticsearch-backed SKOS Engine implementation
@@ -71,6 +85,39 @@ public class SKOSEngineTest extends NodeTestUtils {
         assertEquals("creatures", altTerms.get(0));
     }
 
+    @Test
+    public void testConcurrentSetUp() throws Exception {
+        final String file = new File("src/test/resources/skos_samples/ukat_examples.n3").getAbsolutePath();
+        final Client client = client("1");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<SKOSEngine>> engines = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                engines.add(executor.submit(new Callable<SKOSEngine>() {
+                    @Override
+                    public SKOSEngine call() throws IOException {
+                        return SKOSEngineFactory.getSKOSEngine(client, "skos-10", file, null);
+                    }
+                }));
+            }
+            // the vocabulary is loaded once, all callers get the same engine
+            SKOSEngine engine = engines.get(0).get();
+            for (Future<SKOSEngine> future : engines) {
+                assertSame(engine, future.get());
+            }
+            assertSame(engine, SKOSEngineFactory.getSKOSEngine("skos-10"));
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            SKOSEngineFactory.getSKOSEngine(client, "skos-11", "does-not-exist.n3", null);
+            fail();
+        } catch (Exception e) {
+            // a failed load is not cached
+            assertNull(SKOSEngineFactory.getSKOSEngine("skos-11"));
+        }
+    }
+
     @Test
     public void testUKATSamples() throws IOException {
         InputStream skosFile = getClass().getResourceAsStream("/skos_samples/ukat_examples.n3");
@@ -106,4 +153,140 @@ public class SKOSEngineTest extends NodeTestUtils {
         assertTrue(narrowerLabels.contains("ammunition"));
         assertTrue(narrowerLabels.contains("artillery"));
     }
+
+    @Test
+    public void testLabelNormalizer() throws IOException {
+        InputStream inputStream = getClass().getResourceAsStream("/skos_samples/simple_test_skos.n3");
+        LabelNormalizer normalizer = new LabelNormalizer("english", new EnglishAnalyzer());
+        SKOSEngine skosEngine = new SKOSEngineImpl(client("1"), "skos-7", inputStream, "N3", null, normalizer);
+        // "jumping" and "jumps" share the stem "jump"
+        assertEquals(1, skosEngine.getConcepts("Jumping").size());
+        assertEquals(1, skosEngine.getConceptsForKey("jump").size());
+        assertEquals(0, skosEngine.getConceptsForKey("jumps").size());
+        assertEquals(2, skosEngine.getAltTerms("jumping").size());
+        // a copy keeps working after the analyzer is closed with its index
+        EnglishAnalyzer analyzer = new EnglishAnalyzer();
+        LabelNormalizer copy = LabelNormalizer.copyOf("english", analyzer);
+        analyzer.close();
+        assertEquals("jump", copy.normalize("Jumping"));
+    }
+
+    @Test
+    public void testConceptIds() throws IOException {
+        String conceptURI = "http://www.ukat.org.uk/thesaurus/concept/859";
+        SKOSEngine skosEngine = new SKOSEngineImpl(client("1"), "skos-8",
+                getClass().getResourceAsStream("/skos_samples/ukat_examples.n3"), "N3");
+        String conceptId = skosEngine.getConceptId(conceptURI);
+        assertNotNull(conceptId);
+        assertTrue(conceptId.length() < conceptURI.length());
+        assertEquals(conceptURI, skosEngine.getConceptURI(conceptId));
+        assertNull(skosEngine.getConceptURI("not an id"));
+        // the ids are pinned in the vocabulary index and survive a reload
+        SKOSEngine reloaded = new SKOSEngineImpl(client("1"), "skos-8",
+                getClass().getResourceAsStream("/skos_samples/ukat_examples.n3"), "N3");
+        assertEquals(conceptId, reloaded.getConceptId(conceptURI));
+    }
+
+    @Test
+    public void testConceptIdsAfterVocabularyChange() throws IOException {
+        String ns = "http://example.org/concept/";
+        SKOSEngine skosEngine = new SKOSEngineImpl(client("1"), "skos-9",
+                vocabulary(ns, "b", "c"), "N3", null);
+        String b = skosEngine.getConceptId(ns + "b");
+        String c = skosEngine.getConceptId(ns + "c");
+        assertNotNull(b);
+        assertNotNull(c);
+        // a sorts before the pinned concepts, d after them, and c was removed
+        SKOSEngine reloaded = new SKOSEngineImpl(client("1"), "skos-9",
+                vocabulary(ns, "a", "b", "d"), "N3", null);
+        assertEquals(b, reloaded.getConceptId(ns + "b"));
+        assertEquals(ns + "b", reloaded.getConceptURI(b));
+        String a = reloaded.getConceptId(ns + "a");
+        String d = reloaded.getConceptId(ns + "d");
+        assertNotNull(a);
+        assertNotNull(d);
+        // new concepts never take the id of a pinned concept, even of a removed one
+        for (String id : new String[]{a, d}) {
+            assertNotEquals(b, id);
+            assertNotEquals(c, id);
+        }
+        assertNotEquals(a, d);
+        assertNull(reloaded.getConceptId(ns + "c"));
+    }
+
+    @Test
+    public void testVocabularyIndexAfterVocabularyChange() throws IOException {
+        String ns = "http://example.org/concept/";
+        Client client = client("1");
+        SKOSEngine skosEngine = new SKOSEngineImpl(client, "skos-10", vocabulary(ns, "b", "c"), "N3", null);
+        String b = skosEngine.getConceptId(ns + "b");
+        String c = skosEngine.getConceptId(ns + "c");
+        // b gets an alternative label, c is removed
+        String changed = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n"
+                + "<" + ns + "b> a skos:Concept ; skos:prefLabel \"b label\" ; skos:altLabel \"b other\" .\n";
+        SKOSEngine reloaded = new SKOSEngineImpl(client, "skos-10",
+                new ByteArrayInputStream(changed.getBytes(StandardCharsets.UTF_8)), "N3", null);
+        assertEquals(b, reloaded.getConceptId(ns + "b"));
+        Map<String, Object> source = client.prepareGet("skos-10", "skos", ns + "b").get().getSource();
+        assertEquals(b, source.get("id"));
+        assertEquals(Collections.singletonList("b other"), source.get("alt"));
+        // the removed concept keeps only its id, so no other concept gets it
+        source = client.prepareGet("skos-10", "skos", ns + "c").get().getSource();
+        assertEquals(2, source.size());
+        assertEquals(c, source.get("id"));
+        assertNotEquals(c, new SKOSEngineImpl(client, "skos-10", vocabulary(ns, "b", "d"), "N3", null)
+                .getConceptId(ns + "d"));
+    }
+
+    private static InputStream vocabulary(String ns, String... concepts) {
+        StringBuilder sb = new StringBuilder("@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n");
+        for (String concept : concepts) {
+            sb.append('<').append(ns).append(concept).append("> a skos:Concept ; skos:prefLabel \"")
+                    .append(concept).append(" label\" .\n");
+        }
+        return new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNormalizerAfterIndexClose() throws IOException {
+        String conceptURI = "http://www.ukat.org.uk/thesaurus/concept/7630";
+        Client client = client("1");
+        createIndex(client, "norm-1", "\"lowercase\",\"porter_stem\"");
+        createIndex(client, "norm-2", "\"lowercase\"");
+        client.prepareIndex("norm-1", "docs", "1").setSource("subject", "Artillery").get();
+        client.prepareIndex("norm-2", "docs", "1").setSource("subject", "Artillery").get();
+        // analyzers of the same name but of different definitions get different engines
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, SKOSEngine> entry : SKOSEngineFactory.getSKOSEngines().entrySet()) {
+            if (entry.getKey().startsWith("ukat-norm-my_norm-")) {
+                keys.add(entry.getKey());
+            }
+        }
+        assertEquals(2, keys.size());
+        SKOSEngine engine = SKOSEngineFactory.getSKOSEngine(keys.get(0));
+
+        // the engine outlives the analyzers of the index
+        client.admin().indices().prepareFlush("norm-1", "norm-2").get();
+        client.admin().indices().prepareClose("norm-1", "norm-2").get();
+        assertEquals(Collections.singletonList(conceptURI), engine.getConcepts("Artillery"));
+
+        client.admin().indices().prepareOpen("norm-1").get();
+        client.admin().cluster().prepareHealth("norm-1").setWaitForYellowStatus().get();
+        client.prepareIndex("norm-1", "docs", "2").setSource("subject", "artillery").get();
+        client.admin().indices().prepareRefresh("norm-1").get();
+        assertEquals(2, client.prepareSearch("norm-1").setQuery(QueryBuilders.termQuery("subject", conceptURI))
+                .get().getHits().getTotalHits());
+    }
+
+    private static void createIndex(Client client, String index, String normalizerFilters) {
+        String skosFile = new File("src/test/resources/skos_samples/ukat_examples.n3").getAbsolutePath();
+        client.admin().indices().prepareCreate(index).setSource("{"
+                + "\"settings\":{\"index\":{\"analysis\":{"
+                + "\"filter\":{\"skosfilter\":{\"type\":\"skos\",\"indexName\":\"ukat-norm\",\"skosFile\":\"" + skosFile + "\","
+                + "\"expansionType\":\"LABEL\",\"skosType\":\"PREF ALT\",\"normalizer\":\"my_norm\"}},"
+                + "\"analyzer\":{\"my_norm\":{\"type\":\"custom\",\"tokenizer\":\"standard\",\"filter\":[" + normalizerFilters + "]},"
+                + "\"skos\":{\"type\":\"custom\",\"tokenizer\":\"standard\",\"filter\":[\"lowercase\",\"skosfilter\"]}}}}},"
+                + "\"mappings\":{\"docs\":{\"properties\":{\"subject\":{\"type\":\"string\",\"analyzer\":\"skos\","
+                + "\"search_analyzer\":\"keyword\"}}}}}").get();
+    }
 }
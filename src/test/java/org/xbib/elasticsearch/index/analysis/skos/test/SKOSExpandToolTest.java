@@ -0,0 +1,148 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptStore;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+import org.xbib.elasticsearch.index.analysis.skos.engine.jena.SKOSEngineImpl;
+import org.xbib.elasticsearch.tools.skos.SKOSExpandTool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests expanding documents with the offline expansion tool, on an engine without cluster
+ */
+public class SKOSExpandToolTest {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    private final SKOSEngine engine;
+
+    public SKOSExpandToolTest() throws IOException {
+        engine = SKOSEngineFactory.getSKOSEngine(null, "ukat-offline", "src/test/resources/skos_samples/ukat_examples.n3",
+                Collections.<String>emptyList());
+    }
+
+    private String[] expand(Settings settings, String input) throws IOException {
+        return expand(engine, settings, input);
+    }
+
+    private static String[] expand(SKOSEngine engine, Settings settings, String input) throws IOException {
+        StringWriter writer = new StringWriter();
+        new SKOSExpandTool(engine, settings).expand(new BufferedReader(new StringReader(input)), writer);
+        return writer.toString().split("\n");
+    }
+
+    private static Map<String, Object> map(String line) {
+        return XContentHelper.convertToMap(new BytesArray(line), true).v2();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void labelsToConcepts() throws IOException {
+        Settings settings = Settings.builder()
+                .putArray("fields", "subject", "meta.title")
+                .put("expansionType", "label")
+                .put("skosType", "pref broader")
+                .put("index", "docs")
+                .build();
+        String[] lines = expand(settings, "{\"subject\":\"Weapons\",\"meta\":{\"title\":\"Ammunition\"}}\n"
+                + "{\"subject\":\"unknown\"}\n");
+        assertEquals(4, lines.length);
+        assertEquals("{\"index\":{\"_index\":\"docs\"}}", lines[0]);
+        Map<String, Object> doc = map(lines[1]);
+        assertEquals("Weapons", doc.get("subject"));
+        Map<String, Object> concepts = (Map<String, Object>) doc.get("subject_skos");
+        assertEquals(Collections.singletonList(NS + "859"), concepts.get("pref"));
+        assertEquals(Collections.singletonList(NS + "5060"), concepts.get("broader"));
+        concepts = (Map<String, Object>) ((Map<String, Object>) doc.get("meta")).get("title_skos");
+        assertEquals(Collections.singletonList(NS + "18874"), concepts.get("pref"));
+        assertFalse(map(lines[3]).containsKey("subject_skos"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bulkInOrder() throws IOException {
+        Settings settings = Settings.builder()
+                .putArray("fields", "category")
+                .put("expansionType", "uri")
+                .put("skosType", "pref")
+                .put("format", "bulk")
+                .put("threads", 3)
+                .put("batchSize", 2)
+                .build();
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            input.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n");
+            input.append("{\"category\":\"").append(NS).append(i % 2 == 0 ? "859" : "18874").append("\"}\n");
+        }
+        input.append("{\"delete\":{\"_id\":\"0\"}}\n");
+        input.append("{\"update\":{\"_id\":\"1\"}}\n");
+        input.append("{\"doc\":{\"category\":\"").append(NS).append("859\"}}\n");
+        String[] lines = expand(settings, input.toString());
+        assertEquals(43, lines.length);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("{\"index\":{\"_id\":\"" + i + "\"}}", lines[2 * i]);
+            Map<String, Object> concepts = (Map<String, Object>) map(lines[2 * i + 1]).get("category_skos");
+            List<String> labels = (List<String>) concepts.get("pref");
+            assertEquals(i % 2 == 0 ? "weapons" : "ammunition", labels.get(0).toLowerCase());
+        }
+        assertEquals("{\"delete\":{\"_id\":\"0\"}}", lines[40]);
+        // partial documents are passed on unchanged
+        assertEquals("{\"doc\":{\"category\":\"" + NS + "859\"}}", lines[42]);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void pinnedConceptIds() throws IOException {
+        // the ids exported from the vocabulary index of a cluster
+        Path idFile = Files.createTempFile("ukat-ids", ".json");
+        Files.write(idFile, ("{\"uri\":\"" + NS + "859\",\"id\":\"" + ConceptStore.formatId(100) + "\"}\n")
+                .getBytes(StandardCharsets.UTF_8));
+        Map<String, Integer> ids = SKOSExpandTool.readConceptIds(idFile.toString());
+        assertEquals(Collections.singletonMap(NS + "859", 100), ids);
+        SKOSEngine pinned = new SKOSEngineImpl(null, "ukat-offline-ids", "src/test/resources/skos_samples/ukat_examples.n3",
+                Collections.<String>emptyList(), LabelNormalizer.DEFAULT, false, ids);
+        Settings settings = Settings.builder()
+                .putArray("fields", "subject", "meta.title")
+                .put("expansionType", "label")
+                .put("skosType", "pref")
+                .put("conceptIds", true)
+                .put("conceptIdFile", idFile.toString())
+                .build();
+        String[] lines = expand(pinned, settings, "{\"subject\":\"Weapons\",\"meta\":{\"title\":\"Ammunition\"}}\n");
+        Map<String, Object> doc = map(lines[1]);
+        Map<String, Object> concepts = (Map<String, Object>) doc.get("subject_skos");
+        assertEquals(Collections.singletonList(ConceptStore.formatId(100)), concepts.get("pref"));
+        // concepts missing from the file get their ids after the pinned ones
+        concepts = (Map<String, Object>) ((Map<String, Object>) doc.get("meta")).get("title_skos");
+        String id = ((List<String>) concepts.get("pref")).get(0);
+        assertTrue(ConceptStore.parseId(id) > 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void conceptIdsWithoutIdFile() {
+        // the ids of the vocabulary file alone are not those of the cluster
+        new SKOSExpandTool(engine, Settings.builder()
+                .putArray("fields", "subject")
+                .put("conceptIds", true)
+                .build());
+    }
+}
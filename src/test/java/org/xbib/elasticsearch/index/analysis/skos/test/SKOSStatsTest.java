@@ -0,0 +1,113 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.File;
+import java.util.Map;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+import org.xbib.elasticsearch.action.skos.SKOSNodeStats;
+import org.xbib.elasticsearch.action.skos.SKOSStatsAction;
+import org.xbib.elasticsearch.action.skos.SKOSStatsRequest;
+import org.xbib.elasticsearch.action.skos.SKOSStatsResponse;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSFilterStats;
+import org.xbib.elasticsearch.index.analysis.skos.engine.Histogram;
+
+/**
+ * Tests the lookup and expansion statistics of the nodes
+ */
+public class SKOSStatsTest extends NodeTestUtils {
+
+    private static final String SKOS_FILE = new File("src/test/resources/skos_samples/ukat_examples.n3").getAbsolutePath();
+
+    @Test
+    public void histogram() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5d, histogram.getMean(), 0.001d);
+        // within the relative error of a bucket
+        assertTrue(histogram.getPercentile(50d) >= 500 && histogram.getPercentile(50d) <= 500 * 9 / 8);
+        assertTrue(histogram.getPercentile(99d) >= 990 && histogram.getPercentile(99d) <= 1000);
+        assertEquals(1000, histogram.getPercentile(100d));
+        assertEquals(0, new Histogram().getPercentile(50d));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void nodeStats() throws Exception {
+        Client client = client("1");
+        client.admin().indices().prepareCreate("stats").setSource("{"
+                + "\"settings\":{\"index\":{\"analysis\":{"
+                + "\"filter\":{\"skosfilter\":{\"type\":\"skos\",\"indexName\":\"ukat-stats\",\"skosFile\":\"" + SKOS_FILE + "\","
+                + "\"expansionType\":\"LABEL\",\"skosType\":\"PREF ALT\"}},"
+                + "\"analyzer\":{\"skos\":{\"type\":\"custom\",\"tokenizer\":\"standard\",\"filter\":[\"lowercase\",\"skosfilter\"]}}}}},"
+                + "\"mappings\":{\"docs\":{\"properties\":{\"subject\":{\"type\":\"string\",\"analyzer\":\"skos\","
+                + "\"search_analyzer\":\"keyword\"}}}}}").get();
+        client.prepareIndex("stats", "docs", "1").setSource("subject", "Weapons").get();
+        client.prepareIndex("stats", "docs", "2").setSource("subject", "Military equipment and weapons").get();
+        client.prepareIndex("stats", "docs", "3").setSource("subject", "Nothing to expand").get();
+
+        SKOSStatsResponse response = client.execute(SKOSStatsAction.INSTANCE, new SKOSStatsRequest()).actionGet();
+        assertEquals(1, response.getNodes().length);
+        SKOSNodeStats node = response.getAt(0);
+        Map<String, Object> stats = node.getStats();
+
+        Map<String, Object> engine = (Map<String, Object>) XContentMapValues.extractValue("engines.ukat-stats", stats);
+        assertNotNull(engine);
+        assertTrue(((Number) XContentMapValues.extractValue("memory.heap_in_bytes", engine)).longValue() > 0);
+        assertTrue(((Number) engine.get("index_time_in_millis")).longValue() >= 0);
+        Map<String, Object> lookups = (Map<String, Object>) XContentMapValues.extractValue("lookups.concepts_for_key", engine);
+        long count = ((Number) lookups.get("count")).longValue();
+        assertTrue(count > 0);
+        assertEquals(count, ((Number) lookups.get("hits")).longValue() + ((Number) lookups.get("misses")).longValue());
+        assertTrue(((Number) lookups.get("hits")).longValue() > 0);
+        assertEquals(count, ((Number) XContentMapValues.extractValue("latency_in_micros.count", lookups)).longValue());
+
+        Map<String, Object> filter = (Map<String, Object>) XContentMapValues.extractValue("filters.stats/skosfilter", stats);
+        assertNotNull(filter);
+        assertEquals("ukat-stats", filter.get("vocabulary"));
+        assertTrue(((Number) XContentMapValues.extractValue("lookups.hits", filter)).longValue() > 0);
+        assertTrue(((Number) XContentMapValues.extractValue("lookups.misses", filter)).longValue() > 0);
+        // one field value per document
+        assertEquals(3, ((Number) XContentMapValues.extractValue("expansions.per_value.count", filter)).longValue());
+        assertTrue(((Number) XContentMapValues.extractValue("expansions.per_token.max", filter)).doubleValue() >= 1d);
+
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        response.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        builder.endObject();
+        assertTrue(builder.string().contains("\"ukat-stats\""));
+    }
+
+    @Test
+    public void deletedIndex() {
+        Client client = client("1");
+        String source = "{"
+                + "\"settings\":{\"index\":{\"analysis\":{"
+                + "\"filter\":{\"skosfilter\":{\"type\":\"skos\",\"indexName\":\"ukat-stats-deleted\",\"skosFile\":\"" + SKOS_FILE + "\","
+                + "\"expansionType\":\"LABEL\",\"skosType\":\"PREF ALT\"}},"
+                + "\"analyzer\":{\"skos\":{\"type\":\"custom\",\"tokenizer\":\"standard\",\"filter\":[\"lowercase\",\"skosfilter\"]}}}}},"
+                + "\"mappings\":{\"docs\":{\"properties\":{\"subject\":{\"type\":\"string\",\"analyzer\":\"skos\"}}}}}";
+        client.admin().indices().prepareCreate("stats-deleted").setSource(source).get();
+        client.prepareIndex("stats-deleted", "docs", "1").setSource("subject", "Weapons").get();
+        SKOSFilterStats stats = SKOSFilterStats.getAll().get("stats-deleted/skosfilter");
+        assertTrue(stats.getHits() > 0);
+        client.admin().indices().prepareDelete("stats-deleted").get();
+        assertNull(SKOSFilterStats.getAll().get("stats-deleted/skosfilter"));
+        // an index created again under the same name starts with new statistics
+        client.admin().indices().prepareCreate("stats-deleted").setSource(source).get();
+        client.admin().cluster().prepareHealth("stats-deleted").setWaitForYellowStatus().get();
+        assertEquals(0, SKOSFilterStats.getAll().get("stats-deleted/skosfilter").getHits());
+        assertSame(SKOSFilterStats.get("recreated", "a", "skosfilter"), SKOSFilterStats.get("recreated", "a", "skosfilter"));
+        assertNotSame(SKOSFilterStats.get("recreated", "a", "skosfilter"), SKOSFilterStats.get("recreated", "b", "skosfilter"));
+        SKOSFilterStats.remove("recreated");
+        assertNull(SKOSFilterStats.getAll().get("recreated/skosfilter"));
+    }
+}
@@ -0,0 +1,38 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.File;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+
+/**
+ * Tests the skos_text field with one sub-field per SKOS type
+ */
+public class SKOSTextFieldTest extends NodeTestUtils {
+
+    @Test
+    public void relationFields() {
+        String skosFile = new File("src/test/resources/skos_samples/ukat_examples.n3").getAbsolutePath();
+        Client client = client("1");
+        client.admin().indices().prepareCreate("test").setSource("{"
+                + "\"settings\":{\"index\":{\"analysis\":{"
+                + "\"filter\":{\"skosfilter\":{\"type\":\"skos\",\"indexName\":\"ukat-text\",\"skosFile\":\"" + skosFile + "\","
+                + "\"expansionType\":\"URI\",\"skosType\":\"PREF ALT BROADER\"}},"
+                + "\"analyzer\":{\"skos\":{\"type\":\"custom\",\"tokenizer\":\"keyword\",\"filter\":\"skosfilter\"}}}}},"
+                + "\"mappings\":{\"docs\":{\"properties\":{\"subject\":{\"type\":\"skos_text\",\"analyzer\":\"skos\","
+                + "\"search_analyzer\":\"keyword\",\"relations\":\"pref alt broader\"}}}}}").get();
+        client.prepareIndex("test", "docs", "1").setSource("subject", "http://www.ukat.org.uk/thesaurus/concept/859").get();
+        client.admin().indices().prepareRefresh("test").get();
+        assertEquals(1, hits(client, "subject", "arms"));
+        assertEquals(1, hits(client, "subject.skos.alt", "arms"));
+        assertEquals(0, hits(client, "subject.skos.pref", "arms"));
+        assertEquals(1, hits(client, "subject.skos.pref", "weapons"));
+        assertEquals(1, hits(client, "subject.skos.broader", "military equipment"));
+    }
+
+    private static long hits(Client client, String field, String text) {
+        return client.prepareSearch("test").setQuery(QueryBuilders.matchQuery(field, text)).get().getHits().getTotalHits();
+    }
+}
@@ -0,0 +1,228 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+import org.xbib.elasticsearch.action.skos.SKOSReexpandJob;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptStore;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+import org.xbib.elasticsearch.index.analysis.skos.engine.VocabularyDiff;
+import org.xbib.elasticsearch.index.analysis.skos.engine.jena.SKOSEngineImpl;
+import org.xbib.elasticsearch.tools.skos.SKOSDiffTool;
+import org.xbib.elasticsearch.tools.skos.SKOSExpandTool;
+
+/**
+ * Tests the diff of two vocabulary versions and the re-expansion of the affected documents
+ */
+public class VocabularyDiffTest extends NodeTestUtils {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    private static final String SKOS_FILE = new File("src/test/resources/skos_samples/ukat_examples.n3").getAbsolutePath();
+
+    @Test
+    public void diff() throws IOException {
+        ConceptStore oldStore = store("ukat-diff-old", SKOS_FILE);
+        ConceptStore newStore = store("ukat-diff-new", newVersion());
+        assertEquals(VocabularyDiff.version(oldStore), VocabularyDiff.version(store("ukat-diff-same", SKOS_FILE)));
+        assertNotEquals(VocabularyDiff.version(oldStore), VocabularyDiff.version(newStore));
+        assertTrue(VocabularyDiff.compare(oldStore, oldStore).isEmpty());
+        VocabularyDiff diff = VocabularyDiff.compare(oldStore, newStore);
+        assertEquals(Collections.singleton(NS + "7630"), diff.getChangedConcepts());
+        assertTrue(diff.getAddedConcepts().isEmpty());
+        assertTrue(diff.getRemovedConcepts().isEmpty());
+        assertTrue(diff.getAffectedConcepts().contains(NS + "7630"));
+        assertFalse(diff.getAffectedConcepts().contains(NS + "5060"));
+        assertEquals(Collections.singleton("cannons"), diff.getAddedLabels());
+    }
+
+    @Test
+    public void reexpand() throws IOException {
+        Client client = client("1");
+        client.admin().indices().prepareCreate("test").setSource("{"
+                + "\"settings\":{\"index\":{\"analysis\":{"
+                + "\"filter\":{\"skosfilter\":{\"type\":\"skos\",\"indexName\":\"ukat-v1\",\"skosFile\":\"" + SKOS_FILE + "\","
+                + "\"expansionType\":\"LABEL\",\"skosType\":\"PREF ALT\"}},"
+                + "\"analyzer\":{\"skos\":{\"type\":\"custom\",\"tokenizer\":\"standard\",\"filter\":[\"lowercase\",\"skosfilter\"]}}}}},"
+                + "\"mappings\":{\"docs\":{\"properties\":{\"subject\":{\"type\":\"skos_text\",\"analyzer\":\"skos\","
+                + "\"search_analyzer\":\"keyword\",\"version_stamp\":true,"
+                + "\"fields\":{\"text\":{\"type\":\"string\"}}}}}}}").get();
+        client.prepareIndex("test", "docs", "1").setSource("subject", "Artillery").get();
+        client.prepareIndex("test", "docs", "2").setSource("subject", "Cannons").get();
+        client.prepareIndex("test", "docs", "3").setSource("subject", "Military equipment").get();
+        client.admin().indices().prepareRefresh("test").get();
+        String oldVersion = SKOSEngineFactory.getSKOSEngine("ukat-v1").getVersion();
+        assertEquals(3, hits(client, "subject.skos.version", oldVersion));
+        assertEquals(1, hits(client, "subject", NS + "7630"));
+
+        // switch the index to the new version of the vocabulary, without replaying the translog
+        client.admin().indices().prepareFlush("test").get();
+        String newFile = newVersion();
+        client.admin().indices().prepareClose("test").get();
+        client.admin().indices().prepareUpdateSettings("test").setSettings(Settings.builder()
+                .put("index.analysis.filter.skosfilter.indexName", "ukat-v2")
+                .put("index.analysis.filter.skosfilter.skosFile", newFile)).get();
+        client.admin().indices().prepareOpen("test").get();
+        client.admin().cluster().prepareHealth("test").setWaitForYellowStatus().get();
+
+        // as computed by the diff tool
+        ConceptStore newStore = store("ukat-reexpand-new", newFile);
+        VocabularyDiff diff = VocabularyDiff.compare(store("ukat-reexpand-old", SKOS_FILE), newStore);
+        String version = VocabularyDiff.version(newStore);
+        SKOSReexpandJob job = job(client, diff, version);
+        job.run();
+        assertNull(job.getError());
+        // the documents of the changed concept and of the added label, not the unaffected one
+        assertEquals(2, job.getFound());
+        assertEquals(2, job.getReindexed());
+        assertEquals(0, job.getFailures());
+        client.admin().indices().prepareRefresh("test").get();
+        assertEquals(2, hits(client, "subject", NS + "7630"));
+        assertEquals(2, hits(client, "subject.skos.version", version));
+        assertEquals(1, hits(client, "subject.skos.version", oldVersion));
+        assertEquals(version, SKOSEngineFactory.getSKOSEngine("ukat-v2").getVersion());
+
+        // the stamped documents are skipped
+        job = job(client, diff, version);
+        job.run();
+        assertEquals(0, job.getFound());
+    }
+
+    @Test
+    public void conceptIdsAndNormalizer() throws IOException {
+        Client client = client("1");
+        client.admin().indices().prepareCreate("test-ids").setSource("{"
+                + "\"settings\":{\"index\":{\"analysis\":{"
+                + "\"filter\":{\"skosfilter\":{\"type\":\"skos\",\"indexName\":\"ukat-ids-v1\",\"skosFile\":\"" + SKOS_FILE + "\","
+                + "\"expansionType\":\"LABEL\",\"skosType\":\"PREF ALT\",\"conceptIds\":true,\"normalizer\":\"stemmed\"}},"
+                + "\"analyzer\":{\"skos\":{\"type\":\"custom\",\"tokenizer\":\"standard\",\"filter\":[\"lowercase\",\"skosfilter\"]},"
+                + "\"stemmed\":{\"type\":\"custom\",\"tokenizer\":\"standard\",\"filter\":[\"lowercase\",\"porter_stem\"]}}}}},"
+                + "\"mappings\":{\"docs\":{\"properties\":{\"subject\":{\"type\":\"skos_text\",\"analyzer\":\"skos\","
+                + "\"search_analyzer\":\"keyword\",\"version_stamp\":true,"
+                + "\"fields\":{\"text\":{\"type\":\"string\",\"analyzer\":\"stemmed\"}}}}}}}").get();
+        client.prepareIndex("test-ids", "docs", "1").setSource("subject", "Artillery").get();
+        client.prepareIndex("test-ids", "docs", "2").setSource("subject", "Cannons").get();
+        client.prepareIndex("test-ids", "docs", "3").setSource("subject", "Military equipment").get();
+        client.admin().indices().prepareRefresh("test-ids").get();
+        // the concept ids pinned in the vocabulary index of the normalizer, exported for the tool
+        Path idFile = Files.createTempFile("ukat-ids", ".json");
+        StringBuilder ids = new StringBuilder();
+        for (SearchHit hit : client.prepareSearch("ukat-ids-v1-stemmed-*").setSize(1000)
+                .setFetchSource(new String[]{"uri", "id"}, null).get().getHits()) {
+            ids.append(hit.getSourceAsString()).append('\n');
+        }
+        Files.write(idFile, ids.toString().getBytes(StandardCharsets.UTF_8));
+        Map<String, Integer> pinnedIds = SKOSExpandTool.readConceptIds(idFile.toString());
+        assertFalse(pinnedIds.isEmpty());
+        LabelNormalizer normalizer = SKOSDiffTool.normalizer("standard lowercase porterstem");
+        SKOSEngineImpl oldEngine = new SKOSEngineImpl(null, "ukat-ids-old", SKOS_FILE,
+                Collections.<String>emptyList(), normalizer, false, pinnedIds);
+        // the version of the tool is the version stamped by the filter
+        String oldVersion = VocabularyDiff.version(oldEngine.getConceptStore());
+        assertNotEquals(VocabularyDiff.version(store("ukat-ids-default", SKOS_FILE)), oldVersion);
+        assertEquals(3, hits(client, "test-ids", "subject.skos.version", oldVersion));
+        // the concept is indexed by its id
+        assertEquals(0, hits(client, "test-ids", "subject", NS + "7630"));
+        assertEquals(1, hits(client, "test-ids", "subject", oldEngine.getConceptId(NS + "7630")));
+
+        client.admin().indices().prepareFlush("test-ids").get();
+        String newFile = newVersion();
+        client.admin().indices().prepareClose("test-ids").get();
+        client.admin().indices().prepareUpdateSettings("test-ids").setSettings(Settings.builder()
+                .put("index.analysis.filter.skosfilter.indexName", "ukat-ids-v2")
+                .put("index.analysis.filter.skosfilter.skosFile", newFile)).get();
+        client.admin().indices().prepareOpen("test-ids").get();
+        client.admin().cluster().prepareHealth("test-ids").setWaitForYellowStatus().get();
+
+        ConceptStore newStore = new SKOSEngineImpl(null, "ukat-ids-new", newFile,
+                Collections.<String>emptyList(), normalizer, false).getConceptStore();
+        VocabularyDiff diff = VocabularyDiff.compare(oldEngine.getConceptStore(), newStore);
+        assertEquals(Collections.singleton("cannon"), diff.getAddedLabels());
+        String version = VocabularyDiff.version(newStore);
+        // without the exported ids, the tool does not guess them
+        assertFalse(SKOSDiffTool.terms(oldEngine, diff, false).contains(oldEngine.getConceptId(NS + "7630")));
+        Set<String> terms = SKOSDiffTool.terms(oldEngine, diff, true);
+        assertTrue(terms.contains(oldEngine.getConceptId(NS + "7630")));
+        assertTrue(terms.contains("artilleri"));
+        SKOSReexpandJob job = new SKOSReexpandJob(client, "test-ids", Collections.singletonList("subject"),
+                Collections.singletonList("subject.text"), terms, diff.getAddedLabels(), version, "stemmed", 0f, 10);
+        // the document of the changed concept by its old id, the document of the added label by its text
+        assertEquals(1, job.queries().size());
+        assertEquals(2, client.prepareSearch("test-ids").setQuery(job.queries().get(0)).get().getHits().getTotalHits());
+        job.run();
+        assertNull(job.getError());
+        assertEquals(2, job.getReindexed());
+        client.admin().indices().prepareRefresh("test-ids").get();
+        assertEquals(2, hits(client, "test-ids", "subject.skos.version", version));
+        assertEquals(0, client.prepareSearch("test-ids").setQuery(job.queries().get(0)).get().getHits().getTotalHits());
+    }
+
+    @Test
+    public void manyLabels() {
+        Client client = client("1");
+        client.admin().indices().prepareCreate("test-labels").setSource("{"
+                + "\"mappings\":{\"docs\":{\"properties\":{\"subject\":{\"type\":\"string\",\"index\":\"not_analyzed\","
+                + "\"fields\":{\"text\":{\"type\":\"string\"}}}}}}}").get();
+        client.prepareIndex("test-labels", "docs", "1").setSource("subject", "Heavy cannons").get();
+        client.prepareIndex("test-labels", "docs", "2").setSource("subject", "Label 2499").setRefresh(true).get();
+        Set<String> labels = new TreeSet<>();
+        for (int i = 0; i < 2500; i++) {
+            labels.add("label " + i);
+        }
+        labels.add("cannons");
+        SKOSReexpandJob job = new SKOSReexpandJob(client, "test-labels", Collections.singletonList("subject"),
+                Collections.singletonList("subject.text"), Collections.singleton(NS + "7630"), labels,
+                null, "standard", 0f, 10);
+        // more phrase clauses than a boolean query takes
+        assertEquals(3, job.queries().size());
+        job.run();
+        assertNull(job.getError());
+        assertEquals(2, job.getFound());
+        assertEquals(2, job.getReindexed());
+    }
+
+    private static SKOSReexpandJob job(Client client, VocabularyDiff diff, String version) {
+        Set<String> terms = new TreeSet<>(diff.getAffectedConcepts());
+        terms.addAll(diff.getChangedLabels());
+        return new SKOSReexpandJob(client, "test", Collections.singletonList("subject"),
+                Collections.singletonList("subject.text"), terms,
+                diff.getAddedLabels(), version, "standard", 0f, 10);
+    }
+
+    private static ConceptStore store(String name, String file) throws IOException {
+        return new SKOSEngineImpl(null, name, file, Collections.<String>emptyList(), LabelNormalizer.DEFAULT, false)
+                .getConceptStore();
+    }
+
+    // the sample vocabulary with a new label for artillery
+    private static String newVersion() throws IOException {
+        String n3 = new String(Files.readAllBytes(new File(SKOS_FILE).toPath()), StandardCharsets.UTF_8);
+        n3 = n3.replace("skos:prefLabel \"Artillery\".", "skos:prefLabel \"Artillery\";\n\tskos:altLabel \"Cannons\".");
+        Path file = Files.createTempFile("ukat_examples_v2", ".n3");
+        Files.write(file, n3.getBytes(StandardCharsets.UTF_8));
+        file.toFile().deleteOnExit();
+        return file.toAbsolutePath().toString();
+    }
+
+    private static long hits(Client client, String field, String value) {
+        return hits(client, "test", field, value);
+    }
+
+    private static long hits(Client client, String index, String field, String value) {
+        return client.prepareSearch(index).setQuery(QueryBuilders.termQuery(field, value)).get().getHits().getTotalHits();
+    }
+}
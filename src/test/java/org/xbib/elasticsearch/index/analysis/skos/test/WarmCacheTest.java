@@ -0,0 +1,119 @@
+package org.xbib.elasticsearch.index.analysis.skos.test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.elasticsearch.env.NodeEnvironment;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngineFactory;
+import org.xbib.elasticsearch.index.analysis.skos.engine.WarmCache;
+import org.xbib.elasticsearch.index.analysis.skos.engine.WarmCacheService;
+import org.xbib.elasticsearch.index.analysis.skos.engine.jena.SKOSEngineImpl;
+import org.xbib.elasticsearch.index.analysis.skos.test.filter.SKOSEngineMock;
+
+/**
+ * Tests saving the warm cache of an engine and preloading it into a new engine
+ */
+public class WarmCacheTest extends NodeTestUtils {
+
+    private static final String NS = "http://www.ukat.org.uk/thesaurus/concept/";
+
+    private static final String SKOS_FILE = new File("src/test/resources/skos_samples/ukat_examples.n3").getAbsolutePath();
+
+    @Test
+    public void saveAndPreload() throws IOException {
+        SKOSEngine engine = engine("ukat-warm-a", SKOS_FILE);
+        Set<SKOSType> types = EnumSet.of(SKOSType.PREF, SKOSType.ALT);
+        for (int i = 0; i < 3; i++) {
+            engine.getExpansionTable().getLabelExpansion(NS + "859", types);
+        }
+        engine.getExpansionTable().getConceptExpansion(NS + "859", 0);
+        engine.getExpansionTable().getConceptExpansion(NS + "5060", 0);
+        // label lookups and expansion cache hits are not counted
+        engine.getConceptsForKey("weapons");
+        assertEquals(3, engine.getWarmCache().size());
+        Path file = Files.createTempFile("ukat", ".warm");
+        file.toFile().deleteOnExit();
+        assertEquals(3, engine.getWarmCache().save(file, 10));
+
+        SKOSEngine restarted = engine("ukat-warm-b", SKOS_FILE);
+        assertEquals(3, restarted.getWarmCache().preload(file, 10));
+        assertEquals(3, restarted.getWarmCache().getPreloaded());
+        assertEquals(3, restarted.getWarmCache().size());
+        // the most frequent key first
+        assertEquals(1, engine("ukat-warm-c", SKOS_FILE).getWarmCache().preload(file, 1));
+
+        // a file of another vocabulary version is discarded
+        String n3 = new String(Files.readAllBytes(new File(SKOS_FILE).toPath()), StandardCharsets.UTF_8);
+        Path changed = Files.createTempFile("ukat_changed", ".n3");
+        changed.toFile().deleteOnExit();
+        Files.write(changed, n3.replace("\"Ordnance\"", "\"Ordnance stores\"").getBytes(StandardCharsets.UTF_8));
+        SKOSEngine updated = engine("ukat-warm-d", changed.toString());
+        assertEquals(0, updated.getWarmCache().preload(file, 10));
+        assertEquals(0, updated.getWarmCache().size());
+    }
+
+    @Test
+    public void preloadOnSetup() throws Exception {
+        SKOSEngine engine = SKOSEngineFactory.getSKOSEngine(client("1"), "ukat-warm-node", SKOS_FILE,
+                Collections.<String>emptyList(), LabelNormalizer.DEFAULT, false);
+        engine.getExpansionTable().getConceptExpansion(NS + "859", 0);
+        engine.getExpansionTable().getConceptExpansion(NS + "18874", 0);
+        // the engines of other tests are saved as well
+        assertTrue(node().injector().getInstance(WarmCacheService.class).save() >= 2);
+        Path directory = node().injector().getInstance(NodeEnvironment.class).nodeDataPaths()[0].resolve("skos");
+        Path file = SKOSEngineFactory.getWarmCacheFile(directory, "ukat-warm-node");
+        assertTrue(Files.exists(file));
+        // an engine set up later preloads its file in the background
+        Files.copy(file, SKOSEngineFactory.getWarmCacheFile(directory, "ukat-warm-node2"));
+        SKOSEngine restarted = SKOSEngineFactory.getSKOSEngine(client("1"), "ukat-warm-node2", SKOS_FILE,
+                Collections.<String>emptyList(), LabelNormalizer.DEFAULT, false);
+        for (int i = 0; i < 100 && restarted.getWarmCache().getPreloaded() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(2, restarted.getWarmCache().getPreloaded());
+    }
+
+    @Test
+    public void decay() throws IOException {
+        SKOSEngineMock engine = new SKOSEngineMock();
+        WarmCache warmCache = new WarmCache(engine, 2);
+        for (int i = 0; i < 4; i++) {
+            warmCache.recordConceptExpansion(NS + "a", false, 0);
+        }
+        warmCache.recordConceptExpansion(NS + "b", false, 0);
+        // the counts are full, b drops out and a keeps half of its count
+        warmCache.recordConceptExpansion(NS + "c", false, 0);
+        warmCache.recordConceptExpansion(NS + "c", false, 0);
+        warmCache.recordConceptExpansion(NS + "c", false, 0);
+        assertEquals(2, warmCache.size());
+        Path file = Files.createTempFile("decay", ".warm");
+        file.toFile().deleteOnExit();
+        assertEquals(2, warmCache.save(file, 10));
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            in.readInt();
+            in.readUTF();
+            assertEquals(2, in.readInt());
+            // the key that became hot later comes first
+            assertEquals("C0 " + NS + "c", in.readUTF());
+            assertEquals(3L, in.readLong());
+            assertEquals("C0 " + NS + "a", in.readUTF());
+            assertEquals(2L, in.readLong());
+        }
+    }
+
+    private static SKOSEngine engine(String name, String file) throws IOException {
+        return new SKOSEngineImpl(null, name, file, Collections.<String>emptyList(), LabelNormalizer.DEFAULT, false);
+    }
+}
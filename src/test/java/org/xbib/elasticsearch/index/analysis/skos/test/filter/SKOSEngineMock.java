@@ -17,12 +17,23 @@ package org.xbib.elasticsearch.index.analysis.skos.test.filter;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.xbib.elasticsearch.index.analysis.skos.engine.BulkLabelCache;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptGraph;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptHierarchy;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptStore;
+import org.xbib.elasticsearch.index.analysis.skos.engine.EngineStats;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelSuggester;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelTagger;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ExpansionTable;
+import org.xbib.elasticsearch.index.analysis.skos.engine.LabelNormalizer;
 import org.xbib.elasticsearch.index.analysis.skos.engine.SKOSEngine;
+import org.xbib.elasticsearch.index.analysis.skos.engine.WarmCache;
 import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
 
 /**
@@ -34,11 +45,23 @@ public class SKOSEngineMock implements SKOSEngine {
      * A data structure holding a SKOS Model
      */
     private Map<String, Map<SKOSType, List<String>>> conceptMap = new HashMap<>();
+    /**
+     * The concept URIs in the order they were added, the position is the concept id
+     */
+    private List<String> conceptIds = new ArrayList<>();
     /**
      * Stores the maximum number of terms contained in a prefLabel
      */
     private int maxPrefLabelTerms = -1;
 
+    private final ExpansionTable expansionTable = new ExpansionTable(this);
+
+    private final BulkLabelCache bulkLabelCache = new BulkLabelCache(this);
+
+    private final WarmCache warmCache = new WarmCache(this);
+
+    private final EngineStats stats = new EngineStats();
+
     /**
      * Method for feeding mock with data
      *
@@ -49,6 +72,7 @@ public class SKOSEngineMock implements SKOSEngine {
     public void addEntry(String conceptURI, SKOSType type, String... values) {
         if (!conceptMap.containsKey(conceptURI)) {
             conceptMap.put(conceptURI, new HashMap<SKOSType, List<String>>());
+            conceptIds.add(conceptURI);
         }
         Map<SKOSType, List<String>> entryMap = conceptMap.get(conceptURI);
         if (!entryMap.containsKey(type)) {
@@ -126,7 +150,20 @@ public class SKOSEngineMock implements SKOSEngine {
 
     @Override
     public List<String> getConcepts(String label) throws IOException {
-        String queryString = label.toLowerCase();
+        return getConceptsForKey(label.toLowerCase());
+    }
+
+    @Override
+    public Map<String, List<String>> getConcepts(Collection<String> labels) throws IOException {
+        Map<String, List<String>> concepts = new HashMap<>();
+        for (String label : labels) {
+            concepts.put(label, getConcepts(label));
+        }
+        return concepts;
+    }
+
+    @Override
+    public List<String> getConceptsForKey(String queryString) throws IOException {
         List<String> conceptURIs = new ArrayList<>();
         for (String conceptURI : conceptMap.keySet()) {
             Map<SKOSType, List<String>> entryMap = conceptMap.get(conceptURI);
@@ -146,6 +183,96 @@ public class SKOSEngineMock implements SKOSEngine {
         return conceptURIs;
     }
 
+    @Override
+    public List<String> getConceptsFuzzy(String key, int maxEdits, int prefixLength, int maxMatches) throws IOException {
+        List<String> conceptURIs = getConceptsForKey(key);
+        return conceptURIs.size() > maxMatches ? conceptURIs.subList(0, maxMatches) : conceptURIs;
+    }
+
+    @Override
+    public ExpansionTable getExpansionTable() {
+        return expansionTable;
+    }
+
+    @Override
+    public LabelNormalizer getLabelNormalizer() {
+        return LabelNormalizer.DEFAULT;
+    }
+
+    @Override
+    public String getConceptId(String conceptURI) {
+        int id = conceptIds.indexOf(conceptURI);
+        return id >= 0 ? ConceptStore.formatId(id) : null;
+    }
+
+    @Override
+    public String getConceptURI(String conceptId) {
+        int id = ConceptStore.parseId(conceptId);
+        return id >= 0 && id < conceptIds.size() ? conceptIds.get(id) : null;
+    }
+
+    @Override
+    public ConceptHierarchy getConceptHierarchy() {
+        return ConceptHierarchy.build(getConceptGraph());
+    }
+
+    @Override
+    public ConceptGraph getConceptGraph() {
+        ConceptStore.Builder builder = new ConceptStore.Builder();
+        for (String conceptURI : conceptIds) {
+            int ordinal = builder.addConcept(conceptURI);
+            for (SKOSType type : new SKOSType[]{SKOSType.BROADER, SKOSType.NARROWER}) {
+                List<String> related = conceptMap.get(conceptURI).get(type);
+                if (related != null) {
+                    for (String uri : related) {
+                        builder.addRelation(ordinal, type, uri);
+                    }
+                }
+            }
+        }
+        return ConceptGraph.build(builder.build());
+    }
+
+    @Override
+    public LabelSuggester getLabelSuggester() throws IOException {
+        return new LabelSuggester.Builder().build(new ConceptStore.Builder().build());
+    }
+
+    @Override
+    public String getVersion() {
+        return "mock";
+    }
+
+    @Override
+    public BulkLabelCache getBulkLabelCache() {
+        return bulkLabelCache;
+    }
+
+    @Override
+    public WarmCache getWarmCache() {
+        return warmCache;
+    }
+
+    @Override
+    public EngineStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public LabelTagger getLabelTagger() {
+        return LabelTagger.build(new ConceptStore.Builder().build());
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return 0L;
+    }
+
+    @Override
+    public long offHeapBytesUsed() {
+        return 0L;
+    }
+
     private List<String> getLabels(String conceptURI, SKOSType type)
             throws IOException {
         List<String> concepts = readConceptFieldValues(conceptURI, type);
@@ -0,0 +1,138 @@
+package org.xbib.elasticsearch.index.analysis.skos.test.filter;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSAnalyzer;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSAnalyzer.ExpansionType;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.query.skos.SKOSPayloadQuery;
+import org.xbib.elasticsearch.index.query.skos.SKOSPayloadQueryParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing the weighting of matches by the SKOS type payload
+ */
+public class SKOSPayloadQueryTest extends AbstractFilterTest {
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        skosEngine.addEntry("http://example.com/concept/8", SKOSType.PREF, "bounds");
+        skosEngine.addEntry("http://example.com/concept/8", SKOSType.ALT, "jumps");
+        skosAnalyzer = new SKOSAnalyzer(skosEngine, ExpansionType.URI);
+        writer = new IndexWriter(directory, new IndexWriterConfig(skosAnalyzer));
+        addDocument("1", "http://example.com/concept/1");
+        addDocument("8", "http://example.com/concept/8");
+        addDocument("12", "http://example.com/concept/1", "http://example.com/concept/2");
+        searcher = new IndexSearcher(DirectoryReader.open(writer, false));
+    }
+
+    @Test
+    public void weightsByType() throws IOException {
+        SpanQuery jumps = new SpanTermQuery(new Term("subject", "jumps"));
+        assertEquals("1", topId(payloadQuery(jumps, 2f, 0.5f)));
+        assertEquals("8", topId(payloadQuery(jumps, 0.5f, 2f)));
+    }
+
+    @Test
+    public void scaledScore() throws IOException {
+        SpanQuery jumps = new SpanTermQuery(new Term("subject", "jumps"));
+        TopDocs plain = searcher.search(jumps, 10);
+        TopDocs weighted = searcher.search(payloadQuery(jumps, 1f, 0.5f), 10);
+        assertEquals(3, weighted.totalHits);
+        float plainAlt = score(plain, "8");
+        float weightedAlt = score(weighted, "8");
+        assertEquals(plainAlt * 0.5f, weightedAlt, 0.0001f);
+        assertEquals(score(plain, "1"), score(weighted, "1"), 0.0001f);
+    }
+
+    @Test
+    public void boost() throws IOException {
+        SpanQuery jumps = new SpanTermQuery(new Term("subject", "jumps"));
+        SpanQuery bounds = new SpanTermQuery(new Term("subject", "bounds"));
+        // weights of 1 keep the scores of the span query, boosted within a boolean query
+        TopDocs plain = searcher.search(or(new BoostQuery(jumps, 3f), bounds), 10);
+        TopDocs weighted = searcher.search(or(new BoostQuery(payloadQuery(jumps, 1f, 1f), 3f), bounds), 10);
+        TopDocs unboosted = searcher.search(or(payloadQuery(jumps, 1f, 1f), bounds), 10);
+        for (String id : new String[]{"1", "8", "12"}) {
+            assertEquals(score(plain, id), score(weighted, id), 0.0001f);
+        }
+        assertTrue(Math.abs(score(weighted, "1") - score(unboosted, "1")) > 0.0001f);
+    }
+
+    @Test
+    public void phrase() throws IOException {
+        SpanQuery phrase = SKOSPayloadQueryParser.toSpanQuery(new WhitespaceAnalyzer(), "subject", "jumps", 0);
+        assertTrue(phrase instanceof SpanTermQuery);
+        assertEquals(null, SKOSPayloadQueryParser.toSpanQuery(new WhitespaceAnalyzer(), "subject", " ", 0));
+        // a span weighs as its weakest term, here the alt label speedy
+        SpanQuery twoTerms = SKOSPayloadQueryParser.toSpanQuery(new WhitespaceAnalyzer(), "subject", "jumps speedy", 0);
+        TopDocs plain = searcher.search(twoTerms, 10);
+        TopDocs weighted = searcher.search(payloadQuery(twoTerms, 1f, 0.5f), 10);
+        assertEquals(1, weighted.totalHits);
+        assertEquals(score(plain, "12") * 0.5f, score(weighted, "12"), 0.0001f);
+    }
+
+    private Query payloadQuery(SpanQuery query, float pref, float alt) {
+        Map<SKOSType, Float> weights = new EnumMap<>(SKOSType.class);
+        weights.put(SKOSType.PREF, pref);
+        weights.put(SKOSType.ALT, alt);
+        return new SKOSPayloadQuery(query, weights);
+    }
+
+    private static Query or(Query... clauses) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (Query clause : clauses) {
+            builder.add(clause, BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    private void addDocument(String id, String... uris) throws IOException {
+        Document doc = new Document();
+        doc.add(new StoredField("id", id));
+        for (String uri : uris) {
+            doc.add(new Field("subject", uri, TextField.TYPE_NOT_STORED));
+        }
+        writer.addDocument(doc);
+    }
+
+    private String topId(Query query) throws IOException {
+        TopDocs results = searcher.search(query, 10);
+        assertEquals(3, results.totalHits);
+        return searcher.doc(results.scoreDocs[0].doc).get("id");
+    }
+
+    private float score(TopDocs results, String id) throws IOException {
+        for (int i = 0; i < results.scoreDocs.length; i++) {
+            if (id.equals(searcher.doc(results.scoreDocs[i].doc).get("id"))) {
+                return results.scoreDocs[i].score;
+            }
+        }
+        throw new AssertionError("no hit " + id);
+    }
+}
@@ -0,0 +1,160 @@
+package org.xbib.elasticsearch.index.analysis.skos.test.filter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.FixedBitSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.engine.ConceptHierarchy;
+import org.xbib.elasticsearch.index.mapper.skos.SKOSConceptFieldMapper.SKOSConceptFieldType;
+import org.xbib.elasticsearch.index.query.skos.SKOSQuery;
+import org.xbib.elasticsearch.index.query.skos.TermPresenceCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing the query-time SKOS expansion
+ */
+public class SKOSQueryTest extends AbstractFilterTest {
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        skosEngine.addEntry("http://example.com/concept/9", SKOSType.PREF, "vaults");
+        skosEngine.addEntry("http://example.com/concept/9", SKOSType.BROADER, "http://example.com/concept/1");
+        writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()));
+        for (String label : Arrays.asList("vaults", "hops", "quick")) {
+            Document doc = new Document();
+            doc.add(new StringField("label", label, Field.Store.YES));
+            writer.addDocument(doc);
+        }
+        searcher = new IndexSearcher(DirectoryReader.open(writer, false));
+    }
+
+    @Test
+    public void rewrite() throws IOException {
+        SKOSQuery query = new SKOSQuery("label", "test", skosEngine, "http://example.com/concept/9", null,
+                EnumSet.of(SKOSType.PREF, SKOSType.ALT, SKOSType.BROADER), 0);
+        assertEquals(Arrays.asList("vaults"), query.resolve().getScored());
+        assertEquals(Arrays.asList("jumps", "leaps", "hops"), query.resolve().getUnscored());
+        assertSame(query.resolve(), query.resolve());
+        // the expansions are cached by vocabulary name and version, not by engine
+        SKOSEngineMock reloaded = new SKOSEngineMock();
+        reloaded.addEntry("http://example.com/concept/9", SKOSType.PREF, "safes");
+        assertSame(query.resolve(), new SKOSQuery("label", "test", reloaded, "http://example.com/concept/9", null,
+                EnumSet.of(SKOSType.PREF, SKOSType.ALT, SKOSType.BROADER), 0).resolve());
+        assertEquals(Arrays.asList("safes"), new SKOSQuery("label", "other", reloaded, "http://example.com/concept/9", null,
+                EnumSet.of(SKOSType.PREF), 0).resolve().getScored());
+        Query rewritten = query.rewrite(searcher.getIndexReader());
+        assertTrue(rewritten instanceof BooleanQuery);
+        BooleanQuery booleanQuery = (BooleanQuery) rewritten;
+        assertEquals(2, booleanQuery.clauses().size());
+        assertTrue(booleanQuery.clauses().get(0).getQuery() instanceof TermQuery);
+        assertTrue(booleanQuery.clauses().get(1).getQuery() instanceof ConstantScoreQuery);
+        assertEquals(BooleanClause.Occur.SHOULD, booleanQuery.clauses().get(1).getOccur());
+        TopDocs results = searcher.search(query, 10);
+        assertEquals(2, results.totalHits);
+        // the pref label scores above the constant score broader label
+        assertEquals("vaults", searcher.doc(results.scoreDocs[0].doc).get("label"));
+    }
+
+    @Test
+    public void pruning() throws IOException {
+        SKOSQuery query = new SKOSQuery("label", "test", skosEngine, "http://example.com/concept/9", null,
+                EnumSet.of(SKOSType.PREF, SKOSType.ALT, SKOSType.BROADER), 0);
+        BooleanQuery rewritten = (BooleanQuery) query.rewrite(searcher.getIndexReader());
+        // jumps and leaps do not occur in the index
+        Query unscored = ((ConstantScoreQuery) rewritten.clauses().get(1).getQuery()).getQuery();
+        assertEquals("label:hops", unscored.toString());
+        // concept 4 has no label in the index
+        query = new SKOSQuery("label", "test", skosEngine, "http://example.com/concept/4", null,
+                EnumSet.of(SKOSType.PREF, SKOSType.ALT), 0);
+        assertTrue(query.rewrite(searcher.getIndexReader()) instanceof MatchNoDocsQuery);
+        LeafReader segment = searcher.getIndexReader().leaves().get(0).reader();
+        List<String> terms = Arrays.asList("hops", "leaps");
+        FixedBitSet present = TermPresenceCache.get(segment, "label", terms);
+        assertTrue(present.get(0));
+        assertFalse(present.get(1));
+        assertSame(present, TermPresenceCache.get(segment, "label", terms));
+        // the entries of a closed segment are dropped
+        IndexWriter otherWriter = new IndexWriter(new RAMDirectory(), new IndexWriterConfig(new KeywordAnalyzer()));
+        Document doc = new Document();
+        doc.add(new StringField("label", "hops", Field.Store.NO));
+        otherWriter.addDocument(doc);
+        DirectoryReader otherReader = DirectoryReader.open(otherWriter, false);
+        long size = TermPresenceCache.size();
+        assertTrue(TermPresenceCache.get(otherReader.leaves().get(0).reader(), "label", terms).get(0));
+        assertEquals(size + 1, TermPresenceCache.size());
+        otherReader.close();
+        otherWriter.close();
+        assertEquals(size, TermPresenceCache.size());
+    }
+
+    @Test
+    public void label() throws IOException {
+        SKOSQuery query = new SKOSQuery("label", "test", skosEngine, null, "Fast", EnumSet.of(SKOSType.PREF), 0);
+        TopDocs results = searcher.search(query, 10);
+        assertEquals(1, results.totalHits);
+        assertEquals("quick", searcher.doc(results.scoreDocs[0].doc).get("label"));
+    }
+
+    @Test
+    public void noExpansion() throws IOException {
+        SKOSQuery query = new SKOSQuery("label", "test", skosEngine, null, "nonsense", EnumSet.of(SKOSType.PREF), 0);
+        assertTrue(query.rewrite(searcher.getIndexReader()) instanceof MatchNoDocsQuery);
+    }
+
+    @Test
+    public void descendants() throws IOException {
+        ConceptHierarchy hierarchy = skosEngine.getConceptHierarchy();
+        IndexWriter conceptWriter = new IndexWriter(new RAMDirectory(), new IndexWriterConfig(new KeywordAnalyzer()));
+        for (String concept : Arrays.asList("http://example.com/concept/1", "http://example.com/concept/9")) {
+            Document doc = new Document();
+            doc.add(new StringField("subject", concept, Field.Store.YES));
+            int ordinal = hierarchy.getOrdinal(concept);
+            for (int i = 0; i < hierarchy.intervalCount(ordinal); i++) {
+                doc.add(new IntField("subject.interval", hierarchy.getLeft(ordinal, i), Field.Store.NO));
+            }
+            conceptWriter.addDocument(doc);
+        }
+        IndexSearcher conceptSearcher = new IndexSearcher(DirectoryReader.open(conceptWriter, false));
+        Query query = SKOSConceptFieldType.descendantsQuery("subject.interval", hierarchy,
+                "http://example.com/concept/1", false);
+        TopDocs results = conceptSearcher.search(query, 10);
+        assertEquals(1, results.totalHits);
+        assertEquals("http://example.com/concept/9", conceptSearcher.doc(results.scoreDocs[0].doc).get("subject"));
+        query = SKOSConceptFieldType.descendantsQuery("subject.interval", hierarchy,
+                "http://example.com/concept/1", true);
+        assertEquals(2, conceptSearcher.search(query, 10).totalHits);
+        query = SKOSConceptFieldType.descendantsQuery("subject.interval", hierarchy,
+                "http://example.com/concept/9", false);
+        assertEquals(0, conceptSearcher.search(query, 10).totalHits);
+        conceptWriter.close();
+    }
+}
@@ -16,6 +16,18 @@
 package org.xbib.elasticsearch.index.analysis.skos.test.filter;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -33,8 +45,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.xbib.elasticsearch.index.analysis.skos.SKOSAnalyzer;
 import org.xbib.elasticsearch.index.analysis.skos.SKOSAnalyzer.ExpansionType;
+import org.xbib.elasticsearch.index.analysis.skos.ExpansionBudget;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeAttribute.SKOSType;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeCodec;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSTypeRouter;
+import org.xbib.elasticsearch.index.analysis.skos.SKOSURIFilter;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Testing the SKOS URI Filter
@@ -105,4 +124,88 @@ public class SKOSURIFilterTest extends AbstractFilterTest {
         fieldValues = indexDoc.getValues("subject");
         assertEquals(2, fieldValues.length);
     }
+
+    @Test
+    public void expansionBudget() throws IOException {
+        ExpansionBudget budget = new ExpansionBudget(0, 2, 4, 0);
+        List<String> terms = expand("http://example.com/concept/1 http://example.com/concept/2", budget);
+        // the concept budget keeps pref and first alt label, the value budget one more label
+        assertEquals(Arrays.asList("http://example.com/concept/1", "jumps", "leaps",
+                "http://example.com/concept/2", "quick", "fast"), terms);
+        assertEquals(2, budget.getConceptTruncations());
+        assertEquals(0, budget.getTokenTruncations());
+        assertEquals(0, budget.getValueTruncations());
+        terms = expand("http://example.com/concept/1 http://example.com/concept/2 http://example.com/concept/5", budget);
+        assertEquals(Arrays.asList("http://example.com/concept/1", "jumps", "leaps",
+                "http://example.com/concept/2", "quick", "fast", "http://example.com/concept/5"), terms);
+        assertEquals(1, budget.getValueTruncations());
+    }
+
+    @Test
+    public void typeEncoding() throws IOException {
+        SKOSURIFilter filter = newFilter("http://example.com/concept/1");
+        PayloadAttribute payloadAtt = filter.addAttribute(PayloadAttribute.class);
+        filter.reset();
+        filter.incrementToken();
+        filter.incrementToken();
+        assertEquals(1, payloadAtt.getPayload().length);
+        assertEquals(SKOSType.PREF, SKOSTypeCodec.decode(payloadAtt.getPayload()));
+        filter.close();
+
+        filter = newFilter("http://example.com/concept/1");
+        filter.setTypeEncoding(SKOSTypeCodec.Mode.PREFIX);
+        assertEquals(Arrays.asList("http://example.com/concept/1", "pref:jumps", "alt:leaps", "alt:hops"),
+                terms(filter));
+        assertEquals(SKOSType.ALT, SKOSTypeCodec.decodePrefix("alt:leaps"));
+        assertEquals("leaps", SKOSTypeCodec.stripPrefix("alt:leaps"));
+    }
+
+    @Test
+    public void typeRouting() throws IOException {
+        SKOSTypeRouter router = new SKOSTypeRouter(newFilter("http://example.com/concept/1 http://example.com/concept/2"),
+                EnumSet.of(SKOSType.ALT));
+        assertEquals(EnumSet.of(SKOSType.ALT), router.types());
+        assertEquals(Arrays.asList("http://example.com/concept/1", "jumps", "leaps", "hops",
+                "http://example.com/concept/2", "quick", "fast", "speedy"), terms(router.all()));
+        TokenStream alt = router.get(SKOSType.ALT);
+        PositionIncrementAttribute posIncAtt = alt.addAttribute(PositionIncrementAttribute.class);
+        PayloadAttribute payloadAtt = alt.addAttribute(PayloadAttribute.class);
+        alt.reset();
+        List<Integer> increments = new ArrayList<>();
+        while (alt.incrementToken()) {
+            increments.add(posIncAtt.getPositionIncrement());
+            assertNull(payloadAtt.getPayload());
+        }
+        alt.end();
+        alt.close();
+        // the alternative labels keep the positions of their concepts
+        assertEquals(Arrays.asList(1, 0, 1, 0), increments);
+        assertEquals(Arrays.asList("leaps", "hops", "fast", "speedy"), terms(router.get(SKOSType.ALT)));
+        assertTrue(terms(router.get(SKOSType.PREF)).isEmpty());
+    }
+
+    private SKOSURIFilter newFilter(String text) {
+        WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader(text));
+        return new SKOSURIFilter(tokenizer, skosEngine, new WhitespaceAnalyzer(),
+                Arrays.asList(SKOSType.PREF, SKOSType.ALT));
+    }
+
+    private List<String> expand(String text, ExpansionBudget budget) throws IOException {
+        SKOSURIFilter filter = newFilter(text);
+        filter.setBudget(budget);
+        return terms(filter);
+    }
+
+    private static List<String> terms(TokenStream stream) throws IOException {
+        List<String> terms = new ArrayList<>();
+        CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+        stream.reset();
+        while (stream.incrementToken()) {
+            terms.add(termAtt.toString());
+        }
+        stream.end();
+        stream.close();
+        return terms;
+    }
 }